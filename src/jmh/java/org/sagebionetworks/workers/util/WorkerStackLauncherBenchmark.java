@@ -0,0 +1,115 @@
+package org.sagebionetworks.workers.util;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares running many worker stacks that spend most of their time blocked
+ * (as they do on AWS SQS or the database semaphore) on virtual threads versus
+ * a cached platform thread pool. Each invocation triggers every stack once and
+ * waits for all of the runs to complete. The peak number of live threads of
+ * each iteration is reported as the peakLiveThreads secondary result.
+ * <p>
+ * The virtual executor requires Java 21+. On older JVMs its runs fail and
+ * only the platform results are reported.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class WorkerStackLauncherBenchmark {
+
+	/**
+	 * The number of stacks triggered by each invocation.
+	 */
+	@Param({ "100", "1000" })
+	public int stackCount;
+
+	/**
+	 * How long each run is blocked.
+	 */
+	@Param({ "10" })
+	public long blockedMS;
+
+	@Param({ "virtual", "platform" })
+	public String executor;
+
+	/**
+	 * The peak number of live threads of the iteration.
+	 */
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	@State(Scope.Thread)
+	public static class ThreadCounters {
+
+		public long peakLiveThreads;
+
+		@Setup(Level.Iteration)
+		public void reset() {
+			peakLiveThreads = 0;
+			ManagementFactory.getThreadMXBean().resetPeakThreadCount();
+		}
+	}
+
+	private WorkerStackLauncher launcher;
+	private ThreadMXBean threads;
+
+	@Setup
+	public void setup() {
+		ExecutorService runExecutor;
+		if ("virtual".equals(executor)) {
+			runExecutor = WorkerStackLauncher.createVirtualThreadPerTaskExecutor();
+			if (runExecutor == null) {
+				throw new IllegalStateException("Virtual threads require Java 21+");
+			}
+		} else {
+			runExecutor = Executors.newCachedThreadPool();
+		}
+		launcher = new WorkerStackLauncher(runExecutor);
+		threads = ManagementFactory.getThreadMXBean();
+	}
+
+	@TearDown
+	public void tearDown() {
+		launcher.close();
+	}
+
+	@Benchmark
+	public void triggerAll(ThreadCounters counters) throws InterruptedException {
+		CountDownLatch done = new CountDownLatch(stackCount);
+		for (int i = 0; i < stackCount; i++) {
+			launcher.trigger(() -> {
+				try {
+					Thread.sleep(blockedMS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				} finally {
+					done.countDown();
+				}
+			}, new AtomicBoolean(false));
+		}
+		done.await();
+		counters.peakLiveThreads = Math.max(counters.peakLiveThreads, threads.getPeakThreadCount());
+	}
+}
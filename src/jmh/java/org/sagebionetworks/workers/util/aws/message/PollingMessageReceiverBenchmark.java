@@ -0,0 +1,116 @@
+package org.sagebionetworks.workers.util.aws.message;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.sagebionetworks.common.util.progress.SynchronizedProgressCallback;
+import org.sagebionetworks.workers.util.Gate;
+
+import com.amazonaws.services.sqs.model.SendMessageBatchRequest;
+import com.amazonaws.services.sqs.model.SendMessageBatchRequestEntry;
+
+/**
+ * Message throughput of a PollingMessageReceiverImpl with a runner that does
+ * nothing, against an InMemoryAmazonSQS. Each invocation fills the queue with
+ * {@link #MESSAGES_PER_INVOCATION} messages and then runs the receiver until
+ * all of them were processed.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class PollingMessageReceiverBenchmark {
+
+	static final int MESSAGES_PER_INVOCATION = 100;
+
+	/**
+	 * The maximum number of messages per receive.
+	 */
+	@Param({ "1", "10" })
+	public int maxNumberOfMessages;
+
+	/**
+	 * Are processed messages deleted in batches?
+	 */
+	@Param({ "false", "true" })
+	public boolean batchDeleteEnabled;
+
+	/**
+	 * The artificial latency of each request to the in-memory SQS.
+	 */
+	@Param({ "0", "1" })
+	public long latencyMS;
+
+	private InMemoryAmazonSQS sqs;
+	private String queueUrl;
+	private AtomicInteger processedCount;
+	private PollingMessageReceiverImpl receiver;
+
+	@Setup
+	public void setup() {
+		sqs = new InMemoryAmazonSQS();
+		sqs.setLatencyMS(latencyMS, latencyMS);
+		queueUrl = sqs.createQueue("benchmarkQueue").getQueueUrl();
+		processedCount = new AtomicInteger(0);
+		PollingMessageReceiverConfiguration config = new PollingMessageReceiverConfiguration();
+		config.setHasQueueUrl(() -> queueUrl);
+		config.setMessageVisibilityTimeoutSec(60);
+		config.setSemaphoreLockTimeoutSec(60);
+		config.setMaxNumberOfMessages(maxNumberOfMessages);
+		config.setBatchDeleteEnabled(batchDeleteEnabled);
+		config.setRunner((progressCallback, message) -> {
+			processedCount.incrementAndGet();
+		});
+		config.setGate(new Gate() {
+
+			@Override
+			public boolean canRun() {
+				return processedCount.get() < MESSAGES_PER_INVOCATION;
+			}
+
+			@Override
+			public void runFailed(Exception error) {
+			}
+		});
+		receiver = new PollingMessageReceiverImpl(sqs, config);
+	}
+
+	@Setup(Level.Invocation)
+	public void fillQueue() {
+		processedCount.set(0);
+		List<SendMessageBatchRequestEntry> entries = new ArrayList<>(InMemoryAmazonSQS.MAX_BATCH_SIZE);
+		for (int i = 0; i < MESSAGES_PER_INVOCATION; i++) {
+			entries.add(new SendMessageBatchRequestEntry(Integer.toString(entries.size()), "message" + i));
+			if (entries.size() == InMemoryAmazonSQS.MAX_BATCH_SIZE) {
+				sqs.sendMessageBatch(new SendMessageBatchRequest(queueUrl, entries));
+				entries = new ArrayList<>(InMemoryAmazonSQS.MAX_BATCH_SIZE);
+			}
+		}
+		if (!entries.isEmpty()) {
+			sqs.sendMessageBatch(new SendMessageBatchRequest(queueUrl, entries));
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(MESSAGES_PER_INVOCATION)
+	public void processMessages() throws Exception {
+		receiver.run(new SynchronizedProgressCallback(60));
+	}
+}
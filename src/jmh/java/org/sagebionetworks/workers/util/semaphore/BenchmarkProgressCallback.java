@@ -0,0 +1,49 @@
+package org.sagebionetworks.workers.util.semaphore;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.sagebionetworks.common.util.progress.ProgressCallback;
+import org.sagebionetworks.common.util.progress.ProgressListener;
+
+/**
+ * A ProgressCallback that only fires its listeners when told to, so a
+ * benchmark controls exactly when the locks are refreshed.
+ */
+class BenchmarkProgressCallback implements ProgressCallback {
+
+	private final long lockTimeoutSeconds;
+	private final List<ProgressListener> listeners = new CopyOnWriteArrayList<>();
+
+	BenchmarkProgressCallback(long lockTimeoutSeconds) {
+		this.lockTimeoutSeconds = lockTimeoutSeconds;
+	}
+
+	@Override
+	public void addProgressListener(ProgressListener listener) {
+		listeners.add(listener);
+	}
+
+	@Override
+	public void removeProgressListener(ProgressListener listener) {
+		listeners.remove(listener);
+	}
+
+	@Override
+	public long getLockTimeoutSeconds() {
+		return lockTimeoutSeconds;
+	}
+
+	/**
+	 * Notify each listener that progress was made.
+	 */
+	void fireProgressMade() {
+		for (ProgressListener listener : listeners) {
+			listener.progressMade();
+		}
+	}
+
+	int getListenerCount() {
+		return listeners.size();
+	}
+}
@@ -0,0 +1,99 @@
+package org.sagebionetworks.workers.util.semaphore;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * The garbage created by each lock cycle in a tight lock loop, where the
+ * request is built for every cycle. Run with the GC profiler and compare
+ * gc.alloc.rate.norm (bytes per operation), for example:
+ *
+ * <pre>
+ * mvn -Pbenchmark test-compile exec:exec -Djmh.args="LockKeyAllocationBenchmark -f 1 -prof gc"
+ * </pre>
+ *
+ * The concatenateKeys and lookUpKeys benchmarks isolate the cost of building
+ * the reader and writer keys by concatenation, as every lock used to, against
+ * looking up the interned {@link LockKey}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class LockKeyAllocationBenchmark {
+
+	/**
+	 * The number of keys of each read lock.
+	 */
+	@Param({ "1", "16" })
+	public int keyCount;
+
+	private WriteReadSemaphore semaphore;
+	private BenchmarkProgressCallback callback;
+	private String[] keys;
+	private LockKey[] lockKeys;
+
+	@Setup
+	public void setup() {
+		semaphore = new WriteReadSemaphoreImpl(new InMemoryCountingSemaphore(), 8);
+		callback = new BenchmarkProgressCallback(60);
+		keys = new String[keyCount];
+		lockKeys = new LockKey[keyCount];
+		for (int i = 0; i < keyCount; i++) {
+			keys[i] = "project/" + i;
+			lockKeys[i] = LockKey.of(keys[i]);
+		}
+	}
+
+	@Benchmark
+	public void readLockWithStringKeys() throws Exception {
+		try (ReadLock lock = semaphore.getReadLock(new ReadLockRequest(callback, "reader", keys))) {
+			// nothing to do while holding the lock.
+		}
+	}
+
+	@Benchmark
+	public void readLockWithLockKeys() throws Exception {
+		try (ReadLock lock = semaphore.getReadLock(ReadLockRequest.forKeys(callback, "reader", lockKeys))) {
+			// nothing to do while holding the lock.
+		}
+	}
+
+	@Benchmark
+	public void writeLockWithLockKey() throws Exception {
+		try (WriteLock lock = semaphore.getWriteLock(WriteLockRequest.forKey(callback, "writer", lockKeys[0]))) {
+			// nothing to do while holding the lock.
+		}
+	}
+
+	@Benchmark
+	public void concatenateKeys(Blackhole blackhole) {
+		for (String key : keys) {
+			blackhole.consume(Constants.createReaderLockKey(key));
+			blackhole.consume(Constants.createWriterLockKey(key));
+		}
+	}
+
+	@Benchmark
+	public void lookUpKeys(Blackhole blackhole) {
+		for (String key : keys) {
+			LockKey lockKey = LockKey.of(key);
+			blackhole.consume(lockKey.getReaderLockKey());
+			blackhole.consume(lockKey.getWriterLockKey());
+		}
+	}
+}
@@ -0,0 +1,83 @@
+package org.sagebionetworks.workers.util.semaphore;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * The throughput of looking up interned {@link LockKey}s from many threads at
+ * once, as every lock attempt does, against building the reader and writer
+ * keys by concatenation. Run with a thread count that matches the workers of
+ * an application, for example:
+ *
+ * <pre>
+ * mvn -Pbenchmark test-compile exec:exec -Djmh.args="LockKeyContentionBenchmark -f 1 -t 16"
+ * </pre>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(8)
+@State(Scope.Benchmark)
+public class LockKeyContentionBenchmark {
+
+	/**
+	 * The number of distinct keys shared by all of the threads.
+	 */
+	@Param({ "16", "1000" })
+	public int keyCount;
+
+	private String[] keys;
+
+	/**
+	 * The position of each thread in the shared keys.
+	 */
+	@State(Scope.Thread)
+	public static class Cursor {
+
+		int next;
+
+		String nextKey(String[] keys) {
+			String key = keys[next];
+			next = (next + 1) % keys.length;
+			return key;
+		}
+	}
+
+	@Setup
+	public void setup() {
+		keys = new String[keyCount];
+		for (int i = 0; i < keyCount; i++) {
+			keys[i] = "project/" + i;
+			LockKey.of(keys[i]);
+		}
+	}
+
+	@Benchmark
+	public void lookUpKey(Cursor cursor, Blackhole blackhole) {
+		LockKey lockKey = LockKey.of(cursor.nextKey(keys));
+		blackhole.consume(lockKey.getReaderLockKey());
+		blackhole.consume(lockKey.getWriterLockKey());
+	}
+
+	@Benchmark
+	public void concatenateKey(Cursor cursor, Blackhole blackhole) {
+		String key = cursor.nextKey(keys);
+		blackhole.consume(Constants.createReaderLockKey(key));
+		blackhole.consume(Constants.createWriterLockKey(key));
+	}
+}
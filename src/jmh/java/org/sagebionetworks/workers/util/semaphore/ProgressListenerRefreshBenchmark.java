@@ -0,0 +1,79 @@
+package org.sagebionetworks.workers.util.semaphore;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The cost of a single progress event while holding a read lock on one or
+ * more keys and a write lock. Each event refreshes the timeout of every held
+ * lock.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ProgressListenerRefreshBenchmark {
+
+	/**
+	 * The number of keys of the read lock.
+	 */
+	@Param({ "1", "4", "16" })
+	public int keyCount;
+
+	/**
+	 * The artificial latency of each call to the counting semaphore.
+	 */
+	@Param({ "0", "1" })
+	public long latencyMS;
+
+	/**
+	 * Are the read locks refreshed with a single bulk call, or with one call per
+	 * key?
+	 */
+	@Param({ "true", "false" })
+	public boolean bulk;
+
+	private BenchmarkProgressCallback callback;
+	private ReadLock readLock;
+	private WriteLock writeLock;
+
+	@Setup
+	public void setup() {
+		InMemoryCountingSemaphore countingSemaphore = new InMemoryCountingSemaphore();
+		countingSemaphore.setLatencyMS(latencyMS, latencyMS);
+		WriteReadSemaphore semaphore = new WriteReadSemaphoreImpl(
+				bulk ? countingSemaphore : new SingleKeyCountingSemaphore(countingSemaphore), 8);
+		callback = new BenchmarkProgressCallback(60);
+		String[] keys = new String[keyCount];
+		for (int i = 0; i < keyCount; i++) {
+			keys[i] = "readKey" + i;
+		}
+		readLock = semaphore.getReadLock(new ReadLockRequest(callback, "reader", keys));
+		writeLock = semaphore.getWriteLock(new WriteLockRequest(callback, "writer", "writeKey"));
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		writeLock.close();
+		readLock.close();
+	}
+
+	@Benchmark
+	public void progressMade() {
+		callback.fireProgressMade();
+	}
+}
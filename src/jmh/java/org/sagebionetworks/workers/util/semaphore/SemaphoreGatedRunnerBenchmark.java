@@ -0,0 +1,77 @@
+package org.sagebionetworks.workers.util.semaphore;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Acquire, run and release cycles of a SemaphoreGatedRunnerImpl with a runner
+ * that does nothing, so the result is the overhead of the gate. Four threads
+ * share the same lock key.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class SemaphoreGatedRunnerBenchmark {
+
+	@State(Scope.Benchmark)
+	public static class SharedSemaphore {
+
+		/**
+		 * The artificial latency of each call to the counting semaphore.
+		 */
+		@Param({ "0", "1" })
+		public long latencyMS;
+
+		InMemoryCountingSemaphore countingSemaphore;
+
+		@Setup
+		public void setup() {
+			countingSemaphore = new InMemoryCountingSemaphore();
+			countingSemaphore.setLatencyMS(latencyMS, latencyMS);
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class Runner {
+
+		/**
+		 * The maximum number of concurrent runners for the key.
+		 */
+		@Param({ "1", "4" })
+		public int maxLockCount;
+
+		SemaphoreGatedRunnerImpl runner;
+
+		@Setup
+		public void setup(SharedSemaphore shared) {
+			SemaphoreGatedRunnerConfiguration config = new SemaphoreGatedRunnerConfiguration();
+			config.setLockKey("benchmarkKey");
+			config.setLockTimeoutSec(60);
+			config.setMaxLockCount(maxLockCount);
+			config.setRunner(progressCallback -> {
+				// no work.
+			});
+			runner = new SemaphoreGatedRunnerImpl(shared.countingSemaphore, config, null);
+		}
+	}
+
+	@Benchmark
+	public void run(Runner runner) {
+		runner.runner.run();
+	}
+}
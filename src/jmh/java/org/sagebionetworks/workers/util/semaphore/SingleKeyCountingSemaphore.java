@@ -0,0 +1,43 @@
+package org.sagebionetworks.workers.util.semaphore;
+
+import java.util.Optional;
+
+import org.sagebionetworks.database.semaphore.CountingSemaphore;
+
+/**
+ * Hides the bulk operations of a semaphore, so a benchmark can compare them
+ * with the one call per key path.
+ */
+class SingleKeyCountingSemaphore implements CountingSemaphore {
+
+	private final CountingSemaphore delegate;
+
+	SingleKeyCountingSemaphore(CountingSemaphore delegate) {
+		this.delegate = delegate;
+	}
+
+	@Override
+	public Optional<String> attemptToAcquireLock(String key, long timeoutSec, int maxLockCount, String context) {
+		return delegate.attemptToAcquireLock(key, timeoutSec, maxLockCount, context);
+	}
+
+	@Override
+	public void refreshLockTimeout(String key, String token, long timeoutSec) {
+		delegate.refreshLockTimeout(key, token, timeoutSec);
+	}
+
+	@Override
+	public void releaseLock(String key, String token) {
+		delegate.releaseLock(key, token);
+	}
+
+	@Override
+	public void releaseAllLocks() {
+		delegate.releaseAllLocks();
+	}
+
+	@Override
+	public Optional<String> getFirstUnexpiredLockContext(String key) {
+		return delegate.getFirstUnexpiredLockContext(key);
+	}
+}
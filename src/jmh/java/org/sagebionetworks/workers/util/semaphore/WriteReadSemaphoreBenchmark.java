@@ -0,0 +1,78 @@
+package org.sagebionetworks.workers.util.semaphore;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Acquire and release cycles of read and write locks from a
+ * WriteReadSemaphoreImpl with one or more keys per read lock.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class WriteReadSemaphoreBenchmark {
+
+	/**
+	 * The number of keys of each read lock.
+	 */
+	@Param({ "1", "4", "16" })
+	public int keyCount;
+
+	/**
+	 * The artificial latency of each call to the counting semaphore.
+	 */
+	@Param({ "0", "1" })
+	public long latencyMS;
+
+	/**
+	 * Are read locks acquired with a single bulk call, or with two calls per key?
+	 */
+	@Param({ "true", "false" })
+	public boolean bulk;
+
+	private WriteReadSemaphore semaphore;
+	private ReadLockRequest readRequest;
+	private WriteLockRequest writeRequest;
+
+	@Setup
+	public void setup() {
+		InMemoryCountingSemaphore countingSemaphore = new InMemoryCountingSemaphore();
+		countingSemaphore.setLatencyMS(latencyMS, latencyMS);
+		semaphore = new WriteReadSemaphoreImpl(bulk ? countingSemaphore : new SingleKeyCountingSemaphore(countingSemaphore), 8);
+		BenchmarkProgressCallback callback = new BenchmarkProgressCallback(60);
+		String[] keys = new String[keyCount];
+		for (int i = 0; i < keyCount; i++) {
+			keys[i] = "key" + i;
+		}
+		readRequest = new ReadLockRequest(callback, "reader", keys);
+		writeRequest = new WriteLockRequest(callback, "writer", keys[0]);
+	}
+
+	@Benchmark
+	public void readLock() throws Exception {
+		try (ReadLock lock = semaphore.getReadLock(readRequest)) {
+			// nothing to do while holding the lock.
+		}
+	}
+
+	@Benchmark
+	public boolean writeLock() throws Exception {
+		try (WriteLock lock = semaphore.getWriteLock(writeRequest)) {
+			return lock.getExistingReadLockContext().isPresent();
+		}
+	}
+}
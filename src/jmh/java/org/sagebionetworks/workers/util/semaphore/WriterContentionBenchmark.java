@@ -0,0 +1,122 @@
+package org.sagebionetworks.workers.util.semaphore;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.sagebionetworks.workers.util.FixedBackoffStrategy;
+
+/**
+ * The time writers wait for a write lock on a key with no outstanding read
+ * locks, while background threads keep acquiring read locks on the same key.
+ * Two writers compete so that a writer can also wait for another writer. The
+ * sampled percentiles show how the fairness policy bounds the writer latency.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 10)
+@Fork(1)
+@Threads(2)
+@State(Scope.Benchmark)
+public class WriterContentionBenchmark {
+
+	private static final String KEY = "contended";
+
+	@Param({ "ReaderPreference", "WriterPreference" })
+	public FairnessPolicy fairnessPolicy;
+
+	/**
+	 * The number of background threads that acquire read locks in a loop.
+	 */
+	@Param({ "8" })
+	public int readerCount;
+
+	/**
+	 * How long each read lock is held.
+	 */
+	@Param({ "5" })
+	public long readHoldMS;
+
+	/**
+	 * The artificial latency of each call to the counting semaphore.
+	 */
+	@Param({ "1" })
+	public long latencyMS;
+
+	private WriteReadSemaphoreImpl semaphore;
+	private WriteLockRequest writeRequest;
+	private List<Thread> readers;
+	private volatile boolean running;
+
+	@Setup
+	public void setup() {
+		InMemoryCountingSemaphore countingSemaphore = new InMemoryCountingSemaphore();
+		countingSemaphore.setLatencyMS(latencyMS, latencyMS);
+		semaphore = new WriteReadSemaphoreImpl(countingSemaphore, readerCount);
+		semaphore.setFairnessPolicy(fairnessPolicy);
+		semaphore.setWaitBackoff(new FixedBackoffStrategy(1));
+		BenchmarkProgressCallback callback = new BenchmarkProgressCallback(60);
+		writeRequest = new WriteLockRequest(callback, "writer", KEY);
+		ReadLockRequest readRequest = new ReadLockRequest(callback, "reader", KEY);
+
+		running = true;
+		readers = new ArrayList<>(readerCount);
+		for (int i = 0; i < readerCount; i++) {
+			Thread reader = new Thread(() -> {
+				while (running) {
+					try (ReadLock lock = semaphore.getReadLock(readRequest)) {
+						Thread.sleep(readHoldMS);
+					} catch (LockUnavilableException e) {
+						// a writer holds or is waiting for the key.
+						sleep(1);
+					} catch (InterruptedException e) {
+						return;
+					} catch (Exception e) {
+						throw new RuntimeException(e);
+					}
+				}
+			}, "reader-" + i);
+			reader.setDaemon(true);
+			reader.start();
+			readers.add(reader);
+		}
+	}
+
+	@TearDown
+	public void tearDown() throws InterruptedException {
+		running = false;
+		for (Thread reader : readers) {
+			reader.interrupt();
+			reader.join();
+		}
+	}
+
+	@Benchmark
+	public void writeLock() throws Exception {
+		try (WriteLock lock = semaphore.tryAcquireWriteLock(writeRequest, 60_000)) {
+			// nothing to do while holding the lock.
+		}
+	}
+
+	private static void sleep(long ms) {
+		try {
+			Thread.sleep(ms);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
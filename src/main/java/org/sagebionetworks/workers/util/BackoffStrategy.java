@@ -0,0 +1,24 @@
+package org.sagebionetworks.workers.util;
+
+/**
+ * Determines how long to wait before the next attempt after a number of
+ * consecutive unsuccessful attempts. For example, how long a message receiver
+ * should wait before polling a queue that was empty.
+ * <p>
+ * Implementations must be thread-safe, as a single instance is shared by all
+ * concurrent runs of a runner.
+ *
+ */
+public interface BackoffStrategy {
+
+	/**
+	 * The amount of time to wait before the next attempt.
+	 * 
+	 * @param attempt The number of consecutive unsuccessful attempts, starting at
+	 *                one. The count is reset by the caller after a successful
+	 *                attempt.
+	 * @return The time to wait in milliseconds.
+	 */
+	public long getDelayMS(int attempt);
+
+}
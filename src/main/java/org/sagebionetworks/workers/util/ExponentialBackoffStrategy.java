@@ -0,0 +1,75 @@
+package org.sagebionetworks.workers.util;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A {@link BackoffStrategy} where the delay starts at a minimum and doubles
+ * with each consecutive unsuccessful attempt until it reaches a maximum.
+ * <p>
+ * A jitter factor can be provided to randomly shorten each delay by up to the
+ * given fraction, so that many callers that started backing off at the same
+ * time do not keep retrying at the same time.
+ *
+ */
+public class ExponentialBackoffStrategy implements BackoffStrategy {
+
+	private final long minDelayMS;
+	private final long maxDelayMS;
+	private final double jitterFactor;
+
+	/**
+	 * Exponential backoff without jitter.
+	 * 
+	 * @param minDelayMS The delay in milliseconds after the first unsuccessful
+	 *                   attempt.
+	 * @param maxDelayMS The upper bound of the delay in milliseconds.
+	 */
+	public ExponentialBackoffStrategy(long minDelayMS, long maxDelayMS) {
+		this(minDelayMS, maxDelayMS, 0.0);
+	}
+
+	/**
+	 * 
+	 * @param minDelayMS   The delay in milliseconds after the first unsuccessful
+	 *                     attempt.
+	 * @param maxDelayMS   The upper bound of the delay in milliseconds.
+	 * @param jitterFactor Each delay will be randomly shortened by up to this
+	 *                     fraction of the delay. Must be between 0.0 (no jitter)
+	 *                     and 1.0.
+	 */
+	public ExponentialBackoffStrategy(long minDelayMS, long maxDelayMS, double jitterFactor) {
+		if (minDelayMS < 1) {
+			throw new IllegalArgumentException("MinDelayMS must be at least one");
+		}
+		if (maxDelayMS < minDelayMS) {
+			throw new IllegalArgumentException("MaxDelayMS cannot be less than minDelayMS");
+		}
+		if (jitterFactor < 0.0 || jitterFactor > 1.0) {
+			throw new IllegalArgumentException("JitterFactor must be between 0.0 and 1.0");
+		}
+		this.minDelayMS = minDelayMS;
+		this.maxDelayMS = maxDelayMS;
+		this.jitterFactor = jitterFactor;
+	}
+
+	@Override
+	public long getDelayMS(int attempt) {
+		if (attempt < 1) {
+			throw new IllegalArgumentException("Attempt must be at least one");
+		}
+		long delay = maxDelayMS;
+		int shift = attempt - 1;
+		// Guard against overflow of the doubled delay.
+		if (shift < Long.SIZE - 1 && minDelayMS <= (maxDelayMS >> shift)) {
+			delay = minDelayMS << shift;
+		}
+		if (jitterFactor > 0.0) {
+			long maxJitter = (long) (delay * jitterFactor);
+			if (maxJitter > 0) {
+				delay -= ThreadLocalRandom.current().nextLong(maxJitter + 1);
+			}
+		}
+		return delay;
+	}
+
+}
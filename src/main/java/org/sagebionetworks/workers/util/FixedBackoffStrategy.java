@@ -0,0 +1,27 @@
+package org.sagebionetworks.workers.util;
+
+/**
+ * A {@link BackoffStrategy} that always waits the same amount of time.
+ *
+ */
+public class FixedBackoffStrategy implements BackoffStrategy {
+
+	private final long delayMS;
+
+	/**
+	 * @param delayMS The time to wait in milliseconds after each unsuccessful
+	 *                attempt.
+	 */
+	public FixedBackoffStrategy(long delayMS) {
+		if (delayMS < 0) {
+			throw new IllegalArgumentException("DelayMS cannot be negative");
+		}
+		this.delayMS = delayMS;
+	}
+
+	@Override
+	public long getDelayMS(int attempt) {
+		return delayMS;
+	}
+
+}
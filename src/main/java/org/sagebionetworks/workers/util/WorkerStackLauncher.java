@@ -0,0 +1,154 @@
+package org.sagebionetworks.workers.util;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Launches worker stacks, such as a MessageDrivenWorkerStack or a
+ * SemaphoreGatedWorkerStack, on a fixed schedule.
+ * <p>
+ * A single timer thread triggers each scheduled stack, and each run is executed
+ * on its own thread. When the JVM supports virtual threads (Java 21+), each run
+ * gets a new virtual thread, so thousands of stacks that spend most of their
+ * time blocked on AWS SQS or the database semaphore can be scheduled without a
+ * large platform thread pool. On older JVMs the runs are executed on a cached
+ * platform thread pool.
+ * <p>
+ * Like a non-concurrent scheduled job, a scheduled stack is not triggered again
+ * until its previous run has completed. To allow N concurrent runs of the same
+ * stack (for example, up to the semaphore max lock count), schedule it N times.
+ *
+ */
+public class WorkerStackLauncher implements AutoCloseable {
+
+	private static final Logger log = LogManager.getLogger(WorkerStackLauncher.class);
+
+	private final ScheduledExecutorService timer;
+	private final ExecutorService runExecutor;
+	private final boolean virtualThreads;
+
+	/**
+	 * Create a launcher that runs each stack on a new virtual thread when
+	 * available, and on a cached platform thread pool otherwise.
+	 */
+	public WorkerStackLauncher() {
+		ExecutorService virtualExecutor = createVirtualThreadPerTaskExecutor();
+		this.virtualThreads = virtualExecutor != null;
+		this.runExecutor = virtualExecutor != null ? virtualExecutor : Executors.newCachedThreadPool();
+		this.timer = createTimer();
+	}
+
+	/**
+	 * Create a launcher that runs each stack on the provided executor.
+	 *
+	 * @param runExecutor The executor used to run the stacks. It will be shut down
+	 *                    when this launcher is closed.
+	 */
+	public WorkerStackLauncher(ExecutorService runExecutor) {
+		if (runExecutor == null) {
+			throw new IllegalArgumentException("RunExecutor cannot be null");
+		}
+		this.virtualThreads = false;
+		this.runExecutor = runExecutor;
+		this.timer = createTimer();
+	}
+
+	/**
+	 * Schedule the given stack to be run periodically.
+	 *
+	 * @param stack        The stack to run.
+	 * @param startDelayMS The delay before the first run in milliseconds.
+	 * @param periodMS     The time between the start of each run in
+	 *                     milliseconds. A run is skipped if the previous run of
+	 *                     the same stack is still in progress.
+	 * @return Can be used to cancel future runs of the stack.
+	 */
+	public ScheduledFuture<?> schedule(Runnable stack, long startDelayMS, long periodMS) {
+		if (stack == null) {
+			throw new IllegalArgumentException("Stack cannot be null");
+		}
+		if (periodMS < 1) {
+			throw new IllegalArgumentException("PeriodMS must be at least one");
+		}
+		AtomicBoolean running = new AtomicBoolean(false);
+		return timer.scheduleAtFixedRate(() -> trigger(stack, running), Math.max(0, startDelayMS), periodMS,
+				TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Start a run of the given stack unless the previous run is still in
+	 * progress. This is called from the timer thread so it must never throw.
+	 *
+	 * @param stack
+	 * @param running
+	 */
+	void trigger(Runnable stack, AtomicBoolean running) {
+		if (!running.compareAndSet(false, true)) {
+			return;
+		}
+		try {
+			runExecutor.execute(() -> {
+				try {
+					stack.run();
+				} catch (Throwable e) {
+					log.error("Worker stack failed: " + stack.getClass().getName(), e);
+				} finally {
+					running.set(false);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			running.set(false);
+			log.warn("Worker stack run rejected: " + stack.getClass().getName());
+		}
+	}
+
+	/**
+	 * Does this launcher run each stack on a virtual thread?
+	 *
+	 * @return
+	 */
+	public boolean isVirtualThreads() {
+		return virtualThreads;
+	}
+
+	/**
+	 * Stop triggering new runs. Runs that are already in progress will be
+	 * interrupted.
+	 */
+	@Override
+	public void close() {
+		timer.shutdownNow();
+		runExecutor.shutdownNow();
+	}
+
+	private static ScheduledExecutorService createTimer() {
+		return Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "worker-stack-launcher");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * The project targets Java 11 so the Java 21 virtual thread API is looked up
+	 * reflectively.
+	 *
+	 * @return Null if the JVM does not support virtual threads.
+	 */
+	static ExecutorService createVirtualThreadPerTaskExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			return null;
+		}
+	}
+
+}
@@ -0,0 +1,41 @@
+package org.sagebionetworks.workers.util.aws.message;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.handlers.AsyncHandler;
+
+/**
+ * An AsyncHandler for fire-and-forget AWS SQS requests that logs any failure.
+ * Nobody waits on the result of such a request, so a failure that is not
+ * logged here would go unnoticed.
+ *
+ * @param <REQUEST>
+ * @param <RESULT>
+ */
+class LoggingAsyncHandler<REQUEST extends AmazonWebServiceRequest, RESULT> implements AsyncHandler<REQUEST, RESULT> {
+
+	private static final Logger log = LogManager.getLogger(LoggingAsyncHandler.class);
+
+	private final String failureMessage;
+
+	/**
+	 *
+	 * @param failureMessage Logged with the exception when the request fails.
+	 */
+	LoggingAsyncHandler(String failureMessage) {
+		this.failureMessage = failureMessage;
+	}
+
+	@Override
+	public void onError(Exception exception) {
+		log.error(failureMessage, exception);
+	}
+
+	@Override
+	public void onSuccess(REQUEST request, RESULT result) {
+		// nothing to do.
+	}
+
+}
@@ -0,0 +1,322 @@
+package org.sagebionetworks.workers.util.aws.message;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.amazonaws.handlers.AsyncHandler;
+import com.amazonaws.services.sqs.AmazonSQSAsync;
+import com.amazonaws.services.sqs.AmazonSQSClient;
+import com.amazonaws.services.sqs.model.BatchResultErrorEntry;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequest;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequestEntry;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchResult;
+import com.amazonaws.services.sqs.model.DeleteMessageRequest;
+import com.amazonaws.services.sqs.model.Message;
+
+/**
+ * Accumulates processed messages and deletes them from an AWS SQS queue using
+ * DeleteMessageBatch requests. The accumulated messages are flushed when a full
+ * batch of ten messages is reached, when the oldest accumulated message has
+ * waited for more than the configured maximum delay, or when {@link #flush()}
+ * is called. The maximum delay is enforced by a scheduled flush, so the
+ * accumulated messages are deleted even while the thread that added them is
+ * blocked processing another message. A scheduled flush never waits on the
+ * deletes of another accumulator, so a slow queue does not delay the others.
+ * <p>
+ * When an async client is provided, the batches are sent without waiting for
+ * the response, and failed entries are retried from the response callback.
+ * <p>
+ * A failure to delete a message is logged but never thrown to the caller, as
+ * the caller might not be the thread that processed the message. A message that
+ * could not be deleted will become visible on the queue again once its
+ * visibility timeout expires.
+ * <p>
+ * This class is thread-safe.
+ */
+public class MessageDeleteAccumulator {
+
+	/*
+	 * The maximum number of entries that AWS SQS allows in a single DeleteMessageBatch request.
+	 */
+	public static final int MAX_BATCH_SIZE = 10;
+
+	private static final Logger log = LogManager.getLogger(MessageDeleteAccumulator.class);
+
+	/*
+	 * Shared by all accumulators. This thread only times the flushes and never
+	 * waits on a synchronous delete.
+	 */
+	private static final ScheduledExecutorService FLUSH_SCHEDULER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "message-delete-accumulator-flush");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	/*
+	 * Shared by all accumulators. Sends the scheduled flushes that use the
+	 * synchronous client, each on its own thread. Idle threads are discarded.
+	 */
+	private static final ExecutorService FLUSH_SENDER = Executors.newCachedThreadPool(runnable -> {
+		Thread thread = new Thread(runnable, "message-delete-accumulator-sender");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private final AmazonSQSClient amazonSQSClient;
+	// Null when the deletes are synchronous.
+	private final AmazonSQSAsync asyncClient;
+	private final String messageQueueUrl;
+	private final long maxDelayMS;
+	private final List<Message> pending;
+	private long oldestPendingTimeMS;
+
+	/**
+	 *
+	 * @param amazonSQSClient An AmazonSQSClient configured with credentials.
+	 * @param messageQueueUrl The URL of the queue the messages were received from.
+	 * @param maxDelayMS      The maximum amount of time in milliseconds that a
+	 *                        message can be held before its batch is flushed.
+	 */
+	public MessageDeleteAccumulator(AmazonSQSClient amazonSQSClient, String messageQueueUrl, long maxDelayMS) {
+		this(amazonSQSClient, null, messageQueueUrl, maxDelayMS);
+	}
+
+	/**
+	 *
+	 * @param amazonSQSClient An AmazonSQSClient configured with credentials.
+	 * @param asyncClient     Optional. When provided, all deletes are sent with
+	 *                        this client without waiting for the response.
+	 * @param messageQueueUrl The URL of the queue the messages were received from.
+	 * @param maxDelayMS      The maximum amount of time in milliseconds that a
+	 *                        message can be held before its batch is flushed.
+	 */
+	public MessageDeleteAccumulator(AmazonSQSClient amazonSQSClient, AmazonSQSAsync asyncClient, String messageQueueUrl,
+			long maxDelayMS) {
+		if (amazonSQSClient == null) {
+			throw new IllegalArgumentException("AmazonSQSClient cannot be null");
+		}
+		if (messageQueueUrl == null) {
+			throw new IllegalArgumentException("MessageQueueUrl cannot be null");
+		}
+		if (maxDelayMS < 0) {
+			throw new IllegalArgumentException("MaxDelayMS cannot be negative");
+		}
+		this.amazonSQSClient = amazonSQSClient;
+		this.asyncClient = asyncClient;
+		this.messageQueueUrl = messageQueueUrl;
+		this.maxDelayMS = maxDelayMS;
+		this.pending = new ArrayList<>(MAX_BATCH_SIZE);
+	}
+
+	/**
+	 * Add a message to be deleted. This will trigger a flush if the batch is full
+	 * or if the oldest message has waited more than the maximum delay. The first
+	 * message of a batch schedules a flush of that batch at the maximum delay.
+	 *
+	 * @param message
+	 */
+	public void add(Message message) {
+		if (message == null) {
+			throw new IllegalArgumentException("Message cannot be null");
+		}
+		List<Message> toDelete = null;
+		boolean scheduleFlush = false;
+		long batchStartMS;
+		synchronized (this) {
+			if (pending.isEmpty()) {
+				oldestPendingTimeMS = System.currentTimeMillis();
+				scheduleFlush = true;
+			}
+			batchStartMS = oldestPendingTimeMS;
+			pending.add(message);
+			if (pending.size() >= MAX_BATCH_SIZE || isExpired()) {
+				toDelete = drainPending();
+				scheduleFlush = false;
+			}
+		}
+		if (scheduleFlush) {
+			FLUSH_SCHEDULER.schedule(() -> sendScheduledFlush(batchStartMS), maxDelayMS, TimeUnit.MILLISECONDS);
+		}
+		if (toDelete != null) {
+			deleteMessages(toDelete);
+		}
+	}
+
+	/**
+	 * Called by the scheduler once the batch that was started at the given time
+	 * has waited for the maximum delay. The async client does not hold the
+	 * scheduler thread, but a synchronous flush is handed to the sender.
+	 *
+	 * @param batchStartMS
+	 */
+	private void sendScheduledFlush(long batchStartMS) {
+		if (asyncClient != null) {
+			flushBatch(batchStartMS);
+			return;
+		}
+		FLUSH_SENDER.execute(() -> flushBatch(batchStartMS));
+	}
+
+	/**
+	 * Flush the batch that was started at the given time, once it has waited
+	 * for the maximum delay. Nothing is deleted if that batch was
+	 * already flushed and no new batch has been started since.
+	 *
+	 * @param batchStartMS
+	 */
+	void flushBatch(long batchStartMS) {
+		List<Message> toDelete = null;
+		synchronized (this) {
+			// A newer batch started in the same millisecond is flushed early, which is harmless.
+			if (!pending.isEmpty() && oldestPendingTimeMS == batchStartMS) {
+				toDelete = drainPending();
+			}
+		}
+		if (toDelete != null) {
+			try {
+				deleteMessages(toDelete);
+			} catch (Exception e) {
+				// a scheduled flush has no caller to report the failure to.
+				log.error(String.format("Failed to flush deletes for QueueUrl: '%s'", messageQueueUrl), e);
+			}
+		}
+	}
+
+	/**
+	 * Flush the accumulated messages only if the oldest message has waited more
+	 * than the maximum delay.
+	 */
+	public void flushIfExpired() {
+		List<Message> toDelete = null;
+		synchronized (this) {
+			if (isExpired()) {
+				toDelete = drainPending();
+			}
+		}
+		if (toDelete != null) {
+			deleteMessages(toDelete);
+		}
+	}
+
+	/**
+	 * Unconditionally delete all of the accumulated messages.
+	 */
+	public void flush() {
+		List<Message> toDelete;
+		synchronized (this) {
+			toDelete = drainPending();
+		}
+		deleteMessages(toDelete);
+	}
+
+	/**
+	 * The number of messages waiting to be deleted.
+	 *
+	 * @return
+	 */
+	public synchronized int getPendingCount() {
+		return pending.size();
+	}
+
+	private boolean isExpired() {
+		return !pending.isEmpty() && System.currentTimeMillis() - oldestPendingTimeMS >= maxDelayMS;
+	}
+
+	private List<Message> drainPending() {
+		List<Message> drained = new ArrayList<>(pending);
+		pending.clear();
+		return drained;
+	}
+
+	private void deleteMessages(List<Message> messages) {
+		for (int start = 0; start < messages.size(); start += MAX_BATCH_SIZE) {
+			deleteMessageBatch(messages.subList(start, Math.min(start + MAX_BATCH_SIZE, messages.size())));
+		}
+	}
+
+	/**
+	 * Delete a batch of at most ten messages.
+	 *
+	 * @param batch
+	 */
+	private void deleteMessageBatch(List<Message> batch) {
+		// The entry ID is the index of the message in the batch.
+		List<DeleteMessageBatchRequestEntry> entryList = new LinkedList<DeleteMessageBatchRequestEntry>();
+		for (int i = 0; i < batch.size(); i++) {
+			entryList.add(new DeleteMessageBatchRequestEntry(Integer.toString(i), batch.get(i).getReceiptHandle()));
+		}
+		DeleteMessageBatchRequest request = new DeleteMessageBatchRequest(messageQueueUrl, entryList);
+		if (asyncClient != null) {
+			// The batch is a copy so it can be used after this call returns.
+			List<Message> batchCopy = new ArrayList<>(batch);
+			asyncClient.deleteMessageBatchAsync(request, new AsyncHandler<DeleteMessageBatchRequest, DeleteMessageBatchResult>() {
+
+				@Override
+				public void onError(Exception exception) {
+					handleBatchFailure(batchCopy, exception);
+				}
+
+				@Override
+				public void onSuccess(DeleteMessageBatchRequest request, DeleteMessageBatchResult result) {
+					handleBatchResult(batchCopy, result);
+				}
+			});
+			return;
+		}
+		DeleteMessageBatchResult result;
+		try {
+			result = amazonSQSClient.deleteMessageBatch(request);
+		} catch (Exception e) {
+			handleBatchFailure(batch, e);
+			return;
+		}
+		handleBatchResult(batch, result);
+	}
+
+	private void handleBatchFailure(List<Message> batch, Exception exception) {
+		log.warn(String.format("DeleteMessageBatch failed for QueueUrl: '%s'. Deleting each message individually.", messageQueueUrl), exception);
+		for (Message message : batch) {
+			deleteSingleMessage(message);
+		}
+	}
+
+	private void handleBatchResult(List<Message> batch, DeleteMessageBatchResult result) {
+		if (result == null || result.getFailed() == null) {
+			return;
+		}
+		for (BatchResultErrorEntry failed : result.getFailed()) {
+			Message message = batch.get(Integer.parseInt(failed.getId()));
+			if (Boolean.TRUE.equals(failed.getSenderFault())) {
+				// The request for this message was invalid so a retry would fail the same way.
+				log.error(String.format("Failed to delete message. QueueUrl: '%s' messageId: '%s' code: '%s' message: '%s'",
+						messageQueueUrl, message.getMessageId(), failed.getCode(), failed.getMessage()));
+			} else {
+				deleteSingleMessage(message);
+			}
+		}
+	}
+
+	private void deleteSingleMessage(Message message) {
+		String failureMessage = String.format("Failed to delete message. QueueUrl: '%s' messageId: '%s'", messageQueueUrl,
+				message.getMessageId());
+		DeleteMessageRequest request = new DeleteMessageRequest(messageQueueUrl, message.getReceiptHandle());
+		if (asyncClient != null) {
+			asyncClient.deleteMessageAsync(request, new LoggingAsyncHandler<>(failureMessage));
+			return;
+		}
+		try {
+			amazonSQSClient.deleteMessage(request);
+		} catch (Exception e) {
+			log.error(failureMessage, e);
+		}
+	}
+
+}
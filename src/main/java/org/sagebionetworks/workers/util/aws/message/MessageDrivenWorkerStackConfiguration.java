@@ -5,6 +5,8 @@ import java.util.List;
 import org.sagebionetworks.workers.util.Gate;
 import org.sagebionetworks.workers.util.semaphore.SemaphoreGatedRunnerConfiguration;
 
+import com.amazonaws.services.sqs.AmazonSQSClient;
+
 /**
  * Wrapper for all of the Configuration needed to create a MessageDrivenWorkerStack.
  *
@@ -80,6 +82,21 @@ public class MessageDrivenWorkerStackConfiguration {
 		pollingMessageReceiverConfiguration.setSemaphoreLockTimeoutSec(timeoutSec);
 	}
 	
+	/**
+	 * Enable long polling. Receive requests will be made with the provided
+	 * dedicated client and will wait up to receiveWaitTimeSec for a message to
+	 * arrive. Visibility changes and deletes will continue to use the shared
+	 * client.
+	 * 
+	 * @param receiveClient      A client with its own connection pool. See
+	 *                           {@link PollingMessageReceiverImpl#createReceiveClientConfiguration(int)}.
+	 * @param receiveWaitTimeSec Between 1 and 20 seconds.
+	 */
+	public void setLongPolling(AmazonSQSClient receiveClient, int receiveWaitTimeSec) {
+		pollingMessageReceiverConfiguration.setReceiveClient(receiveClient);
+		pollingMessageReceiverConfiguration.setReceiveWaitTimeSec(receiveWaitTimeSec);
+	}
+	
 	/**
 	 * An optional parameter. When set, each run will only occur if the provided {@link Gate#canRun()} returns true.
 	 * @return
@@ -0,0 +1,306 @@
+package org.sagebionetworks.workers.util.aws.message;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.LongSupplier;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.sagebionetworks.workers.util.BackoffStrategy;
+
+import com.amazonaws.services.sqs.model.Message;
+
+/**
+ * A bounded buffer of messages that are received ahead of time by a background
+ * fetcher, so that a runner never has to wait for a receive round trip between
+ * messages.
+ * <p>
+ * The time of the last visibility change of each buffered message is tracked.
+ * When a message is taken from the buffer with less than the minimum remaining
+ * visibility, its visibility is extended before it is dispatched. While the
+ * buffer is full, the fetcher releases any buffered message that falls below
+ * the minimum remaining visibility back to the queue, so other receivers can
+ * process it.
+ * <p>
+ * The fetcher is started by calling {@link #run()} on a dedicated thread and
+ * stopped with {@link #stop()}. Any message that is still buffered when the
+ * prefetcher stops must be released by the caller using {@link #drain()}.
+ * <p>
+ * This class is thread-safe.
+ */
+class MessagePrefetcher implements Runnable {
+
+	private static final Logger log = LogManager.getLogger(MessagePrefetcher.class);
+
+	/*
+	 * How often the fetcher checks the visibility of the buffered messages while the buffer is full.
+	 */
+	static final long FULL_BUFFER_CHECK_INTERVAL_MS = 1000;
+
+	/**
+	 * Receives a batch of messages from the queue.
+	 */
+	interface MessageSource {
+		/**
+		 * @param maxNumberOfMessages
+		 * @return The received messages. Empty if there are no messages on the queue.
+		 */
+		List<Message> receive(int maxNumberOfMessages);
+	}
+
+	/**
+	 * Changes the visibility timeout of a message.
+	 */
+	interface VisibilityChanger {
+		/**
+		 * @param message
+		 * @param visibilityTimeoutSec
+		 */
+		void changeVisibility(Message message, int visibilityTimeoutSec);
+	}
+
+	private static class PrefetchedMessage {
+		private final Message message;
+		private final long visibleAtMS;
+
+		PrefetchedMessage(Message message, long visibleAtMS) {
+			this.message = message;
+			this.visibleAtMS = visibleAtMS;
+		}
+	}
+
+	private final MessageSource source;
+	private final VisibilityChanger visibilityChanger;
+	private final BackoffStrategy emptyQueueBackoff;
+	private final boolean longPolling;
+	private final int capacity;
+	private final int maxNumberOfMessages;
+	private final int visibilityTimeoutSec;
+	private final long minRemainingVisibilityMS;
+	private final LongSupplier clock;
+	private final Deque<PrefetchedMessage> buffer;
+	private boolean stopped = false;
+
+	/**
+	 *
+	 * @param source                      Receives messages from the queue.
+	 * @param visibilityChanger           Extends or releases buffered messages.
+	 * @param emptyQueueBackoff           Used to wait after receiving nothing.
+	 * @param longPolling                 When true, the source already waits for
+	 *                                    messages so there is no backoff.
+	 * @param capacity                    The maximum number of buffered messages.
+	 * @param maxNumberOfMessages         The maximum number of messages per
+	 *                                    receive.
+	 * @param visibilityTimeoutSec        The visibility timeout of received
+	 *                                    messages.
+	 * @param minRemainingVisibilitySec   A message taken with less remaining
+	 *                                    visibility will be extended.
+	 * @param clock                       Provides the current time in
+	 *                                    milliseconds.
+	 */
+	MessagePrefetcher(MessageSource source, VisibilityChanger visibilityChanger, BackoffStrategy emptyQueueBackoff,
+			boolean longPolling, int capacity, int maxNumberOfMessages, int visibilityTimeoutSec,
+			int minRemainingVisibilitySec, LongSupplier clock) {
+		this.source = source;
+		this.visibilityChanger = visibilityChanger;
+		this.emptyQueueBackoff = emptyQueueBackoff;
+		this.longPolling = longPolling;
+		this.capacity = capacity;
+		this.maxNumberOfMessages = maxNumberOfMessages;
+		this.visibilityTimeoutSec = visibilityTimeoutSec;
+		this.minRemainingVisibilityMS = minRemainingVisibilitySec * 1000L;
+		this.clock = clock;
+		this.buffer = new ArrayDeque<>(capacity);
+	}
+
+	/**
+	 * The fetcher loop. Keeps the buffer filled until {@link #stop()} is called.
+	 */
+	@Override
+	public void run() {
+		int emptyPollCount = 0;
+		try {
+			while (true) {
+				int space = waitForSpace();
+				if (space < 1) {
+					// stopped
+					break;
+				}
+				List<Message> received;
+				try {
+					received = source.receive(Math.min(space, maxNumberOfMessages));
+				} catch (Exception e) {
+					log.warn("Failed to prefetch messages", e);
+					received = Collections.emptyList();
+				}
+				if (received.isEmpty()) {
+					if (!longPolling) {
+						emptyPollCount++;
+						pause(emptyQueueBackoff.getDelayMS(emptyPollCount));
+					}
+					continue;
+				}
+				emptyPollCount = 0;
+				if (!add(received)) {
+					// stopped while the messages were being received.
+					releaseAll(received);
+					break;
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Take up to the given number of messages from the buffer, waiting up to the
+	 * given timeout for a message to become available. Any message taken with less
+	 * than the minimum remaining visibility is extended. A message that cannot be
+	 * extended is dropped as it might already be visible to other receivers.
+	 *
+	 * @param maxNumberOfMessages
+	 * @param timeoutMS
+	 * @return Empty if no message was available before the timeout or the
+	 *         prefetcher is stopped.
+	 * @throws InterruptedException
+	 */
+	List<Message> take(int maxNumberOfMessages, long timeoutMS) throws InterruptedException {
+		List<PrefetchedMessage> taken = new ArrayList<>(maxNumberOfMessages);
+		synchronized (this) {
+			long deadline = System.currentTimeMillis() + timeoutMS;
+			while (buffer.isEmpty() && !stopped) {
+				long remaining = deadline - System.currentTimeMillis();
+				if (remaining <= 0) {
+					break;
+				}
+				wait(remaining);
+			}
+			while (!buffer.isEmpty() && taken.size() < maxNumberOfMessages) {
+				taken.add(buffer.pollFirst());
+			}
+			// there is now space in the buffer
+			notifyAll();
+		}
+		List<Message> messages = new ArrayList<>(taken.size());
+		long now = clock.getAsLong();
+		for (PrefetchedMessage prefetched : taken) {
+			if (remainingVisibilityMS(prefetched, now) < minRemainingVisibilityMS) {
+				try {
+					visibilityChanger.changeVisibility(prefetched.message, visibilityTimeoutSec);
+				} catch (Exception e) {
+					log.warn(String.format("Dropping prefetched message that could not be extended. messageId: '%s'",
+							prefetched.message.getMessageId()), e);
+					continue;
+				}
+			}
+			messages.add(prefetched.message);
+		}
+		return messages;
+	}
+
+	/**
+	 * Stop the fetcher. Messages received after the stop are released by the
+	 * fetcher.
+	 */
+	synchronized void stop() {
+		stopped = true;
+		notifyAll();
+	}
+
+	/**
+	 * Remove all of the buffered messages.
+	 *
+	 * @return
+	 */
+	synchronized List<Message> drain() {
+		List<Message> drained = new ArrayList<>(buffer.size());
+		while (!buffer.isEmpty()) {
+			drained.add(buffer.pollFirst().message);
+		}
+		return drained;
+	}
+
+	/**
+	 * The number of buffered messages.
+	 *
+	 * @return
+	 */
+	synchronized int size() {
+		return buffer.size();
+	}
+
+	/**
+	 * Wait for space in the buffer. While the buffer is full, messages that have
+	 * fallen below the minimum remaining visibility are released.
+	 *
+	 * @return The available space or zero if the prefetcher is stopped.
+	 * @throws InterruptedException
+	 */
+	private int waitForSpace() throws InterruptedException {
+		while (true) {
+			List<Message> expiring;
+			synchronized (this) {
+				if (stopped) {
+					return 0;
+				}
+				if (buffer.size() < capacity) {
+					return capacity - buffer.size();
+				}
+				wait(FULL_BUFFER_CHECK_INTERVAL_MS);
+				expiring = removeExpiring();
+			}
+			releaseAll(expiring);
+		}
+	}
+
+	private List<Message> removeExpiring() {
+		long now = clock.getAsLong();
+		List<Message> expiring = new ArrayList<>();
+		Iterator<PrefetchedMessage> iterator = buffer.iterator();
+		while (iterator.hasNext()) {
+			PrefetchedMessage prefetched = iterator.next();
+			if (remainingVisibilityMS(prefetched, now) < minRemainingVisibilityMS) {
+				iterator.remove();
+				expiring.add(prefetched.message);
+			}
+		}
+		return expiring;
+	}
+
+	private long remainingVisibilityMS(PrefetchedMessage prefetched, long now) {
+		return prefetched.visibleAtMS - now;
+	}
+
+	private synchronized boolean add(List<Message> received) {
+		if (stopped) {
+			return false;
+		}
+		long visibleAtMS = clock.getAsLong() + visibilityTimeoutSec * 1000L;
+		for (Message message : received) {
+			buffer.addLast(new PrefetchedMessage(message, visibleAtMS));
+		}
+		notifyAll();
+		return true;
+	}
+
+	private synchronized void pause(long delayMS) throws InterruptedException {
+		if (!stopped && delayMS > 0) {
+			wait(delayMS);
+		}
+	}
+
+	private void releaseAll(List<Message> messages) {
+		for (Message message : messages) {
+			try {
+				visibilityChanger.changeVisibility(message, 0);
+			} catch (Exception e) {
+				log.warn(String.format("Failed to release prefetched message. messageId: '%s'", message.getMessageId()), e);
+			}
+		}
+	}
+
+}
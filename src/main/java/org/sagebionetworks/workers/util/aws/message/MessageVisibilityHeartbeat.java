@@ -0,0 +1,320 @@
+package org.sagebionetworks.workers.util.aws.message;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.amazonaws.services.sqs.AmazonSQSClient;
+import com.amazonaws.services.sqs.model.BatchResultErrorEntry;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchRequest;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchRequestEntry;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchResult;
+import com.amazonaws.services.sqs.model.Message;
+
+/**
+ * Keeps the in-flight messages of any number of receivers invisible while
+ * their runners make progress, without calling AWS SQS from the worker
+ * threads.
+ * <p>
+ * A receiver tracks each message it is processing with
+ * {@link #track(String, Message, int)} and reports progress with
+ * {@link #progressMade(String, Message)}, which only sets a flag. On each tick
+ * of a single scheduler thread, every tracked message that has reported
+ * progress and has less than half of its visibility timeout remaining is
+ * extended using ChangeMessageVisibilityBatch requests of up to ten messages
+ * per queue. A message whose runner stops making progress is not extended, so
+ * it becomes visible again when its visibility timeout expires.
+ * <p>
+ * A single instance is intended to be shared by all receivers of an
+ * application. The tick interval must be less than half of the shortest
+ * visibility timeout of the tracked messages.
+ * <p>
+ * This class is thread-safe.
+ */
+public class MessageVisibilityHeartbeat implements AutoCloseable {
+
+	/*
+	 * The maximum number of entries that AWS SQS allows in a single ChangeMessageVisibilityBatch request.
+	 */
+	public static final int MAX_BATCH_SIZE = 10;
+
+	private static final Logger log = LogManager.getLogger(MessageVisibilityHeartbeat.class);
+
+	private static class InFlightMessage {
+		private final Message message;
+		private final int visibilityTimeoutSec;
+		// Held while a visibility change for this message is in flight.
+		private final ReentrantLock lock = new ReentrantLock();
+		private volatile long visibleAtMS;
+		private volatile boolean progressMade = false;
+		private boolean untracked = false;
+
+		InFlightMessage(Message message, int visibilityTimeoutSec, long visibleAtMS) {
+			this.message = message;
+			this.visibilityTimeoutSec = visibilityTimeoutSec;
+			this.visibleAtMS = visibleAtMS;
+		}
+	}
+
+	private final AmazonSQSClient amazonSQSClient;
+	private final long tickIntervalMS;
+	private final LongSupplier clock;
+	// queue URL -> receipt handle -> message
+	private final Map<String, Map<String, InFlightMessage>> inFlight;
+	private final ScheduledExecutorService scheduler;
+
+	/**
+	 *
+	 * @param amazonSQSClient An AmazonSQSClient configured with credentials.
+	 * @param tickIntervalMS  How often the tracked messages are checked.
+	 */
+	public MessageVisibilityHeartbeat(AmazonSQSClient amazonSQSClient, long tickIntervalMS) {
+		this(amazonSQSClient, tickIntervalMS, System::currentTimeMillis);
+		scheduler.scheduleWithFixedDelay(this::tick, tickIntervalMS, tickIntervalMS, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Create a heartbeat that is not scheduled. Ticks are triggered by calling
+	 * {@link #tick()}.
+	 *
+	 * @param amazonSQSClient
+	 * @param tickIntervalMS
+	 * @param clock
+	 */
+	MessageVisibilityHeartbeat(AmazonSQSClient amazonSQSClient, long tickIntervalMS, LongSupplier clock) {
+		if (amazonSQSClient == null) {
+			throw new IllegalArgumentException("AmazonSQSClient cannot be null");
+		}
+		if (tickIntervalMS < 1) {
+			throw new IllegalArgumentException("TickIntervalMS must be at least one");
+		}
+		this.amazonSQSClient = amazonSQSClient;
+		this.tickIntervalMS = tickIntervalMS;
+		this.clock = clock;
+		this.inFlight = new ConcurrentHashMap<>();
+		this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "message-visibility-heartbeat");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * How often the tracked messages are checked.
+	 *
+	 * @return
+	 */
+	public long getTickIntervalMS() {
+		return tickIntervalMS;
+	}
+
+	/**
+	 * Start tracking a message that was just received with the given visibility
+	 * timeout. Tracking a message that is already tracked has no effect.
+	 *
+	 * @param queueUrl
+	 * @param message
+	 * @param visibilityTimeoutSec
+	 */
+	public void track(String queueUrl, Message message, int visibilityTimeoutSec) {
+		track(queueUrl, message, visibilityTimeoutSec, visibilityTimeoutSec);
+	}
+
+	/**
+	 * Start tracking a message with the given visibility timeout that has only
+	 * the given visibility remaining, for example, a message that waited in a
+	 * prefetch buffer. Tracking a message that is already tracked has no effect.
+	 *
+	 * @param queueUrl
+	 * @param message
+	 * @param visibilityTimeoutSec   The visibility timeout used for each
+	 *                               extension.
+	 * @param remainingVisibilitySec A lower bound of the remaining visibility of
+	 *                               the message.
+	 */
+	public void track(String queueUrl, Message message, int visibilityTimeoutSec, int remainingVisibilitySec) {
+		if (queueUrl == null) {
+			throw new IllegalArgumentException("QueueUrl cannot be null");
+		}
+		if (message == null) {
+			throw new IllegalArgumentException("Message cannot be null");
+		}
+		long visibleAtMS = clock.getAsLong() + remainingVisibilitySec * 1000L;
+		inFlight.computeIfAbsent(queueUrl, key -> new ConcurrentHashMap<>()).putIfAbsent(message.getReceiptHandle(),
+				new InFlightMessage(message, visibilityTimeoutSec, visibleAtMS));
+	}
+
+	/**
+	 * Record that progress was made on a tracked message, so its visibility will
+	 * be extended when it approaches expiry. Does not call AWS SQS.
+	 *
+	 * @param queueUrl
+	 * @param message
+	 */
+	public void progressMade(String queueUrl, Message message) {
+		InFlightMessage tracked = get(queueUrl, message);
+		if (tracked != null) {
+			tracked.progressMade = true;
+		}
+	}
+
+	/**
+	 * Stop tracking a message. This must be called before the message is deleted
+	 * or its visibility is changed by the caller. If the visibility of the message
+	 * is being extended at that moment, this will wait for the extension to
+	 * complete so it cannot override the caller's change.
+	 *
+	 * @param queueUrl
+	 * @param message
+	 */
+	public void untrack(String queueUrl, Message message) {
+		Map<String, InFlightMessage> queue = inFlight.get(queueUrl);
+		if (queue == null) {
+			return;
+		}
+		InFlightMessage tracked = queue.remove(message.getReceiptHandle());
+		if (tracked != null) {
+			tracked.lock.lock();
+			try {
+				tracked.untracked = true;
+			} finally {
+				tracked.lock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * The number of messages currently tracked.
+	 *
+	 * @return
+	 */
+	public int getTrackedCount() {
+		int count = 0;
+		for (Map<String, InFlightMessage> queue : inFlight.values()) {
+			count += queue.size();
+		}
+		return count;
+	}
+
+	/**
+	 * Extend each tracked message that has made progress and has less than half
+	 * of its visibility timeout remaining. Called from the scheduler thread so it
+	 * must never throw.
+	 */
+	void tick() {
+		try {
+			long now = clock.getAsLong();
+			for (Map.Entry<String, Map<String, InFlightMessage>> queue : inFlight.entrySet()) {
+				List<InFlightMessage> batch = new ArrayList<>(MAX_BATCH_SIZE);
+				for (InFlightMessage tracked : queue.getValue().values()) {
+					if (!isDue(tracked, now)) {
+						continue;
+					}
+					// Skip a message that is being untracked right now.
+					if (!tracked.lock.tryLock()) {
+						continue;
+					}
+					if (tracked.untracked) {
+						tracked.lock.unlock();
+						continue;
+					}
+					batch.add(tracked);
+					if (batch.size() == MAX_BATCH_SIZE) {
+						extend(queue.getKey(), batch, now);
+						batch.clear();
+					}
+				}
+				if (!batch.isEmpty()) {
+					extend(queue.getKey(), batch, now);
+				}
+			}
+		} catch (Throwable e) {
+			log.error("Visibility heartbeat failed", e);
+		}
+	}
+
+	private static boolean isDue(InFlightMessage tracked, long now) {
+		return tracked.progressMade && tracked.visibleAtMS - now < tracked.visibilityTimeoutSec * 500L;
+	}
+
+	/**
+	 * Extend a batch of at most ten locked messages from the same queue, then
+	 * unlock them.
+	 *
+	 * @param queueUrl
+	 * @param batch
+	 * @param now
+	 */
+	private void extend(String queueUrl, List<InFlightMessage> batch, long now) {
+		try {
+			// The entry ID is the index of the message in the batch.
+			List<ChangeMessageVisibilityBatchRequestEntry> entryList = new ArrayList<>(batch.size());
+			for (int i = 0; i < batch.size(); i++) {
+				InFlightMessage tracked = batch.get(i);
+				entryList.add(new ChangeMessageVisibilityBatchRequestEntry(Integer.toString(i),
+						tracked.message.getReceiptHandle()).withVisibilityTimeout(tracked.visibilityTimeoutSec));
+			}
+			ChangeMessageVisibilityBatchResult result;
+			try {
+				result = amazonSQSClient
+						.changeMessageVisibilityBatch(new ChangeMessageVisibilityBatchRequest(queueUrl, entryList));
+			} catch (Exception e) {
+				// The messages are still due so they will be retried on the next tick.
+				log.warn(String.format("ChangeMessageVisibilityBatch failed for QueueUrl: '%s'", queueUrl), e);
+				return;
+			}
+			boolean[] failed = new boolean[batch.size()];
+			if (result != null && result.getFailed() != null) {
+				for (BatchResultErrorEntry error : result.getFailed()) {
+					int index = Integer.parseInt(error.getId());
+					failed[index] = true;
+					InFlightMessage tracked = batch.get(index);
+					if (Boolean.TRUE.equals(error.getSenderFault())) {
+						// The receipt handle is no longer valid so there is nothing left to extend.
+						log.warn(String.format(
+								"Failed to extend message visibility. QueueUrl: '%s' messageId: '%s' code: '%s' message: '%s'",
+								queueUrl, tracked.message.getMessageId(), error.getCode(), error.getMessage()));
+						Map<String, InFlightMessage> queue = inFlight.get(queueUrl);
+						if (queue != null) {
+							queue.remove(tracked.message.getReceiptHandle(), tracked);
+						}
+					}
+				}
+			}
+			for (int i = 0; i < batch.size(); i++) {
+				if (!failed[i]) {
+					InFlightMessage tracked = batch.get(i);
+					tracked.visibleAtMS = now + tracked.visibilityTimeoutSec * 1000L;
+					tracked.progressMade = false;
+				}
+			}
+		} finally {
+			for (InFlightMessage tracked : batch) {
+				tracked.lock.unlock();
+			}
+		}
+	}
+
+	private InFlightMessage get(String queueUrl, Message message) {
+		Map<String, InFlightMessage> queue = inFlight.get(queueUrl);
+		return queue != null ? queue.get(message.getReceiptHandle()) : null;
+	}
+
+	/**
+	 * Stop the scheduler. Tracked messages will no longer be extended.
+	 */
+	@Override
+	public void close() {
+		scheduler.shutdownNow();
+	}
+
+}
@@ -1,7 +1,14 @@
 package org.sagebionetworks.workers.util.aws.message;
 
+import java.util.concurrent.ExecutorService;
+
+import org.sagebionetworks.workers.util.BackoffStrategy;
+import org.sagebionetworks.workers.util.FixedBackoffStrategy;
 import org.sagebionetworks.workers.util.Gate;
 
+import com.amazonaws.services.sqs.AmazonSQSAsync;
+import com.amazonaws.services.sqs.AmazonSQSClient;
+
 /**
  * Configuration information for the PollingMessageReceiver
  * 
@@ -13,6 +20,18 @@ public class PollingMessageReceiverConfiguration {
 	Integer semaphoreLockTimeoutSec;
 	MessageDrivenRunner runner;
 	Gate gate;
+	int maxNumberOfMessages = 1;
+	boolean batchDeleteEnabled = false;
+	long batchDeleteMaxDelayMS = 1000;
+	BackoffStrategy emptyQueueBackoff = new FixedBackoffStrategy(1000);
+	int receiveWaitTimeSec = 0;
+	AmazonSQSClient receiveClient;
+	ExecutorService messageProcessingExecutor;
+	int prefetchBufferSize = 0;
+	Integer prefetchMinRemainingVisibilitySec;
+	MessageVisibilityHeartbeat visibilityHeartbeat;
+	AmazonSQSAsync asyncClient;
+	boolean pipelinedReceiveEnabled = false;
 
 	/**
 	 * The gate that control whether a worker should run
@@ -109,4 +128,306 @@ public class PollingMessageReceiverConfiguration {
 	public void setHasQueueUrl(HasQueueUrl hasQueueUrl) {
 		this.hasQueueUrl = hasQueueUrl;
 	}
+
+	/**
+	 * The maximum number of messages that will be fetched from the queue with a
+	 * single receive request. Each message of the batch is passed to the runner
+	 * before the queue is polled again. Must be between 1 and 10 (default 1).
+	 * 
+	 * @return
+	 */
+	public int getMaxNumberOfMessages() {
+		return maxNumberOfMessages;
+	}
+
+	/**
+	 * The maximum number of messages that will be fetched from the queue with a
+	 * single receive request. Each message of the batch is passed to the runner
+	 * before the queue is polled again. Must be between 1 and 10 (default 1).
+	 * 
+	 * @param maxNumberOfMessages
+	 */
+	public void setMaxNumberOfMessages(int maxNumberOfMessages) {
+		this.maxNumberOfMessages = maxNumberOfMessages;
+	}
+	/**
+	 * When enabled, processed messages are accumulated and deleted from the queue
+	 * with DeleteMessageBatch requests rather than one DeleteMessage request per
+	 * message. See {@link MessageDeleteAccumulator}. Disabled by default.
+	 * 
+	 * @return
+	 */
+	public boolean isBatchDeleteEnabled() {
+		return batchDeleteEnabled;
+	}
+
+	/**
+	 * When enabled, processed messages are accumulated and deleted from the queue
+	 * with DeleteMessageBatch requests rather than one DeleteMessage request per
+	 * message. See {@link MessageDeleteAccumulator}. Disabled by default.
+	 * 
+	 * @param batchDeleteEnabled
+	 */
+	public void setBatchDeleteEnabled(boolean batchDeleteEnabled) {
+		this.batchDeleteEnabled = batchDeleteEnabled;
+	}
+
+	/**
+	 * When batch delete is enabled, the maximum amount of time in milliseconds
+	 * that a processed message can wait before it is deleted (default 1000).
+	 * 
+	 * @return
+	 */
+	public long getBatchDeleteMaxDelayMS() {
+		return batchDeleteMaxDelayMS;
+	}
+
+	/**
+	 * When batch delete is enabled, the maximum amount of time in milliseconds
+	 * that a processed message can wait before it is deleted (default 1000).
+	 * 
+	 * @param batchDeleteMaxDelayMS
+	 */
+	public void setBatchDeleteMaxDelayMS(long batchDeleteMaxDelayMS) {
+		this.batchDeleteMaxDelayMS = batchDeleteMaxDelayMS;
+	}
+
+	/**
+	 * Determines how long the receiver waits before polling again after the
+	 * queue was found empty. The attempt count passed to the strategy is the
+	 * number of consecutive empty polls and is reset as soon as a message is
+	 * received. Defaults to a fixed one second delay.
+	 * 
+	 * @return
+	 */
+	public BackoffStrategy getEmptyQueueBackoff() {
+		return emptyQueueBackoff;
+	}
+
+	/**
+	 * Determines how long the receiver waits before polling again after the
+	 * queue was found empty. The attempt count passed to the strategy is the
+	 * number of consecutive empty polls and is reset as soon as a message is
+	 * received. Defaults to a fixed one second delay.
+	 * <p>
+	 * For example, an {@link org.sagebionetworks.workers.util.ExponentialBackoffStrategy}
+	 * with a small minimum will react quickly on a busy queue while idle
+	 * queues are polled less frequently.
+	 * 
+	 * @param emptyQueueBackoff
+	 */
+	public void setEmptyQueueBackoff(BackoffStrategy emptyQueueBackoff) {
+		this.emptyQueueBackoff = emptyQueueBackoff;
+	}
+
+	/**
+	 * The amount of time in seconds that a receive request will wait for a
+	 * message to arrive on an empty queue (long polling). Must be between 0 and
+	 * 20. The default of 0 disables long polling.
+	 * <p>
+	 * A long poll holds a connection for the duration of the wait, so long
+	 * polling requires a dedicated {@link #getReceiveClient() receiveClient}.
+	 * 
+	 * @return
+	 */
+	public int getReceiveWaitTimeSec() {
+		return receiveWaitTimeSec;
+	}
+
+	/**
+	 * The amount of time in seconds that a receive request will wait for a
+	 * message to arrive on an empty queue (long polling). Must be between 0 and
+	 * 20. The default of 0 disables long polling.
+	 * <p>
+	 * A long poll holds a connection for the duration of the wait, so long
+	 * polling requires a dedicated {@link #getReceiveClient() receiveClient}.
+	 * 
+	 * @param receiveWaitTimeSec
+	 */
+	public void setReceiveWaitTimeSec(int receiveWaitTimeSec) {
+		this.receiveWaitTimeSec = receiveWaitTimeSec;
+	}
+
+	/**
+	 * An optional client used only for receive requests. Message visibility
+	 * changes and deletes will continue to use the shared client. This client
+	 * must have its own connection pool, with at least one connection for each
+	 * receiver that can poll concurrently. See
+	 * {@link PollingMessageReceiverImpl#createReceiveClientConfiguration(int)}.
+	 * 
+	 * @return
+	 */
+	public AmazonSQSClient getReceiveClient() {
+		return receiveClient;
+	}
+
+	/**
+	 * An optional client used only for receive requests. Message visibility
+	 * changes and deletes will continue to use the shared client. This client
+	 * must have its own connection pool, with at least one connection for each
+	 * receiver that can poll concurrently. See
+	 * {@link PollingMessageReceiverImpl#createReceiveClientConfiguration(int)}.
+	 * 
+	 * @param receiveClient
+	 */
+	public void setReceiveClient(AmazonSQSClient receiveClient) {
+		this.receiveClient = receiveClient;
+	}
+
+	/**
+	 * An optional executor used to process the messages of a batch
+	 * concurrently. When set, each message of a received batch is passed to the
+	 * runner on its own executor thread, with its own visibility refresh and
+	 * delete, while the receiver continues to hold a single semaphore lock. The
+	 * receiver waits for the entire batch to complete before polling again, so
+	 * concurrency per receiver is bounded by maxNumberOfMessages.
+	 * <p>
+	 * The executor is owned by the caller. For example, use
+	 * Executors.newFixedThreadPool() for CPU-bound runners or, on Java 21 and
+	 * later, Executors.newVirtualThreadPerTaskExecutor() for I/O-bound runners.
+	 * The runner must be thread-safe.
+	 * 
+	 * @return
+	 */
+	public ExecutorService getMessageProcessingExecutor() {
+		return messageProcessingExecutor;
+	}
+
+	/**
+	 * An optional executor used to process the messages of a batch
+	 * concurrently. See {@link #getMessageProcessingExecutor()}.
+	 * 
+	 * @param messageProcessingExecutor
+	 */
+	public void setMessageProcessingExecutor(ExecutorService messageProcessingExecutor) {
+		this.messageProcessingExecutor = messageProcessingExecutor;
+	}
+
+	/**
+	 * The maximum number of messages that a background fetcher will receive
+	 * ahead of time, while the receiver is running. With a prefetch buffer the
+	 * runner never waits on a receive round trip between messages. Zero (the
+	 * default) disables prefetching.
+	 * <p>
+	 * Prefetched messages are invisible to other receivers while they wait in the
+	 * buffer, so the buffer should be kept small. Any message still in the buffer
+	 * when the receiver stops is immediately returned to the queue.
+	 * 
+	 * @return
+	 */
+	public int getPrefetchBufferSize() {
+		return prefetchBufferSize;
+	}
+
+	/**
+	 * The maximum number of messages that a background fetcher will receive
+	 * ahead of time. See {@link #getPrefetchBufferSize()}.
+	 * 
+	 * @param prefetchBufferSize
+	 */
+	public void setPrefetchBufferSize(int prefetchBufferSize) {
+		this.prefetchBufferSize = prefetchBufferSize;
+	}
+
+	/**
+	 * A prefetched message with less than this remaining visibility in seconds
+	 * will have its visibility extended before it is passed to the runner. While
+	 * the buffer is full, a prefetched message that falls below this threshold is
+	 * returned to the queue. When null (the default), one third of the
+	 * messageVisibilityTimeoutSec is used.
+	 * 
+	 * @return
+	 */
+	public Integer getPrefetchMinRemainingVisibilitySec() {
+		return prefetchMinRemainingVisibilitySec;
+	}
+
+	/**
+	 * A prefetched message with less than this remaining visibility in seconds
+	 * will have its visibility extended before it is passed to the runner. See
+	 * {@link #getPrefetchMinRemainingVisibilitySec()}.
+	 * 
+	 * @param prefetchMinRemainingVisibilitySec
+	 */
+	public void setPrefetchMinRemainingVisibilitySec(Integer prefetchMinRemainingVisibilitySec) {
+		this.prefetchMinRemainingVisibilitySec = prefetchMinRemainingVisibilitySec;
+	}
+
+	/**
+	 * An optional heartbeat, usually shared by all receivers, that extends the
+	 * visibility of in-flight messages in batches from its own thread. When set,
+	 * progress events only mark the message as alive, and the worker thread no
+	 * longer calls ChangeMessageVisibility on each progress event. The tick
+	 * interval of the heartbeat must be less than half of the
+	 * messageVisibilityTimeoutSec.
+	 * 
+	 * @return
+	 */
+	public MessageVisibilityHeartbeat getVisibilityHeartbeat() {
+		return visibilityHeartbeat;
+	}
+
+	/**
+	 * An optional heartbeat that extends the visibility of in-flight messages.
+	 * See {@link #getVisibilityHeartbeat()}.
+	 * 
+	 * @param visibilityHeartbeat
+	 */
+	public void setVisibilityHeartbeat(MessageVisibilityHeartbeat visibilityHeartbeat) {
+		this.visibilityHeartbeat = visibilityHeartbeat;
+	}
+
+	/**
+	 * An optional async client, such as an AmazonSQSAsyncClient, used to keep
+	 * the worker thread from waiting on AWS SQS. When set:
+	 * <ul>
+	 * <li>Deletes and message visibility changes are sent without waiting for
+	 * the response. Failures are logged.</li>
+	 * <li>The receive for the next batch can be sent while the current batch is
+	 * processed. See {@link #isPipelinedReceiveEnabled()}.</li>
+	 * <li>Long polling does not require a dedicated receiveClient, as the async
+	 * client has its own connection pool. That pool must have at least one
+	 * connection for each receiver that can poll concurrently.</li>
+	 * </ul>
+	 * 
+	 * @return
+	 */
+	public AmazonSQSAsync getAsyncClient() {
+		return asyncClient;
+	}
+
+	/**
+	 * An optional async client used to keep the worker thread from waiting on AWS
+	 * SQS. See {@link #getAsyncClient()}.
+	 * 
+	 * @param asyncClient
+	 */
+	public void setAsyncClient(AmazonSQSAsync asyncClient) {
+		this.asyncClient = asyncClient;
+	}
+
+	/**
+	 * When true, the receive for the next batch is sent with the asyncClient
+	 * while the current batch is processed, so the worker thread does not wait
+	 * on a receive round trip between batches. The messages of the next batch
+	 * are tracked by the visibilityHeartbeat as soon as they are received, and
+	 * are kept invisible while the current batch makes progress. Requires both
+	 * an asyncClient and a visibilityHeartbeat, and cannot be combined with
+	 * prefetching. False by default.
+	 * 
+	 * @return
+	 */
+	public boolean isPipelinedReceiveEnabled() {
+		return pipelinedReceiveEnabled;
+	}
+
+	/**
+	 * When true, the receive for the next batch is sent while the current batch
+	 * is processed. See {@link #isPipelinedReceiveEnabled()}.
+	 * 
+	 * @param pipelinedReceiveEnabled
+	 */
+	public void setPipelinedReceiveEnabled(boolean pipelinedReceiveEnabled) {
+		this.pipelinedReceiveEnabled = pipelinedReceiveEnabled;
+	}
 }
@@ -1,17 +1,30 @@
 package org.sagebionetworks.workers.util.aws.message;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.sagebionetworks.common.util.progress.ProgressCallback;
 import org.sagebionetworks.common.util.progress.ProgressListener;
-import org.sagebionetworks.common.util.progress.ProgressingRunner;
+import org.sagebionetworks.workers.util.BackoffStrategy;
 import org.sagebionetworks.workers.util.Gate;
+import org.sagebionetworks.workers.util.semaphore.WorkAwareRunner;
 
+import com.amazonaws.ClientConfiguration;
+import com.amazonaws.handlers.AsyncHandler;
+import com.amazonaws.services.sqs.AmazonSQSAsync;
 import com.amazonaws.services.sqs.AmazonSQSClient;
 import com.amazonaws.services.sqs.model.ChangeMessageVisibilityRequest;
 import com.amazonaws.services.sqs.model.DeleteMessageRequest;
@@ -24,7 +37,7 @@ import com.amazonaws.services.sqs.model.ReceiveMessageResult;
  * A MessageReceiver that uses long polling to fetch messages from AWS SQS.
  * 
  */
-public class PollingMessageReceiverImpl implements ProgressingRunner {
+public class PollingMessageReceiverImpl implements WorkAwareRunner {
 
 	static final Collection<String> INCLUDED_ATTRIBUTES = Arrays.asList(
 		MessageSystemAttributeName.ApproximateReceiveCount.toString()
@@ -48,15 +61,81 @@ public class PollingMessageReceiverImpl implements ProgressingRunner {
 	 * semaphore lock timeouts are not less than poll time.
 	 */
 	public static int MIN_SEMAPHORE_LOCK_TIMEOUT_SEC = MAX_MESSAGE_POLL_TIME_SEC * 2;
+	
+	/*
+	 * The maximum number of messages that AWS SQS will return for a single receive request.
+	 */
+	public static final int MAX_NUMBER_OF_MESSAGES_PER_RECEIVE = 10;
+	
+	/*
+	 * The maximum wait time in seconds that AWS SQS allows for a long polling receive request.
+	 */
+	public static final int MAX_RECEIVE_WAIT_TIME_SEC = 20;
 
 	private final AmazonSQSClient amazonSQSClient;
+	// Used for receive requests only. Same as amazonSQSClient unless a dedicated client is configured.
+	private final AmazonSQSClient receiveClient;
+	private final int receiveWaitTimeSec;
+	// Null when all requests are synchronous.
+	private final AmazonSQSAsync asyncClient;
+	private final boolean pipelinedReceiveEnabled;
 	private final String messageQueueUrl;
 	private final Integer messageVisibilityTimeoutSec;
+	private final int maxNumberOfMessages;
 	private final MessageDrivenRunner runner;
 	private final Gate gate;
+	private final BackoffStrategy emptyQueueBackoff;
+	// Null when the messages of a batch are processed sequentially.
+	private final ExecutorService messageProcessingExecutor;
+	// Null when batch delete is not enabled.
+	private final MessageDeleteAccumulator deleteAccumulator;
+	// Zero when prefetching is not enabled.
+	private final int prefetchBufferSize;
+	private final int prefetchMinRemainingVisibilitySec;
+	// Null when each progress event changes the message visibility directly.
+	private final MessageVisibilityHeartbeat visibilityHeartbeat;
 	// We do not want to delete any messages when the JVM is being shut down. PLFM-6758.
 	private volatile boolean isShutdown = false; 
 
+	/**
+	 * The progress callback of a single message of a batch that is processed
+	 * concurrently. It is added to the container's callback as a listener by the
+	 * receiver's thread, and forwards each progress event to the listeners of its
+	 * own message, so the worker threads never add or remove listeners of the
+	 * shared callback.
+	 */
+	private static class TaskProgressCallback implements ProgressCallback, ProgressListener {
+
+		private final ProgressCallback containerProgressCallback;
+		private final Set<ProgressListener> listeners = new CopyOnWriteArraySet<>();
+
+		TaskProgressCallback(ProgressCallback containerProgressCallback) {
+			this.containerProgressCallback = containerProgressCallback;
+		}
+
+		@Override
+		public void addProgressListener(ProgressListener listener) {
+			listeners.add(listener);
+		}
+
+		@Override
+		public void removeProgressListener(ProgressListener listener) {
+			listeners.remove(listener);
+		}
+
+		@Override
+		public long getLockTimeoutSeconds() {
+			return containerProgressCallback.getLockTimeoutSeconds();
+		}
+
+		@Override
+		public void progressMade() {
+			for (ProgressListener listener : listeners) {
+				listener.progressMade();
+			}
+		}
+	}
+
 	/**
 	 * 
 	 * @param amazonSQSClient
@@ -104,16 +183,90 @@ public class PollingMessageReceiverImpl implements ProgressingRunner {
 			throw new IllegalArgumentException(
 					"PollingMessageReceiverConfiguration.runner cannot be null");
 		}
+		if (config.getEmptyQueueBackoff() == null) {
+			throw new IllegalArgumentException(
+					"PollingMessageReceiverConfiguration.emptyQueueBackoff cannot be null");
+		}
+		if (config.getReceiveWaitTimeSec() < 0 || config.getReceiveWaitTimeSec() > MAX_RECEIVE_WAIT_TIME_SEC) {
+			throw new IllegalArgumentException(
+					"PollingMessageReceiverConfiguration.receiveWaitTimeSec must be between 0 and " + MAX_RECEIVE_WAIT_TIME_SEC);
+		}
+		if (config.getReceiveWaitTimeSec() > 0) {
+			// An async client does not hold a connection of the shared client while it waits.
+			if (config.getAsyncClient() == null && (config.getReceiveClient() == null || config.getReceiveClient() == amazonSQSClient)) {
+				throw new IllegalArgumentException(
+						"PollingMessageReceiverConfiguration.receiveClient must be a dedicated client when long polling is enabled");
+			}
+			if (config.getSemaphoreLockTimeoutSec() < config.getReceiveWaitTimeSec() * 2) {
+				throw new IllegalArgumentException(
+						"PollingMessageReceiverConfiguration.semaphoreLockTimeoutSec must be at least double the receiveWaitTimeSec");
+			}
+		}
+		if (config.getMaxNumberOfMessages() < 1 || config.getMaxNumberOfMessages() > MAX_NUMBER_OF_MESSAGES_PER_RECEIVE) {
+			throw new IllegalArgumentException(
+					"PollingMessageReceiverConfiguration.maxNumberOfMessages must be between 1 and " + MAX_NUMBER_OF_MESSAGES_PER_RECEIVE);
+		}
+		if (config.getPrefetchBufferSize() < 0) {
+			throw new IllegalArgumentException(
+					"PollingMessageReceiverConfiguration.prefetchBufferSize cannot be negative");
+		}
+		if (config.getPrefetchMinRemainingVisibilitySec() != null && (config.getPrefetchMinRemainingVisibilitySec() < 0
+				|| config.getPrefetchMinRemainingVisibilitySec() >= config.getMessageVisibilityTimeoutSec())) {
+			throw new IllegalArgumentException(
+					"PollingMessageReceiverConfiguration.prefetchMinRemainingVisibilitySec must be between 0 and messageVisibilityTimeoutSec");
+		}
+		if (config.getVisibilityHeartbeat() != null
+				&& config.getVisibilityHeartbeat().getTickIntervalMS() * 2 >= config.getMessageVisibilityTimeoutSec() * 1000L) {
+			throw new IllegalArgumentException(
+					"PollingMessageReceiverConfiguration.messageVisibilityTimeoutSec must be more than double the visibilityHeartbeat tick interval");
+		}
+		if (config.isPipelinedReceiveEnabled()) {
+			if (config.getAsyncClient() == null) {
+				throw new IllegalArgumentException(
+						"PollingMessageReceiverConfiguration.asyncClient is required when pipelinedReceiveEnabled is true");
+			}
+			// The next batch waits while the current batch is processed, so it must be kept invisible.
+			if (config.getVisibilityHeartbeat() == null) {
+				throw new IllegalArgumentException(
+						"PollingMessageReceiverConfiguration.visibilityHeartbeat is required when pipelinedReceiveEnabled is true");
+			}
+			if (config.getPrefetchBufferSize() > 0) {
+				throw new IllegalArgumentException(
+						"PollingMessageReceiverConfiguration.pipelinedReceiveEnabled cannot be combined with a prefetchBufferSize");
+			}
+		}
+		// A processed message that waits longer than its visibility timeout to be deleted is received again.
+		if (config.isBatchDeleteEnabled() && config.getBatchDeleteMaxDelayMS() >= config.getMessageVisibilityTimeoutSec() * 1000L) {
+			throw new IllegalArgumentException(
+					"PollingMessageReceiverConfiguration.batchDeleteMaxDelayMS must be less than the messageVisibilityTimeoutSec");
+		}
 		this.messageQueueUrl = config.getHasQueueUrl().getQueueUrl();
 		this.messageVisibilityTimeoutSec = config.getMessageVisibilityTimeoutSec();
+		this.maxNumberOfMessages = config.getMaxNumberOfMessages();
+		this.receiveClient = config.getReceiveClient() != null ? config.getReceiveClient() : amazonSQSClient;
+		this.receiveWaitTimeSec = config.getReceiveWaitTimeSec();
+		this.asyncClient = config.getAsyncClient();
+		this.pipelinedReceiveEnabled = config.isPipelinedReceiveEnabled();
 		this.gate = config.getGate();
 		this.runner = config.getRunner();
+		this.emptyQueueBackoff = config.getEmptyQueueBackoff();
+		this.messageProcessingExecutor = config.getMessageProcessingExecutor();
+		this.deleteAccumulator = config.isBatchDeleteEnabled()
+				? new MessageDeleteAccumulator(amazonSQSClient, asyncClient, messageQueueUrl, config.getBatchDeleteMaxDelayMS())
+				: null;
+		this.prefetchBufferSize = config.getPrefetchBufferSize();
+		this.prefetchMinRemainingVisibilitySec = config.getPrefetchMinRemainingVisibilitySec() != null
+				? config.getPrefetchMinRemainingVisibilitySec()
+				: config.getMessageVisibilityTimeoutSec() / 3;
+		this.visibilityHeartbeat = config.getVisibilityHeartbeat();
 		
 		isShutdown = false;
 		// We need to know when the JVM is shutting down.
 		Runtime.getRuntime().addShutdownHook(new Thread(()->{
 			isShutdown = true;
-			log.warn("JVM is shutting down. No messages will be deleted.");
+			log.warn("JVM is shutting down. Flushing pending deletes; no other messages will be deleted.");
+			// Messages that were processed before the shutdown still need to be deleted.
+			flushDeletes();
 		}));
 	}
 
@@ -125,70 +278,489 @@ public class PollingMessageReceiverImpl implements ProgressingRunner {
 	 */
 	@Override
 	public void run(final ProgressCallback containerProgressCallback) throws Exception {
-		Message message = null;
+		try {
+			if (prefetchBufferSize > 0) {
+				runWithPrefetch(containerProgressCallback);
+			} else if (pipelinedReceiveEnabled) {
+				runWithPipelinedPolling(containerProgressCallback);
+			} else {
+				runWithPolling(containerProgressCallback);
+			}
+		} finally {
+			flushDeletes();
+		}
+		log.trace("There is no more messages for "+runner.getClass().getSimpleName());
+	}
+
+	/**
+	 * Poll for a single batch of messages and process it. Unlike
+	 * {@link #run(ProgressCallback)}, the receive is neither prefetched nor
+	 * pipelined and an empty queue is not backed off, so a
+	 * {@link org.sagebionetworks.workers.util.semaphore.SemaphoreGatedRunnerImpl}
+	 * with a sticky lease can call this repeatedly while it holds its lock.
+	 * 
+	 * @param containerProgressCallback
+	 * @return True if the poll returned a full batch, so more messages are likely
+	 *         waiting on the queue.
+	 * @throws Exception
+	 */
+	@Override
+	public boolean runOnce(final ProgressCallback containerProgressCallback) throws Exception {
+		if (!canRun()) {
+			return false;
+		}
+		List<Message> messages = receiveMessages();
+		if (!messages.isEmpty()) {
+			processBatch(containerProgressCallback, messages);
+		}
+		if (deleteAccumulator != null) {
+			deleteAccumulator.flushIfExpired();
+		}
+		return messages.size() == this.maxNumberOfMessages;
+	}
+	
+	/**
+	 * Poll for a batch of messages, process it, and repeat until the gate closes.
+	 * 
+	 * @param containerProgressCallback
+	 * @throws Exception
+	 */
+	private void runWithPolling(final ProgressCallback containerProgressCallback) throws Exception {
+		// The number of consecutive polls that found the queue empty.
+		int emptyPollCount = 0;
 		while(true) {
-			if (gate != null && !gate.canRun()) {
-				log.trace(gate.getClass().getSimpleName() +" is closed for " + runner.getClass().getSimpleName());
+			if (!canRun()) {
 				break;
 			}
-			message = pollForMessage();
-			if(message != null){
-				processMessage(containerProgressCallback, message);
-			} else {
-				Thread.sleep(1000);
+			List<Message> messages = receiveMessages();
+			if(!messages.isEmpty()){
+				emptyPollCount = 0;
+				processBatch(containerProgressCallback, messages);
+			} else if (receiveWaitTimeSec == 0) {
+				// A long poll has already waited for messages, so only short polls back off.
+				emptyPollCount++;
+				Thread.sleep(emptyQueueBackoff.getDelayMS(emptyPollCount));
+			}
+			if (deleteAccumulator != null) {
+				deleteAccumulator.flushIfExpired();
+			}
+		}
+	}
+	
+	/**
+	 * Same as {@link #runWithPolling(ProgressCallback)} except that the receive
+	 * for the next batch is sent with the async client before the current batch
+	 * is processed, so the worker thread does not wait on a receive round trip
+	 * between batches. The messages of the next batch are tracked by the
+	 * visibility heartbeat as soon as they are received, and are kept invisible
+	 * while the current batch makes progress. A batch that is still pending when
+	 * the gate closes is returned to the queue.
+	 * 
+	 * @param containerProgressCallback
+	 * @throws Exception
+	 */
+	private void runWithPipelinedPolling(final ProgressCallback containerProgressCallback) throws Exception {
+		// The number of consecutive polls that found the queue empty.
+		int emptyPollCount = 0;
+		Future<ReceiveMessageResult> next = null;
+		List<Message> nextMessages = null;
+		try {
+			while (canRun()) {
+				Future<ReceiveMessageResult> current = next;
+				next = null;
+				if (current == null) {
+					current = pollForMessagesAsync(new ArrayList<>());
+				}
+				List<Message> messages = getMessages(current.get(), this.maxNumberOfMessages);
+				if (!messages.isEmpty()) {
+					emptyPollCount = 0;
+					// Receive the next batch while this batch is processed.
+					List<Message> pending = new CopyOnWriteArrayList<>();
+					nextMessages = pending;
+					next = pollForMessagesAsync(pending);
+					ProgressListener pendingListener = () -> {
+						for (Message waiting : pending) {
+							visibilityHeartbeat.progressMade(messageQueueUrl, waiting);
+						}
+					};
+					containerProgressCallback.addProgressListener(pendingListener);
+					try {
+						processBatch(containerProgressCallback, messages);
+					} finally {
+						containerProgressCallback.removeProgressListener(pendingListener);
+					}
+				} else if (receiveWaitTimeSec == 0) {
+					// A long poll has already waited for messages, so only short polls back off.
+					emptyPollCount++;
+					Thread.sleep(emptyQueueBackoff.getDelayMS(emptyPollCount));
+				}
+				if (deleteAccumulator != null) {
+					deleteAccumulator.flushIfExpired();
+				}
+			}
+		} finally {
+			if (next != null) {
+				releasePending(next, nextMessages);
 			}
 		}
-		log.trace("There is no more messages for "+runner.getClass().getSimpleName());
 	}
 	
 	/**
-	 * Poll for a single message.
+	 * Wait for a pending receive that will not be processed and return its
+	 * messages to the queue.
+	 * 
+	 * @param pending
+	 * @param pendingMessages The messages of the receive, once it has completed.
+	 */
+	private void releasePending(Future<ReceiveMessageResult> pending, List<Message> pendingMessages) {
+		try {
+			pending.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			log.warn("Interrupted while waiting for a pending receive. Its messages will become visible when their visibility timeout expires.");
+		} catch (Exception e) {
+			log.warn("Pending receive failed", e);
+		}
+		// Only the messages that were tracked need to be returned.
+		for (Message message : pendingMessages) {
+			untrack(message);
+			releaseMessage(message);
+		}
+	}
+	
+	/**
+	 * Process messages from a {@link MessagePrefetcher} until the gate closes. The
+	 * fetcher thread only runs while this method is running (while the caller
+	 * holds its semaphore lock), and any message left in the buffer is returned
+	 * to the queue before this method returns.
+	 * 
+	 * @param containerProgressCallback
+	 * @throws Exception
+	 */
+	private void runWithPrefetch(final ProgressCallback containerProgressCallback) throws Exception {
+		// Visibility changes are synchronous so the prefetcher can detect a message that can no longer be extended.
+		MessagePrefetcher prefetcher = new MessagePrefetcher(this::pollForMessages, this::changeMessageVisibility,
+				emptyQueueBackoff, receiveWaitTimeSec > 0, prefetchBufferSize, maxNumberOfMessages,
+				messageVisibilityTimeoutSec, prefetchMinRemainingVisibilitySec, System::currentTimeMillis);
+		Thread fetcher = new Thread(prefetcher, "message-prefetcher-" + runner.getClass().getSimpleName());
+		fetcher.setDaemon(true);
+		fetcher.start();
+		try {
+			while (canRun()) {
+				// Wait for a limited time so the gate is checked regularly.
+				List<Message> messages = prefetcher.take(maxNumberOfMessages, MAX_MESSAGE_POLL_TIME_SEC * 1000L);
+				if (!messages.isEmpty()) {
+					processBatch(containerProgressCallback, messages);
+				}
+				if (deleteAccumulator != null) {
+					deleteAccumulator.flushIfExpired();
+				}
+			}
+		} finally {
+			// A receive that is still in flight is released by the fetcher.
+			prefetcher.stop();
+			for (Message buffered : prefetcher.drain()) {
+				releaseMessage(buffered);
+			}
+		}
+	}
+	
+	private void processBatch(final ProgressCallback containerProgressCallback, final List<Message> messages) throws Exception {
+		if (messageProcessingExecutor != null && messages.size() > 1) {
+			processMessagesConcurrently(containerProgressCallback, messages);
+		} else {
+			processMessages(containerProgressCallback, messages);
+		}
+	}
+	
+	private boolean canRun() {
+		if (gate != null && !gate.canRun()) {
+			log.trace(gate.getClass().getSimpleName() +" is closed for " + runner.getClass().getSimpleName());
+			return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Poll for a batch of up to maxNumberOfMessages messages.
+	 * @param maxNumberOfMessages
+	 * @return The received messages. Empty if there are no messages on the queue.
+	 */
+	private List<Message> pollForMessages(int maxNumberOfMessages){
+		log.trace("Getting messages for " + runner.getClass().getSimpleName());
+		ReceiveMessageResult results = this.receiveClient.receiveMessage(createReceiveMessageRequest(maxNumberOfMessages));
+		return getMessages(results, maxNumberOfMessages);
+	}
+	
+	/**
+	 * Receive a batch of up to maxNumberOfMessages messages, waiting for the
+	 * result. A long poll must not hold a connection of the shared client, so the
+	 * async client is used when there is one.
+	 * 
+	 * @return The received messages. Empty if there are no messages on the queue.
+	 * @throws Exception
+	 */
+	private List<Message> receiveMessages() throws Exception {
+		if (asyncClient != null) {
+			return getMessages(pollForMessagesAsync().get(), this.maxNumberOfMessages);
+		}
+		return pollForMessages(this.maxNumberOfMessages);
+	}
+	
+	/**
+	 * Start an asynchronous poll for a batch of up to maxNumberOfMessages messages.
+	 * @return
+	 */
+	private Future<ReceiveMessageResult> pollForMessagesAsync() {
+		log.trace("Getting messages asynchronously for " + runner.getClass().getSimpleName());
+		return this.asyncClient.receiveMessageAsync(createReceiveMessageRequest(this.maxNumberOfMessages));
+	}
+	
+	/**
+	 * Start an asynchronous poll for a batch of up to maxNumberOfMessages
+	 * messages. Each message is tracked by the visibility heartbeat and added to
+	 * the given list as soon as it is received, before the returned future
+	 * completes.
+	 * 
+	 * @param received
 	 * @return
 	 */
-	private Message pollForMessage(){
-		log.trace("Getting message for " + runner.getClass().getSimpleName());
+	private Future<ReceiveMessageResult> pollForMessagesAsync(final List<Message> received) {
+		log.trace("Getting messages asynchronously for " + runner.getClass().getSimpleName());
+		return this.asyncClient.receiveMessageAsync(createReceiveMessageRequest(this.maxNumberOfMessages),
+				new AsyncHandler<ReceiveMessageRequest, ReceiveMessageResult>() {
+
+					@Override
+					public void onError(Exception exception) {
+						// thrown to the caller by the future.
+					}
+
+					@Override
+					public void onSuccess(ReceiveMessageRequest request, ReceiveMessageResult result) {
+						if (result == null || result.getMessages() == null) {
+							return;
+						}
+						for (Message message : result.getMessages()) {
+							if (message != null) {
+								track(message);
+								received.add(message);
+							}
+						}
+					}
+				});
+	}
+	
+	private ReceiveMessageRequest createReceiveMessageRequest(int maxNumberOfMessages) {
 		ReceiveMessageRequest request = new ReceiveMessageRequest();
 		request.setAttributeNames(INCLUDED_ATTRIBUTES);
-		request.setMaxNumberOfMessages(1);
+		request.setMaxNumberOfMessages(maxNumberOfMessages);
 		request.setQueueUrl(this.messageQueueUrl);
 		request.setVisibilityTimeout(this.messageVisibilityTimeoutSec);
-		// NOTE: it is very important that setWaitTimeSeconds is kept at 0. Otherwise,
+		// NOTE: it is very important that setWaitTimeSeconds is kept at 0 when using the shared client. Otherwise,
 		// the call will wait by holding on to a connection the connection pool,
 		// thus preventing other worker threads from checking for messages until this thread receives a message.
-		request.setWaitTimeSeconds(0);
-		// Poll for one message.
-		ReceiveMessageResult results = this.amazonSQSClient.receiveMessage(request);
+		// A wait time is only allowed with a dedicated receive client or an async client (see constructor).
+		request.setWaitTimeSeconds(this.receiveWaitTimeSec);
+		return request;
+	}
 	
+	/**
+	 * @param results
+	 * @param maxNumberOfMessages
+	 * @return The received messages. Empty if there are no messages on the queue.
+	 */
+	private static List<Message> getMessages(ReceiveMessageResult results, int maxNumberOfMessages) {
 		if (results == null || results.getMessages() == null || results.getMessages().isEmpty()) {
-			return null;
+			return Collections.emptyList();
 		}
 		
 		List<Message> messages = results.getMessages();
 	
-		if (messages.size() != 1) {
-			throw new IllegalStateException("Expected only one message but received: " + messages.size());
+		if (messages.size() > maxNumberOfMessages) {
+			throw new IllegalStateException("Expected at most " + maxNumberOfMessages + " message(s) but received: " + messages.size());
 		}
 		
-		final Message message = messages.get(0);
-		
-		if (message == null) {
+		if (messages.contains(null)) {
 			throw new IllegalStateException("Message list contains a null message");
 		}
 		
-		return message;
+		return messages;
+	}
+	
+	/**
+	 * Process each message of the given batch, in order. While a message is being
+	 * processed, progress events will also refresh the visibility of the messages
+	 * of the batch that are still waiting to be processed. If the gate closes or
+	 * the runner fails before the batch is drained, the remaining messages are
+	 * immediately returned to the queue.
+	 * 
+	 * @param containerProgressCallback
+	 * @param messages
+	 * @throws Exception
+	 */
+	private void processMessages(final ProgressCallback containerProgressCallback, final List<Message> messages) throws Exception {
+		// The waiting messages are kept alive while the current message makes progress.
+		for (Message message : messages) {
+			track(message);
+		}
+		int index = 0;
+		try {
+			while (index < messages.size()) {
+				if (index > 0 && !canRun()) {
+					break;
+				}
+				Message message = messages.get(index);
+				index++;
+				processMessage(containerProgressCallback, message, messages.subList(index, messages.size()));
+			}
+		} finally {
+			for (Message unprocessed : messages.subList(index, messages.size())) {
+				untrack(unprocessed);
+				releaseMessage(unprocessed);
+			}
+		}
+	}
+
+	/**
+	 * Process each message of the given batch on the messageProcessingExecutor
+	 * and wait for all of them to complete. Each message has its own progress
+	 * callback and is deleted or returned to the queue independently. If the gate
+	 * closes before every message is submitted, the remaining messages are
+	 * immediately returned to the queue. If any message fails, the first failure
+	 * is thrown after the entire batch has completed.
+	 * 
+	 * @param containerProgressCallback
+	 * @param messages
+	 * @throws Exception
+	 */
+	private void processMessagesConcurrently(final ProgressCallback containerProgressCallback, final List<Message> messages) throws Exception {
+		List<Future<Void>> futures = new ArrayList<>(messages.size());
+		// Set by whichever comes first: the task starting, or an interrupt releasing the message.
+		List<AtomicBoolean> claimed = new ArrayList<>(messages.size());
+		// Only this thread adds or removes listeners of the container's callback.
+		List<TaskProgressCallback> taskCallbacks = new ArrayList<>(messages.size());
+		try {
+			submitMessages(containerProgressCallback, messages, futures, claimed, taskCallbacks);
+			waitForMessages(messages, futures, claimed);
+		} finally {
+			for (TaskProgressCallback taskCallback : taskCallbacks) {
+				containerProgressCallback.removeProgressListener(taskCallback);
+			}
+		}
+	}
+
+	/**
+	 * Submit each message of the given batch to the messageProcessingExecutor
+	 * until the gate closes. Any message that is not submitted is returned to the
+	 * queue.
+	 * 
+	 * @param containerProgressCallback
+	 * @param messages
+	 * @param futures                   The future of each submitted message.
+	 * @param claimed                   The claim of each submitted message.
+	 * @param taskCallbacks             The callback of each submitted message.
+	 */
+	private void submitMessages(final ProgressCallback containerProgressCallback, final List<Message> messages,
+			List<Future<Void>> futures, List<AtomicBoolean> claimed, List<TaskProgressCallback> taskCallbacks) {
+		try {
+			for (Message message : messages) {
+				if (!futures.isEmpty() && !canRun()) {
+					break;
+				}
+				track(message);
+				AtomicBoolean messageClaimed = new AtomicBoolean(false);
+				TaskProgressCallback taskCallback = new TaskProgressCallback(containerProgressCallback);
+				containerProgressCallback.addProgressListener(taskCallback);
+				taskCallbacks.add(taskCallback);
+				futures.add(messageProcessingExecutor.submit(() -> {
+					if (messageClaimed.compareAndSet(false, true)) {
+						processMessage(taskCallback, message, Collections.emptyList());
+					}
+					return null;
+				}));
+				claimed.add(messageClaimed);
+			}
+		} finally {
+			// Any message that was not submitted is returned to the queue.
+			for (Message unsubmitted : messages.subList(futures.size(), messages.size())) {
+				untrack(unsubmitted);
+				releaseMessage(unsubmitted);
+			}
+		}
+	}
+
+	/**
+	 * Wait for each submitted message to complete.
+	 * 
+	 * @param messages
+	 * @param futures
+	 * @param claimed
+	 * @throws Exception The first failure of a message, once all of them have
+	 *                   completed.
+	 */
+	private void waitForMessages(final List<Message> messages, List<Future<Void>> futures, List<AtomicBoolean> claimed)
+			throws Exception {
+		Throwable firstFailure = null;
+		for (int i = 0; i < futures.size(); i++) {
+			try {
+				futures.get(i).get();
+			} catch (ExecutionException e) {
+				if (firstFailure == null) {
+					firstFailure = e.getCause();
+				}
+			} catch (InterruptedException e) {
+				// Claim the messages whose tasks have not started before cancelling any task,
+				// so a cancelled task cannot free a thread for one of them.
+				List<Message> unstarted = new ArrayList<>();
+				for (int j = i; j < futures.size(); j++) {
+					if (claimed.get(j).compareAndSet(false, true)) {
+						unstarted.add(messages.get(j));
+					}
+				}
+				for (Future<Void> future : futures.subList(i, futures.size())) {
+					future.cancel(true);
+				}
+				// A message whose task never started is returned to the queue.
+				for (Message message : unstarted) {
+					untrack(message);
+					releaseMessage(message);
+				}
+				throw e;
+			}
+		}
+		if (firstFailure instanceof Error) {
+			throw (Error) firstFailure;
+		}
+		if (firstFailure != null) {
+			throw (Exception) firstFailure;
+		}
 	}
 
 	/**
 	 * Process a single message.
 	 * @param containerProgressCallback
 	 * @param message
+	 * @param waitingMessages Messages of the same batch that are waiting to be processed after this message.
 	 * @throws Exception
 	 */
-	private void processMessage(final ProgressCallback containerProgressCallback, final Message message) throws Exception {
+	private void processMessage(final ProgressCallback containerProgressCallback, final Message message, final List<Message> waitingMessages) throws Exception {
 		log.trace("Processing message for "+runner.getClass().getSimpleName());
 		boolean deleteMessage = true;
 		// Listen to callback events
-		ProgressListener listener = () -> resetMessageVisibilityTimeout(message);
+		ProgressListener listener = () -> {
+			if (visibilityHeartbeat != null) {
+				// The heartbeat extends the visibility from its own thread.
+				visibilityHeartbeat.progressMade(messageQueueUrl, message);
+				for (Message waiting : waitingMessages) {
+					visibilityHeartbeat.progressMade(messageQueueUrl, waiting);
+				}
+				return;
+			}
+			resetMessageVisibilityTimeout(message);
+			for (Message waiting : waitingMessages) {
+				resetMessageVisibilityTimeout(waiting);
+			}
+		};
 		// add a listener for this message
 		containerProgressCallback.addProgressListener(listener);
 		try {
@@ -202,17 +774,33 @@ public class PollingMessageReceiverImpl implements ProgressingRunner {
 				log.debug("Message will be returned to the queue", e);
 			}
 			// Ensure this message is visible again within a short period of time
+			untrack(message);
 			int retryVisibility = getRetryVisibilityTimeout(message);
 			resetMessageVisibilityTimeout(message, retryVisibility);
 		} finally {
 			// unconditionally remove the listener for this message
 			containerProgressCallback.removeProgressListener(listener);
 			if (deleteMessage) {
+				untrack(message);
 				deleteMessage(message);
 			}
 		}
 	}
 	
+	private void track(Message message) {
+		if (visibilityHeartbeat != null) {
+			// A prefetched message is only known to have the minimum remaining visibility.
+			int remainingVisibilitySec = prefetchBufferSize > 0 ? prefetchMinRemainingVisibilitySec : messageVisibilityTimeoutSec;
+			visibilityHeartbeat.track(messageQueueUrl, message, messageVisibilityTimeoutSec, remainingVisibilitySec);
+		}
+	}
+	
+	private void untrack(Message message) {
+		if (visibilityHeartbeat != null) {
+			visibilityHeartbeat.untrack(messageQueueUrl, message);
+		}
+	}
+	
 	private static int getRetryVisibilityTimeout(Message message) {
 		Map<String, String> msgAttributes = message.getAttributes();
 		
@@ -237,6 +825,29 @@ public class PollingMessageReceiverImpl implements ProgressingRunner {
 		return Math.min(retryCount, RETRY_MAX_MESSAGE_VISIBILITY_TIMEOUT_SEC);
 	}
 	
+	/**
+	 * Create the configuration for a client dedicated to long polling receive
+	 * requests. Each long poll holds a connection for up to
+	 * {@link #MAX_RECEIVE_WAIT_TIME_SEC} seconds, so the connection pool is sized
+	 * to the number of receivers that can poll concurrently. For a
+	 * MessageDrivenWorkerStack this is the semaphore max lock count, summed over
+	 * all of the stacks sharing the client.
+	 * 
+	 * @param numberOfReceivers The maximum number of receivers that will poll
+	 *                          concurrently with the client.
+	 * @return
+	 */
+	public static ClientConfiguration createReceiveClientConfiguration(int numberOfReceivers) {
+		if (numberOfReceivers < 1) {
+			throw new IllegalArgumentException("NumberOfReceivers must be at least one");
+		}
+		ClientConfiguration configuration = new ClientConfiguration();
+		configuration.setMaxConnections(numberOfReceivers);
+		// The socket must stay open for at least the duration of the longest poll.
+		configuration.setSocketTimeout(Math.max(configuration.getSocketTimeout(), (MAX_RECEIVE_WAIT_TIME_SEC + 10) * 1000));
+		return configuration;
+	}
+	
 	/**
 	 * Force the permanent shutdown of this object.
 	 */
@@ -244,9 +855,20 @@ public class PollingMessageReceiverImpl implements ProgressingRunner {
 		isShutdown = true;
 	}
 	
+	/**
+	 * Delete any processed messages that are waiting for a batch delete.
+	 */
+	void flushDeletes() {
+		if (deleteAccumulator != null) {
+			deleteAccumulator.flush();
+		}
+	}
+	
 
 	/**
-	 * Delete the given message from the queue.
+	 * Delete the given message from the queue. When batch delete is enabled the
+	 * message is added to the {@link MessageDeleteAccumulator} and deleted with the
+	 * next batch.
 	 * 
 	 * @param message
 	 */
@@ -255,7 +877,31 @@ public class PollingMessageReceiverImpl implements ProgressingRunner {
 			log.error(String.format("The message will not be deleted because the JVM is shutting down. QueueUrl: '%s' messageId: '%s'", this.messageQueueUrl, message.getMessageId()));
 			return;
 		}
-		this.amazonSQSClient.deleteMessage(new DeleteMessageRequest(this.messageQueueUrl, message.getReceiptHandle()));
+		if (deleteAccumulator != null) {
+			deleteAccumulator.add(message);
+			return;
+		}
+		DeleteMessageRequest deleteRequest = new DeleteMessageRequest(this.messageQueueUrl, message.getReceiptHandle());
+		if (asyncClient != null) {
+			asyncClient.deleteMessageAsync(deleteRequest, new LoggingAsyncHandler<>(String.format(
+					"Failed to delete message. QueueUrl: '%s' messageId: '%s'", this.messageQueueUrl, message.getMessageId())));
+			return;
+		}
+		this.amazonSQSClient.deleteMessage(deleteRequest);
+	}
+
+	/**
+	 * Return a received message that will not be processed to the queue so it
+	 * becomes immediately visible to other receivers.
+	 * 
+	 * @param message
+	 */
+	protected void releaseMessage(Message message) {
+		try {
+			resetMessageVisibilityTimeout(message, 0);
+		} catch (Exception e) {
+			log.warn(String.format("Failed to release message. QueueUrl: '%s' messageId: '%s'", this.messageQueueUrl, message.getMessageId()), e);
+		}
 	}
 
 	/**
@@ -274,11 +920,30 @@ public class PollingMessageReceiverImpl implements ProgressingRunner {
 	 * @param visibilityTimeoutSec
 	 */
 	protected void resetMessageVisibilityTimeout(Message message, int visibilityTimeoutSec) {
+		if (asyncClient != null) {
+			asyncClient.changeMessageVisibilityAsync(createChangeMessageVisibilityRequest(message, visibilityTimeoutSec),
+					new LoggingAsyncHandler<>(String.format("Failed to change message visibility. QueueUrl: '%s' messageId: '%s'",
+							this.messageQueueUrl, message.getMessageId())));
+			return;
+		}
+		changeMessageVisibility(message, visibilityTimeoutSec);
+	}
+	
+	/**
+	 * Synchronously change the visibility timeout of the given message.
+	 * @param message
+	 * @param visibilityTimeoutSec
+	 */
+	private void changeMessageVisibility(Message message, int visibilityTimeoutSec) {
+		this.amazonSQSClient.changeMessageVisibility(createChangeMessageVisibilityRequest(message, visibilityTimeoutSec));
+	}
+	
+	private ChangeMessageVisibilityRequest createChangeMessageVisibilityRequest(Message message, int visibilityTimeoutSec) {
 		ChangeMessageVisibilityRequest changeRequest = new ChangeMessageVisibilityRequest();
 		changeRequest.setQueueUrl(this.messageQueueUrl);
 		changeRequest.setReceiptHandle(message.getReceiptHandle());
 		changeRequest.setVisibilityTimeout(visibilityTimeoutSec);
-		this.amazonSQSClient.changeMessageVisibility(changeRequest);
+		return changeRequest;
 	}
 
 }
@@ -0,0 +1,54 @@
+package org.sagebionetworks.workers.util.semaphore;
+
+import java.util.List;
+import java.util.Map;
+
+import org.sagebionetworks.database.semaphore.CountingSemaphore;
+import org.sagebionetworks.database.semaphore.LockReleaseFailedException;
+
+/**
+ * A {@link CountingSemaphore} that can acquire locks on many keys in a single
+ * call, so an implementation backed by a database can do it in one round trip
+ * instead of one per key.
+ * <p>
+ * When the CountingSemaphore provided to {@link WriteReadSemaphoreImpl}
+ * implements this interface, read locks on any number of keys are acquired
+ * with a single call to
+ * {@link #attemptToAcquireLocks(List, List, long, int, String)}, and each
+ * progress event refreshes all of them with a single call to
+ * {@link #refreshLockTimeouts(Map, long)}.
+ */
+public interface BulkCountingSemaphore extends CountingSemaphore {
+
+	/**
+	 * Attempt to acquire one lock on each of the given keys, all or nothing.
+	 * <p>
+	 * If any of the blocking keys has an unexpired lock, or any of the keys
+	 * already has maxLockCount unexpired locks, then no lock is acquired and the
+	 * result identifies the first such key. The blocking keys are checked first,
+	 * and then the keys, each in the order provided. Otherwise, a lock is
+	 * acquired on each of the keys. The check and the acquisition must be atomic
+	 * with respect to all other calls on the same keys.
+	 * 
+	 * @param blockingKeys Keys that must not have any unexpired lock. No lock is
+	 *                     acquired on these keys. Can be empty.
+	 * @param keys         The keys to lock.
+	 * @param timeoutSec   The timeout of each acquired lock in seconds.
+	 * @param maxLockCount The maximum number of unexpired locks for each key.
+	 * @param context      The caller's context stored with each acquired lock.
+	 * @return
+	 */
+	BulkLockResult attemptToAcquireLocks(List<String> blockingKeys, List<String> keys, long timeoutSec,
+			int maxLockCount, String context);
+
+	/**
+	 * Refresh the timeout of each of the given locks with a single call. Every
+	 * lock that is still held is refreshed, even if others cannot be.
+	 * 
+	 * @param keyToToken The token of each lock to refresh by key.
+	 * @param timeoutSec The new timeout of each lock in seconds.
+	 * @throws LockReleaseFailedException If any of the locks has expired or was
+	 *                                    never issued.
+	 */
+	void refreshLockTimeouts(Map<String, String> keyToToken, long timeoutSec);
+}
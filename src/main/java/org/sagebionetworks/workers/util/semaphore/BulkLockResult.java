@@ -0,0 +1,117 @@
+package org.sagebionetworks.workers.util.semaphore;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * The result of
+ * {@link BulkCountingSemaphore#attemptToAcquireLocks(java.util.List, java.util.List, long, int, String)}.
+ * Either every lock was acquired, or none was acquired and the key that was
+ * unavailable is identified.
+ */
+public class BulkLockResult {
+
+	private final Map<String, String> keyToToken;
+	private final String unavailableKey;
+	private final String unavailableKeyContext;
+
+	private BulkLockResult(Map<String, String> keyToToken, String unavailableKey, String unavailableKeyContext) {
+		this.keyToToken = keyToToken;
+		this.unavailableKey = unavailableKey;
+		this.unavailableKeyContext = unavailableKeyContext;
+	}
+
+	/**
+	 * Every lock was acquired.
+	 * 
+	 * @param keyToToken The token of the lock acquired for each key.
+	 * @return
+	 */
+	public static BulkLockResult acquired(Map<String, String> keyToToken) {
+		if (keyToToken == null) {
+			throw new IllegalArgumentException("KeyToToken cannot be null");
+		}
+		return new BulkLockResult(Collections.unmodifiableMap(new LinkedHashMap<>(keyToToken)), null, null);
+	}
+
+	/**
+	 * No lock was acquired because the given key was unavailable.
+	 * 
+	 * @param unavailableKey        The first key that was unavailable.
+	 * @param unavailableKeyContext The context of a current holder of the
+	 *                              unavailable key. Can be null.
+	 * @return
+	 */
+	public static BulkLockResult unavailable(String unavailableKey, String unavailableKeyContext) {
+		if (unavailableKey == null) {
+			throw new IllegalArgumentException("UnavailableKey cannot be null");
+		}
+		return new BulkLockResult(Collections.emptyMap(), unavailableKey, unavailableKeyContext);
+	}
+
+	/**
+	 * Was every lock acquired?
+	 * 
+	 * @return
+	 */
+	public boolean isAcquired() {
+		return unavailableKey == null;
+	}
+
+	/**
+	 * The token of the lock acquired for each key. Empty if the locks were not
+	 * acquired.
+	 * 
+	 * @return
+	 */
+	public Map<String, String> getKeyToToken() {
+		return keyToToken;
+	}
+
+	/**
+	 * The first key that was unavailable. Null if the locks were acquired.
+	 * 
+	 * @return
+	 */
+	public String getUnavailableKey() {
+		return unavailableKey;
+	}
+
+	/**
+	 * The context of a current holder of the unavailable key.
+	 * 
+	 * @return {@link Optional#empty()} if the locks were acquired, or the holder
+	 *         of the key is unknown.
+	 */
+	public Optional<String> getUnavailableKeyContext() {
+		return Optional.ofNullable(unavailableKeyContext);
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(keyToToken, unavailableKey, unavailableKeyContext);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null)
+			return false;
+		if (getClass() != obj.getClass())
+			return false;
+		BulkLockResult other = (BulkLockResult) obj;
+		return Objects.equals(keyToToken, other.keyToToken) && Objects.equals(unavailableKey, other.unavailableKey)
+				&& Objects.equals(unavailableKeyContext, other.unavailableKeyContext);
+	}
+
+	@Override
+	public String toString() {
+		return "BulkLockResult [keyToToken=" + keyToToken + ", unavailableKey=" + unavailableKey
+				+ ", unavailableKeyContext=" + unavailableKeyContext + "]";
+	}
+
+}
@@ -1,5 +1,10 @@
 package org.sagebionetworks.workers.util.semaphore;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeSet;
+
 public class Constants {
 
 	public static final int MINIMUM_LOCK_TIMEOUT_SEC = 2;
@@ -10,7 +15,24 @@ public class Constants {
 	public static final long THROTTLE_SLEEP_FREQUENCY_MS = 2000;
 	public static final String WRITER_LOCK_SUFFIX = "_WRITER_LOCK";
 	public static final String READER_LOCK_SUFFIX = "_READER_LOCK";
+	public static final String WRITER_INTENT_SUFFIX = "_WRITER_INTENT";
+	public static final String DESCENDANT_LOCK_SUFFIX = "_DESCENDANT_LOCK";
 	public static final int WRITER_MAX_LOCKS = 1;
+	/**
+	 * The maximum number of writers that can announce that they are waiting for
+	 * the same key.
+	 */
+	public static final int WRITER_INTENT_MAX_LOCKS = 1000;
+	/**
+	 * The default maximum number of locks below a hierarchical key that can be
+	 * held at the same time.
+	 */
+	public static final int DESCENDANT_MAX_LOCKS = 1000;
+	/**
+	 * Separates the levels of a hierarchical lock key, for example
+	 * "project/123/table/456".
+	 */
+	public static final char KEY_PATH_SEPARATOR = '/';
 	
 	public static String createWriterLockKey(final String lockKey){
 		return lockKey + Constants.WRITER_LOCK_SUFFIX;
@@ -19,4 +41,44 @@ public class Constants {
 	public static String createReaderLockKey(final String lockKey){
 		return lockKey + Constants.READER_LOCK_SUFFIX;
 	}
+
+	public static String createWriterIntentLockKey(final String lockKey){
+		return lockKey + Constants.WRITER_INTENT_SUFFIX;
+	}
+
+	public static String createDescendantLockKey(final String lockKey){
+		return lockKey + Constants.DESCENDANT_LOCK_SUFFIX;
+	}
+
+	/**
+	 * The given lock keys sorted with duplicates removed. Callers that take
+	 * their locks in this order cannot hold part of each other's keys while
+	 * waiting on the rest.
+	 * 
+	 * @param lockKeys
+	 * @return
+	 */
+	public static String[] createCanonicalLockKeys(final String... lockKeys) {
+		return new TreeSet<>(Arrays.asList(lockKeys)).toArray(new String[0]);
+	}
+
+	/**
+	 * The keys of every level above the given hierarchical lock key, from the
+	 * top down. For example, the ancestors of "project/123/table" are "project"
+	 * and "project/123".
+	 * 
+	 * @param lockKey
+	 * @return Empty if the key has a single level.
+	 */
+	public static List<String> createAncestorLockKeys(final String lockKey) {
+		List<String> ancestors = new ArrayList<>();
+		int index = lockKey.indexOf(KEY_PATH_SEPARATOR);
+		while (index >= 0) {
+			if (index > 0) {
+				ancestors.add(lockKey.substring(0, index));
+			}
+			index = lockKey.indexOf(KEY_PATH_SEPARATOR, index + 1);
+		}
+		return ancestors;
+	}
 }
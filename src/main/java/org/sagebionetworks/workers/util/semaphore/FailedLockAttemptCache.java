@@ -0,0 +1,173 @@
+package org.sagebionetworks.workers.util.semaphore;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.LongSupplier;
+
+/**
+ * A short lived cache of the lock keys that recently failed to be acquired,
+ * so that repeated attempts on a saturated key can skip the database until the
+ * entry expires.
+ * <p>
+ * A jitter factor can be provided to randomly shorten the time to live of each
+ * entry by up to the given fraction, so that callers that were turned away at
+ * the same time do not all return to the database at the same time.
+ * <p>
+ * Expired entries are removed when they are looked up, and all expired entries
+ * are swept once the cache holds more than the sweep threshold, so the size of
+ * the cache is bounded by the rate of failures over the time to live.
+ * <p>
+ * This class is thread-safe.
+ */
+public class FailedLockAttemptCache {
+
+	/*
+	 * The number of entries above which expired entries are swept on each new failure.
+	 */
+	public static final int SWEEP_THRESHOLD = 1000;
+
+	private static class Failure {
+		private final long expiresAtMS;
+		private final String holdersContext;
+
+		Failure(long expiresAtMS, String holdersContext) {
+			this.expiresAtMS = expiresAtMS;
+			this.holdersContext = holdersContext;
+		}
+	}
+
+	private final long timeToLiveMS;
+	private final double jitterFactor;
+	private final LongSupplier clock;
+	// lock key -> failure
+	private final Map<String, Failure> failures;
+
+	/**
+	 * Cache without jitter.
+	 *
+	 * @param timeToLiveMS How long a failure is remembered. Zero disables the
+	 *                     cache.
+	 */
+	public FailedLockAttemptCache(long timeToLiveMS) {
+		this(timeToLiveMS, 0.0);
+	}
+
+	/**
+	 *
+	 * @param timeToLiveMS How long a failure is remembered. Zero disables the
+	 *                     cache.
+	 * @param jitterFactor The time to live of each entry will be randomly
+	 *                     shortened by up to this fraction. Must be between 0.0
+	 *                     (no jitter) and 1.0.
+	 */
+	public FailedLockAttemptCache(long timeToLiveMS, double jitterFactor) {
+		this(timeToLiveMS, jitterFactor, System::currentTimeMillis);
+	}
+
+	FailedLockAttemptCache(long timeToLiveMS, double jitterFactor, LongSupplier clock) {
+		if (timeToLiveMS < 0) {
+			throw new IllegalArgumentException("TimeToLiveMS cannot be negative");
+		}
+		if (jitterFactor < 0.0 || jitterFactor > 1.0) {
+			throw new IllegalArgumentException("JitterFactor must be between 0.0 and 1.0");
+		}
+		this.timeToLiveMS = timeToLiveMS;
+		this.jitterFactor = jitterFactor;
+		this.clock = clock;
+		this.failures = new ConcurrentHashMap<>();
+	}
+
+	/**
+	 * Record that an attempt to acquire a lock on the given key failed.
+	 *
+	 * @param key
+	 * @param holdersContext The context of the current lock holder, if known.
+	 */
+	public void recordFailure(String key, String holdersContext) {
+		if (key == null) {
+			throw new IllegalArgumentException("Key cannot be null");
+		}
+		if (timeToLiveMS == 0) {
+			return;
+		}
+		long timeToLive = timeToLiveMS;
+		if (jitterFactor > 0.0) {
+			long maxJitter = (long) (timeToLive * jitterFactor);
+			if (maxJitter > 0) {
+				timeToLive -= ThreadLocalRandom.current().nextLong(maxJitter + 1);
+			}
+		}
+		long now = clock.getAsLong();
+		if (failures.size() >= SWEEP_THRESHOLD) {
+			failures.values().removeIf(failure -> failure.expiresAtMS <= now);
+		}
+		failures.put(key, new Failure(now + timeToLive, holdersContext));
+	}
+
+	/**
+	 * Record that an attempt to acquire a lock on the given key failed.
+	 *
+	 * @param key
+	 */
+	public void recordFailure(String key) {
+		recordFailure(key, null);
+	}
+
+	/**
+	 * Forget a failure of the given key, for example, because a lock on the key
+	 * was just acquired.
+	 *
+	 * @param key
+	 */
+	public void clear(String key) {
+		failures.remove(key);
+	}
+
+	/**
+	 * Did an attempt to acquire a lock on the given key recently fail?
+	 *
+	 * @param key
+	 * @return
+	 */
+	public boolean isRecentFailure(String key) {
+		return getRecentFailure(key) != null;
+	}
+
+	/**
+	 * The context of the lock holder that caused a recent failure on the given
+	 * key.
+	 *
+	 * @param key
+	 * @return Empty if the key did not recently fail or the context of the
+	 *         holder is not known.
+	 */
+	public Optional<String> getRecentFailureContext(String key) {
+		Failure failure = getRecentFailure(key);
+		return failure == null ? Optional.empty() : Optional.ofNullable(failure.holdersContext);
+	}
+
+	/**
+	 * The number of failures in the cache, including expired failures that have
+	 * not yet been removed.
+	 *
+	 * @return
+	 */
+	public int size() {
+		return failures.size();
+	}
+
+	private Failure getRecentFailure(String key) {
+		Failure failure = failures.get(key);
+		if (failure == null) {
+			return null;
+		}
+		if (failure.expiresAtMS <= clock.getAsLong()) {
+			failures.remove(key, failure);
+			return null;
+		}
+		return failure;
+	}
+
+}
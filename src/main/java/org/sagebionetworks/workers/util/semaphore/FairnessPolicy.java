@@ -0,0 +1,26 @@
+package org.sagebionetworks.workers.util.semaphore;
+
+/**
+ * How a {@link WriteReadSemaphoreImpl} arbitrates between readers and writers
+ * of the same key.
+ *
+ */
+public enum FairnessPolicy {
+
+	/**
+	 * New read locks are only blocked by a write lock that is already held. A
+	 * reader that checked for writers just before a writer acquired its lock is
+	 * still admitted, so under sustained read load a writer can wait a long time
+	 * for the readers to drain.
+	 */
+	ReaderPreference,
+
+	/**
+	 * New read locks are also blocked while a writer is waiting in
+	 * {@link WriteReadSemaphore#tryAcquireWriteLock(WriteLockRequest, long)},
+	 * and a reader checks for writers again after acquiring its read locks, and
+	 * backs off if one arrived in the meantime. The wait of a writer is bounded
+	 * by the lock timeout of the readers that were admitted before it.
+	 */
+	WriterPreference
+}
@@ -0,0 +1,146 @@
+package org.sagebionetworks.workers.util.semaphore;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.function.LongSupplier;
+
+/**
+ * An in-JVM admission tier in front of a database semaphore.
+ * <p>
+ * A runner must be admitted with {@link #tryAdmit(String, int)} before it
+ * attempts to acquire its database lock, and must call
+ * {@link #release(String)} once the lock is released or could not be
+ * acquired. For each key, at most maxLockCount runners of this JVM are
+ * admitted at a time, since the database would never issue more locks than
+ * that anyway. After an attempt failed to acquire a lock, all attempts on the
+ * key are turned away while the failure is in a {@link FailedLockAttemptCache},
+ * as the lock is unlikely to have become available in the meantime.
+ * <p>
+ * A single instance is intended to be shared by all runners of an
+ * application. Each key keeps its own permits, so the number of keys should be
+ * bounded, as it is for runners that are configured with a fixed lock key.
+ * <p>
+ * This class is thread-safe.
+ */
+public class LocalAdmissionLimiter {
+
+	private static class KeyPermits {
+		private final int maxLockCount;
+		private final Semaphore semaphore;
+
+		KeyPermits(int maxLockCount) {
+			this.maxLockCount = maxLockCount;
+			this.semaphore = new Semaphore(maxLockCount);
+		}
+	}
+
+	private final FailedLockAttemptCache failedAttempts;
+	// lock key -> in-JVM permits
+	private final Map<String, KeyPermits> permits;
+
+	/**
+	 *
+	 * @param failureBackoffMS How long attempts on a key are turned away after an
+	 *                         attempt failed to acquire a lock. Zero disables the
+	 *                         short-circuit.
+	 */
+	public LocalAdmissionLimiter(long failureBackoffMS) {
+		this(failureBackoffMS, System::currentTimeMillis);
+	}
+
+	LocalAdmissionLimiter(long failureBackoffMS, LongSupplier clock) {
+		this(createFailedAttemptCache(failureBackoffMS, clock));
+	}
+
+	/**
+	 * 
+	 * @param failedAttempts Remembers the keys that recently failed to be
+	 *                       acquired. May be shared with other users of the
+	 *                       same keys.
+	 */
+	public LocalAdmissionLimiter(FailedLockAttemptCache failedAttempts) {
+		if (failedAttempts == null) {
+			throw new IllegalArgumentException("FailedLockAttemptCache cannot be null");
+		}
+		this.failedAttempts = failedAttempts;
+		this.permits = new ConcurrentHashMap<>();
+	}
+
+	private static FailedLockAttemptCache createFailedAttemptCache(long failureBackoffMS, LongSupplier clock) {
+		if (failureBackoffMS < 0) {
+			throw new IllegalArgumentException("FailureBackoffMS cannot be negative");
+		}
+		return new FailedLockAttemptCache(failureBackoffMS, 0.0, clock);
+	}
+
+	/**
+	 * Attempt to admit a runner for the given key.
+	 *
+	 * @param key
+	 * @param maxLockCount The maximum number of locks that the database issues
+	 *                     for the key. The first value used for a key sets its
+	 *                     number of permits.
+	 * @return True if the runner may attempt to acquire its database lock, in
+	 *         which case {@link #release(String)} must be called. False if the
+	 *         runner should not touch the database.
+	 */
+	public boolean tryAdmit(String key, int maxLockCount) {
+		if (key == null) {
+			throw new IllegalArgumentException("Key cannot be null");
+		}
+		if (maxLockCount < 1) {
+			throw new IllegalArgumentException("MaxLockCount cannot be less than one");
+		}
+		if (failedAttempts.isRecentFailure(key)) {
+			return false;
+		}
+		return permits.computeIfAbsent(key, k -> new KeyPermits(maxLockCount)).semaphore.tryAcquire();
+	}
+
+	/**
+	 * Return the permit of a runner that was admitted with
+	 * {@link #tryAdmit(String, int)}.
+	 *
+	 * @param key
+	 */
+	public void release(String key) {
+		KeyPermits keyPermits = permits.get(key);
+		if (keyPermits == null) {
+			throw new IllegalStateException("No runner was admitted for key: " + key);
+		}
+		keyPermits.semaphore.release();
+	}
+
+	/**
+	 * Record that an admitted runner failed to acquire its database lock, so
+	 * attempts on the key are turned away for the failure backoff period.
+	 *
+	 * @param key
+	 */
+	public void recordFailure(String key) {
+		failedAttempts.recordFailure(key);
+	}
+
+	/**
+	 * Record that an admitted runner acquired its database lock, which clears a
+	 * previous failure of the key.
+	 *
+	 * @param key
+	 */
+	public void recordSuccess(String key) {
+		failedAttempts.clear(key);
+	}
+
+	/**
+	 * The number of runners currently admitted for the given key.
+	 *
+	 * @param key
+	 * @return
+	 */
+	public int getAdmittedCount(String key) {
+		KeyPermits keyPermits = permits.get(key);
+		return keyPermits == null ? 0 : keyPermits.maxLockCount - keyPermits.semaphore.availablePermits();
+	}
+
+}
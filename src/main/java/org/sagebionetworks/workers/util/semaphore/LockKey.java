@@ -0,0 +1,155 @@
+package org.sagebionetworks.workers.util.semaphore;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A lock key with the keys of its reader and writer locks computed once.
+ * Instances are immutable and are interned by {@link #of(String)} so a key
+ * that is locked repeatedly does not build the same strings on every lock.
+ * The writer intent key is only used with
+ * {@link FairnessPolicy#WriterPreference}, and the descendant key with
+ * hierarchical keys, so they are built on first use.
+ *
+ */
+public final class LockKey implements Comparable<LockKey> {
+
+	/**
+	 * The maximum number of keys that are interned. Once full, the cache is
+	 * cleared before the next new key is added, so it refills with the keys that
+	 * are currently being locked.
+	 */
+	public static final int MAX_INTERNED_KEYS = 10_000;
+
+	/*
+	 * Lookups never take a lock, so lock loops on many threads do not contend
+	 * here. The size check and the clear are not atomic with the insert, so
+	 * concurrent inserts can briefly exceed MAX_INTERNED_KEYS by the number of
+	 * inserting threads.
+	 */
+	private static final Map<String, LockKey> INTERNED = new ConcurrentHashMap<>();
+
+	private final String key;
+	private final String readerLockKey;
+	private final String writerLockKey;
+	// built on first use. A race only builds an equal string twice.
+	private String writerIntentLockKey;
+	private String descendantLockKey;
+
+	private LockKey(String key) {
+		this.key = key;
+		this.readerLockKey = Constants.createReaderLockKey(key);
+		this.writerLockKey = Constants.createWriterLockKey(key);
+	}
+
+	/**
+	 * The lock key for the given key.
+	 *
+	 * @param key
+	 * @return
+	 */
+	public static LockKey of(String key) {
+		if (key == null) {
+			throw new IllegalArgumentException("Lock key cannot be null");
+		}
+		LockKey lockKey = INTERNED.get(key);
+		if (lockKey != null) {
+			return lockKey;
+		}
+		if (INTERNED.size() >= MAX_INTERNED_KEYS) {
+			// the keys still in use are interned again on their next lookup.
+			INTERNED.clear();
+		}
+		LockKey newKey = new LockKey(key);
+		LockKey existing = INTERNED.putIfAbsent(key, newKey);
+		return existing != null ? existing : newKey;
+	}
+
+	/**
+	 * The number of keys currently interned.
+	 *
+	 * @return
+	 */
+	static int getInternedCount() {
+		return INTERNED.size();
+	}
+
+	/**
+	 * The key as provided by the caller.
+	 *
+	 * @return
+	 */
+	public String getKey() {
+		return key;
+	}
+
+	/**
+	 * @see Constants#createReaderLockKey(String)
+	 * @return
+	 */
+	public String getReaderLockKey() {
+		return readerLockKey;
+	}
+
+	/**
+	 * @see Constants#createWriterLockKey(String)
+	 * @return
+	 */
+	public String getWriterLockKey() {
+		return writerLockKey;
+	}
+
+	/**
+	 * @see Constants#createWriterIntentLockKey(String)
+	 * @return
+	 */
+	public String getWriterIntentLockKey() {
+		String intentKey = writerIntentLockKey;
+		if (intentKey == null) {
+			intentKey = Constants.createWriterIntentLockKey(key);
+			writerIntentLockKey = intentKey;
+		}
+		return intentKey;
+	}
+
+	/**
+	 * @see Constants#createDescendantLockKey(String)
+	 * @return
+	 */
+	public String getDescendantLockKey() {
+		String descendantKey = descendantLockKey;
+		if (descendantKey == null) {
+			descendantKey = Constants.createDescendantLockKey(key);
+			descendantLockKey = descendantKey;
+		}
+		return descendantKey;
+	}
+
+	@Override
+	public int compareTo(LockKey other) {
+		return key.compareTo(other.key);
+	}
+
+	@Override
+	public int hashCode() {
+		return key.hashCode();
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null)
+			return false;
+		if (getClass() != obj.getClass())
+			return false;
+		LockKey other = (LockKey) obj;
+		return key.equals(other.key);
+	}
+
+	@Override
+	public String toString() {
+		return key;
+	}
+
+}
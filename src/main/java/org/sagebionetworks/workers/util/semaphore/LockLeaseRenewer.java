@@ -0,0 +1,360 @@
+package org.sagebionetworks.workers.util.semaphore;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.sagebionetworks.database.semaphore.CountingSemaphore;
+import org.sagebionetworks.database.semaphore.LockReleaseFailedException;
+
+/**
+ * Keeps the semaphore locks held by any number of lock holders alive while
+ * their workers make progress, without calling the semaphore from the worker
+ * threads.
+ * <p>
+ * A holder tracks each lock it acquires with
+ * {@link #track(String, String, long)} and reports progress with
+ * {@link #progressMade(String, String)}, which only sets a flag. On each tick
+ * of a single scheduler thread, every tracked lock that has reported progress
+ * and has less than half of its timeout remaining is refreshed. When the
+ * semaphore is a {@link BulkCountingSemaphore}, the due locks that share a
+ * timeout are refreshed together with
+ * {@link BulkCountingSemaphore#refreshLockTimeouts(Map, long)}, using one call
+ * for each token held on the busiest key, otherwise each lock is refreshed with
+ * its own call. A lock
+ * whose worker stops making progress is not refreshed, so it expires and can
+ * be issued to another worker.
+ * <p>
+ * A lock that can no longer be refreshed is dropped and logged. Its holder
+ * will find out when the lock is released, as the release will fail.
+ * <p>
+ * A single instance is intended to be shared by all lock holders of an
+ * application. The tick interval must be less than half of the shortest lock
+ * timeout of the tracked locks.
+ * <p>
+ * This class is thread-safe.
+ */
+public class LockLeaseRenewer implements AutoCloseable {
+
+	private static final Logger log = LogManager.getLogger(LockLeaseRenewer.class);
+
+	private static class HeldLock {
+		private final String key;
+		private final String token;
+		private final long timeoutSec;
+		// Held while a refresh of this lock is in flight.
+		private final ReentrantLock lock = new ReentrantLock();
+		private volatile long expiresAtMS;
+		private volatile boolean progressMade = false;
+		private boolean untracked = false;
+
+		HeldLock(String key, String token, long timeoutSec, long expiresAtMS) {
+			this.key = key;
+			this.token = token;
+			this.timeoutSec = timeoutSec;
+			this.expiresAtMS = expiresAtMS;
+		}
+	}
+
+	private final CountingSemaphore semaphore;
+	private final long tickIntervalMS;
+	private final LongSupplier clock;
+	// lock key -> token -> lock
+	private final Map<String, Map<String, HeldLock>> held;
+	private final ScheduledExecutorService scheduler;
+
+	/**
+	 *
+	 * @param semaphore      The semaphore that issued the tracked locks.
+	 * @param tickIntervalMS How often the tracked locks are checked.
+	 */
+	public LockLeaseRenewer(CountingSemaphore semaphore, long tickIntervalMS) {
+		this(semaphore, tickIntervalMS, System::currentTimeMillis);
+		scheduler.scheduleWithFixedDelay(this::tick, tickIntervalMS, tickIntervalMS, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Create a renewer that is not scheduled. Ticks are triggered by calling
+	 * {@link #tick()}.
+	 *
+	 * @param semaphore
+	 * @param tickIntervalMS
+	 * @param clock
+	 */
+	LockLeaseRenewer(CountingSemaphore semaphore, long tickIntervalMS, LongSupplier clock) {
+		if (semaphore == null) {
+			throw new IllegalArgumentException("CountingSemaphore cannot be null");
+		}
+		if (tickIntervalMS < 1) {
+			throw new IllegalArgumentException("TickIntervalMS must be at least one");
+		}
+		this.semaphore = semaphore;
+		this.tickIntervalMS = tickIntervalMS;
+		this.clock = clock;
+		this.held = new ConcurrentHashMap<>();
+		this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "lock-lease-renewer");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * How often the tracked locks are checked.
+	 *
+	 * @return
+	 */
+	public long getTickIntervalMS() {
+		return tickIntervalMS;
+	}
+
+	/**
+	 * The semaphore that issued the tracked locks.
+	 *
+	 * @return
+	 */
+	public CountingSemaphore getSemaphore() {
+		return semaphore;
+	}
+
+	/**
+	 * Start tracking a lock that was just acquired with the given timeout.
+	 * Tracking a lock that is already tracked has no effect.
+	 *
+	 * @param key
+	 * @param token
+	 * @param timeoutSec The timeout used to acquire the lock and for each
+	 *                   refresh. Must be more than double the tick interval.
+	 */
+	public void track(String key, String token, long timeoutSec) {
+		if (key == null) {
+			throw new IllegalArgumentException("Key cannot be null");
+		}
+		if (token == null) {
+			throw new IllegalArgumentException("Token cannot be null");
+		}
+		if (timeoutSec * 1000 <= tickIntervalMS * 2) {
+			throw new IllegalArgumentException("TimeoutSec must be more than double the tick interval");
+		}
+		long expiresAtMS = clock.getAsLong() + timeoutSec * 1000L;
+		held.compute(key, (k, tokens) -> {
+			if (tokens == null) {
+				tokens = new ConcurrentHashMap<>();
+			}
+			tokens.putIfAbsent(token, new HeldLock(key, token, timeoutSec, expiresAtMS));
+			return tokens;
+		});
+	}
+
+	/**
+	 * Record that progress was made by the holder of a tracked lock, so the lock
+	 * will be refreshed when it approaches expiry. Does not call the semaphore.
+	 *
+	 * @param key
+	 * @param token
+	 */
+	public void progressMade(String key, String token) {
+		Map<String, HeldLock> tokens = held.get(key);
+		if (tokens == null) {
+			return;
+		}
+		HeldLock tracked = tokens.get(token);
+		if (tracked != null) {
+			tracked.progressMade = true;
+		}
+	}
+
+	/**
+	 * Stop tracking a lock. This must be called before the lock is released. If
+	 * the lock is being refreshed at that moment, this will wait for the refresh
+	 * to complete so it cannot race with the release.
+	 *
+	 * @param key
+	 * @param token
+	 */
+	public void untrack(String key, String token) {
+		HeldLock tracked = remove(key, token);
+		if (tracked != null) {
+			tracked.lock.lock();
+			try {
+				tracked.untracked = true;
+			} finally {
+				tracked.lock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * The number of locks currently tracked.
+	 *
+	 * @return
+	 */
+	public int getTrackedCount() {
+		int count = 0;
+		for (Map<String, HeldLock> tokens : held.values()) {
+			count += tokens.size();
+		}
+		return count;
+	}
+
+	/**
+	 * Refresh each tracked lock that has made progress and has less than half of
+	 * its timeout remaining. Called from the scheduler thread so it must never
+	 * throw.
+	 */
+	void tick() {
+		try {
+			long now = clock.getAsLong();
+			List<HeldLock> due = new ArrayList<>();
+			for (Map<String, HeldLock> tokens : held.values()) {
+				for (HeldLock tracked : tokens.values()) {
+					if (!isDue(tracked, now)) {
+						continue;
+					}
+					// Skip a lock that is being untracked right now.
+					if (!tracked.lock.tryLock()) {
+						continue;
+					}
+					if (tracked.untracked) {
+						tracked.lock.unlock();
+						continue;
+					}
+					due.add(tracked);
+				}
+			}
+			try {
+				if (semaphore instanceof BulkCountingSemaphore) {
+					refreshInBulk((BulkCountingSemaphore) semaphore, due, now);
+				} else {
+					refreshEach(due, now);
+				}
+			} finally {
+				for (HeldLock tracked : due) {
+					tracked.lock.unlock();
+				}
+			}
+		} catch (Throwable e) {
+			log.error("Lock lease renewal failed", e);
+		}
+	}
+
+	private static boolean isDue(HeldLock tracked, long now) {
+		return tracked.progressMade && tracked.expiresAtMS - now < tracked.timeoutSec * 500L;
+	}
+
+	/**
+	 * Refresh the given locks with one bulk call per batch. A batch holds locks
+	 * with the same timeout and at most one token per key.
+	 *
+	 * @param bulkSemaphore
+	 * @param due
+	 * @param now
+	 */
+	private void refreshInBulk(BulkCountingSemaphore bulkSemaphore, List<HeldLock> due, long now) {
+		// timeout -> batches
+		Map<Long, List<Map<String, HeldLock>>> batchesByTimeout = new TreeMap<>();
+		for (HeldLock tracked : due) {
+			List<Map<String, HeldLock>> batches = batchesByTimeout.computeIfAbsent(tracked.timeoutSec,
+					k -> new ArrayList<>());
+			Map<String, HeldLock> target = null;
+			for (Map<String, HeldLock> batch : batches) {
+				if (!batch.containsKey(tracked.key)) {
+					target = batch;
+					break;
+				}
+			}
+			if (target == null) {
+				target = new LinkedHashMap<>();
+				batches.add(target);
+			}
+			target.put(tracked.key, tracked);
+		}
+		for (Map.Entry<Long, List<Map<String, HeldLock>>> entry : batchesByTimeout.entrySet()) {
+			for (Map<String, HeldLock> batch : entry.getValue()) {
+				Map<String, String> keyToToken = new LinkedHashMap<>(batch.size());
+				for (HeldLock tracked : batch.values()) {
+					keyToToken.put(tracked.key, tracked.token);
+				}
+				try {
+					bulkSemaphore.refreshLockTimeouts(keyToToken, entry.getKey());
+				} catch (LockReleaseFailedException e) {
+					// The other locks were refreshed so this only finds the ones that were lost.
+					refreshEach(batch.values(), now);
+					continue;
+				} catch (Exception e) {
+					// The locks are still due so they will be retried on the next tick.
+					log.warn("Failed to refresh the locks for keys: " + keyToToken.keySet(), e);
+					continue;
+				}
+				for (HeldLock tracked : batch.values()) {
+					renewed(tracked, now);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Refresh each of the given locks with its own call.
+	 *
+	 * @param due
+	 * @param now
+	 */
+	private void refreshEach(Iterable<HeldLock> due, long now) {
+		for (HeldLock tracked : due) {
+			try {
+				semaphore.refreshLockTimeout(tracked.key, tracked.token, tracked.timeoutSec);
+			} catch (LockReleaseFailedException e) {
+				// The lock has expired so there is nothing left to refresh.
+				log.warn("Failed to refresh the lock for key: " + tracked.key + ". The lock will be dropped.", e);
+				remove(tracked.key, tracked.token);
+				continue;
+			} catch (Exception e) {
+				// The lock is still due so it will be retried on the next tick.
+				log.warn("Failed to refresh the lock for key: " + tracked.key, e);
+				continue;
+			}
+			renewed(tracked, now);
+		}
+	}
+
+	/**
+	 * Remove a tracked lock, and its key once the key has no tracked locks left
+	 * so keys that are no longer used do not accumulate.
+	 *
+	 * @param key
+	 * @param token
+	 * @return The removed lock or null if the lock was not tracked.
+	 */
+	private HeldLock remove(String key, String token) {
+		HeldLock[] removed = new HeldLock[1];
+		held.computeIfPresent(key, (k, tokens) -> {
+			removed[0] = tokens.remove(token);
+			return tokens.isEmpty() ? null : tokens;
+		});
+		return removed[0];
+	}
+
+	private static void renewed(HeldLock tracked, long now) {
+		tracked.expiresAtMS = now + tracked.timeoutSec * 1000L;
+		tracked.progressMade = false;
+	}
+
+	/**
+	 * Stop the scheduler. Tracked locks will no longer be refreshed.
+	 */
+	@Override
+	public void close() {
+		scheduler.shutdownNow();
+	}
+
+}
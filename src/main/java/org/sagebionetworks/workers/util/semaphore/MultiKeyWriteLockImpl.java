@@ -0,0 +1,224 @@
+package org.sagebionetworks.workers.util.semaphore;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.sagebionetworks.common.util.progress.ProgressListener;
+import org.sagebionetworks.database.semaphore.CountingSemaphore;
+
+/**
+ * A write lock that holds a writer token on each key of a
+ * {@link MultiKeyWriteLockRequest}.
+ *
+ */
+class MultiKeyWriteLockImpl implements WriteLock {
+
+	private static final Logger log = LogManager.getLogger(MultiKeyWriteLockImpl.class);
+
+	private final CountingSemaphore countingSemaphore;
+	private final MultiKeyWriteLockRequest request;
+	private final LockLeaseRenewer leaseRenewer;
+	private final ReadLockImpl ancestorReadLock;
+	private final boolean hierarchicalKeys;
+	private final Map<String, String> writeLockKeyToRequestKey;
+	private final Map<String, String> keyToTokenMap;
+	private ProgressListener listener;
+
+	public MultiKeyWriteLockImpl(CountingSemaphore countingSemaphore, MultiKeyWriteLockRequest request) {
+		this(countingSemaphore, request, null);
+	}
+
+	/**
+	 *
+	 * @param countingSemaphore
+	 * @param request
+	 * @param leaseRenewer      Optional. When provided, the write locks are
+	 *                          refreshed by the renewer rather than on each
+	 *                          progress event.
+	 */
+	public MultiKeyWriteLockImpl(CountingSemaphore countingSemaphore, MultiKeyWriteLockRequest request,
+			LockLeaseRenewer leaseRenewer) {
+		this(countingSemaphore, request, leaseRenewer, null);
+	}
+
+	/**
+	 *
+	 * @param countingSemaphore
+	 * @param request
+	 * @param leaseRenewer      Optional.
+	 * @param ancestorReadLock  Optional. A read lock on the ancestors of
+	 *                          hierarchical keys, acquired before the write
+	 *                          locks and released after them.
+	 */
+	public MultiKeyWriteLockImpl(CountingSemaphore countingSemaphore, MultiKeyWriteLockRequest request,
+			LockLeaseRenewer leaseRenewer, ReadLockImpl ancestorReadLock) {
+		this(countingSemaphore, request, leaseRenewer, ancestorReadLock, false);
+	}
+
+	/**
+	 *
+	 * @param countingSemaphore
+	 * @param request
+	 * @param leaseRenewer      Optional.
+	 * @param ancestorReadLock  Optional.
+	 * @param hierarchicalKeys  When true, the locks held below the keys are
+	 *                          existing read locks of this write lock.
+	 */
+	public MultiKeyWriteLockImpl(CountingSemaphore countingSemaphore, MultiKeyWriteLockRequest request,
+			LockLeaseRenewer leaseRenewer, ReadLockImpl ancestorReadLock, boolean hierarchicalKeys) {
+		if (countingSemaphore == null) {
+			throw new IllegalArgumentException("CountingSemaphore cannot be null");
+		}
+		this.countingSemaphore = countingSemaphore;
+		if (request == null) {
+			throw new IllegalArgumentException("MultiKeyWriteLockRequest cannot be null");
+		}
+		this.request = request;
+		this.leaseRenewer = leaseRenewer;
+		this.ancestorReadLock = ancestorReadLock;
+		this.hierarchicalKeys = hierarchicalKeys;
+		this.writeLockKeyToRequestKey = new LinkedHashMap<>(request.getLockKeys().length);
+		for (String requestKey : request.getLockKeys()) {
+			writeLockKeyToRequestKey.put(LockKey.of(requestKey).getWriterLockKey(), requestKey);
+		}
+		this.keyToTokenMap = new LinkedHashMap<>(request.getLockKeys().length);
+	}
+
+	/**
+	 * Acquire a writer token on every key. If any of the keys is unavailable, the
+	 * tokens acquired so far are kept in the token map to be released on close.
+	 *
+	 * @throws LockUnavilableException
+	 */
+	void attemptToAcquireLock() throws LockUnavilableException {
+		if (ancestorReadLock != null) {
+			// a write lock on an ancestor key excludes these keys too.
+			ancestorReadLock.attemptToAcquireLock();
+		}
+		if (countingSemaphore instanceof BulkCountingSemaphore) {
+			attemptToAcquireLocksInBulk((BulkCountingSemaphore) countingSemaphore);
+		} else {
+			attemptToAcquireLocksOneAtATime();
+		}
+
+		// Listen to progress events
+		if (leaseRenewer != null) {
+			for (Map.Entry<String, String> entry : keyToTokenMap.entrySet()) {
+				leaseRenewer.track(entry.getKey(), entry.getValue(), request.getCallback().getLockTimeoutSeconds());
+			}
+			// the renewer refreshes the write locks from its own thread.
+			listener = () -> {
+				for (Map.Entry<String, String> entry : keyToTokenMap.entrySet()) {
+					leaseRenewer.progressMade(entry.getKey(), entry.getValue());
+				}
+			};
+		} else if (countingSemaphore instanceof BulkCountingSemaphore) {
+			// refresh every write lock with a single call.
+			listener = () -> {
+				((BulkCountingSemaphore) countingSemaphore).refreshLockTimeouts(keyToTokenMap,
+						request.getCallback().getLockTimeoutSeconds());
+			};
+		} else {
+			listener = () -> {
+				for (Map.Entry<String, String> entry : keyToTokenMap.entrySet()) {
+					countingSemaphore.refreshLockTimeout(entry.getKey(), entry.getValue(),
+							request.getCallback().getLockTimeoutSeconds());
+				}
+			};
+		}
+		request.getCallback().addProgressListener(listener);
+	}
+
+	/**
+	 * Acquire all of the writer tokens with a single atomic call.
+	 *
+	 * @param bulkSemaphore
+	 * @throws LockUnavilableException
+	 */
+	private void attemptToAcquireLocksInBulk(BulkCountingSemaphore bulkSemaphore) throws LockUnavilableException {
+		BulkLockResult result = bulkSemaphore.attemptToAcquireLocks(Collections.emptyList(),
+				new ArrayList<>(writeLockKeyToRequestKey.keySet()), request.getCallback().getLockTimeoutSeconds(),
+				Constants.WRITER_MAX_LOCKS, request.getCallersContext());
+		if (!result.isAcquired()) {
+			throw new LockUnavilableException(LockType.Write,
+					writeLockKeyToRequestKey.get(result.getUnavailableKey()),
+					result.getUnavailableKeyContext().orElse(null));
+		}
+		keyToTokenMap.putAll(result.getKeyToToken());
+	}
+
+	/**
+	 * Acquire a writer token for each key in the order of the keys.
+	 *
+	 * @throws LockUnavilableException
+	 */
+	private void attemptToAcquireLocksOneAtATime() throws LockUnavilableException {
+		for (Map.Entry<String, String> entry : writeLockKeyToRequestKey.entrySet()) {
+			String writeLockKey = entry.getKey();
+			Optional<String> writeToken = countingSemaphore.attemptToAcquireLock(writeLockKey,
+					request.getCallback().getLockTimeoutSeconds(), Constants.WRITER_MAX_LOCKS,
+					request.getCallersContext());
+			if (writeToken.isEmpty()) {
+				throw new LockUnavilableException(LockType.Write, entry.getValue(),
+						countingSemaphore.getFirstUnexpiredLockContext(writeLockKey).orElse(null));
+			}
+			keyToTokenMap.put(writeLockKey, writeToken.get());
+		}
+	}
+
+	@Override
+	public Optional<String> getExistingReadLockContext() {
+		for (String requestKey : request.getLockKeys()) {
+			LockKey lockKey = LockKey.of(requestKey);
+			Optional<String> readerContext = countingSemaphore.getFirstUnexpiredLockContext(lockKey.getReaderLockKey());
+			if (readerContext.isEmpty() && hierarchicalKeys) {
+				readerContext = countingSemaphore.getFirstUnexpiredLockContext(lockKey.getDescendantLockKey());
+			}
+			if (readerContext.isPresent()) {
+				return readerContext;
+			}
+		}
+		return Optional.empty();
+	}
+
+	@Override
+	public void close() throws Exception {
+		Exception lastException = null;
+		if (this.listener != null) {
+			try {
+				request.getCallback().removeProgressListener(listener);
+			} catch (Exception e) {
+				lastException = e;
+			}
+		}
+		for (Map.Entry<String, String> entry : keyToTokenMap.entrySet()) {
+			// each lock must be released even if some of the lock release attempts fail.
+			try {
+				if (leaseRenewer != null) {
+					leaseRenewer.untrack(entry.getKey(), entry.getValue());
+				}
+				countingSemaphore.releaseLock(entry.getKey(), entry.getValue());
+			} catch (Exception e) {
+				lastException = e;
+				log.error("Failed to release lock:", e);
+			}
+		}
+		if (ancestorReadLock != null) {
+			try {
+				ancestorReadLock.close();
+			} catch (Exception e) {
+				lastException = e;
+			}
+		}
+		if (lastException != null) {
+			throw new IOException(lastException);
+		}
+	}
+
+}
@@ -0,0 +1,94 @@
+package org.sagebionetworks.workers.util.semaphore;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+import org.sagebionetworks.common.util.progress.ProgressCallback;
+
+/**
+ * Request to create a single write lock on multiple keys.
+ *
+ */
+public class MultiKeyWriteLockRequest {
+
+	private final ProgressCallback callback;
+	private final String callersContext;
+	private final String[] lockKeys;
+
+	/**
+	 * Request to create a write lock on multiple keys.
+	 *
+	 * @param callback       The callback used to refresh lock timeouts.
+	 * @param callersContext Description of the caller's context. This is provided
+	 *                       to caller when a lock is unavailable.
+	 * @param lockKey        The keys that define the lock. The keys are sorted
+	 *                       and duplicates removed, so the locks are always
+	 *                       acquired in the same order.
+	 */
+	public MultiKeyWriteLockRequest(ProgressCallback callback, String callersContext, String... lockKey) {
+		if (callback == null) {
+			throw new IllegalArgumentException("ProgressCallback cannot be null");
+		}
+		this.callback = callback;
+		if (this.callback.getLockTimeoutSeconds() < Constants.MINIMUM_LOCK_TIMEOUT_SEC) {
+			throw new IllegalArgumentException("LockTimeout cannot be less than 2 seconds");
+		}
+		if (callersContext == null) {
+			throw new IllegalArgumentException("Caller's context cannot be null");
+		}
+		this.callersContext = callersContext;
+		if (lockKey == null) {
+			throw new IllegalArgumentException("LockKey cannot be null");
+		}
+		if (lockKey.length < 1) {
+			throw new IllegalArgumentException("Must include at least one lock key");
+		}
+		for (String key : lockKey) {
+			if (key == null) {
+				throw new IllegalArgumentException("Lock key cannot be null");
+			}
+		}
+		this.lockKeys = Constants.createCanonicalLockKeys(lockKey);
+	}
+
+	public ProgressCallback getCallback() {
+		return callback;
+	}
+
+	public String getCallersContext() {
+		return callersContext;
+	}
+
+	public String[] getLockKeys() {
+		return lockKeys;
+	}
+
+	@Override
+	public int hashCode() {
+		final int prime = 31;
+		int result = 1;
+		result = prime * result + Arrays.hashCode(lockKeys);
+		result = prime * result + Objects.hash(callback, callersContext);
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null)
+			return false;
+		if (getClass() != obj.getClass())
+			return false;
+		MultiKeyWriteLockRequest other = (MultiKeyWriteLockRequest) obj;
+		return Objects.equals(callback, other.callback) && Objects.equals(callersContext, other.callersContext)
+				&& Arrays.equals(lockKeys, other.lockKeys);
+	}
+
+	@Override
+	public String toString() {
+		return "MultiKeyWriteLockRequest [callback=" + callback + ", callersContext=" + callersContext
+				+ ", lockKeys=" + Arrays.toString(lockKeys) + "]";
+	}
+
+}
@@ -1,10 +1,18 @@
 package org.sagebionetworks.workers.util.semaphore;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Function;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -19,9 +27,61 @@ class ReadLockImpl implements ReadLock {
 	private final int maxNumberOfReaders;
 	private final ReadLockRequest request;
 	private final Map<String, String> keyToTokenMap;
+	private final LockLeaseRenewer leaseRenewer;
+	private final FairnessPolicy fairnessPolicy;
+	private final Executor keyExecutor;
+	private final ReadLockImpl ancestorReadLock;
+	private final boolean forDescendants;
 	private ProgressListener listener;
 
-	public ReadLockImpl(CountingSemaphore countingSemaphore, int maxNumberOfReaders, ReadLockRequest request) {
+	/**
+	 * A lock held on the ancestors of hierarchical keys on behalf of the keys
+	 * below them. It is blocked by the same writers as a read lock, but takes a
+	 * slot of each key's descendant lock rather than its reader lock, so the
+	 * locks below a key do not use up the key's readers.
+	 * 
+	 * @param countingSemaphore
+	 * @param maxNumberOfDescendants The maximum number of locks below each key.
+	 * @param request                The ancestor keys.
+	 * @param leaseRenewer           Optional.
+	 * @param fairnessPolicy
+	 * @param keyExecutor            Optional.
+	 * @return
+	 */
+	static ReadLockImpl createAncestorLock(CountingSemaphore countingSemaphore, int maxNumberOfDescendants,
+			ReadLockRequest request, LockLeaseRenewer leaseRenewer, FairnessPolicy fairnessPolicy,
+			Executor keyExecutor) {
+		return new ReadLockImpl(countingSemaphore, maxNumberOfDescendants, request, leaseRenewer, fairnessPolicy,
+				keyExecutor, null, true);
+	}
+
+	/**
+	 * 
+	 * @param countingSemaphore
+	 * @param maxNumberOfReaders
+	 * @param request
+	 * @param leaseRenewer       Optional. When provided, the read locks are
+	 *                           refreshed by the renewer rather than on each
+	 *                           progress event.
+	 * @param fairnessPolicy     With {@link FairnessPolicy#WriterPreference} the
+	 *                           read locks are also blocked by waiting writers,
+	 *                           and the writers are checked again after the read
+	 *                           locks are acquired.
+	 * @param keyExecutor        Optional. When provided, and the semaphore is not
+	 *                           a {@link BulkCountingSemaphore}, the calls for
+	 *                           each key are issued concurrently on this
+	 *                           executor. A task rejected by the executor is run
+	 *                           on the calling thread.
+	 * @param ancestorReadLock   Optional. A lock on the ancestors of hierarchical
+	 *                           keys, acquired before the read locks and released
+	 *                           after them.
+	 * @param forDescendants     Take a slot of each key's descendant lock rather
+	 *                           than its reader lock. See
+	 *                           {@link #createAncestorLock}.
+	 */
+	ReadLockImpl(CountingSemaphore countingSemaphore, int maxNumberOfReaders, ReadLockRequest request,
+			LockLeaseRenewer leaseRenewer, FairnessPolicy fairnessPolicy, Executor keyExecutor,
+			ReadLockImpl ancestorReadLock, boolean forDescendants) {
 		if(countingSemaphore == null) {
 			throw new IllegalArgumentException("CountingSemaphore cannot be null");
 		}
@@ -32,48 +92,355 @@ class ReadLockImpl implements ReadLock {
 		}
 		this.request = request;
 		this.keyToTokenMap = new HashMap<>(request.getLockKeys().length);
+		this.leaseRenewer = leaseRenewer;
+		if(fairnessPolicy == null) {
+			throw new IllegalArgumentException("FairnessPolicy cannot be null");
+		}
+		this.fairnessPolicy = fairnessPolicy;
+		this.keyExecutor = keyExecutor;
+		this.ancestorReadLock = ancestorReadLock;
+		this.forDescendants = forDescendants;
 	}
 	
 	void attemptToAcquireLock() throws LockUnavilableException {
-		// Stop if there are any outstanding write locks.
-		for (String requestKey : request.getLockKeys()) {
-			String writeLockKey = Constants.createWriterLockKey(requestKey);
-			Optional<String> existingContext = countingSemaphore.getFirstUnexpiredLockContext(writeLockKey);
-			if (existingContext.isPresent()) {
-				throw new LockUnavilableException(LockType.Write, requestKey, existingContext.get());
+		if (ancestorReadLock != null) {
+			// a write lock on an ancestor key excludes these keys too.
+			ancestorReadLock.attemptToAcquireLock();
+		}
+		if (countingSemaphore instanceof BulkCountingSemaphore) {
+			attemptToAcquireLocksInBulk((BulkCountingSemaphore) countingSemaphore);
+		} else if (keyExecutor != null) {
+			attemptToAcquireLocksInParallel();
+		} else {
+			attemptToAcquireLocksOneAtATime();
+		}
+		if (fairnessPolicy == FairnessPolicy.WriterPreference) {
+			// A writer that arrived, or started waiting, while the read locks were
+			// acquired goes first.
+			throwIfAnyWriteLock();
+		}
+
+		// listen to callback events
+		if (leaseRenewer != null) {
+			for (Map.Entry<String, String> entry : keyToTokenMap.entrySet()) {
+				leaseRenewer.track(entry.getKey(), entry.getValue(), request.getCallback().getLockTimeoutSeconds());
+			}
+			// the renewer refreshes the read locks from its own thread.
+			this.listener = () -> {
+				for (Map.Entry<String, String> entry : keyToTokenMap.entrySet()) {
+					leaseRenewer.progressMade(entry.getKey(), entry.getValue());
+				}
+			};
+		} else if (countingSemaphore instanceof BulkCountingSemaphore) {
+			// refresh every read lock with a single call.
+			this.listener = () -> {
+				((BulkCountingSemaphore) countingSemaphore).refreshLockTimeouts(keyToTokenMap,
+						request.getCallback().getLockTimeoutSeconds());
+			};
+		} else if (keyExecutor != null) {
+			// refresh every read lock concurrently.
+			this.listener = () -> {
+				long lockTimeoutSec = request.getCallback().getLockTimeoutSeconds();
+				Map<String, CompletableFuture<Void>> results = forEachKeyInParallel(keyToTokenMap.keySet(),
+						readLockKey -> {
+							countingSemaphore.refreshLockTimeout(readLockKey, keyToTokenMap.get(readLockKey),
+									lockTimeoutSec);
+							return null;
+						});
+				RuntimeException firstFailure = null;
+				for (CompletableFuture<Void> result : results.values()) {
+					try {
+						getResult(result);
+					} catch (RuntimeException e) {
+						if (firstFailure == null) {
+							firstFailure = e;
+						}
+					}
+				}
+				if (firstFailure != null) {
+					throw firstFailure;
+				}
+			};
+		} else {
+			this.listener = () -> {
+				Iterator<String> iterator = keyToTokenMap.keySet().iterator();
+				while (iterator.hasNext()) {
+					String readLockKey = iterator.next();
+					String readToken = keyToTokenMap.get(readLockKey);
+					countingSemaphore.refreshLockTimeout(readLockKey, readToken,
+							request.getCallback().getLockTimeoutSeconds());
+				}
+			};
+		}
+		request.getCallback().addProgressListener(listener);
+	}
+
+	/**
+	 * Check for write locks and acquire all of the read locks with a single call.
+	 * 
+	 * @param bulkSemaphore
+	 * @throws LockUnavilableException
+	 */
+	private void attemptToAcquireLocksInBulk(BulkCountingSemaphore bulkSemaphore) throws LockUnavilableException {
+		Map<String, String> writeLockKeyToRequestKey = new LinkedHashMap<>(request.getLockKeys().length);
+		Map<String, String> readLockKeyToRequestKey = new LinkedHashMap<>(request.getLockKeys().length);
+		for (LockKey lockKey : request.getKeys()) {
+			writeLockKeyToRequestKey.put(lockKey.getWriterLockKey(), lockKey.getKey());
+			readLockKeyToRequestKey.put(getReadLockKey(lockKey), lockKey.getKey());
+		}
+		if (fairnessPolicy == FairnessPolicy.WriterPreference) {
+			// waiting writers block new readers the same as a held write lock.
+			for (LockKey lockKey : request.getKeys()) {
+				writeLockKeyToRequestKey.put(lockKey.getWriterIntentLockKey(), lockKey.getKey());
+			}
+		}
+		BulkLockResult result = bulkSemaphore.attemptToAcquireLocks(new ArrayList<>(writeLockKeyToRequestKey.keySet()),
+				new ArrayList<>(readLockKeyToRequestKey.keySet()), request.getCallback().getLockTimeoutSeconds(),
+				maxNumberOfReaders, request.getCallersContext());
+		if (!result.isAcquired()) {
+			String unavailableKey = result.getUnavailableKey();
+			String holdersContext = result.getUnavailableKeyContext().orElse(null);
+			if (writeLockKeyToRequestKey.containsKey(unavailableKey)) {
+				throw new LockUnavilableException(LockType.Write, writeLockKeyToRequestKey.get(unavailableKey), holdersContext);
 			}
+			throw new LockUnavilableException(LockType.Read, readLockKeyToRequestKey.get(unavailableKey), holdersContext);
 		}
+		keyToTokenMap.putAll(result.getKeyToToken());
+	}
+
+	/**
+	 * Check for write locks and acquire the read locks with two calls per key.
+	 * 
+	 * @throws LockUnavilableException
+	 */
+	private void attemptToAcquireLocksOneAtATime() throws LockUnavilableException {
+		// Stop if there are any outstanding write locks.
+		throwIfAnyWriteLock();
 
 		// acquire a read lock for each key
-		for (String requestKey : request.getLockKeys()) {
-			String readLockKey = Constants.createReaderLockKey(requestKey);
+		for (LockKey lockKey : request.getKeys()) {
+			String readLockKey = getReadLockKey(lockKey);
 			Optional<String> readToken = this.countingSemaphore.attemptToAcquireLock(readLockKey,
 					request.getCallback().getLockTimeoutSeconds(), maxNumberOfReaders, request.getCallersContext());
 			if (readToken.isEmpty()) {
-				throw new LockUnavilableException(LockType.Read, requestKey, this.countingSemaphore
+				throw new LockUnavilableException(LockType.Read, lockKey.getKey(), this.countingSemaphore
 						.getFirstUnexpiredLockContext(readLockKey).orElse(null));
 			}
 			keyToTokenMap.put(readLockKey, readToken.get());
 		}
+	}
 
-		// listen to callback events
-		this.listener = () -> {
-			Iterator<String> iterator = keyToTokenMap.keySet().iterator();
-			while (iterator.hasNext()) {
-				String readLockKey = iterator.next();
-				String readToken = keyToTokenMap.get(readLockKey);
-				countingSemaphore.refreshLockTimeout(readLockKey, readToken,
-						request.getCallback().getLockTimeoutSeconds());
+	/**
+	 * Check for write locks and acquire the read locks with the calls for each
+	 * key issued concurrently. All of the calls complete before this returns, so
+	 * a failed attempt leaves every acquired read lock in the token map to be
+	 * released on close.
+	 * 
+	 * @throws LockUnavilableException
+	 */
+	private void attemptToAcquireLocksInParallel() throws LockUnavilableException {
+		// Stop if there are any outstanding write locks.
+		throwIfAnyWriteLock();
+
+		// acquire a read lock for each key
+		Map<String, String> readLockKeyToRequestKey = new LinkedHashMap<>(request.getLockKeys().length);
+		for (LockKey lockKey : request.getKeys()) {
+			readLockKeyToRequestKey.put(getReadLockKey(lockKey), lockKey.getKey());
+		}
+		long lockTimeoutSec = request.getCallback().getLockTimeoutSeconds();
+		Map<String, CompletableFuture<Optional<String>>> results = forEachKeyInParallel(
+				readLockKeyToRequestKey.keySet(), readLockKey -> countingSemaphore.attemptToAcquireLock(readLockKey,
+						lockTimeoutSec, maxNumberOfReaders, request.getCallersContext()));
+		RuntimeException firstFailure = null;
+		String firstUnavailableKey = null;
+		for (Map.Entry<String, CompletableFuture<Optional<String>>> entry : results.entrySet()) {
+			// every acquired token must be kept so it is released on close.
+			try {
+				Optional<String> readToken = getResult(entry.getValue());
+				if (readToken.isPresent()) {
+					keyToTokenMap.put(entry.getKey(), readToken.get());
+				} else if (firstUnavailableKey == null) {
+					firstUnavailableKey = entry.getKey();
+				}
+			} catch (RuntimeException e) {
+				if (firstFailure == null) {
+					firstFailure = e;
+				}
 			}
-		};
-		request.getCallback().addProgressListener(listener);
+		}
+		if (firstFailure != null) {
+			throw firstFailure;
+		}
+		if (firstUnavailableKey != null) {
+			throw new LockUnavilableException(LockType.Read, readLockKeyToRequestKey.get(firstUnavailableKey),
+					countingSemaphore.getFirstUnexpiredLockContext(firstUnavailableKey).orElse(null));
+		}
+	}
+
+	/**
+	 * Look up all of the given locks concurrently, and throw for the first one
+	 * that is held.
+	 * 
+	 * @param writeLockKeyToRequestKey
+	 * @throws LockUnavilableException
+	 */
+	private void throwIfAnyLockInParallel(Map<String, String> writeLockKeyToRequestKey)
+			throws LockUnavilableException {
+		Map<String, CompletableFuture<Optional<String>>> results = forEachKeyInParallel(
+				writeLockKeyToRequestKey.keySet(), countingSemaphore::getFirstUnexpiredLockContext);
+		for (Map.Entry<String, CompletableFuture<Optional<String>>> entry : results.entrySet()) {
+			Optional<String> existingContext = getResult(entry.getValue());
+			if (existingContext.isPresent()) {
+				throw new LockUnavilableException(LockType.Write, writeLockKeyToRequestKey.get(entry.getKey()),
+						existingContext.get());
+			}
+		}
+	}
+
+	/**
+	 * The key of the lock that is held for the given key.
+	 * 
+	 * @param lockKey
+	 * @return
+	 */
+	private String getReadLockKey(LockKey lockKey) {
+		return forDescendants ? lockKey.getDescendantLockKey() : lockKey.getReaderLockKey();
+	}
+
+	/**
+	 * Run the given call for each key on the key executor, and wait for all of
+	 * the calls to complete, including the calls that fail.
+	 * 
+	 * @param keys
+	 * @param call
+	 * @return The completed result of each key, in the order of the keys.
+	 */
+	private <T> Map<String, CompletableFuture<T>> forEachKeyInParallel(Collection<String> keys,
+			Function<String, T> call) {
+		Map<String, CompletableFuture<T>> results = new LinkedHashMap<>(keys.size());
+		for (String key : keys) {
+			CompletableFuture<T> result;
+			try {
+				result = CompletableFuture.supplyAsync(() -> call.apply(key), keyExecutor);
+			} catch (RejectedExecutionException e) {
+				// the executor is saturated so the caller does the work.
+				result = new CompletableFuture<>();
+				try {
+					result.complete(call.apply(key));
+				} catch (RuntimeException callException) {
+					result.completeExceptionally(callException);
+				}
+			}
+			results.put(key, result);
+		}
+		for (CompletableFuture<T> result : results.values()) {
+			try {
+				result.join();
+			} catch (CompletionException e) {
+				// checked by the caller.
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * Are the calls for each key issued concurrently? A bulk semaphore already
+	 * handles all of the keys with a single call.
+	 * 
+	 * @return
+	 */
+	private boolean isParallel() {
+		return keyExecutor != null && !(countingSemaphore instanceof BulkCountingSemaphore);
+	}
+
+	/**
+	 * The result of a completed call, throwing the original exception if the
+	 * call failed.
+	 * 
+	 * @param completed
+	 * @return
+	 */
+	private static <T> T getResult(CompletableFuture<T> completed) {
+		try {
+			return completed.join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Throw if a write lock is held on any of the requested keys. With
+	 * {@link FairnessPolicy#WriterPreference} a waiting writer counts the same as
+	 * a held write lock.
+	 * 
+	 * @throws LockUnavilableException
+	 */
+	private void throwIfAnyWriteLock() throws LockUnavilableException {
+		Map<String, String> writeLockKeyToRequestKey = new LinkedHashMap<>(request.getLockKeys().length * 2);
+		for (LockKey lockKey : request.getKeys()) {
+			writeLockKeyToRequestKey.put(lockKey.getWriterLockKey(), lockKey.getKey());
+		}
+		if (fairnessPolicy == FairnessPolicy.WriterPreference) {
+			for (LockKey lockKey : request.getKeys()) {
+				writeLockKeyToRequestKey.put(lockKey.getWriterIntentLockKey(), lockKey.getKey());
+			}
+		}
+		if (isParallel()) {
+			throwIfAnyLockInParallel(writeLockKeyToRequestKey);
+			return;
+		}
+		for (Map.Entry<String, String> entry : writeLockKeyToRequestKey.entrySet()) {
+			Optional<String> existingContext = countingSemaphore.getFirstUnexpiredLockContext(entry.getKey());
+			if (existingContext.isPresent()) {
+				throw new LockUnavilableException(LockType.Write, entry.getValue(), existingContext.get());
+			}
+		}
+	}
+
+	/**
+	 * Give the read locks more time, the same as a progress event would.
+	 */
+	void refreshLock() {
+		if (listener != null) {
+			listener.progressMade();
+		}
+		if (ancestorReadLock != null) {
+			ancestorReadLock.refreshLock();
+		}
 	}
 
 	@Override
 	public void close() throws IOException {
+		IOException lastException = null;
+		try {
+			closeReadLocks();
+		} catch (IOException e) {
+			lastException = e;
+		}
+		if (ancestorReadLock != null) {
+			// released after the locks it protects.
+			try {
+				ancestorReadLock.close();
+			} catch (IOException e) {
+				lastException = e;
+			}
+		}
+		if (lastException != null) {
+			throw lastException;
+		}
+	}
+
+	private void closeReadLocks() throws IOException {
 		if (this.listener != null) {
 			request.getCallback().removeProgressListener(this.listener);
 		}
+		if (isParallel()) {
+			closeInParallel();
+			return;
+		}
 		Iterator<String> iterator = keyToTokenMap.keySet().iterator();
 		Exception lastException = null;
 		while (iterator.hasNext()) {
@@ -81,6 +448,9 @@ class ReadLockImpl implements ReadLock {
 			try {
 				String readLockKey = iterator.next();
 				String readToken = keyToTokenMap.get(readLockKey);
+				if (leaseRenewer != null) {
+					leaseRenewer.untrack(readLockKey, readToken);
+				}
 				countingSemaphore.releaseLock(readLockKey, readToken);
 			} catch (Exception e) {
 				lastException = e;
@@ -92,4 +462,33 @@ class ReadLockImpl implements ReadLock {
 		}
 	}
 
+	/**
+	 * Release every read lock concurrently, waiting for all of the releases to
+	 * complete even if some of them fail.
+	 * 
+	 * @throws IOException
+	 */
+	private void closeInParallel() throws IOException {
+		if (leaseRenewer != null) {
+			for (Map.Entry<String, String> entry : keyToTokenMap.entrySet()) {
+				leaseRenewer.untrack(entry.getKey(), entry.getValue());
+			}
+		}
+		Map<String, CompletableFuture<Void>> results = forEachKeyInParallel(keyToTokenMap.keySet(), readLockKey -> {
+			countingSemaphore.releaseLock(readLockKey, keyToTokenMap.get(readLockKey));
+			return null;
+		});
+		Exception lastException = null;
+		for (CompletableFuture<Void> result : results.values()) {
+			try {
+				getResult(result);
+			} catch (Exception e) {
+				lastException = e;
+				log.error("Failed to release lock:", e);
+			}
+		}
+		if (lastException != null) {
+			throw new IOException(lastException);
+		}
+	}
 }
@@ -2,6 +2,7 @@ package org.sagebionetworks.workers.util.semaphore;
 
 import java.util.Arrays;
 import java.util.Objects;
+import java.util.TreeSet;
 
 import org.sagebionetworks.common.util.progress.ProgressCallback;
 
@@ -12,6 +13,7 @@ public class ReadLockRequest {
 
 	private final ProgressCallback callback;
 	private final String callersContext;
+	private final LockKey[] keys;
 	private final String[] lockKeys;
 
 	/**
@@ -20,9 +22,31 @@ public class ReadLockRequest {
 	 * @param callback       The callback used to refresh lock timeouts.
 	 * @param callersContext Description of the caller's context. This is provided
 	 *                       to caller when a lock is unavailable.
-	 * @param lockKey        The key that defines the lock.
+	 * @param lockKey        The keys that define the lock. The keys are sorted
+	 *                       and duplicates removed, so the locks are always
+	 *                       acquired in the same order.
 	 */
 	public ReadLockRequest(ProgressCallback callback, String callersContext, String... lockKey) {
+		this(callback, callersContext, toLockKeys(lockKey));
+	}
+
+	/**
+	 * Request to create a new lock on keys that were already looked up with
+	 * {@link LockKey#of(String)}.
+	 * 
+	 * @param callback       The callback used to refresh lock timeouts.
+	 * @param callersContext Description of the caller's context. This is provided
+	 *                       to caller when a lock is unavailable.
+	 * @param lockKey        The keys that define the lock. The keys are sorted
+	 *                       and duplicates removed, so the locks are always
+	 *                       acquired in the same order.
+	 * @return
+	 */
+	public static ReadLockRequest forKeys(ProgressCallback callback, String callersContext, LockKey... lockKey) {
+		return new ReadLockRequest(callback, callersContext, lockKey);
+	}
+
+	private ReadLockRequest(ProgressCallback callback, String callersContext, LockKey[] lockKey) {
 		if (callback == null) {
 			throw new IllegalArgumentException("ProgressCallback cannot be null");
 		}
@@ -37,15 +61,36 @@ public class ReadLockRequest {
 		if (lockKey == null) {
 			throw new IllegalArgumentException("LockKey cannot be null");
 		}
-		this.lockKeys = lockKey;
-		if (this.lockKeys.length < 1) {
+		if (lockKey.length < 1) {
 			throw new IllegalArgumentException("Must include at least one lock key");
 		}
-		for (String key : lockKey) {
+		for (LockKey key : lockKey) {
 			if (key == null) {
 				throw new IllegalArgumentException("Lock key cannot be null");
 			}
 		}
+		this.keys = new TreeSet<>(Arrays.asList(lockKey)).toArray(new LockKey[0]);
+		this.lockKeys = new String[keys.length];
+		for (int i = 0; i < keys.length; i++) {
+			lockKeys[i] = keys[i].getKey();
+		}
+	}
+
+	/**
+	 * Null keys are left for the constructor to reject.
+	 * 
+	 * @param lockKey
+	 * @return
+	 */
+	private static LockKey[] toLockKeys(String[] lockKey) {
+		if (lockKey == null) {
+			return null;
+		}
+		LockKey[] keys = new LockKey[lockKey.length];
+		for (int i = 0; i < lockKey.length; i++) {
+			keys[i] = lockKey[i] == null ? null : LockKey.of(lockKey[i]);
+		}
+		return keys;
 	}
 
 	public ProgressCallback getCallback() {
@@ -56,6 +101,10 @@ public class ReadLockRequest {
 		return lockKeys;
 	}
 
+	public LockKey[] getKeys() {
+		return keys;
+	}
+
 	public String getCallersContext() {
 		return callersContext;
 	}
@@ -2,6 +2,8 @@ package org.sagebionetworks.workers.util.semaphore;
 
 import org.sagebionetworks.common.util.progress.ProgressCallback;
 import org.sagebionetworks.common.util.progress.ProgressingRunner;
+import org.sagebionetworks.workers.util.BackoffStrategy;
+import org.sagebionetworks.workers.util.FixedBackoffStrategy;
 
 /**
  * Configuration for a SemaphoreGatedRunner.
@@ -12,6 +14,12 @@ public class SemaphoreGatedRunnerConfiguration {
 	String lockKey;
 	long lockTimeoutSec = -1;
 	int maxLockCount = -1;
+	LockLeaseRenewer leaseRenewer;
+	long stickyLeaseIdleTimeoutMS = 0;
+	long stickyLeaseMaxHoldMS = -1;
+	BackoffStrategy stickyLeaseIdleBackoff = new FixedBackoffStrategy(100);
+	LocalAdmissionLimiter admissionLimiter;
+	FailedLockAttemptCache failedAttemptCache;
 
 	public SemaphoreGatedRunnerConfiguration() {
 		super();
@@ -129,5 +137,139 @@ public class SemaphoreGatedRunnerConfiguration {
 		this.maxLockCount = maxLockCount;
 	}
 
-	
+	/**
+	 * An optional renewer, usually shared by all runners, that refreshes the
+	 * lock from its own thread. When set, progress events only mark the lock as
+	 * alive, and the worker thread no longer refreshes the lock in the database
+	 * on each progress event. The renewer must be created with the same
+	 * semaphore as the runner, and its tick interval must be less than half of
+	 * the lockTimeoutSec.
+	 * 
+	 * @return
+	 */
+	public LockLeaseRenewer getLeaseRenewer() {
+		return leaseRenewer;
+	}
+
+	/**
+	 * An optional renewer that refreshes the lock from its own thread. See
+	 * {@link #getLeaseRenewer()}.
+	 * 
+	 * @param leaseRenewer
+	 */
+	public void setLeaseRenewer(LockLeaseRenewer leaseRenewer) {
+		this.leaseRenewer = leaseRenewer;
+	}
+
+	/**
+	 * When more than zero, the lock is kept across consecutive runs (a sticky
+	 * lease) for as long as the runner keeps finding work, and is only released
+	 * once the runner has found no work for this many milliseconds, once the
+	 * lock has been held for {@link #getStickyLeaseMaxHoldMS()}, or once the gate
+	 * closes. A run that finds no work at all releases the lock right away.
+	 * This saves a lock acquire and release per run on a busy key. The runner
+	 * must be a {@link WorkAwareRunner}. Defaults to zero, which releases the
+	 * lock after each run.
+	 * 
+	 * @return
+	 */
+	public long getStickyLeaseIdleTimeoutMS() {
+		return stickyLeaseIdleTimeoutMS;
+	}
+
+	/**
+	 * See {@link #getStickyLeaseIdleTimeoutMS()}.
+	 * 
+	 * @param stickyLeaseIdleTimeoutMS
+	 */
+	public void setStickyLeaseIdleTimeoutMS(long stickyLeaseIdleTimeoutMS) {
+		this.stickyLeaseIdleTimeoutMS = stickyLeaseIdleTimeoutMS;
+	}
+
+	/**
+	 * The maximum time in milliseconds that a sticky lease is kept, so other
+	 * machines get a fair chance at the lock. Required when
+	 * {@link #getStickyLeaseIdleTimeoutMS()} is set.
+	 * 
+	 * @return
+	 */
+	public long getStickyLeaseMaxHoldMS() {
+		return stickyLeaseMaxHoldMS;
+	}
+
+	/**
+	 * See {@link #getStickyLeaseMaxHoldMS()}.
+	 * 
+	 * @param stickyLeaseMaxHoldMS
+	 */
+	public void setStickyLeaseMaxHoldMS(long stickyLeaseMaxHoldMS) {
+		this.stickyLeaseMaxHoldMS = stickyLeaseMaxHoldMS;
+	}
+
+	/**
+	 * Determines how long a sticky lease waits before running the runner again
+	 * after it found no work. The attempt count passed to the strategy is the
+	 * number of consecutive runs that found no work. The wait never exceeds the
+	 * remaining idle timeout. Defaults to a fixed 100 ms delay.
+	 * 
+	 * @return
+	 */
+	public BackoffStrategy getStickyLeaseIdleBackoff() {
+		return stickyLeaseIdleBackoff;
+	}
+
+	/**
+	 * See {@link #getStickyLeaseIdleBackoff()}.
+	 * 
+	 * @param stickyLeaseIdleBackoff
+	 */
+	public void setStickyLeaseIdleBackoff(BackoffStrategy stickyLeaseIdleBackoff) {
+		this.stickyLeaseIdleBackoff = stickyLeaseIdleBackoff;
+	}
+
+	/**
+	 * An optional limiter, usually shared by all runners of the JVM, that must
+	 * admit a run before it touches the database semaphore. At most
+	 * maxLockCount runs per lock key are admitted at a time, and runs are turned
+	 * away for a while after a run failed to acquire the lock. This keeps many
+	 * scheduler threads of the same JVM from contending on the lock table for a
+	 * key that has no locks to give.
+	 * 
+	 * @return
+	 */
+	public LocalAdmissionLimiter getAdmissionLimiter() {
+		return admissionLimiter;
+	}
+
+	/**
+	 * See {@link #getAdmissionLimiter()}.
+	 * 
+	 * @param admissionLimiter
+	 */
+	public void setAdmissionLimiter(LocalAdmissionLimiter admissionLimiter) {
+		this.admissionLimiter = admissionLimiter;
+	}
+
+	/**
+	 * An optional cache of the lock keys that recently failed to be acquired.
+	 * While the lock key of the runner is in the cache, runs return without
+	 * calling the database semaphore. A failed attempt adds the key to the
+	 * cache and a successful attempt removes it. An admission limiter already
+	 * does the same, so this is only needed for runners without one.
+	 * 
+	 * @return
+	 */
+	public FailedLockAttemptCache getFailedAttemptCache() {
+		return failedAttemptCache;
+	}
+
+	/**
+	 * See {@link #getFailedAttemptCache()}.
+	 * 
+	 * @param failedAttemptCache
+	 */
+	public void setFailedAttemptCache(FailedLockAttemptCache failedAttemptCache) {
+		this.failedAttemptCache = failedAttemptCache;
+	}
+
 }
@@ -11,6 +11,7 @@ import org.sagebionetworks.common.util.progress.ProgressingRunner;
 import org.sagebionetworks.common.util.progress.SynchronizedProgressCallback;
 import org.sagebionetworks.database.semaphore.CountingSemaphore;
 import org.sagebionetworks.database.semaphore.LockReleaseFailedException;
+import org.sagebionetworks.workers.util.BackoffStrategy;
 import org.sagebionetworks.workers.util.Gate;
 
 /**
@@ -30,6 +31,13 @@ public class SemaphoreGatedRunnerImpl implements SemaphoreGatedRunner {
 	final int maxLockCount;
 	final long heartBeatFrequencyMS;
 	final Gate gate;
+	final LockLeaseRenewer leaseRenewer;
+	final long stickyLeaseIdleTimeoutMS;
+	final long stickyLeaseMaxHoldMS;
+	final BackoffStrategy stickyLeaseIdleBackoff;
+	final WorkAwareRunner workAwareRunner;
+	final LocalAdmissionLimiter admissionLimiter;
+	final FailedLockAttemptCache failedAttemptCache;
 
 	/**
 	 * 
@@ -54,7 +62,23 @@ public class SemaphoreGatedRunnerImpl implements SemaphoreGatedRunner {
 		// the frequency that {@link ProgressCallback#progressMade(Object)}
 		// calls can refresh the lock in the DB.
 		this.heartBeatFrequencyMS = (this.lockTimeoutSec * 1000) / 3;
-		this.runner = new AutoProgressingRunner(config.getRunner(), this.heartBeatFrequencyMS);
+		this.leaseRenewer = config.getLeaseRenewer();
+		this.stickyLeaseIdleTimeoutMS = config.getStickyLeaseIdleTimeoutMS();
+		this.stickyLeaseMaxHoldMS = config.getStickyLeaseMaxHoldMS();
+		this.stickyLeaseIdleBackoff = config.getStickyLeaseIdleBackoff();
+		this.admissionLimiter = config.getAdmissionLimiter();
+		this.failedAttemptCache = config.getFailedAttemptCache();
+		if (this.stickyLeaseIdleTimeoutMS > 0) {
+			if (!(config.getRunner() instanceof WorkAwareRunner)) {
+				throw new IllegalArgumentException("Runner must be a WorkAwareRunner to use a sticky lease");
+			}
+			this.workAwareRunner = (WorkAwareRunner) config.getRunner();
+			// The lock is held across all of the runs.
+			this.runner = new AutoProgressingRunner(this::runWhileWorkRemains, this.heartBeatFrequencyMS);
+		} else {
+			this.workAwareRunner = null;
+			this.runner = new AutoProgressingRunner(config.getRunner(), this.heartBeatFrequencyMS);
+		}
 		validateConfig();
 	}
 
@@ -66,14 +90,67 @@ public class SemaphoreGatedRunnerImpl implements SemaphoreGatedRunner {
 			if(!canRun()){
 				return;
 			}
+			if (admissionLimiter == null) {
+				runWithLock();
+				return;
+			}
+			if (!admissionLimiter.tryAdmit(this.lockKey, this.maxLockCount)) {
+				// Other runs of this JVM already hold all of the locks or the key recently had none to give.
+				return;
+			}
+			try {
+				runWithLock();
+			} finally {
+				admissionLimiter.release(this.lockKey);
+			}
+		}catch (LockReleaseFailedException e){
+			/*
+			 * Lock release failures usually mean workers are not correctly
+			 * reporting progress and the semaphore is not working as expected
+			 * so this exception is thrown
+			 */
+			throw e;
+		}catch (Throwable e) {
+			log.error("Error on key " + lockKey + ": ",e);
+		}
+	}
 
-			// attempt to get a lock
-			final Optional<String> lockTokenOp = semaphore.attemptToAcquireLock(
-					this.lockKey, this.lockTimeoutSec, this.maxLockCount, this.runner.getClass().getName());
-			// start with a new callback.
-			ProgressCallback progressCallback = new SynchronizedProgressCallback(this.lockTimeoutSec);
-			// listen to progress events
-			ProgressListener listener = new ProgressListener() {
+	/**
+	 * Acquire a lock and run the runner while holding it.
+	 * 
+	 * @throws Exception
+	 */
+	private void runWithLock() throws Exception {
+		if (failedAttemptCache != null && failedAttemptCache.isRecentFailure(this.lockKey)) {
+			// A recent attempt found no lock available so skip the database.
+			return;
+		}
+		// attempt to get a lock
+		final Optional<String> lockTokenOp = semaphore.attemptToAcquireLock(
+				this.lockKey, this.lockTimeoutSec, this.maxLockCount, this.runner.getClass().getName());
+		if (failedAttemptCache != null) {
+			if (lockTokenOp.isPresent()) {
+				failedAttemptCache.clear(this.lockKey);
+			} else {
+				failedAttemptCache.recordFailure(this.lockKey);
+			}
+		}
+		if (admissionLimiter != null) {
+			if (lockTokenOp.isPresent()) {
+				admissionLimiter.recordSuccess(this.lockKey);
+			} else {
+				admissionLimiter.recordFailure(this.lockKey);
+			}
+		}
+		// start with a new callback.
+		ProgressCallback progressCallback = new SynchronizedProgressCallback(this.lockTimeoutSec);
+		// listen to progress events
+		ProgressListener listener;
+		if (leaseRenewer != null) {
+			// The renewer gives the lock more time from its own thread.
+			listener = () -> leaseRenewer.progressMade(lockKey, lockTokenOp.get());
+		} else {
+			listener = new ProgressListener() {
 
 				@Override
 				public void progressMade() {
@@ -82,27 +159,58 @@ public class SemaphoreGatedRunnerImpl implements SemaphoreGatedRunner {
 							lockTokenOp.get(), lockTimeoutSec);
 				}
 			};
-			progressCallback.addProgressListener(listener);
+		}
+		progressCallback.addProgressListener(listener);
 
-			// Only proceed if a lock was acquired
-			if (lockTokenOp.isPresent()) {
-				try {
-					// Let the runner go while holding the lock
-					runner.run(progressCallback);
-				} finally {
-					progressCallback.removeProgressListener(listener);
-					semaphore.releaseLock(this.lockKey, lockTokenOp.get());
+		// Only proceed if a lock was acquired
+		if (lockTokenOp.isPresent()) {
+			try {
+				if (leaseRenewer != null) {
+					leaseRenewer.track(this.lockKey, lockTokenOp.get(), this.lockTimeoutSec);
 				}
+				// Let the runner go while holding the lock
+				runner.run(progressCallback);
+			} finally {
+				progressCallback.removeProgressListener(listener);
+				if (leaseRenewer != null) {
+					leaseRenewer.untrack(this.lockKey, lockTokenOp.get());
+				}
+				semaphore.releaseLock(this.lockKey, lockTokenOp.get());
+			}
+		}
+	}
+
+	/**
+	 * Run the runner while the lock is held until it has found no work for the
+	 * idle timeout, the max hold time is reached, or the gate closes.
+	 * 
+	 * @param progressCallback
+	 * @throws Exception
+	 */
+	void runWhileWorkRemains(ProgressCallback progressCallback) throws Exception {
+		if (!workAwareRunner.runOnce(progressCallback)) {
+			// Nothing to do so there is no reason to keep the lock.
+			return;
+		}
+		long startMS = System.currentTimeMillis();
+		long lastWorkMS = startMS;
+		// The number of consecutive runs that found no work.
+		int idleCount = 0;
+		while (true) {
+			long now = System.currentTimeMillis();
+			long idleRemainingMS = stickyLeaseIdleTimeoutMS - (now - lastWorkMS);
+			if (idleRemainingMS <= 0 || now - startMS >= stickyLeaseMaxHoldMS || !canRun()) {
+				return;
+			}
+			if (idleCount > 0) {
+				Thread.sleep(Math.min(stickyLeaseIdleBackoff.getDelayMS(idleCount), idleRemainingMS));
+			}
+			if (workAwareRunner.runOnce(progressCallback)) {
+				lastWorkMS = System.currentTimeMillis();
+				idleCount = 0;
+			} else {
+				idleCount++;
 			}
-		}catch (LockReleaseFailedException e){
-			/*
-			 * Lock release failures usually mean workers are not correctly
-			 * reporting progress and the semaphore is not working as expected
-			 * so this exception is thrown
-			 */
-			throw e;
-		}catch (Throwable e) {
-			log.error("Error on key " + lockKey + ": ",e);
 		}
 	}
 
@@ -121,6 +229,19 @@ public class SemaphoreGatedRunnerImpl implements SemaphoreGatedRunner {
 			throw new IllegalArgumentException(
 					"MaxLockCount cannot be less than one.");
 		}
+		if (leaseRenewer != null && leaseRenewer.getTickIntervalMS() * 2 >= lockTimeoutSec * 1000) {
+			throw new IllegalArgumentException(
+					"LockTimeoutSec must be more than double the leaseRenewer tick interval.");
+		}
+		if (stickyLeaseIdleTimeoutMS > 0) {
+			if (stickyLeaseMaxHoldMS < 1) {
+				throw new IllegalArgumentException(
+						"StickyLeaseMaxHoldMS must be at least one when a sticky lease is used.");
+			}
+			if (stickyLeaseIdleBackoff == null) {
+				throw new IllegalArgumentException("StickyLeaseIdleBackoff cannot be null");
+			}
+		}
 	}
 
 
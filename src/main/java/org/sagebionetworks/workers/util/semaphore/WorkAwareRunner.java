@@ -0,0 +1,29 @@
+package org.sagebionetworks.workers.util.semaphore;
+
+import org.sagebionetworks.common.util.progress.ProgressCallback;
+import org.sagebionetworks.common.util.progress.ProgressingRunner;
+
+/**
+ * A {@link ProgressingRunner} that reports whether it found any work, so a
+ * {@link SemaphoreGatedRunnerImpl} configured with a sticky lease can run it
+ * again without releasing and re-acquiring its semaphore lock. See
+ * {@link SemaphoreGatedRunnerConfiguration#getStickyLeaseIdleTimeoutMS()}.
+ *
+ */
+public interface WorkAwareRunner extends ProgressingRunner {
+
+	/**
+	 * Run a single unit of work.
+	 *
+	 * @param progressCallback
+	 * @return True if work was found. False if there was nothing to do.
+	 * @throws Exception
+	 */
+	boolean runOnce(ProgressCallback progressCallback) throws Exception;
+
+	@Override
+	default void run(ProgressCallback progressCallback) throws Exception {
+		runOnce(progressCallback);
+	}
+
+}
@@ -10,12 +10,55 @@ class WriteLockImpl implements WriteLock {
 
 	private final CountingSemaphore countingSemaphore;
 	private final WriteLockRequest request;
+	private final LockLeaseRenewer leaseRenewer;
+	private final ReadLockImpl ancestorReadLock;
+	private final boolean hierarchicalKeys;
 	private final String readLockKey;
 	private final String writeLockKey;
 	private String writeToken;
 	private ProgressListener listener;
 
 	public WriteLockImpl(CountingSemaphore countingSemaphore, WriteLockRequest request) {
+		this(countingSemaphore, request, null);
+	}
+
+	/**
+	 * 
+	 * @param countingSemaphore
+	 * @param request
+	 * @param leaseRenewer      Optional. When provided, the write lock is
+	 *                          refreshed by the renewer rather than on each
+	 *                          progress event.
+	 */
+	public WriteLockImpl(CountingSemaphore countingSemaphore, WriteLockRequest request, LockLeaseRenewer leaseRenewer) {
+		this(countingSemaphore, request, leaseRenewer, null);
+	}
+
+	/**
+	 * 
+	 * @param countingSemaphore
+	 * @param request
+	 * @param leaseRenewer      Optional.
+	 * @param ancestorReadLock  Optional. A read lock on the ancestors of a
+	 *                          hierarchical key, acquired before the write lock
+	 *                          and released after it.
+	 */
+	public WriteLockImpl(CountingSemaphore countingSemaphore, WriteLockRequest request, LockLeaseRenewer leaseRenewer,
+			ReadLockImpl ancestorReadLock) {
+		this(countingSemaphore, request, leaseRenewer, ancestorReadLock, false);
+	}
+
+	/**
+	 * 
+	 * @param countingSemaphore
+	 * @param request
+	 * @param leaseRenewer      Optional.
+	 * @param ancestorReadLock  Optional.
+	 * @param hierarchicalKeys  When true, the locks held below the key are
+	 *                          existing read locks of this write lock.
+	 */
+	public WriteLockImpl(CountingSemaphore countingSemaphore, WriteLockRequest request, LockLeaseRenewer leaseRenewer,
+			ReadLockImpl ancestorReadLock, boolean hierarchicalKeys) {
 		super();
 		if(countingSemaphore == null) {
 			throw new IllegalArgumentException("CountingSemaphore cannot be null");
@@ -25,11 +68,18 @@ class WriteLockImpl implements WriteLock {
 			throw new IllegalArgumentException("WriteLockRequest cannot be null");
 		}
 		this.request = request;
-		this.readLockKey = Constants.createReaderLockKey(request.getLockKey());
-		this.writeLockKey = Constants.createWriterLockKey(request.getLockKey());
+		this.leaseRenewer = leaseRenewer;
+		this.ancestorReadLock = ancestorReadLock;
+		this.hierarchicalKeys = hierarchicalKeys;
+		this.readLockKey = request.getKey().getReaderLockKey();
+		this.writeLockKey = request.getKey().getWriterLockKey();
 	}
 
 	void attemptToAcquireLock() {
+		if (ancestorReadLock != null) {
+			// a write lock on an ancestor key excludes this key too.
+			ancestorReadLock.attemptToAcquireLock();
+		}
 		// reserve a writer token if possible
 		Optional<String> tokenOptional = this.countingSemaphore.attemptToAcquireLock(writeLockKey,
 				request.getCallback().getLockTimeoutSeconds(), Constants.WRITER_MAX_LOCKS, request.getCallersContext());
@@ -40,14 +90,32 @@ class WriteLockImpl implements WriteLock {
 		this.writeToken = tokenOptional.get();
 
 		// Listen to progress events
-		listener = () -> {
-			// as progress is made refresh the write lock
-			countingSemaphore.refreshLockTimeout(writeLockKey, this.writeToken,
-					request.getCallback().getLockTimeoutSeconds());
-		};
+		if (leaseRenewer != null) {
+			leaseRenewer.track(writeLockKey, this.writeToken, request.getCallback().getLockTimeoutSeconds());
+			// the renewer refreshes the write lock from its own thread
+			listener = () -> leaseRenewer.progressMade(writeLockKey, this.writeToken);
+		} else {
+			listener = () -> {
+				// as progress is made refresh the write lock
+				countingSemaphore.refreshLockTimeout(writeLockKey, this.writeToken,
+						request.getCallback().getLockTimeoutSeconds());
+			};
+		}
 		request.getCallback().addProgressListener(listener);
 	}
 
+	/**
+	 * Give the write lock more time, the same as a progress event would.
+	 */
+	void refreshLock() {
+		if (listener != null) {
+			listener.progressMade();
+		}
+		if (ancestorReadLock != null) {
+			ancestorReadLock.refreshLock();
+		}
+	}
+
 	@Override
 	public void close() throws Exception {
 		Exception lastException = null;
@@ -60,11 +128,21 @@ class WriteLockImpl implements WriteLock {
 		}
 		if (this.writeToken != null) {
 			try {
+				if (leaseRenewer != null) {
+					leaseRenewer.untrack(this.writeLockKey, this.writeToken);
+				}
 				countingSemaphore.releaseLock(this.writeLockKey, this.writeToken);
 			} catch (Exception e) {
 				lastException = e;
 			}
 		}
+		if (this.ancestorReadLock != null) {
+			try {
+				ancestorReadLock.close();
+			} catch (Exception e) {
+				lastException = e;
+			}
+		}
 		if(lastException != null) {
 			throw new IOException(lastException);
 		}
@@ -72,7 +150,11 @@ class WriteLockImpl implements WriteLock {
 
 	@Override
 	public Optional<String> getExistingReadLockContext() {
-		return countingSemaphore.getFirstUnexpiredLockContext(this.readLockKey);
+		Optional<String> readerContext = countingSemaphore.getFirstUnexpiredLockContext(this.readLockKey);
+		if (readerContext.isPresent() || !hierarchicalKeys) {
+			return readerContext;
+		}
+		return countingSemaphore.getFirstUnexpiredLockContext(request.getKey().getDescendantLockKey());
 	}
 
 }
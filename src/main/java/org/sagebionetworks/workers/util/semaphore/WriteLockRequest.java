@@ -12,7 +12,7 @@ public class WriteLockRequest {
 
 	private final ProgressCallback callback;
 	private final String callersContext;
-	private final String lockKey;
+	private final LockKey lockKey;
 
 	/**
 	 * Request to create a write lock.
@@ -23,6 +23,24 @@ public class WriteLockRequest {
 	 * @param lockKey        The key that defines the lock.
 	 */
 	public WriteLockRequest(ProgressCallback callback, String callersContext, String lockKey) {
+		this(callback, callersContext, lockKey == null ? null : LockKey.of(lockKey));
+	}
+
+	/**
+	 * Request to create a write lock on a key that was already looked up with
+	 * {@link LockKey#of(String)}.
+	 * 
+	 * @param callback       The callback used to refresh lock timeouts.
+	 * @param callersContext Description of the caller's context. This is provided
+	 *                       to caller when a lock is unavailable.
+	 * @param lockKey        The key that defines the lock.
+	 * @return
+	 */
+	public static WriteLockRequest forKey(ProgressCallback callback, String callersContext, LockKey lockKey) {
+		return new WriteLockRequest(callback, callersContext, lockKey);
+	}
+
+	private WriteLockRequest(ProgressCallback callback, String callersContext, LockKey lockKey) {
 		if (callback == null) {
 			throw new IllegalArgumentException("ProgressCallback cannot be null");
 		}
@@ -49,6 +67,10 @@ public class WriteLockRequest {
 	}
 
 	public String getLockKey() {
+		return lockKey.getKey();
+	}
+
+	public LockKey getKey() {
 		return lockKey;
 	}
 
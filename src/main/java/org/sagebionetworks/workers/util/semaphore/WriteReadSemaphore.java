@@ -7,7 +7,11 @@ import org.sagebionetworks.database.semaphore.CountingSemaphore;
  * cluster of machines. This functionality is built on top of the database
  * backed {@link CountingSemaphore}. If a lock cannot be issued immediately a
  * {@link LockUnavilableException} with be thrown without waiting
- * (non-blocking).
+ * (non-blocking). The tryAcquire methods wait, up to a given timeout, for a
+ * lock to become available.
+ * <p>
+ * The default tryAcquire methods throw {@link UnsupportedOperationException},
+ * so implementations that predate them are not required to support waiting.
  * 
  */
 public interface WriteReadSemaphore {
@@ -41,6 +45,33 @@ public interface WriteReadSemaphore {
 	 */
 	WriteLock getWriteLock(WriteLockRequest request) throws LockUnavilableException;
 
+	/**
+	 * Get a single write lock on all of the keys of the given request. A writer
+	 * token is acquired on each key, in the sorted order of the keys, and if any
+	 * key is unavailable the tokens already acquired are released before the
+	 * {@link LockUnavilableException} is thrown. The returned lock refreshes all
+	 * of the tokens from a single progress listener, and
+	 * {@link WriteLock#getExistingReadLockContext()} reports the first read lock
+	 * found on any of the keys.
+	 * <p>
+	 * Implementations that do not support multi-key write locks throw
+	 * {@link UnsupportedOperationException}.
+	 * 
+	 * <pre>
+	 * try (WriteLock lock = writeReadSemaphore.getMultiKeyWriteLock(multiKeyRequest)) {
+	 * 	// wait for the read locks on all of the keys to be released...
+	 * }
+	 * </pre>
+	 * 
+	 * @param request
+	 * @return
+	 * @throws LockUnavilableException Thrown if the write lock on any of the keys
+	 *                                 cannot be acquired.
+	 */
+	default WriteLock getMultiKeyWriteLock(MultiKeyWriteLockRequest request) throws LockUnavilableException {
+		throw new UnsupportedOperationException("Multi-key write locks are not supported by " + getClass().getName());
+	}
+
 	/**
 	 * Get a read lock for the given request. Multiple read locks can be acquired
 	 * for the same key concurrently. There is a limit on the number of read locks
@@ -62,4 +93,47 @@ public interface WriteReadSemaphore {
 	 *                                 cannot be be acquired.
 	 */
 	ReadLock getReadLock(ReadLockRequest request) throws LockUnavilableException;
+
+	/**
+	 * Get a write lock for the given request, waiting up to the given timeout
+	 * for the write lock to become available and then for all existing read
+	 * locks to be released. The lock is polled at increasing intervals, and the
+	 * write lock is kept alive while the read locks drain. When this returns,
+	 * there are no outstanding read locks for the key.
+	 * 
+	 * <pre>
+	 * try (WriteLock lock = writeReadSemaphore.tryAcquireWriteLock(request, 60_000)) {
+	 * 	// code to execute while holding the lock added here...
+	 * }
+	 * </pre>
+	 * 
+	 * @param request
+	 * @param timeoutMS The maximum time to wait in milliseconds.
+	 * @return
+	 * @throws LockUnavilableException Thrown if the write lock could not be
+	 *                                 acquired, or the read locks were not
+	 *                                 released, before the timeout.
+	 * @throws InterruptedException
+	 */
+	default WriteLock tryAcquireWriteLock(WriteLockRequest request, long timeoutMS)
+			throws LockUnavilableException, InterruptedException {
+		throw new UnsupportedOperationException("Waiting for a write lock is not supported by " + getClass().getName());
+	}
+
+	/**
+	 * Get a read lock for the given request, waiting up to the given timeout for
+	 * all of the requested read locks to become available. The locks are polled
+	 * at increasing intervals.
+	 * 
+	 * @param request
+	 * @param timeoutMS The maximum time to wait in milliseconds.
+	 * @return
+	 * @throws LockUnavilableException Thrown if the read locks could not be
+	 *                                 acquired before the timeout.
+	 * @throws InterruptedException
+	 */
+	default ReadLock tryAcquireReadLock(ReadLockRequest request, long timeoutMS)
+			throws LockUnavilableException, InterruptedException {
+		throw new UnsupportedOperationException("Waiting for a read lock is not supported by " + getClass().getName());
+	}
 }
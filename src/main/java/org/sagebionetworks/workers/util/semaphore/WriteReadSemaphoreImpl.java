@@ -1,8 +1,18 @@
 package org.sagebionetworks.workers.util.semaphore;
 
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
+
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.sagebionetworks.common.util.progress.ProgressCallback;
 import org.sagebionetworks.database.semaphore.CountingSemaphore;
+import org.sagebionetworks.workers.util.BackoffStrategy;
+import org.sagebionetworks.workers.util.ExponentialBackoffStrategy;
 
 public class WriteReadSemaphoreImpl implements WriteReadSemaphore {
 
@@ -10,23 +20,147 @@ public class WriteReadSemaphoreImpl implements WriteReadSemaphore {
 
 	final CountingSemaphore countingSemaphore;
 	final int maxNumberOfReaders;
+	final LockLeaseRenewer leaseRenewer;
+	final FailedLockAttemptCache failedAttemptCache;
+	BackoffStrategy waitBackoff = new ExponentialBackoffStrategy(100, Constants.THROTTLE_SLEEP_FREQUENCY_MS, 0.5);
+	FairnessPolicy fairnessPolicy = FairnessPolicy.ReaderPreference;
+	Executor keyExecutor;
+	boolean hierarchicalKeys = false;
+	int maxNumberOfDescendantLocks = Constants.DESCENDANT_MAX_LOCKS;
 
 	public WriteReadSemaphoreImpl(CountingSemaphore countingSemaphore, int maxNumberOfReaders) {
+		this(countingSemaphore, maxNumberOfReaders, null);
+	}
+
+	public WriteReadSemaphoreImpl(CountingSemaphore countingSemaphore, int maxNumberOfReaders,
+			LockLeaseRenewer leaseRenewer) {
+		this(countingSemaphore, maxNumberOfReaders, leaseRenewer, null);
+	}
+
+	/**
+	 * 
+	 * @param countingSemaphore
+	 * @param maxNumberOfReaders
+	 * @param leaseRenewer       Optional. When provided, the locks issued by this
+	 *                           semaphore are refreshed by the renewer from its
+	 *                           own thread, and progress events only mark the
+	 *                           locks as alive. The renewer must be created with
+	 *                           the same CountingSemaphore, and its tick interval
+	 *                           must be less than half of
+	 *                           {@link Constants#MINIMUM_LOCK_TIMEOUT_SEC}, the
+	 *                           shortest lock timeout of any request.
+	 * @param failedAttemptCache Optional. When provided, the writer and reader
+	 *                           keys that recently failed to be acquired are
+	 *                           remembered, and requests that need one of those
+	 *                           keys fail with a {@link LockUnavilableException}
+	 *                           without calling the CountingSemaphore.
+	 */
+	public WriteReadSemaphoreImpl(CountingSemaphore countingSemaphore, int maxNumberOfReaders,
+			LockLeaseRenewer leaseRenewer, FailedLockAttemptCache failedAttemptCache) {
 		if (countingSemaphore == null) {
 			throw new IllegalArgumentException("CountingSemaphore cannot be null");
 		}
 		this.countingSemaphore = countingSemaphore;
 		this.maxNumberOfReaders = maxNumberOfReaders;
+		if (leaseRenewer != null && leaseRenewer.getTickIntervalMS() * 2 >= Constants.MINIMUM_LOCK_TIMEOUT_SEC * 1000) {
+			throw new IllegalArgumentException(
+					"The leaseRenewer tick interval must be less than half of the minimum lock timeout.");
+		}
+		this.leaseRenewer = leaseRenewer;
+		this.failedAttemptCache = failedAttemptCache;
+	}
+
+	/**
+	 * Determines how long the tryAcquire methods wait between polls. The attempt
+	 * count passed to the strategy is the number of consecutive polls that found
+	 * the lock unavailable. Defaults to an exponential backoff from 100 ms up to
+	 * {@link Constants#THROTTLE_SLEEP_FREQUENCY_MS} with jitter.
+	 * 
+	 * @param waitBackoff
+	 */
+	public void setWaitBackoff(BackoffStrategy waitBackoff) {
+		if (waitBackoff == null) {
+			throw new IllegalArgumentException("WaitBackoff cannot be null");
+		}
+		this.waitBackoff = waitBackoff;
+	}
+
+	/**
+	 * How readers and writers of the same key are arbitrated. Defaults to
+	 * {@link FairnessPolicy#ReaderPreference}. All of the semaphores that share
+	 * the keys should use the same policy.
+	 * 
+	 * @param fairnessPolicy
+	 */
+	public void setFairnessPolicy(FairnessPolicy fairnessPolicy) {
+		if (fairnessPolicy == null) {
+			throw new IllegalArgumentException("FairnessPolicy cannot be null");
+		}
+		this.fairnessPolicy = fairnessPolicy;
+	}
+
+	/**
+	 * When set, a read lock on multiple keys issues the acquire, refresh and
+	 * release calls for each key concurrently on the given executor, rather than
+	 * one after the other on the caller's thread. Acquisition is still all or
+	 * nothing, and every acquired key is released even if some releases fail.
+	 * The executor should be bounded, a task it rejects is run on the caller's
+	 * thread. Not used when the CountingSemaphore is a
+	 * {@link BulkCountingSemaphore}.
+	 * 
+	 * @param keyExecutor
+	 */
+	public void setKeyExecutor(Executor keyExecutor) {
+		if (keyExecutor == null) {
+			throw new IllegalArgumentException("KeyExecutor cannot be null");
+		}
+		this.keyExecutor = keyExecutor;
+	}
+
+	/**
+	 * When true, lock keys are treated as paths with levels separated by
+	 * {@link Constants#KEY_PATH_SEPARATOR}, for example "project/123/table/456".
+	 * A lock on a key then also takes a descendant lock on each of its
+	 * ancestors, so a write lock on "project/123" excludes the read and write
+	 * locks on every key below it, and waits for the existing ones to be
+	 * released the same as it waits for its own readers. Descendant locks are
+	 * counted apart from the ancestor's readers, see
+	 * {@link #setMaxNumberOfDescendantLocks(int)}. Defaults to false. All of the
+	 * semaphores that share the keys should use the same setting.
+	 * 
+	 * @param hierarchicalKeys
+	 */
+	public void setHierarchicalKeys(boolean hierarchicalKeys) {
+		this.hierarchicalKeys = hierarchicalKeys;
+	}
+
+	/**
+	 * The maximum number of locks below a hierarchical key that can be held at
+	 * the same time. Defaults to {@link Constants#DESCENDANT_MAX_LOCKS}.
+	 * 
+	 * @param maxNumberOfDescendantLocks
+	 */
+	public void setMaxNumberOfDescendantLocks(int maxNumberOfDescendantLocks) {
+		if (maxNumberOfDescendantLocks < 1) {
+			throw new IllegalArgumentException("MaxNumberOfDescendantLocks cannot be less than one");
+		}
+		this.maxNumberOfDescendantLocks = maxNumberOfDescendantLocks;
 	}
 
 	@Override
 	public WriteLock getWriteLock(WriteLockRequest request) throws LockUnavilableException {
+		return acquireWriteLock(request);
+	}
+
+	private WriteLockImpl acquireWriteLock(WriteLockRequest request) throws LockUnavilableException {
 		if (request == null) {
 			throw new IllegalArgumentException("Request cannot be null");
 		}
+		throwIfRecentFailure(LockType.Write, request.getLockKey());
 		WriteLockImpl lock = createWriteLock(request);
 		try {
 			lock.attemptToAcquireLock();
+			clearRecentFailure(LockType.Write, request.getLockKey());
 			return lock;
 		} catch (Exception e) {
 			try {
@@ -35,6 +169,7 @@ public class WriteReadSemaphoreImpl implements WriteReadSemaphore {
 				log.error("Error on close:", closeException);
 			}
 			if (e instanceof LockUnavilableException) {
+				recordWriteFailure((LockUnavilableException) e, request.getLockKey());
 				throw (LockUnavilableException) e;
 			} else {
 				throw new RuntimeException(e);
@@ -43,7 +178,46 @@ public class WriteReadSemaphoreImpl implements WriteReadSemaphore {
 	}
 
 	WriteLockImpl createWriteLock(WriteLockRequest request) {
-		return new WriteLockImpl(countingSemaphore, request);
+		return new WriteLockImpl(countingSemaphore, request, leaseRenewer,
+				createAncestorReadLock(request.getCallback(), request.getCallersContext(), request.getLockKey()),
+				hierarchicalKeys);
+	}
+
+	@Override
+	public WriteLock getMultiKeyWriteLock(MultiKeyWriteLockRequest request) throws LockUnavilableException {
+		if (request == null) {
+			throw new IllegalArgumentException("Request cannot be null");
+		}
+		for (String lockKey : request.getLockKeys()) {
+			throwIfRecentFailure(LockType.Write, lockKey);
+		}
+		MultiKeyWriteLockImpl lock = createMultiKeyWriteLock(request);
+		try {
+			lock.attemptToAcquireLock();
+			for (String lockKey : request.getLockKeys()) {
+				clearRecentFailure(LockType.Write, lockKey);
+			}
+			return lock;
+		} catch (Exception e) {
+			// release any of the keys that were acquired.
+			try {
+				lock.close();
+			} catch (Exception closeException) {
+				log.error("Error on close:", closeException);
+			}
+			if (e instanceof LockUnavilableException) {
+				recordWriteFailure((LockUnavilableException) e, request.getLockKeys());
+				throw (LockUnavilableException) e;
+			} else {
+				throw new RuntimeException(e);
+			}
+		}
+	}
+
+	MultiKeyWriteLockImpl createMultiKeyWriteLock(MultiKeyWriteLockRequest request) {
+		return new MultiKeyWriteLockImpl(countingSemaphore, request, leaseRenewer,
+				createAncestorReadLock(request.getCallback(), request.getCallersContext(), request.getLockKeys()),
+				hierarchicalKeys);
 	}
 
 	@Override
@@ -51,9 +225,18 @@ public class WriteReadSemaphoreImpl implements WriteReadSemaphore {
 		if (request == null) {
 			throw new IllegalArgumentException("Request cannot be null");
 		}
+		for (String lockKey : request.getLockKeys()) {
+			throwIfRecentFailure(LockType.Write, lockKey);
+			throwIfRecentFailure(LockType.Write, lockKey, createReaderBlockedCacheKey(lockKey));
+			throwIfRecentFailure(LockType.Read, lockKey);
+		}
 		ReadLockImpl lock = createReadLock(request);
 		try {
 			lock.attemptToAcquireLock();
+			for (String lockKey : request.getLockKeys()) {
+				clearRecentFailure(createReaderBlockedCacheKey(lockKey));
+				clearRecentFailure(createCacheKey(LockType.Read, lockKey));
+			}
 			return lock;
 		} catch (Exception e) {
 			try {
@@ -62,6 +245,7 @@ public class WriteReadSemaphoreImpl implements WriteReadSemaphore {
 				log.error("Error on close:", closeException);
 			}
 			if (e instanceof LockUnavilableException) {
+				recordReadFailure((LockUnavilableException) e, request.getLockKeys());
 				throw (LockUnavilableException) e;
 			} else {
 				throw new RuntimeException(e);
@@ -69,7 +253,289 @@ public class WriteReadSemaphoreImpl implements WriteReadSemaphore {
 		}
 	}
 
+	@Override
+	public WriteLock tryAcquireWriteLock(WriteLockRequest request, long timeoutMS)
+			throws LockUnavilableException, InterruptedException {
+		long deadlineMS = createDeadline(timeoutMS);
+		WriteLockImpl lock;
+		if (fairnessPolicy == FairnessPolicy.WriterPreference) {
+			lock = waitForWriteLockWithIntent(request, deadlineMS);
+		} else {
+			lock = waitForLock(() -> acquireWriteLock(request), deadlineMS);
+		}
+		try {
+			waitForReadersToDrain(lock, request, deadlineMS);
+			return lock;
+		} catch (Exception e) {
+			try {
+				lock.close();
+			} catch (Exception closeException) {
+				log.error("Error on close:", closeException);
+			}
+			throw e;
+		}
+	}
+
+	@Override
+	public ReadLock tryAcquireReadLock(ReadLockRequest request, long timeoutMS)
+			throws LockUnavilableException, InterruptedException {
+		long deadlineMS = createDeadline(timeoutMS);
+		return waitForLock(() -> getReadLock(request), deadlineMS);
+	}
+
+	private static long createDeadline(long timeoutMS) {
+		if (timeoutMS < 0) {
+			throw new IllegalArgumentException("TimeoutMS cannot be negative");
+		}
+		return System.currentTimeMillis() + timeoutMS;
+	}
+
+	/**
+	 * Wait for the write lock while holding a writer intent lock on the key,
+	 * which keeps new readers out until the write lock is acquired.
+	 * 
+	 * @param request
+	 * @param deadlineMS
+	 * @return
+	 * @throws LockUnavilableException
+	 * @throws InterruptedException
+	 */
+	private WriteLockImpl waitForWriteLockWithIntent(WriteLockRequest request, long deadlineMS)
+			throws LockUnavilableException, InterruptedException {
+		String writerIntentKey = request.getKey().getWriterIntentLockKey();
+		long lockTimeoutSec = request.getCallback().getLockTimeoutSeconds();
+		Optional<String> intentToken = countingSemaphore.attemptToAcquireLock(writerIntentKey, lockTimeoutSec,
+				Constants.WRITER_INTENT_MAX_LOCKS, request.getCallersContext());
+		if (intentToken.isEmpty()) {
+			// Too many writers are waiting to announce this one so it waits without preference.
+			return waitForLock(() -> acquireWriteLock(request), deadlineMS);
+		}
+		try {
+			return waitForLock(() -> acquireWriteLock(request), deadlineMS,
+					() -> countingSemaphore.refreshLockTimeout(writerIntentKey, intentToken.get(), lockTimeoutSec),
+					lockTimeoutSec * 1000 / 3);
+		} finally {
+			// Once the write lock is held it keeps the readers out.
+			try {
+				countingSemaphore.releaseLock(writerIntentKey, intentToken.get());
+			} catch (Exception e) {
+				log.error("Failed to release the writer intent lock:", e);
+			}
+		}
+	}
+
+	/**
+	 * Attempt to get a lock until it is acquired or the deadline passes.
+	 * 
+	 * @param attempt    A single non-blocking attempt.
+	 * @param deadlineMS
+	 * @return
+	 * @throws LockUnavilableException The last failure if the deadline passed.
+	 * @throws InterruptedException
+	 */
+	private <T> T waitForLock(Supplier<T> attempt, long deadlineMS)
+			throws LockUnavilableException, InterruptedException {
+		return waitForLock(attempt, deadlineMS, null, Long.MAX_VALUE);
+	}
+
+	/**
+	 * Attempt to get a lock until it is acquired or the deadline passes.
+	 * 
+	 * @param attempt              A single non-blocking attempt.
+	 * @param deadlineMS
+	 * @param keepAlive            Optional. Called while waiting at the given
+	 *                             frequency.
+	 * @param keepAliveFrequencyMS
+	 * @return
+	 * @throws LockUnavilableException The last failure if the deadline passed.
+	 * @throws InterruptedException
+	 */
+	private <T> T waitForLock(Supplier<T> attempt, long deadlineMS, Runnable keepAlive, long keepAliveFrequencyMS)
+			throws LockUnavilableException, InterruptedException {
+		long lastKeepAliveMS = System.currentTimeMillis();
+		// The number of consecutive attempts that found the lock unavailable.
+		int failedCount = 0;
+		while (true) {
+			try {
+				return attempt.get();
+			} catch (LockUnavilableException e) {
+				failedCount++;
+				long now = System.currentTimeMillis();
+				long remainingMS = deadlineMS - now;
+				if (remainingMS <= 0) {
+					throw e;
+				}
+				if (keepAlive != null && now - lastKeepAliveMS >= keepAliveFrequencyMS) {
+					keepAlive.run();
+					lastKeepAliveMS = now;
+				}
+				long untilKeepAliveMS = keepAliveFrequencyMS - (now - lastKeepAliveMS);
+				Thread.sleep(Math.min(waitBackoff.getDelayMS(failedCount), Math.min(remainingMS, untilKeepAliveMS)));
+			}
+		}
+	}
+
+	/**
+	 * Wait for the existing read locks of an acquired write lock to be released,
+	 * refreshing the write lock as the caller is blocked and cannot report
+	 * progress.
+	 * 
+	 * @param lock
+	 * @param request
+	 * @param deadlineMS
+	 * @throws LockUnavilableException If the read locks are not released before
+	 *                                 the deadline.
+	 * @throws InterruptedException
+	 */
+	private void waitForReadersToDrain(WriteLockImpl lock, WriteLockRequest request, long deadlineMS)
+			throws LockUnavilableException, InterruptedException {
+		// Refresh at the same frequency as a SemaphoreGatedRunnerImpl heartbeat.
+		long refreshFrequencyMS = request.getCallback().getLockTimeoutSeconds() * 1000 / 3;
+		long lastRefreshMS = System.currentTimeMillis();
+		// The number of consecutive polls that found read locks.
+		int pollCount = 0;
+		Optional<String> readerContext;
+		while ((readerContext = lock.getExistingReadLockContext()).isPresent()) {
+			pollCount++;
+			long now = System.currentTimeMillis();
+			long remainingMS = deadlineMS - now;
+			if (remainingMS <= 0) {
+				throw new LockUnavilableException(LockType.Read, request.getLockKey(), readerContext.get());
+			}
+			if (now - lastRefreshMS >= refreshFrequencyMS) {
+				lock.refreshLock();
+				lastRefreshMS = now;
+			}
+			long untilRefreshMS = refreshFrequencyMS - (now - lastRefreshMS);
+			Thread.sleep(Math.min(waitBackoff.getDelayMS(pollCount), Math.min(remainingMS, untilRefreshMS)));
+		}
+	}
+
+	/**
+	 * Fail without calling the CountingSemaphore if a lock of the given type was
+	 * recently unavailable for the given key.
+	 * 
+	 * @param type
+	 * @param lockKey
+	 * @throws LockUnavilableException
+	 */
+	private void throwIfRecentFailure(LockType type, String lockKey) throws LockUnavilableException {
+		throwIfRecentFailure(type, lockKey, createCacheKey(type, lockKey));
+	}
+
+	private void throwIfRecentFailure(LockType type, String lockKey, String cacheKey) throws LockUnavilableException {
+		if (failedAttemptCache == null) {
+			return;
+		}
+		if (failedAttemptCache.isRecentFailure(cacheKey)) {
+			throw new LockUnavilableException(type, lockKey,
+					failedAttemptCache.getRecentFailureContext(cacheKey).orElse(null));
+		}
+	}
+
+	/**
+	 * Remember the failure of a write lock on the given keys. A failure on an
+	 * ancestor of hierarchical keys is not remembered, as the ancestor was only
+	 * locked on behalf of the keys below it.
+	 * 
+	 * @param e
+	 * @param lockKeys The requested keys.
+	 */
+	private void recordWriteFailure(LockUnavilableException e, String... lockKeys) {
+		if (isRequestedKey(e, lockKeys)) {
+			recordFailure(createCacheKey(e.getLockType(), e.getLockKey()), e);
+		}
+	}
+
+	/**
+	 * Remember the failure of a read lock on the given keys. A reader turned away
+	 * by a writer is remembered apart from the writer's own failures, so it only
+	 * turns away other readers. Under {@link FairnessPolicy#WriterPreference} the
+	 * writer that turned the reader away may only be waiting, and must still
+	 * reach the CountingSemaphore on its next attempt.
+	 * 
+	 * @param e
+	 * @param lockKeys The requested keys.
+	 */
+	private void recordReadFailure(LockUnavilableException e, String... lockKeys) {
+		if (!isRequestedKey(e, lockKeys)) {
+			return;
+		}
+		if (LockType.Write == e.getLockType()) {
+			recordFailure(createReaderBlockedCacheKey(e.getLockKey()), e);
+		} else {
+			recordFailure(createCacheKey(LockType.Read, e.getLockKey()), e);
+		}
+	}
+
+	private static boolean isRequestedKey(LockUnavilableException e, String... lockKeys) {
+		return Arrays.asList(lockKeys).contains(e.getLockKey());
+	}
+
+	private void recordFailure(String cacheKey, LockUnavilableException e) {
+		if (failedAttemptCache != null) {
+			failedAttemptCache.recordFailure(cacheKey, e.getLockHoldersContext().orElse(null));
+		}
+	}
+
+	private void clearRecentFailure(LockType type, String lockKey) {
+		clearRecentFailure(createCacheKey(type, lockKey));
+	}
+
+	private void clearRecentFailure(String cacheKey) {
+		if (failedAttemptCache != null) {
+			failedAttemptCache.clear(cacheKey);
+		}
+	}
+
+	private static String createCacheKey(LockType type, String lockKey) {
+		LockKey key = LockKey.of(lockKey);
+		return LockType.Write == type ? key.getWriterLockKey() : key.getReaderLockKey();
+	}
+
+	/**
+	 * The cache key of readers turned away by a held or waiting writer. Only
+	 * readers check it.
+	 * 
+	 * @param lockKey
+	 * @return
+	 */
+	private static String createReaderBlockedCacheKey(String lockKey) {
+		return LockKey.of(lockKey).getWriterIntentLockKey();
+	}
+
+	/**
+	 * A descendant lock on the ancestors of the given keys, excluding the keys
+	 * themselves.
+	 * 
+	 * @param callback
+	 * @param callersContext
+	 * @param lockKeys
+	 * @return Null when hierarchical keys are not used or none of the keys has an
+	 *         ancestor.
+	 */
+	private ReadLockImpl createAncestorReadLock(ProgressCallback callback, String callersContext,
+			String... lockKeys) {
+		if (!hierarchicalKeys) {
+			return null;
+		}
+		Set<String> ancestors = new TreeSet<>();
+		for (String lockKey : lockKeys) {
+			ancestors.addAll(Constants.createAncestorLockKeys(lockKey));
+		}
+		ancestors.removeAll(Arrays.asList(lockKeys));
+		if (ancestors.isEmpty()) {
+			return null;
+		}
+		return ReadLockImpl.createAncestorLock(countingSemaphore, maxNumberOfDescendantLocks,
+				new ReadLockRequest(callback, callersContext, ancestors.toArray(new String[0])), leaseRenewer,
+				fairnessPolicy, keyExecutor);
+	}
+
 	ReadLockImpl createReadLock(ReadLockRequest request) {
-		return new ReadLockImpl(countingSemaphore, maxNumberOfReaders, request);
+		return new ReadLockImpl(countingSemaphore, maxNumberOfReaders, request, leaseRenewer, fairnessPolicy,
+				keyExecutor,
+				createAncestorReadLock(request.getCallback(), request.getCallersContext(), request.getLockKeys()),
+				false);
 	}
 }
@@ -0,0 +1,79 @@
+package org.sagebionetworks.workers.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+public class ExponentialBackoffStrategyTest {
+
+	@Test
+	public void testGetDelayMS() {
+		ExponentialBackoffStrategy strategy = new ExponentialBackoffStrategy(50, 1000);
+		// call under test
+		assertEquals(50, strategy.getDelayMS(1));
+		assertEquals(100, strategy.getDelayMS(2));
+		assertEquals(200, strategy.getDelayMS(3));
+		assertEquals(400, strategy.getDelayMS(4));
+		assertEquals(800, strategy.getDelayMS(5));
+		assertEquals(1000, strategy.getDelayMS(6));
+		assertEquals(1000, strategy.getDelayMS(7));
+	}
+
+	@Test
+	public void testGetDelayMSWithLargeAttempt() {
+		ExponentialBackoffStrategy strategy = new ExponentialBackoffStrategy(3, Long.MAX_VALUE / 2);
+		// call under test
+		assertEquals(Long.MAX_VALUE / 2, strategy.getDelayMS(63));
+		assertEquals(Long.MAX_VALUE / 2, strategy.getDelayMS(64));
+		assertEquals(Long.MAX_VALUE / 2, strategy.getDelayMS(Integer.MAX_VALUE));
+	}
+
+	@Test
+	public void testGetDelayMSWithJitter() {
+		ExponentialBackoffStrategy strategy = new ExponentialBackoffStrategy(100, 1000, 0.5);
+		for (int i = 0; i < 100; i++) {
+			// call under test
+			long delay = strategy.getDelayMS(2);
+			assertTrue(delay >= 100 && delay <= 200, "Delay out of range: " + delay);
+		}
+	}
+
+	@Test
+	public void testGetDelayMSWithAttemptLessThanOne() {
+		ExponentialBackoffStrategy strategy = new ExponentialBackoffStrategy(50, 1000);
+		String message = assertThrows(IllegalArgumentException.class, () -> {
+			// call under test
+			strategy.getDelayMS(0);
+		}).getMessage();
+		assertEquals("Attempt must be at least one", message);
+	}
+
+	@Test
+	public void testMinDelayLessThanOne() {
+		String message = assertThrows(IllegalArgumentException.class, () -> {
+			// call under test
+			new ExponentialBackoffStrategy(0, 1000);
+		}).getMessage();
+		assertEquals("MinDelayMS must be at least one", message);
+	}
+
+	@Test
+	public void testMaxDelayLessThanMin() {
+		String message = assertThrows(IllegalArgumentException.class, () -> {
+			// call under test
+			new ExponentialBackoffStrategy(100, 99);
+		}).getMessage();
+		assertEquals("MaxDelayMS cannot be less than minDelayMS", message);
+	}
+
+	@Test
+	public void testJitterOutOfRange() {
+		String message = assertThrows(IllegalArgumentException.class, () -> {
+			// call under test
+			new ExponentialBackoffStrategy(100, 1000, 1.1);
+		}).getMessage();
+		assertEquals("JitterFactor must be between 0.0 and 1.0", message);
+	}
+}
@@ -0,0 +1,26 @@
+package org.sagebionetworks.workers.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.junit.jupiter.api.Test;
+
+public class FixedBackoffStrategyTest {
+
+	@Test
+	public void testGetDelayMS() {
+		FixedBackoffStrategy strategy = new FixedBackoffStrategy(1000);
+		// call under test
+		assertEquals(1000, strategy.getDelayMS(1));
+		assertEquals(1000, strategy.getDelayMS(100));
+	}
+
+	@Test
+	public void testNegativeDelay() {
+		String message = assertThrows(IllegalArgumentException.class, () -> {
+			// call under test
+			new FixedBackoffStrategy(-1);
+		}).getMessage();
+		assertEquals("DelayMS cannot be negative", message);
+	}
+}
@@ -0,0 +1,153 @@
+package org.sagebionetworks.workers.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+public class WorkerStackLauncherTest {
+
+	private WorkerStackLauncher launcher;
+
+	@AfterEach
+	public void after() {
+		if (launcher != null) {
+			launcher.close();
+		}
+	}
+
+	@Test
+	public void testSchedule() throws Exception {
+		launcher = new WorkerStackLauncher();
+		CountDownLatch latch = new CountDownLatch(3);
+
+		// call under test
+		launcher.schedule(latch::countDown, 0, 10);
+
+		assertTrue(latch.await(10, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testVirtualThreads() throws Exception {
+		launcher = new WorkerStackLauncher();
+		boolean expected = Runtime.version().feature() >= 21;
+		assertEquals(expected, launcher.isVirtualThreads());
+	}
+
+	@Test
+	public void testScheduleWithExecutor() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(1);
+		launcher = new WorkerStackLauncher(executor);
+		CountDownLatch latch = new CountDownLatch(1);
+
+		// call under test
+		launcher.schedule(latch::countDown, 0, 10);
+
+		assertTrue(latch.await(10, TimeUnit.SECONDS));
+		assertFalse(launcher.isVirtualThreads());
+		launcher.close();
+		assertTrue(executor.isShutdown());
+	}
+
+	@Test
+	public void testTriggerWhileRunning() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		launcher = new WorkerStackLauncher(executor);
+		AtomicInteger runCount = new AtomicInteger(0);
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		Runnable stack = () -> {
+			runCount.incrementAndGet();
+			started.countDown();
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		};
+		AtomicBoolean running = new AtomicBoolean(false);
+
+		// call under test
+		launcher.trigger(stack, running);
+		assertTrue(started.await(10, TimeUnit.SECONDS));
+		// the second trigger must be skipped while the first run is in progress.
+		launcher.trigger(stack, running);
+		release.countDown();
+		executor.shutdown();
+		assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+		assertEquals(1, runCount.get());
+		assertFalse(running.get());
+	}
+
+	@Test
+	public void testTriggerWithFailure() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(1);
+		launcher = new WorkerStackLauncher(executor);
+		AtomicBoolean running = new AtomicBoolean(false);
+
+		// call under test
+		launcher.trigger(() -> {
+			throw new IllegalStateException("Something went wrong");
+		}, running);
+		executor.shutdown();
+		assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+		// the stack can run again after a failure.
+		assertFalse(running.get());
+	}
+
+	@Test
+	public void testTriggerWithRejection() {
+		ExecutorService executor = Executors.newFixedThreadPool(1);
+		executor.shutdown();
+		launcher = new WorkerStackLauncher(executor);
+		AtomicBoolean running = new AtomicBoolean(false);
+
+		// call under test
+		launcher.trigger(() -> {
+		}, running);
+
+		assertFalse(running.get());
+	}
+
+	@Test
+	public void testScheduleWithNullStack() {
+		launcher = new WorkerStackLauncher();
+		String message = assertThrows(IllegalArgumentException.class, () -> {
+			// call under test
+			launcher.schedule(null, 0, 10);
+		}).getMessage();
+		assertEquals("Stack cannot be null", message);
+	}
+
+	@Test
+	public void testScheduleWithPeriodLessThanOne() {
+		launcher = new WorkerStackLauncher();
+		String message = assertThrows(IllegalArgumentException.class, () -> {
+			// call under test
+			launcher.schedule(() -> {
+			}, 0, 0);
+		}).getMessage();
+		assertEquals("PeriodMS must be at least one", message);
+	}
+
+	@Test
+	public void testConstructorWithNullExecutor() {
+		String message = assertThrows(IllegalArgumentException.class, () -> {
+			// call under test
+			new WorkerStackLauncher(null);
+		}).getMessage();
+		assertEquals("RunExecutor cannot be null", message);
+	}
+}
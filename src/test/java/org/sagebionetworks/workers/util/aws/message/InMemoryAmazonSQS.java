@@ -0,0 +1,723 @@
+package org.sagebionetworks.workers.util.aws.message;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.amazonaws.AbortedException;
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.services.sqs.AmazonSQSClient;
+import com.amazonaws.services.sqs.model.AmazonSQSException;
+import com.amazonaws.services.sqs.model.BatchEntryIdsNotDistinctException;
+import com.amazonaws.services.sqs.model.BatchResultErrorEntry;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchRequest;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchRequestEntry;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchResult;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchResultEntry;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityRequest;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityResult;
+import com.amazonaws.services.sqs.model.CreateQueueRequest;
+import com.amazonaws.services.sqs.model.CreateQueueResult;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequest;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequestEntry;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchResult;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchResultEntry;
+import com.amazonaws.services.sqs.model.DeleteMessageRequest;
+import com.amazonaws.services.sqs.model.DeleteMessageResult;
+import com.amazonaws.services.sqs.model.EmptyBatchRequestException;
+import com.amazonaws.services.sqs.model.GetQueueAttributesRequest;
+import com.amazonaws.services.sqs.model.GetQueueAttributesResult;
+import com.amazonaws.services.sqs.model.GetQueueUrlRequest;
+import com.amazonaws.services.sqs.model.GetQueueUrlResult;
+import com.amazonaws.services.sqs.model.Message;
+import com.amazonaws.services.sqs.model.MessageAttributeValue;
+import com.amazonaws.services.sqs.model.MessageNotInflightException;
+import com.amazonaws.services.sqs.model.MessageSystemAttributeName;
+import com.amazonaws.services.sqs.model.PurgeQueueRequest;
+import com.amazonaws.services.sqs.model.PurgeQueueResult;
+import com.amazonaws.services.sqs.model.QueueAttributeName;
+import com.amazonaws.services.sqs.model.QueueDoesNotExistException;
+import com.amazonaws.services.sqs.model.ReceiptHandleIsInvalidException;
+import com.amazonaws.services.sqs.model.ReceiveMessageRequest;
+import com.amazonaws.services.sqs.model.ReceiveMessageResult;
+import com.amazonaws.services.sqs.model.SendMessageBatchRequest;
+import com.amazonaws.services.sqs.model.SendMessageBatchRequestEntry;
+import com.amazonaws.services.sqs.model.SendMessageBatchResult;
+import com.amazonaws.services.sqs.model.SendMessageBatchResultEntry;
+import com.amazonaws.services.sqs.model.SendMessageRequest;
+import com.amazonaws.services.sqs.model.SendMessageResult;
+import com.amazonaws.services.sqs.model.TooManyEntriesInBatchRequestException;
+
+/**
+ * An in-memory stand-in for AWS SQS that can be passed anywhere an
+ * AmazonSQSClient is expected, such as a PollingMessageReceiverImpl or a
+ * MessageDrivenWorkerStack, to load test the worker stack without AWS.
+ * <p>
+ * The following behavior of SQS is simulated:
+ * <ul>
+ * <li>Queues are created with {@link #createQueue(CreateQueueRequest)} and
+ * support the VisibilityTimeout, DelaySeconds and ContentBasedDeduplication
+ * attributes.</li>
+ * <li>Each receive makes a message invisible for the visibility timeout and
+ * issues a new receipt handle. Only the latest receipt handle of a message
+ * can change its visibility or delete it. As with SQS, deleting with a
+ * previous receipt handle succeeds without deleting the message.</li>
+ * <li>The SentTimestamp, ApproximateReceiveCount and
+ * ApproximateFirstReceiveTimestamp attributes, and for FIFO queues the
+ * MessageGroupId, MessageDeduplicationId and SequenceNumber attributes.</li>
+ * <li>Long polling, per-message and per-queue delays, and the batch APIs
+ * including their validation and per-entry failures.</li>
+ * <li>FIFO queues (names ending with ".fifo"). Messages of a group are
+ * received in order, and a group is blocked while one of its messages is in
+ * flight. Duplicates are dropped within the five minute deduplication
+ * window.</li>
+ * </ul>
+ * Time is read from the provided {@link Clock}, so tests can move time forward
+ * to expire visibility timeouts and delays. Long polls wait in real time.
+ * <p>
+ * An artificial latency can be added to each request to approximate the round
+ * trip to SQS. Operations that are not listed above are not supported. The
+ * endpoint of this client points to an unused local port, so an unsupported
+ * operation fails fast instead of reaching AWS.
+ * <p>
+ * This class is thread-safe.
+ */
+public class InMemoryAmazonSQS extends AmazonSQSClient {
+
+	public static final String QUEUE_URL_PREFIX = "https://sqs.in-memory.local/000000000000/";
+	public static final String QUEUE_ARN_PREFIX = "arn:aws:sqs:us-east-1:000000000000:";
+	public static final String FIFO_SUFFIX = ".fifo";
+	public static final int DEFAULT_VISIBILITY_TIMEOUT_SEC = 30;
+	public static final int MAX_NUMBER_OF_MESSAGES_PER_RECEIVE = 10;
+	public static final int MAX_BATCH_SIZE = 10;
+	public static final int MAX_RECEIVE_WAIT_TIME_SEC = 20;
+	public static final int MAX_VISIBILITY_TIMEOUT_SEC = 12 * 60 * 60;
+	public static final long DEDUPLICATION_WINDOW_MS = 5 * 60 * 1000;
+
+	/*
+	 * How often a long poll checks for messages that became visible with time.
+	 */
+	static final long LONG_POLL_CHECK_INTERVAL_MS = 10;
+
+	private static final String ALL = "All";
+	private static final String RECEIPT_HANDLE_SEPARATOR = "#";
+
+	private static class InMemoryMessage {
+		private final String messageId;
+		private final String body;
+		private final String md5OfBody;
+		private final Map<String, MessageAttributeValue> messageAttributes;
+		private final String messageGroupId;
+		private final String messageDeduplicationId;
+		private final String sequenceNumber;
+		private final long sentTimestampMS;
+		private long visibleAtMS;
+		private int receiveCount = 0;
+		private long firstReceiveTimestampMS;
+		// Null until the first receive.
+		private String receiptHandle;
+
+		InMemoryMessage(String messageId, String body, Map<String, MessageAttributeValue> messageAttributes,
+				String messageGroupId, String messageDeduplicationId, String sequenceNumber, long sentTimestampMS,
+				long visibleAtMS) {
+			this.messageId = messageId;
+			this.body = body;
+			this.md5OfBody = md5Hex(body);
+			this.messageAttributes = messageAttributes;
+			this.messageGroupId = messageGroupId;
+			this.messageDeduplicationId = messageDeduplicationId;
+			this.sequenceNumber = sequenceNumber;
+			this.sentTimestampMS = sentTimestampMS;
+			this.visibleAtMS = visibleAtMS;
+		}
+
+		boolean isInFlight(long now) {
+			return receiptHandle != null && visibleAtMS > now;
+		}
+	}
+
+	private static class InMemoryQueue {
+		private final String name;
+		private final String url;
+		private final boolean fifo;
+		private final int visibilityTimeoutSec;
+		private final int delaySeconds;
+		private final boolean contentBasedDeduplication;
+		// Message ID to message in the order the messages were sent.
+		private final LinkedHashMap<String, InMemoryMessage> messages = new LinkedHashMap<>();
+		// Deduplication ID to the message that was sent with it, for FIFO queues.
+		private final Map<String, InMemoryMessage> deduplication = new HashMap<>();
+
+		InMemoryQueue(String name, String url, int visibilityTimeoutSec, int delaySeconds,
+				boolean contentBasedDeduplication) {
+			this.name = name;
+			this.url = url;
+			this.fifo = name.endsWith(FIFO_SUFFIX);
+			this.visibilityTimeoutSec = visibilityTimeoutSec;
+			this.delaySeconds = delaySeconds;
+			this.contentBasedDeduplication = contentBasedDeduplication;
+		}
+	}
+
+	private final Clock clock;
+	private final Map<String, InMemoryQueue> queues = new ConcurrentHashMap<>();
+	private final AtomicLong sequence = new AtomicLong(0);
+	private final AtomicLong requestCount = new AtomicLong(0);
+	private volatile long minLatencyMS = 0;
+	private volatile long maxLatencyMS = 0;
+
+	/**
+	 * Create an in-memory SQS that uses the system clock.
+	 */
+	public InMemoryAmazonSQS() {
+		this(Clock.systemUTC());
+	}
+
+	/**
+	 *
+	 * @param clock The clock used for visibility timeouts, delays, timestamps
+	 *              and deduplication.
+	 */
+	@SuppressWarnings("deprecation")
+	public InMemoryAmazonSQS(Clock clock) {
+		super(new BasicAWSCredentials("in-memory", "in-memory"));
+		if (clock == null) {
+			throw new IllegalArgumentException("Clock cannot be null");
+		}
+		this.clock = clock;
+		// An unsupported operation will fail fast rather than reach AWS.
+		setEndpoint("http://127.0.0.1:1");
+	}
+
+	/**
+	 * Add an artificial latency to each request. The latency of each request is
+	 * picked uniformly between the provided minimum and maximum.
+	 *
+	 * @param minLatencyMS
+	 * @param maxLatencyMS
+	 */
+	public void setLatencyMS(long minLatencyMS, long maxLatencyMS) {
+		if (minLatencyMS < 0) {
+			throw new IllegalArgumentException("MinLatencyMS cannot be negative");
+		}
+		if (maxLatencyMS < minLatencyMS) {
+			throw new IllegalArgumentException("MaxLatencyMS cannot be less than minLatencyMS");
+		}
+		this.minLatencyMS = minLatencyMS;
+		this.maxLatencyMS = maxLatencyMS;
+	}
+
+	/**
+	 * The total number of requests made to this client.
+	 *
+	 * @return
+	 */
+	public long getRequestCount() {
+		return requestCount.get();
+	}
+
+	@Override
+	public CreateQueueResult createQueue(CreateQueueRequest request) {
+		beginRequest();
+		String name = request.getQueueName();
+		if (name == null || name.isEmpty()) {
+			throw createException(new AmazonSQSException("QueueName cannot be empty"), "MissingParameter");
+		}
+		Map<String, String> attributes = request.getAttributes() != null ? request.getAttributes() : new HashMap<>();
+		int visibilityTimeoutSec = getIntAttribute(attributes, QueueAttributeName.VisibilityTimeout, DEFAULT_VISIBILITY_TIMEOUT_SEC);
+		int delaySeconds = getIntAttribute(attributes, QueueAttributeName.DelaySeconds, 0);
+		boolean contentBasedDeduplication = Boolean
+				.parseBoolean(attributes.get(QueueAttributeName.ContentBasedDeduplication.toString()));
+		String url = QUEUE_URL_PREFIX + name;
+		queues.computeIfAbsent(url, key -> new InMemoryQueue(name, url, visibilityTimeoutSec, delaySeconds, contentBasedDeduplication));
+		return new CreateQueueResult().withQueueUrl(url);
+	}
+
+	@Override
+	public GetQueueUrlResult getQueueUrl(GetQueueUrlRequest request) {
+		beginRequest();
+		String url = QUEUE_URL_PREFIX + request.getQueueName();
+		getQueue(url);
+		return new GetQueueUrlResult().withQueueUrl(url);
+	}
+
+	@Override
+	public GetQueueAttributesResult getQueueAttributes(GetQueueAttributesRequest request) {
+		beginRequest();
+		InMemoryQueue queue = getQueue(request.getQueueUrl());
+		Map<String, String> all = new HashMap<>();
+		synchronized (queue) {
+			long now = clock.millis();
+			int visible = 0;
+			int notVisible = 0;
+			int delayed = 0;
+			for (InMemoryMessage message : queue.messages.values()) {
+				if (message.visibleAtMS <= now) {
+					visible++;
+				} else if (message.receiptHandle != null) {
+					notVisible++;
+				} else {
+					delayed++;
+				}
+			}
+			all.put(QueueAttributeName.ApproximateNumberOfMessages.toString(), Integer.toString(visible));
+			all.put(QueueAttributeName.ApproximateNumberOfMessagesNotVisible.toString(), Integer.toString(notVisible));
+			all.put(QueueAttributeName.ApproximateNumberOfMessagesDelayed.toString(), Integer.toString(delayed));
+		}
+		all.put(QueueAttributeName.VisibilityTimeout.toString(), Integer.toString(queue.visibilityTimeoutSec));
+		all.put(QueueAttributeName.DelaySeconds.toString(), Integer.toString(queue.delaySeconds));
+		all.put(QueueAttributeName.QueueArn.toString(), QUEUE_ARN_PREFIX + queue.name);
+		if (queue.fifo) {
+			all.put(QueueAttributeName.FifoQueue.toString(), Boolean.TRUE.toString());
+			all.put(QueueAttributeName.ContentBasedDeduplication.toString(), Boolean.toString(queue.contentBasedDeduplication));
+		}
+		return new GetQueueAttributesResult().withAttributes(filterAttributes(all, request.getAttributeNames()));
+	}
+
+	@Override
+	public PurgeQueueResult purgeQueue(PurgeQueueRequest request) {
+		beginRequest();
+		InMemoryQueue queue = getQueue(request.getQueueUrl());
+		synchronized (queue) {
+			queue.messages.clear();
+			queue.deduplication.clear();
+		}
+		return new PurgeQueueResult();
+	}
+
+	@Override
+	public SendMessageResult sendMessage(SendMessageRequest request) {
+		beginRequest();
+		InMemoryQueue queue = getQueue(request.getQueueUrl());
+		InMemoryMessage sent = send(queue, request.getMessageBody(), request.getDelaySeconds(),
+				request.getMessageAttributes(), request.getMessageGroupId(), request.getMessageDeduplicationId());
+		return new SendMessageResult().withMessageId(sent.messageId).withMD5OfMessageBody(sent.md5OfBody)
+				.withSequenceNumber(sent.sequenceNumber);
+	}
+
+	@Override
+	public SendMessageBatchResult sendMessageBatch(SendMessageBatchRequest request) {
+		beginRequest();
+		InMemoryQueue queue = getQueue(request.getQueueUrl());
+		List<String> ids = new ArrayList<>();
+		if (request.getEntries() != null) {
+			for (SendMessageBatchRequestEntry entry : request.getEntries()) {
+				ids.add(entry.getId());
+			}
+		}
+		validateBatch(ids);
+		SendMessageBatchResult result = new SendMessageBatchResult().withSuccessful(new ArrayList<>())
+				.withFailed(new ArrayList<>());
+		for (SendMessageBatchRequestEntry entry : request.getEntries()) {
+			try {
+				InMemoryMessage sent = send(queue, entry.getMessageBody(), entry.getDelaySeconds(), null,
+						entry.getMessageGroupId(), entry.getMessageDeduplicationId());
+				result.getSuccessful().add(new SendMessageBatchResultEntry().withId(entry.getId())
+						.withMessageId(sent.messageId).withMD5OfMessageBody(sent.md5OfBody));
+			} catch (AmazonSQSException e) {
+				result.getFailed().add(createErrorEntry(entry.getId(), e));
+			}
+		}
+		return result;
+	}
+
+	@Override
+	public ReceiveMessageResult receiveMessage(ReceiveMessageRequest request) {
+		beginRequest();
+		InMemoryQueue queue = getQueue(request.getQueueUrl());
+		int maxNumberOfMessages = request.getMaxNumberOfMessages() != null ? request.getMaxNumberOfMessages() : 1;
+		if (maxNumberOfMessages < 1 || maxNumberOfMessages > MAX_NUMBER_OF_MESSAGES_PER_RECEIVE) {
+			throw createException(new AmazonSQSException("MaxNumberOfMessages must be between 1 and "
+					+ MAX_NUMBER_OF_MESSAGES_PER_RECEIVE), "InvalidParameterValue");
+		}
+		int waitTimeSeconds = request.getWaitTimeSeconds() != null ? request.getWaitTimeSeconds() : 0;
+		if (waitTimeSeconds < 0 || waitTimeSeconds > MAX_RECEIVE_WAIT_TIME_SEC) {
+			throw createException(new AmazonSQSException("WaitTimeSeconds must be between 0 and "
+					+ MAX_RECEIVE_WAIT_TIME_SEC), "InvalidParameterValue");
+		}
+		int visibilityTimeoutSec = request.getVisibilityTimeout() != null ? request.getVisibilityTimeout()
+				: queue.visibilityTimeoutSec;
+		validateVisibilityTimeout(visibilityTimeoutSec);
+		long deadlineNanos = System.nanoTime() + TimeUnit.SECONDS.toNanos(waitTimeSeconds);
+		List<Message> received;
+		synchronized (queue) {
+			while (true) {
+				received = receive(queue, maxNumberOfMessages, visibilityTimeoutSec, request.getAttributeNames());
+				long remainingNanos = deadlineNanos - System.nanoTime();
+				if (!received.isEmpty() || remainingNanos <= 0) {
+					break;
+				}
+				// Woken early by a send or a visibility change.
+				try {
+					queue.wait(Math.max(1, Math.min(LONG_POLL_CHECK_INTERVAL_MS, TimeUnit.NANOSECONDS.toMillis(remainingNanos))));
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new AbortedException(e);
+				}
+			}
+		}
+		return new ReceiveMessageResult().withMessages(received);
+	}
+
+	@Override
+	public DeleteMessageResult deleteMessage(DeleteMessageRequest request) {
+		beginRequest();
+		InMemoryQueue queue = getQueue(request.getQueueUrl());
+		synchronized (queue) {
+			delete(queue, request.getReceiptHandle());
+		}
+		return new DeleteMessageResult();
+	}
+
+	@Override
+	public DeleteMessageBatchResult deleteMessageBatch(DeleteMessageBatchRequest request) {
+		beginRequest();
+		InMemoryQueue queue = getQueue(request.getQueueUrl());
+		List<String> ids = new ArrayList<>();
+		if (request.getEntries() != null) {
+			for (DeleteMessageBatchRequestEntry entry : request.getEntries()) {
+				ids.add(entry.getId());
+			}
+		}
+		validateBatch(ids);
+		DeleteMessageBatchResult result = new DeleteMessageBatchResult().withSuccessful(new ArrayList<>())
+				.withFailed(new ArrayList<>());
+		synchronized (queue) {
+			for (DeleteMessageBatchRequestEntry entry : request.getEntries()) {
+				try {
+					delete(queue, entry.getReceiptHandle());
+					result.getSuccessful().add(new DeleteMessageBatchResultEntry().withId(entry.getId()));
+				} catch (AmazonSQSException e) {
+					result.getFailed().add(createErrorEntry(entry.getId(), e));
+				}
+			}
+		}
+		return result;
+	}
+
+	@Override
+	public ChangeMessageVisibilityResult changeMessageVisibility(ChangeMessageVisibilityRequest request) {
+		beginRequest();
+		InMemoryQueue queue = getQueue(request.getQueueUrl());
+		synchronized (queue) {
+			changeVisibility(queue, request.getReceiptHandle(), request.getVisibilityTimeout());
+		}
+		return new ChangeMessageVisibilityResult();
+	}
+
+	@Override
+	public ChangeMessageVisibilityBatchResult changeMessageVisibilityBatch(ChangeMessageVisibilityBatchRequest request) {
+		beginRequest();
+		InMemoryQueue queue = getQueue(request.getQueueUrl());
+		List<String> ids = new ArrayList<>();
+		if (request.getEntries() != null) {
+			for (ChangeMessageVisibilityBatchRequestEntry entry : request.getEntries()) {
+				ids.add(entry.getId());
+			}
+		}
+		validateBatch(ids);
+		ChangeMessageVisibilityBatchResult result = new ChangeMessageVisibilityBatchResult()
+				.withSuccessful(new ArrayList<>()).withFailed(new ArrayList<>());
+		synchronized (queue) {
+			for (ChangeMessageVisibilityBatchRequestEntry entry : request.getEntries()) {
+				try {
+					changeVisibility(queue, entry.getReceiptHandle(), entry.getVisibilityTimeout());
+					result.getSuccessful().add(new ChangeMessageVisibilityBatchResultEntry().withId(entry.getId()));
+				} catch (AmazonSQSException e) {
+					result.getFailed().add(createErrorEntry(entry.getId(), e));
+				}
+			}
+		}
+		return result;
+	}
+
+	@Override
+	public void shutdown() {
+		// nothing to release.
+	}
+
+	private InMemoryMessage send(InMemoryQueue queue, String body, Integer delaySeconds,
+			Map<String, MessageAttributeValue> messageAttributes, String messageGroupId, String messageDeduplicationId) {
+		if (body == null || body.isEmpty()) {
+			throw createException(new AmazonSQSException("MessageBody cannot be empty"), "MissingParameter");
+		}
+		int delay = delaySeconds != null ? delaySeconds : queue.delaySeconds;
+		if (queue.fifo) {
+			if (messageGroupId == null) {
+				throw createException(new AmazonSQSException("MessageGroupId is required for FIFO queues"), "MissingParameter");
+			}
+			if (delaySeconds != null) {
+				throw createException(new AmazonSQSException("DelaySeconds is not supported per message for FIFO queues"),
+						"InvalidParameterValue");
+			}
+			if (messageDeduplicationId == null) {
+				if (!queue.contentBasedDeduplication) {
+					throw createException(new AmazonSQSException(
+							"MessageDeduplicationId is required when ContentBasedDeduplication is not enabled"), "InvalidParameterValue");
+				}
+				messageDeduplicationId = sha256Hex(body);
+			}
+		} else if (messageGroupId != null) {
+			throw createException(new AmazonSQSException("MessageGroupId is only supported for FIFO queues"), "InvalidParameterValue");
+		}
+		synchronized (queue) {
+			long now = clock.millis();
+			if (queue.fifo) {
+				removeExpiredDeduplication(queue, now);
+				InMemoryMessage duplicate = queue.deduplication.get(messageDeduplicationId);
+				if (duplicate != null) {
+					return duplicate;
+				}
+			}
+			String sequenceNumber = queue.fifo ? String.format("%020d", sequence.incrementAndGet()) : null;
+			InMemoryMessage message = new InMemoryMessage(UUID.randomUUID().toString(), body,
+					messageAttributes != null ? new HashMap<>(messageAttributes) : null, messageGroupId,
+					queue.fifo ? messageDeduplicationId : null, sequenceNumber, now, now + delay * 1000L);
+			queue.messages.put(message.messageId, message);
+			if (queue.fifo) {
+				queue.deduplication.put(messageDeduplicationId, message);
+			}
+			// wake up any long poll.
+			queue.notifyAll();
+			return message;
+		}
+	}
+
+	private static void removeExpiredDeduplication(InMemoryQueue queue, long now) {
+		Iterator<InMemoryMessage> iterator = queue.deduplication.values().iterator();
+		while (iterator.hasNext()) {
+			if (now - iterator.next().sentTimestampMS >= DEDUPLICATION_WINDOW_MS) {
+				iterator.remove();
+			}
+		}
+	}
+
+	/**
+	 * Receive up to the given number of visible messages. Must be called while
+	 * holding the queue monitor.
+	 */
+	private List<Message> receive(InMemoryQueue queue, int maxNumberOfMessages, int visibilityTimeoutSec,
+			Collection<String> attributeNames) {
+		long now = clock.millis();
+		List<Message> received = new ArrayList<>(maxNumberOfMessages);
+		// FIFO groups that have an earlier message that cannot be received now.
+		Set<String> blockedGroups = new HashSet<>();
+		for (InMemoryMessage message : queue.messages.values()) {
+			if (received.size() >= maxNumberOfMessages) {
+				break;
+			}
+			if (queue.fifo && blockedGroups.contains(message.messageGroupId)) {
+				continue;
+			}
+			if (message.visibleAtMS > now) {
+				if (queue.fifo) {
+					blockedGroups.add(message.messageGroupId);
+				}
+				continue;
+			}
+			message.receiveCount++;
+			if (message.receiveCount == 1) {
+				message.firstReceiveTimestampMS = now;
+			}
+			message.receiptHandle = String.join(RECEIPT_HANDLE_SEPARATOR, message.messageId,
+					Integer.toString(message.receiveCount), UUID.randomUUID().toString());
+			message.visibleAtMS = now + visibilityTimeoutSec * 1000L;
+			received.add(toMessage(message, attributeNames));
+		}
+		return received;
+	}
+
+	private static Message toMessage(InMemoryMessage message, Collection<String> attributeNames) {
+		Map<String, String> all = new HashMap<>();
+		all.put(MessageSystemAttributeName.SenderId.toString(), "000000000000");
+		all.put(MessageSystemAttributeName.SentTimestamp.toString(), Long.toString(message.sentTimestampMS));
+		all.put(MessageSystemAttributeName.ApproximateReceiveCount.toString(), Integer.toString(message.receiveCount));
+		all.put(MessageSystemAttributeName.ApproximateFirstReceiveTimestamp.toString(),
+				Long.toString(message.firstReceiveTimestampMS));
+		if (message.messageGroupId != null) {
+			all.put(MessageSystemAttributeName.MessageGroupId.toString(), message.messageGroupId);
+			all.put(MessageSystemAttributeName.MessageDeduplicationId.toString(), message.messageDeduplicationId);
+			all.put(MessageSystemAttributeName.SequenceNumber.toString(), message.sequenceNumber);
+		}
+		Message result = new Message().withMessageId(message.messageId).withReceiptHandle(message.receiptHandle)
+				.withBody(message.body).withMD5OfBody(message.md5OfBody);
+		Map<String, String> attributes = filterAttributes(all, attributeNames);
+		if (!attributes.isEmpty()) {
+			result.setAttributes(attributes);
+		}
+		if (message.messageAttributes != null) {
+			result.setMessageAttributes(new HashMap<>(message.messageAttributes));
+		}
+		return result;
+	}
+
+	private static Map<String, String> filterAttributes(Map<String, String> all, Collection<String> attributeNames) {
+		Map<String, String> filtered = new HashMap<>();
+		if (attributeNames == null) {
+			return filtered;
+		}
+		if (attributeNames.contains(ALL)) {
+			return all;
+		}
+		for (String name : attributeNames) {
+			String value = all.get(name);
+			if (value != null) {
+				filtered.put(name, value);
+			}
+		}
+		return filtered;
+	}
+
+	/**
+	 * Must be called while holding the queue monitor.
+	 */
+	private void delete(InMemoryQueue queue, String receiptHandle) {
+		String[] parts = parseReceiptHandle(receiptHandle);
+		InMemoryMessage message = queue.messages.get(parts[0]);
+		if (message == null) {
+			// Already deleted.
+			return;
+		}
+		if (!receiptHandle.equals(message.receiptHandle)) {
+			// A previous receipt handle. As with SQS the request succeeds but the message is not deleted.
+			return;
+		}
+		queue.messages.remove(message.messageId);
+		// A FIFO group might be unblocked.
+		queue.notifyAll();
+	}
+
+	/**
+	 * Must be called while holding the queue monitor.
+	 */
+	private void changeVisibility(InMemoryQueue queue, String receiptHandle, Integer visibilityTimeoutSec) {
+		String[] parts = parseReceiptHandle(receiptHandle);
+		if (visibilityTimeoutSec == null) {
+			throw createException(new AmazonSQSException("VisibilityTimeout is required"), "MissingParameter");
+		}
+		validateVisibilityTimeout(visibilityTimeoutSec);
+		InMemoryMessage message = queue.messages.get(parts[0]);
+		long now = clock.millis();
+		if (message == null || !receiptHandle.equals(message.receiptHandle) || !message.isInFlight(now)) {
+			throw createException(new MessageNotInflightException("Message is not in flight"),
+					"AWS.SimpleQueueService.MessageNotInflight");
+		}
+		message.visibleAtMS = now + visibilityTimeoutSec * 1000L;
+		// The message might be visible again.
+		queue.notifyAll();
+	}
+
+	private static String[] parseReceiptHandle(String receiptHandle) {
+		String[] parts = receiptHandle != null ? receiptHandle.split(RECEIPT_HANDLE_SEPARATOR) : new String[0];
+		if (parts.length != 3) {
+			throw createException(new ReceiptHandleIsInvalidException("The receipt handle is not valid: " + receiptHandle),
+					"ReceiptHandleIsInvalid");
+		}
+		return parts;
+	}
+
+	private static void validateVisibilityTimeout(int visibilityTimeoutSec) {
+		if (visibilityTimeoutSec < 0 || visibilityTimeoutSec > MAX_VISIBILITY_TIMEOUT_SEC) {
+			throw createException(new AmazonSQSException("VisibilityTimeout must be between 0 and "
+					+ MAX_VISIBILITY_TIMEOUT_SEC), "InvalidParameterValue");
+		}
+	}
+
+	private static void validateBatch(List<String> ids) {
+		if (ids.isEmpty()) {
+			throw createException(new EmptyBatchRequestException("The batch request does not contain any entries"),
+					"AWS.SimpleQueueService.EmptyBatchRequest");
+		}
+		if (ids.size() > MAX_BATCH_SIZE) {
+			throw createException(new TooManyEntriesInBatchRequestException(
+					"The batch request contains more than " + MAX_BATCH_SIZE + " entries"),
+					"AWS.SimpleQueueService.TooManyEntriesInBatchRequest");
+		}
+		if (new HashSet<>(ids).size() != ids.size()) {
+			throw createException(new BatchEntryIdsNotDistinctException("Two or more batch entries have the same ID"),
+					"AWS.SimpleQueueService.BatchEntryIdsNotDistinct");
+		}
+	}
+
+	private static BatchResultErrorEntry createErrorEntry(String id, AmazonSQSException e) {
+		return new BatchResultErrorEntry().withId(id).withSenderFault(true).withCode(e.getErrorCode())
+				.withMessage(e.getErrorMessage());
+	}
+
+	private static <T extends AmazonSQSException> T createException(T exception, String errorCode) {
+		exception.setErrorCode(errorCode);
+		exception.setStatusCode(400);
+		exception.setServiceName("AmazonSQS");
+		return exception;
+	}
+
+	private InMemoryQueue getQueue(String queueUrl) {
+		InMemoryQueue queue = queueUrl != null ? queues.get(queueUrl) : null;
+		if (queue == null) {
+			throw createException(new QueueDoesNotExistException("The specified queue does not exist: " + queueUrl),
+					"AWS.SimpleQueueService.NonExistentQueue");
+		}
+		return queue;
+	}
+
+	private static int getIntAttribute(Map<String, String> attributes, QueueAttributeName name, int defaultValue) {
+		String value = attributes.get(name.toString());
+		return value != null ? Integer.parseInt(value) : defaultValue;
+	}
+
+	/**
+	 * Count the request and wait for the artificial latency.
+	 */
+	private void beginRequest() {
+		requestCount.incrementAndGet();
+		long min = minLatencyMS;
+		long max = maxLatencyMS;
+		if (max <= 0) {
+			return;
+		}
+		long latencyMS = min == max ? min : ThreadLocalRandom.current().nextLong(min, max + 1);
+		try {
+			Thread.sleep(latencyMS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new AbortedException(e);
+		}
+	}
+
+	private static String md5Hex(String value) {
+		return digestHex("MD5", value);
+	}
+
+	private static String sha256Hex(String value) {
+		return digestHex("SHA-256", value);
+	}
+
+	private static String digestHex(String algorithm, String value) {
+		try {
+			byte[] digest = MessageDigest.getInstance(algorithm).digest(value.getBytes(StandardCharsets.UTF_8));
+			StringBuilder builder = new StringBuilder(digest.length * 2);
+			for (byte b : digest) {
+				builder.append(String.format("%02x", b));
+			}
+			return builder.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+}
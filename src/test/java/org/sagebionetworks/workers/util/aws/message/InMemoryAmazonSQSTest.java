@@ -0,0 +1,464 @@
+package org.sagebionetworks.workers.util.aws.message;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.sagebionetworks.common.util.progress.ProgressCallback;
+import org.sagebionetworks.workers.util.Gate;
+
+import com.amazonaws.services.sqs.model.AmazonSQSException;
+import com.amazonaws.services.sqs.model.BatchEntryIdsNotDistinctException;
+import com.amazonaws.services.sqs.model.BatchResultErrorEntry;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchRequest;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchRequestEntry;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchResult;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityRequest;
+import com.amazonaws.services.sqs.model.CreateQueueRequest;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequest;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequestEntry;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchResult;
+import com.amazonaws.services.sqs.model.DeleteMessageRequest;
+import com.amazonaws.services.sqs.model.EmptyBatchRequestException;
+import com.amazonaws.services.sqs.model.GetQueueAttributesRequest;
+import com.amazonaws.services.sqs.model.Message;
+import com.amazonaws.services.sqs.model.MessageNotInflightException;
+import com.amazonaws.services.sqs.model.MessageSystemAttributeName;
+import com.amazonaws.services.sqs.model.QueueAttributeName;
+import com.amazonaws.services.sqs.model.QueueDoesNotExistException;
+import com.amazonaws.services.sqs.model.ReceiptHandleIsInvalidException;
+import com.amazonaws.services.sqs.model.ReceiveMessageRequest;
+import com.amazonaws.services.sqs.model.SendMessageRequest;
+import com.amazonaws.services.sqs.model.TooManyEntriesInBatchRequestException;
+
+@ExtendWith(MockitoExtension.class)
+public class InMemoryAmazonSQSTest {
+
+	@Mock
+	private ProgressCallback mockProgressCallback;
+
+	private MutableClock clock;
+	private InMemoryAmazonSQS sqs;
+	private String queueUrl;
+
+	@BeforeEach
+	public void before() {
+		clock = new MutableClock(1_000_000L);
+		sqs = new InMemoryAmazonSQS(clock);
+		Map<String, String> attributes = new HashMap<>();
+		attributes.put(QueueAttributeName.VisibilityTimeout.toString(), "30");
+		queueUrl = sqs.createQueue(new CreateQueueRequest("aQueue").withAttributes(attributes)).getQueueUrl();
+	}
+
+	@Test
+	public void testGetQueueUrl() {
+		// call under test
+		assertEquals(queueUrl, sqs.getQueueUrl("aQueue").getQueueUrl());
+		assertEquals(InMemoryAmazonSQS.QUEUE_URL_PREFIX + "aQueue", queueUrl);
+	}
+
+	@Test
+	public void testGetQueueUrlDoesNotExist() {
+		assertThrows(QueueDoesNotExistException.class, () -> {
+			// call under test
+			sqs.getQueueUrl("doesNotExist");
+		});
+	}
+
+	@Test
+	public void testReceive() {
+		sqs.sendMessage(new SendMessageRequest(queueUrl, "one"));
+
+		// call under test
+		List<Message> received = receive(10);
+
+		assertEquals(1, received.size());
+		Message message = received.get(0);
+		assertEquals("one", message.getBody());
+		assertEquals("f97c5d29941bfb1b2fdab0874906ab82", message.getMD5OfBody());
+		assertEquals("1", message.getAttributes().get(MessageSystemAttributeName.ApproximateReceiveCount.toString()));
+		assertEquals("1000000", message.getAttributes().get(MessageSystemAttributeName.SentTimestamp.toString()));
+		// the message is in flight.
+		assertEquals(Collections.emptyList(), receive(10));
+	}
+
+	@Test
+	public void testReceiveAfterVisibilityTimeout() {
+		sqs.sendMessage(new SendMessageRequest(queueUrl, "one"));
+		Message first = receive(1).get(0);
+		clock.add(30_000);
+
+		// call under test
+		Message second = receive(1).get(0);
+
+		assertEquals(first.getMessageId(), second.getMessageId());
+		assertNotEquals(first.getReceiptHandle(), second.getReceiptHandle());
+		assertEquals("2", second.getAttributes().get(MessageSystemAttributeName.ApproximateReceiveCount.toString()));
+		assertEquals("1000000",
+				second.getAttributes().get(MessageSystemAttributeName.ApproximateFirstReceiveTimestamp.toString()));
+	}
+
+	@Test
+	public void testReceiveWithAttributeNames() {
+		sqs.sendMessage(new SendMessageRequest(queueUrl, "one"));
+
+		// call under test
+		Message message = sqs.receiveMessage(new ReceiveMessageRequest(queueUrl)
+				.withAttributeNames(MessageSystemAttributeName.ApproximateReceiveCount.toString())).getMessages().get(0);
+
+		assertEquals(Collections.singletonMap(MessageSystemAttributeName.ApproximateReceiveCount.toString(), "1"),
+				message.getAttributes());
+	}
+
+	@Test
+	public void testReceiveWithTooManyMessages() {
+		assertThrows(AmazonSQSException.class, () -> {
+			// call under test
+			receive(11);
+		});
+	}
+
+	@Test
+	public void testLongPollWithSend() throws Exception {
+		Thread sender = new Thread(() -> {
+			try {
+				Thread.sleep(100);
+			} catch (InterruptedException e) {
+				return;
+			}
+			sqs.sendMessage(new SendMessageRequest(queueUrl, "one"));
+		});
+		sender.start();
+		long start = System.currentTimeMillis();
+
+		// call under test
+		List<Message> received = sqs
+				.receiveMessage(new ReceiveMessageRequest(queueUrl).withWaitTimeSeconds(InMemoryAmazonSQS.MAX_RECEIVE_WAIT_TIME_SEC))
+				.getMessages();
+
+		sender.join();
+		assertEquals(1, received.size());
+		// the poll returned as soon as the message was sent.
+		assertTrue(System.currentTimeMillis() - start < 10_000);
+	}
+
+	@Test
+	public void testDelaySeconds() {
+		sqs.sendMessage(new SendMessageRequest(queueUrl, "one").withDelaySeconds(5));
+		assertEquals(Collections.emptyList(), receive(1));
+		assertEquals("1", getAttribute(QueueAttributeName.ApproximateNumberOfMessagesDelayed));
+		clock.add(5_000);
+
+		// call under test
+		assertEquals(1, receive(1).size());
+	}
+
+	@Test
+	public void testDeleteMessage() {
+		sqs.sendMessage(new SendMessageRequest(queueUrl, "one"));
+		Message message = receive(1).get(0);
+
+		// call under test
+		sqs.deleteMessage(new DeleteMessageRequest(queueUrl, message.getReceiptHandle()));
+
+		clock.add(30_000);
+		assertEquals(Collections.emptyList(), receive(1));
+		// deleting again is not an error.
+		sqs.deleteMessage(new DeleteMessageRequest(queueUrl, message.getReceiptHandle()));
+	}
+
+	@Test
+	public void testDeleteMessageWithStaleReceiptHandle() {
+		sqs.sendMessage(new SendMessageRequest(queueUrl, "one"));
+		Message first = receive(1).get(0);
+		clock.add(30_000);
+		receive(1);
+
+		// call under test
+		sqs.deleteMessage(new DeleteMessageRequest(queueUrl, first.getReceiptHandle()));
+
+		// the message was received again so it is not deleted.
+		assertEquals("1", getAttribute(QueueAttributeName.ApproximateNumberOfMessagesNotVisible));
+	}
+
+	@Test
+	public void testDeleteMessageWithInvalidReceiptHandle() {
+		assertThrows(ReceiptHandleIsInvalidException.class, () -> {
+			// call under test
+			sqs.deleteMessage(new DeleteMessageRequest(queueUrl, "invalid"));
+		});
+	}
+
+	@Test
+	public void testChangeMessageVisibility() {
+		sqs.sendMessage(new SendMessageRequest(queueUrl, "one"));
+		Message message = receive(1).get(0);
+
+		// call under test
+		sqs.changeMessageVisibility(new ChangeMessageVisibilityRequest(queueUrl, message.getReceiptHandle(), 0));
+
+		assertEquals(1, receive(1).size());
+	}
+
+	@Test
+	public void testChangeMessageVisibilityNotInFlight() {
+		sqs.sendMessage(new SendMessageRequest(queueUrl, "one"));
+		Message message = receive(1).get(0);
+		clock.add(30_000);
+
+		assertThrows(MessageNotInflightException.class, () -> {
+			// call under test
+			sqs.changeMessageVisibility(new ChangeMessageVisibilityRequest(queueUrl, message.getReceiptHandle(), 60));
+		});
+	}
+
+	@Test
+	public void testChangeMessageVisibilityBatchWithFailedEntry() {
+		sqs.sendMessage(new SendMessageRequest(queueUrl, "one"));
+		Message message = receive(1).get(0);
+
+		// call under test
+		ChangeMessageVisibilityBatchResult result = sqs.changeMessageVisibilityBatch(
+				new ChangeMessageVisibilityBatchRequest(queueUrl,
+						Arrays.asList(
+								new ChangeMessageVisibilityBatchRequestEntry("0", message.getReceiptHandle())
+										.withVisibilityTimeout(60),
+								new ChangeMessageVisibilityBatchRequestEntry("1", "invalid").withVisibilityTimeout(60))));
+
+		assertEquals(1, result.getSuccessful().size());
+		assertEquals("0", result.getSuccessful().get(0).getId());
+		BatchResultErrorEntry failed = result.getFailed().get(0);
+		assertEquals("1", failed.getId());
+		assertEquals(true, failed.getSenderFault());
+		assertEquals("ReceiptHandleIsInvalid", failed.getCode());
+		// extended to 60 seconds.
+		clock.add(30_000);
+		assertEquals(Collections.emptyList(), receive(1));
+	}
+
+	@Test
+	public void testDeleteMessageBatch() {
+		for (int i = 0; i < 3; i++) {
+			sqs.sendMessage(new SendMessageRequest(queueUrl, "body" + i));
+		}
+		List<Message> received = receive(10);
+		List<DeleteMessageBatchRequestEntry> entries = new ArrayList<>();
+		for (int i = 0; i < received.size(); i++) {
+			entries.add(new DeleteMessageBatchRequestEntry(Integer.toString(i), received.get(i).getReceiptHandle()));
+		}
+
+		// call under test
+		DeleteMessageBatchResult result = sqs.deleteMessageBatch(new DeleteMessageBatchRequest(queueUrl, entries));
+
+		assertEquals(3, result.getSuccessful().size());
+		assertEquals(Collections.emptyList(), result.getFailed());
+		assertEquals("0", getAttribute(QueueAttributeName.ApproximateNumberOfMessagesNotVisible));
+	}
+
+	@Test
+	public void testDeleteMessageBatchValidation() {
+		assertThrows(EmptyBatchRequestException.class, () -> {
+			// call under test
+			sqs.deleteMessageBatch(new DeleteMessageBatchRequest(queueUrl, Collections.emptyList()));
+		});
+		List<DeleteMessageBatchRequestEntry> tooMany = new ArrayList<>();
+		for (int i = 0; i < InMemoryAmazonSQS.MAX_BATCH_SIZE + 1; i++) {
+			tooMany.add(new DeleteMessageBatchRequestEntry(Integer.toString(i), "handle"));
+		}
+		assertThrows(TooManyEntriesInBatchRequestException.class, () -> {
+			// call under test
+			sqs.deleteMessageBatch(new DeleteMessageBatchRequest(queueUrl, tooMany));
+		});
+		assertThrows(BatchEntryIdsNotDistinctException.class, () -> {
+			// call under test
+			sqs.deleteMessageBatch(new DeleteMessageBatchRequest(queueUrl, Arrays.asList(
+					new DeleteMessageBatchRequestEntry("0", "handle"), new DeleteMessageBatchRequestEntry("0", "handle"))));
+		});
+	}
+
+	@Test
+	public void testFifoGroups() {
+		String fifoUrl = createFifoQueue();
+		sqs.sendMessage(new SendMessageRequest(fifoUrl, "a1").withMessageGroupId("a"));
+		sqs.sendMessage(new SendMessageRequest(fifoUrl, "b1").withMessageGroupId("b"));
+		sqs.sendMessage(new SendMessageRequest(fifoUrl, "a2").withMessageGroupId("a"));
+		Message a1 = receive(fifoUrl, 1).get(0);
+		assertEquals("a1", a1.getBody());
+		assertEquals("a", a1.getAttributes().get(MessageSystemAttributeName.MessageGroupId.toString()));
+
+		// call under test
+		List<Message> received = receive(fifoUrl, 10);
+
+		// group a is blocked while a1 is in flight.
+		assertEquals(Arrays.asList("b1"), getBodies(received));
+		sqs.deleteMessage(new DeleteMessageRequest(fifoUrl, a1.getReceiptHandle()));
+		assertEquals(Arrays.asList("a2"), getBodies(receive(fifoUrl, 10)));
+	}
+
+	@Test
+	public void testFifoDeduplication() {
+		String fifoUrl = createFifoQueue();
+		String firstId = sqs.sendMessage(new SendMessageRequest(fifoUrl, "one").withMessageGroupId("a")).getMessageId();
+
+		// call under test
+		String secondId = sqs.sendMessage(new SendMessageRequest(fifoUrl, "one").withMessageGroupId("a")).getMessageId();
+
+		assertEquals(firstId, secondId);
+		assertEquals(Arrays.asList("one"), getBodies(receive(fifoUrl, 10)));
+		// outside of the deduplication window.
+		clock.add(InMemoryAmazonSQS.DEDUPLICATION_WINDOW_MS);
+		assertNotEquals(firstId,
+				sqs.sendMessage(new SendMessageRequest(fifoUrl, "one").withMessageGroupId("a")).getMessageId());
+	}
+
+	@Test
+	public void testFifoWithoutGroupId() {
+		String fifoUrl = createFifoQueue();
+		assertThrows(AmazonSQSException.class, () -> {
+			// call under test
+			sqs.sendMessage(new SendMessageRequest(fifoUrl, "one"));
+		});
+	}
+
+	@Test
+	public void testLatency() {
+		sqs.setLatencyMS(50, 50);
+		long start = System.currentTimeMillis();
+
+		// call under test
+		receive(1);
+
+		assertTrue(System.currentTimeMillis() - start >= 50);
+	}
+
+	@Test
+	public void testLatencyWithMaxLessThanMin() {
+		String message = assertThrows(IllegalArgumentException.class, () -> {
+			// call under test
+			sqs.setLatencyMS(50, 49);
+		}).getMessage();
+		assertEquals("MaxLatencyMS cannot be less than minLatencyMS", message);
+	}
+
+	@Test
+	public void testWithPollingMessageReceiver() throws Exception {
+		sqs = new InMemoryAmazonSQS();
+		queueUrl = sqs.createQueue("aQueue").getQueueUrl();
+		int messageCount = 25;
+		for (int i = 0; i < messageCount; i++) {
+			sqs.sendMessage(new SendMessageRequest(queueUrl, "body" + i));
+		}
+		Set<String> processed = ConcurrentHashMap.newKeySet();
+		AtomicInteger runCount = new AtomicInteger(0);
+		PollingMessageReceiverConfiguration config = new PollingMessageReceiverConfiguration();
+		config.setHasQueueUrl(() -> queueUrl);
+		config.setMessageVisibilityTimeoutSec(60);
+		config.setSemaphoreLockTimeoutSec(60);
+		config.setMaxNumberOfMessages(10);
+		config.setBatchDeleteEnabled(true);
+		config.setRunner((progressCallback, message) -> {
+			runCount.incrementAndGet();
+			processed.add(message.getBody());
+		});
+		config.setGate(new Gate() {
+
+			@Override
+			public boolean canRun() {
+				return processed.size() < messageCount;
+			}
+
+			@Override
+			public void runFailed(Exception error) {
+			}
+		});
+		PollingMessageReceiverImpl receiver = new PollingMessageReceiverImpl(sqs, config);
+
+		// call under test
+		receiver.run(mockProgressCallback);
+
+		assertEquals(messageCount, processed.size());
+		assertEquals(messageCount, runCount.get());
+		// every message was deleted.
+		assertEquals("0", getAttribute(QueueAttributeName.ApproximateNumberOfMessages));
+		assertEquals("0", getAttribute(QueueAttributeName.ApproximateNumberOfMessagesNotVisible));
+	}
+
+	private String createFifoQueue() {
+		Map<String, String> attributes = new HashMap<>();
+		attributes.put(QueueAttributeName.ContentBasedDeduplication.toString(), "true");
+		return sqs.createQueue(new CreateQueueRequest("aQueue.fifo").withAttributes(attributes)).getQueueUrl();
+	}
+
+	private List<Message> receive(int maxNumberOfMessages) {
+		return receive(queueUrl, maxNumberOfMessages);
+	}
+
+	private List<Message> receive(String url, int maxNumberOfMessages) {
+		return sqs.receiveMessage(new ReceiveMessageRequest(url).withMaxNumberOfMessages(maxNumberOfMessages)
+				.withAttributeNames("All")).getMessages();
+	}
+
+	private String getAttribute(QueueAttributeName name) {
+		return sqs.getQueueAttributes(new GetQueueAttributesRequest().withQueueUrl(queueUrl)
+				.withAttributeNames(name.toString())).getAttributes().get(name.toString());
+	}
+
+	private static List<String> getBodies(List<Message> messages) {
+		List<String> bodies = new ArrayList<>();
+		for (Message message : messages) {
+			bodies.add(message.getBody());
+		}
+		return bodies;
+	}
+
+	/**
+	 * A clock that only moves when told to.
+	 */
+	private static class MutableClock extends Clock {
+
+		private volatile long nowMS;
+
+		MutableClock(long nowMS) {
+			this.nowMS = nowMS;
+		}
+
+		void add(long ms) {
+			nowMS += ms;
+		}
+
+		@Override
+		public ZoneId getZone() {
+			return ZoneOffset.UTC;
+		}
+
+		@Override
+		public Clock withZone(ZoneId zone) {
+			return this;
+		}
+
+		@Override
+		public Instant instant() {
+			return Instant.ofEpochMilli(nowMS);
+		}
+	}
+}
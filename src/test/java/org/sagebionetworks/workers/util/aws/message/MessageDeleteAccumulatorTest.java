@@ -0,0 +1,334 @@
+package org.sagebionetworks.workers.util.aws.message;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import com.amazonaws.handlers.AsyncHandler;
+import com.amazonaws.services.sqs.AmazonSQSAsync;
+import com.amazonaws.services.sqs.AmazonSQSClient;
+import com.amazonaws.services.sqs.model.BatchResultErrorEntry;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequest;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequestEntry;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchResult;
+import com.amazonaws.services.sqs.model.DeleteMessageRequest;
+import com.amazonaws.services.sqs.model.Message;
+
+@ExtendWith(MockitoExtension.class)
+public class MessageDeleteAccumulatorTest {
+
+	@Mock
+	private AmazonSQSClient mockAmazonSQSClient;
+	@Mock
+	private AmazonSQSAsync mockAsyncClient;
+	@Captor
+	private ArgumentCaptor<AsyncHandler<DeleteMessageBatchRequest, DeleteMessageBatchResult>> handlerCaptor;
+	@Captor
+	private ArgumentCaptor<DeleteMessageBatchRequest> batchCaptor;
+
+	private String queueUrl;
+	private long maxDelayMS;
+	private MessageDeleteAccumulator accumulator;
+
+	@BeforeEach
+	public void before() {
+		queueUrl = "aQueueUrl";
+		// large enough that only size or an explicit flush will trigger a delete.
+		maxDelayMS = 60_000;
+		accumulator = new MessageDeleteAccumulator(mockAmazonSQSClient, queueUrl, maxDelayMS);
+	}
+
+	@Test
+	public void testConstructorWithNullClient() {
+		String message = assertThrows(IllegalArgumentException.class, () -> {
+			// call under test
+			new MessageDeleteAccumulator(null, queueUrl, maxDelayMS);
+		}).getMessage();
+		assertEquals("AmazonSQSClient cannot be null", message);
+	}
+
+	@Test
+	public void testConstructorWithNullQueueUrl() {
+		String message = assertThrows(IllegalArgumentException.class, () -> {
+			// call under test
+			new MessageDeleteAccumulator(mockAmazonSQSClient, null, maxDelayMS);
+		}).getMessage();
+		assertEquals("MessageQueueUrl cannot be null", message);
+	}
+
+	@Test
+	public void testConstructorWithNegativeDelay() {
+		String message = assertThrows(IllegalArgumentException.class, () -> {
+			// call under test
+			new MessageDeleteAccumulator(mockAmazonSQSClient, queueUrl, -1);
+		}).getMessage();
+		assertEquals("MaxDelayMS cannot be negative", message);
+	}
+
+	@Test
+	public void testAddWithNullMessage() {
+		String message = assertThrows(IllegalArgumentException.class, () -> {
+			// call under test
+			accumulator.add(null);
+		}).getMessage();
+		assertEquals("Message cannot be null", message);
+	}
+
+	@Test
+	public void testAddLessThanBatch() {
+		// call under test
+		accumulator.add(createMessage(0));
+		accumulator.add(createMessage(1));
+		accumulator.flushIfExpired();
+
+		assertEquals(2, accumulator.getPendingCount());
+		verify(mockAmazonSQSClient, never()).deleteMessageBatch(any(DeleteMessageBatchRequest.class));
+	}
+
+	@Test
+	public void testAddFullBatch() {
+		when(mockAmazonSQSClient.deleteMessageBatch(any(DeleteMessageBatchRequest.class)))
+				.thenReturn(new DeleteMessageBatchResult());
+		List<Message> messages = createMessages(MessageDeleteAccumulator.MAX_BATCH_SIZE);
+
+		// call under test
+		messages.forEach(accumulator::add);
+
+		assertEquals(0, accumulator.getPendingCount());
+		verify(mockAmazonSQSClient).deleteMessageBatch(batchCaptor.capture());
+		DeleteMessageBatchRequest request = batchCaptor.getValue();
+		assertEquals(queueUrl, request.getQueueUrl());
+		assertEquals(MessageDeleteAccumulator.MAX_BATCH_SIZE, request.getEntries().size());
+		assertEquals(new DeleteMessageBatchRequestEntry("0", "h0"), request.getEntries().get(0));
+		assertEquals(new DeleteMessageBatchRequestEntry("9", "h9"), request.getEntries().get(9));
+	}
+
+	@Test
+	public void testAddWithExpiredDelay() {
+		when(mockAmazonSQSClient.deleteMessageBatch(any(DeleteMessageBatchRequest.class)))
+				.thenReturn(new DeleteMessageBatchResult());
+		accumulator = new MessageDeleteAccumulator(mockAmazonSQSClient, queueUrl, 0);
+
+		// call under test
+		accumulator.add(createMessage(0));
+
+		assertEquals(0, accumulator.getPendingCount());
+		verify(mockAmazonSQSClient).deleteMessageBatch(new DeleteMessageBatchRequest(queueUrl,
+				Arrays.asList(new DeleteMessageBatchRequestEntry("0", "h0"))));
+	}
+
+	@Test
+	public void testFlush() {
+		when(mockAmazonSQSClient.deleteMessageBatch(any(DeleteMessageBatchRequest.class)))
+				.thenReturn(new DeleteMessageBatchResult());
+		accumulator.add(createMessage(0));
+		accumulator.add(createMessage(1));
+
+		// call under test
+		accumulator.flush();
+
+		assertEquals(0, accumulator.getPendingCount());
+		verify(mockAmazonSQSClient).deleteMessageBatch(new DeleteMessageBatchRequest(queueUrl, Arrays.asList(
+				new DeleteMessageBatchRequestEntry("0", "h0"), new DeleteMessageBatchRequestEntry("1", "h1"))));
+	}
+
+	@Test
+	public void testFlushWithNothingPending() {
+		// call under test
+		accumulator.flush();
+
+		verify(mockAmazonSQSClient, never()).deleteMessageBatch(any(DeleteMessageBatchRequest.class));
+	}
+
+	@Test
+	public void testFlushWithFailedEntries() {
+		when(mockAmazonSQSClient.deleteMessageBatch(any(DeleteMessageBatchRequest.class)))
+				.thenReturn(new DeleteMessageBatchResult().withFailed(
+						new BatchResultErrorEntry().withId("0").withSenderFault(true).withCode("ReceiptHandleIsInvalid"),
+						new BatchResultErrorEntry().withId("2").withSenderFault(false).withCode("InternalError")));
+		accumulator.add(createMessage(0));
+		accumulator.add(createMessage(1));
+		accumulator.add(createMessage(2));
+
+		// call under test
+		accumulator.flush();
+
+		// only the entry that failed on the service side is retried.
+		verify(mockAmazonSQSClient).deleteMessage(new DeleteMessageRequest(queueUrl, "h2"));
+		verify(mockAmazonSQSClient, times(1)).deleteMessage(any(DeleteMessageRequest.class));
+	}
+
+	@Test
+	public void testFlushWithBatchException() {
+		when(mockAmazonSQSClient.deleteMessageBatch(any(DeleteMessageBatchRequest.class)))
+				.thenThrow(new IllegalStateException("Something went wrong"));
+		when(mockAmazonSQSClient.deleteMessage(any(DeleteMessageRequest.class)))
+				.thenThrow(new IllegalStateException("Still wrong"));
+		accumulator.add(createMessage(0));
+		accumulator.add(createMessage(1));
+
+		// call under test
+		accumulator.flush();
+
+		// each message is deleted individually and failures are not thrown.
+		verify(mockAmazonSQSClient).deleteMessage(new DeleteMessageRequest(queueUrl, "h0"));
+		verify(mockAmazonSQSClient).deleteMessage(new DeleteMessageRequest(queueUrl, "h1"));
+		assertEquals(0, accumulator.getPendingCount());
+	}
+
+	@Test
+	public void testFlushIfExpired() {
+		when(mockAmazonSQSClient.deleteMessageBatch(any(DeleteMessageBatchRequest.class)))
+				.thenReturn(new DeleteMessageBatchResult().withFailed(Collections.emptyList()));
+		accumulator = new MessageDeleteAccumulator(mockAmazonSQSClient, queueUrl, 0);
+
+		// call under test
+		accumulator.flushIfExpired();
+		accumulator.add(createMessage(0));
+		accumulator.flushIfExpired();
+
+		verify(mockAmazonSQSClient, times(1)).deleteMessageBatch(any(DeleteMessageBatchRequest.class));
+	}
+
+	@Test
+	public void testAddWithScheduledFlush() {
+		when(mockAmazonSQSClient.deleteMessageBatch(any(DeleteMessageBatchRequest.class)))
+				.thenReturn(new DeleteMessageBatchResult());
+		accumulator = new MessageDeleteAccumulator(mockAmazonSQSClient, queueUrl, 50);
+
+		// call under test
+		accumulator.add(createMessage(0));
+		accumulator.add(createMessage(1));
+
+		// the batch is flushed at the max delay without another call from the caller.
+		verify(mockAmazonSQSClient, timeout(5000)).deleteMessageBatch(new DeleteMessageBatchRequest(queueUrl, Arrays.asList(
+				new DeleteMessageBatchRequestEntry("0", "h0"), new DeleteMessageBatchRequestEntry("1", "h1"))));
+		assertEquals(0, accumulator.getPendingCount());
+	}
+
+	@Test
+	public void testScheduledFlushWithSlowQueue() throws Exception {
+		AmazonSQSClient slowClient = mock(AmazonSQSClient.class);
+		CountDownLatch slowDeleteStarted = new CountDownLatch(1);
+		CountDownLatch releaseSlowDelete = new CountDownLatch(1);
+		doAnswer(invocation -> {
+			slowDeleteStarted.countDown();
+			releaseSlowDelete.await();
+			return new DeleteMessageBatchResult();
+		}).when(slowClient).deleteMessageBatch(any(DeleteMessageBatchRequest.class));
+		when(mockAmazonSQSClient.deleteMessageBatch(any(DeleteMessageBatchRequest.class)))
+				.thenReturn(new DeleteMessageBatchResult());
+		MessageDeleteAccumulator slowAccumulator = new MessageDeleteAccumulator(slowClient, "slowQueueUrl", 50);
+		accumulator = new MessageDeleteAccumulator(mockAmazonSQSClient, queueUrl, 50);
+		try {
+			slowAccumulator.add(createMessage(0));
+			assertTrue(slowDeleteStarted.await(5, TimeUnit.SECONDS));
+
+			// call under test
+			accumulator.add(createMessage(1));
+
+			// the scheduled flush is not held up by the slow queue.
+			verify(mockAmazonSQSClient, timeout(5000)).deleteMessageBatch(new DeleteMessageBatchRequest(queueUrl,
+					Arrays.asList(new DeleteMessageBatchRequestEntry("0", "h1"))));
+		} finally {
+			releaseSlowDelete.countDown();
+		}
+	}
+
+	@Test
+	public void testFlushBatchAfterFlush() {
+		when(mockAmazonSQSClient.deleteMessageBatch(any(DeleteMessageBatchRequest.class)))
+				.thenReturn(new DeleteMessageBatchResult());
+		accumulator.add(createMessage(0));
+		accumulator.flush();
+
+		// call under test
+		accumulator.flushBatch(System.currentTimeMillis());
+
+		verify(mockAmazonSQSClient, times(1)).deleteMessageBatch(any(DeleteMessageBatchRequest.class));
+	}
+
+	@Test
+	public void testFlushBatchWithNewerBatch() {
+		accumulator.add(createMessage(0));
+
+		// call under test
+		accumulator.flushBatch(System.currentTimeMillis() - maxDelayMS);
+
+		// the pending messages belong to a newer batch, so they are not flushed early.
+		assertEquals(1, accumulator.getPendingCount());
+		verify(mockAmazonSQSClient, never()).deleteMessageBatch(any(DeleteMessageBatchRequest.class));
+	}
+
+	@Test
+	public void testFlushWithAsyncClient() {
+		accumulator = new MessageDeleteAccumulator(mockAmazonSQSClient, mockAsyncClient, queueUrl, maxDelayMS);
+		accumulator.add(createMessage(0));
+		accumulator.add(createMessage(1));
+
+		// call under test
+		accumulator.flush();
+
+		DeleteMessageBatchRequest expectedRequest = new DeleteMessageBatchRequest(queueUrl, Arrays.asList(
+				new DeleteMessageBatchRequestEntry("0", "h0"), new DeleteMessageBatchRequestEntry("1", "h1")));
+		verify(mockAsyncClient).deleteMessageBatchAsync(eq(expectedRequest), handlerCaptor.capture());
+		verify(mockAmazonSQSClient, never()).deleteMessageBatch(any(DeleteMessageBatchRequest.class));
+
+		// simulate the response with a failed entry.
+		handlerCaptor.getValue().onSuccess(expectedRequest, new DeleteMessageBatchResult()
+				.withFailed(new BatchResultErrorEntry().withId("1").withSenderFault(false).withCode("InternalError")));
+
+		verify(mockAsyncClient).deleteMessageAsync(eq(new DeleteMessageRequest(queueUrl, "h1")), any(AsyncHandler.class));
+		verify(mockAmazonSQSClient, never()).deleteMessage(any(DeleteMessageRequest.class));
+	}
+
+	@Test
+	public void testFlushWithAsyncClientError() {
+		accumulator = new MessageDeleteAccumulator(mockAmazonSQSClient, mockAsyncClient, queueUrl, maxDelayMS);
+		accumulator.add(createMessage(0));
+
+		// call under test
+		accumulator.flush();
+
+		verify(mockAsyncClient).deleteMessageBatchAsync(any(DeleteMessageBatchRequest.class), handlerCaptor.capture());
+		handlerCaptor.getValue().onError(new IllegalStateException("Something went wrong"));
+
+		verify(mockAsyncClient).deleteMessageAsync(eq(new DeleteMessageRequest(queueUrl, "h0")), any(AsyncHandler.class));
+	}
+
+	private static List<Message> createMessages(int count) {
+		List<Message> messages = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			messages.add(createMessage(i));
+		}
+		return messages;
+	}
+
+	private static Message createMessage(int index) {
+		return new Message().withMessageId("id" + index).withReceiptHandle("h" + index);
+	}
+}
@@ -0,0 +1,263 @@
+package org.sagebionetworks.workers.util.aws.message;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.sagebionetworks.workers.util.BackoffStrategy;
+
+import com.amazonaws.services.sqs.model.Message;
+
+public class MessagePrefetcherTest {
+
+	private BlockingQueue<List<Message>> receiveResults;
+	private List<Integer> requestedCounts;
+	private List<String> visibilityChanges;
+	private List<Integer> backoffAttempts;
+	private AtomicLong clock;
+	private int visibilityTimeoutSec;
+	private int minRemainingVisibilitySec;
+	private MessagePrefetcher.MessageSource source;
+	private MessagePrefetcher.VisibilityChanger visibilityChanger;
+	private BackoffStrategy backoff;
+	private MessagePrefetcher prefetcher;
+	private Thread fetcher;
+
+	@BeforeEach
+	public void before() {
+		receiveResults = new LinkedBlockingQueue<>();
+		requestedCounts = new CopyOnWriteArrayList<>();
+		visibilityChanges = new CopyOnWriteArrayList<>();
+		backoffAttempts = new CopyOnWriteArrayList<>();
+		clock = new AtomicLong(1_000_000L);
+		visibilityTimeoutSec = 60;
+		minRemainingVisibilitySec = 20;
+		source = (maxNumberOfMessages) -> {
+			requestedCounts.add(maxNumberOfMessages);
+			List<Message> next = receiveResults.poll();
+			return next != null ? next : Collections.emptyList();
+		};
+		visibilityChanger = (message, visibilityTimeoutSec) -> {
+			visibilityChanges.add(message.getReceiptHandle() + ":" + visibilityTimeoutSec);
+		};
+		backoff = (attempt) -> {
+			backoffAttempts.add(attempt);
+			return 10L;
+		};
+	}
+
+	@AfterEach
+	public void after() throws InterruptedException {
+		if (prefetcher != null) {
+			prefetcher.stop();
+		}
+		if (fetcher != null) {
+			fetcher.join(10_000);
+		}
+	}
+
+	@Test
+	public void testTake() throws Exception {
+		receiveResults.add(Arrays.asList(createMessage(0), createMessage(1), createMessage(2)));
+		prefetcher = createPrefetcher(false, 5, 10);
+		start(prefetcher);
+
+		// call under test
+		List<Message> taken = prefetcher.take(2, 10_000);
+		assertEquals(Arrays.asList(createMessage(0), createMessage(1)), taken);
+		taken = prefetcher.take(2, 10_000);
+		assertEquals(Arrays.asList(createMessage(2)), taken);
+
+		// the first receive is limited to the buffer capacity.
+		assertEquals(5, requestedCounts.get(0).intValue());
+		// the messages had plenty of visibility left.
+		assertEquals(Collections.emptyList(), visibilityChanges);
+	}
+
+	@Test
+	public void testTakeWithTimeout() throws Exception {
+		prefetcher = createPrefetcher(false, 5, 10);
+
+		// call under test
+		List<Message> taken = prefetcher.take(1, 10);
+
+		assertEquals(Collections.emptyList(), taken);
+	}
+
+	@Test
+	public void testTakeWithExpiringMessage() throws Exception {
+		receiveResults.add(Arrays.asList(createMessage(0)));
+		// the buffer is not full so the message is not released while it waits.
+		prefetcher = createPrefetcher(false, 2, 10);
+		start(prefetcher);
+		awaitSize(prefetcher, 1);
+		// only 19 seconds of visibility remain.
+		clock.addAndGet(41_000);
+
+		// call under test
+		List<Message> taken = prefetcher.take(1, 10_000);
+
+		assertEquals(Arrays.asList(createMessage(0)), taken);
+		assertEquals(Arrays.asList("h0:60"), visibilityChanges);
+	}
+
+	@Test
+	public void testTakeWithExpiringMessageThatCannotBeExtended() throws Exception {
+		visibilityChanger = (message, visibilityTimeoutSec) -> {
+			throw new IllegalStateException("ReceiptHandleIsInvalid");
+		};
+		receiveResults.add(Arrays.asList(createMessage(0), createMessage(1)));
+		prefetcher = createPrefetcher(false, 2, 10);
+		start(prefetcher);
+		awaitSize(prefetcher, 2);
+		clock.addAndGet(41_000);
+
+		// call under test
+		List<Message> taken = prefetcher.take(2, 10_000);
+
+		// the messages might have been received by another receiver so they are dropped.
+		assertEquals(Collections.emptyList(), taken);
+	}
+
+	@Test
+	public void testFullBufferReleasesExpiringMessages() throws Exception {
+		CountDownLatch released = new CountDownLatch(1);
+		visibilityChanger = (message, visibilityTimeoutSec) -> {
+			visibilityChanges.add(message.getReceiptHandle() + ":" + visibilityTimeoutSec);
+			released.countDown();
+		};
+		receiveResults.add(Arrays.asList(createMessage(0)));
+		prefetcher = createPrefetcher(false, 1, 10);
+		start(prefetcher);
+		awaitSize(prefetcher, 1);
+
+		// call under test
+		clock.addAndGet(41_000);
+
+		assertTrue(released.await(10, TimeUnit.SECONDS));
+		assertEquals(Arrays.asList("h0:0"), visibilityChanges);
+	}
+
+	@Test
+	public void testEmptyQueueBackoff() throws Exception {
+		prefetcher = createPrefetcher(false, 1, 10);
+		start(prefetcher);
+
+		// call under test
+		awaitBackoffAttempts(3);
+		receiveResults.add(Arrays.asList(createMessage(0)));
+		assertEquals(Arrays.asList(createMessage(0)), prefetcher.take(1, 10_000));
+		awaitBackoffAttempts(backoffAttempts.size() + 1);
+
+		assertEquals(Arrays.asList(1, 2, 3), backoffAttempts.subList(0, 3));
+		// the count is reset by the message.
+		assertTrue(backoffAttempts.lastIndexOf(1) > 0);
+	}
+
+	@Test
+	public void testLongPollingWithoutBackoff() throws Exception {
+		prefetcher = createPrefetcher(true, 1, 10);
+		start(prefetcher);
+
+		// call under test
+		awaitReceiveCount(3);
+
+		assertEquals(Collections.emptyList(), backoffAttempts);
+	}
+
+	@Test
+	public void testStopWithReceiveInFlight() throws Exception {
+		CountDownLatch receiving = new CountDownLatch(1);
+		CountDownLatch proceed = new CountDownLatch(1);
+		source = (maxNumberOfMessages) -> {
+			receiving.countDown();
+			try {
+				proceed.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return Arrays.asList(createMessage(0));
+		};
+		prefetcher = createPrefetcher(false, 1, 10);
+		start(prefetcher);
+		assertTrue(receiving.await(10, TimeUnit.SECONDS));
+
+		// call under test
+		prefetcher.stop();
+		proceed.countDown();
+		fetcher.join(10_000);
+
+		assertFalse(fetcher.isAlive());
+		// the message received after the stop is returned to the queue.
+		assertEquals(Arrays.asList("h0:0"), visibilityChanges);
+		assertEquals(0, prefetcher.size());
+	}
+
+	@Test
+	public void testDrain() throws Exception {
+		receiveResults.add(Arrays.asList(createMessage(0), createMessage(1)));
+		prefetcher = createPrefetcher(false, 2, 10);
+		start(prefetcher);
+		awaitSize(prefetcher, 2);
+		prefetcher.stop();
+
+		// call under test
+		List<Message> drained = prefetcher.drain();
+
+		assertEquals(Arrays.asList(createMessage(0), createMessage(1)), drained);
+		assertEquals(0, prefetcher.size());
+		assertEquals(Collections.emptyList(), prefetcher.take(1, 10));
+	}
+
+	private MessagePrefetcher createPrefetcher(boolean longPolling, int capacity, int maxNumberOfMessages) {
+		return new MessagePrefetcher(source, visibilityChanger, backoff, longPolling, capacity, maxNumberOfMessages,
+				visibilityTimeoutSec, minRemainingVisibilitySec, clock::get);
+	}
+
+	private void start(MessagePrefetcher prefetcher) {
+		fetcher = new Thread(prefetcher);
+		fetcher.setDaemon(true);
+		fetcher.start();
+	}
+
+	private static void awaitSize(MessagePrefetcher prefetcher, int size) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 10_000;
+		while (prefetcher.size() < size && System.currentTimeMillis() < deadline) {
+			Thread.sleep(5);
+		}
+		assertEquals(size, prefetcher.size());
+	}
+
+	private void awaitBackoffAttempts(int count) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 10_000;
+		while (backoffAttempts.size() < count && System.currentTimeMillis() < deadline) {
+			Thread.sleep(5);
+		}
+		assertTrue(backoffAttempts.size() >= count);
+	}
+
+	private void awaitReceiveCount(int count) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 10_000;
+		while (requestedCounts.size() < count && System.currentTimeMillis() < deadline) {
+			Thread.sleep(5);
+		}
+		assertTrue(requestedCounts.size() >= count);
+	}
+
+	private static Message createMessage(int index) {
+		return new Message().withMessageId("id" + index).withReceiptHandle("h" + index);
+	}
+}
@@ -0,0 +1,248 @@
+package org.sagebionetworks.workers.util.aws.message;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import com.amazonaws.services.sqs.AmazonSQSClient;
+import com.amazonaws.services.sqs.model.BatchResultErrorEntry;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchRequest;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchRequestEntry;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchResult;
+import com.amazonaws.services.sqs.model.Message;
+
+@ExtendWith(MockitoExtension.class)
+public class MessageVisibilityHeartbeatTest {
+
+	@Mock
+	private AmazonSQSClient mockAmazonSQSClient;
+	@Captor
+	private ArgumentCaptor<ChangeMessageVisibilityBatchRequest> batchCaptor;
+
+	private String queueUrl;
+	private int visibilityTimeoutSec;
+	private AtomicLong clock;
+	private MessageVisibilityHeartbeat heartbeat;
+
+	@BeforeEach
+	public void before() {
+		queueUrl = "aQueueUrl";
+		visibilityTimeoutSec = 60;
+		clock = new AtomicLong(1_000_000L);
+		heartbeat = new MessageVisibilityHeartbeat(mockAmazonSQSClient, 1000, clock::get);
+	}
+
+	@AfterEach
+	public void after() {
+		heartbeat.close();
+	}
+
+	@Test
+	public void testConstructorWithNullClient() {
+		String message = assertThrows(IllegalArgumentException.class, () -> {
+			// call under test
+			new MessageVisibilityHeartbeat(null, 1000);
+		}).getMessage();
+		assertEquals("AmazonSQSClient cannot be null", message);
+	}
+
+	@Test
+	public void testConstructorWithTickIntervalLessThanOne() {
+		String message = assertThrows(IllegalArgumentException.class, () -> {
+			// call under test
+			new MessageVisibilityHeartbeat(mockAmazonSQSClient, 0);
+		}).getMessage();
+		assertEquals("TickIntervalMS must be at least one", message);
+	}
+
+	@Test
+	public void testTrackWithNullMessage() {
+		String message = assertThrows(IllegalArgumentException.class, () -> {
+			// call under test
+			heartbeat.track(queueUrl, null, visibilityTimeoutSec);
+		}).getMessage();
+		assertEquals("Message cannot be null", message);
+	}
+
+	@Test
+	public void testTickWithProgressNotDue() {
+		heartbeat.track(queueUrl, createMessage(0), visibilityTimeoutSec);
+		heartbeat.progressMade(queueUrl, createMessage(0));
+		// more than half of the visibility remains.
+		clock.addAndGet(29_000);
+
+		// call under test
+		heartbeat.tick();
+
+		verify(mockAmazonSQSClient, never()).changeMessageVisibilityBatch(any(ChangeMessageVisibilityBatchRequest.class));
+	}
+
+	@Test
+	public void testTickWithoutProgress() {
+		heartbeat.track(queueUrl, createMessage(0), visibilityTimeoutSec);
+		clock.addAndGet(31_000);
+
+		// call under test
+		heartbeat.tick();
+
+		// a message that is not making progress is allowed to expire.
+		verify(mockAmazonSQSClient, never()).changeMessageVisibilityBatch(any(ChangeMessageVisibilityBatchRequest.class));
+	}
+
+	@Test
+	public void testTickWithProgressDue() {
+		when(mockAmazonSQSClient.changeMessageVisibilityBatch(any(ChangeMessageVisibilityBatchRequest.class)))
+				.thenReturn(new ChangeMessageVisibilityBatchResult());
+		heartbeat.track(queueUrl, createMessage(0), visibilityTimeoutSec);
+		heartbeat.track(queueUrl, createMessage(1), visibilityTimeoutSec);
+		heartbeat.progressMade(queueUrl, createMessage(0));
+		clock.addAndGet(31_000);
+
+		// call under test
+		heartbeat.tick();
+
+		verify(mockAmazonSQSClient).changeMessageVisibilityBatch(new ChangeMessageVisibilityBatchRequest(queueUrl,
+				Arrays.asList(new ChangeMessageVisibilityBatchRequestEntry("0", "h0").withVisibilityTimeout(60))));
+
+		// call under test
+		heartbeat.tick();
+
+		// the progress was consumed by the extension.
+		verify(mockAmazonSQSClient, times(1)).changeMessageVisibilityBatch(any(ChangeMessageVisibilityBatchRequest.class));
+	}
+
+	@Test
+	public void testTickWithRemainingVisibility() {
+		when(mockAmazonSQSClient.changeMessageVisibilityBatch(any(ChangeMessageVisibilityBatchRequest.class)))
+				.thenReturn(new ChangeMessageVisibilityBatchResult());
+		// only 20 seconds remain.
+		heartbeat.track(queueUrl, createMessage(0), visibilityTimeoutSec, 20);
+		heartbeat.progressMade(queueUrl, createMessage(0));
+
+		// call under test
+		heartbeat.tick();
+
+		verify(mockAmazonSQSClient).changeMessageVisibilityBatch(any(ChangeMessageVisibilityBatchRequest.class));
+	}
+
+	@Test
+	public void testTickWithMoreThanOneBatch() {
+		when(mockAmazonSQSClient.changeMessageVisibilityBatch(any(ChangeMessageVisibilityBatchRequest.class)))
+				.thenReturn(new ChangeMessageVisibilityBatchResult());
+		for (int i = 0; i < 12; i++) {
+			heartbeat.track(queueUrl, createMessage(i), visibilityTimeoutSec);
+			heartbeat.progressMade(queueUrl, createMessage(i));
+		}
+		heartbeat.track("anotherQueueUrl", createMessage(12), visibilityTimeoutSec);
+		heartbeat.progressMade("anotherQueueUrl", createMessage(12));
+		clock.addAndGet(31_000);
+
+		// call under test
+		heartbeat.tick();
+
+		verify(mockAmazonSQSClient, times(3)).changeMessageVisibilityBatch(batchCaptor.capture());
+		List<ChangeMessageVisibilityBatchRequest> requests = batchCaptor.getAllValues();
+		int total = 0;
+		for (ChangeMessageVisibilityBatchRequest request : requests) {
+			total += request.getEntries().size();
+			assertEquals(true, request.getEntries().size() <= MessageVisibilityHeartbeat.MAX_BATCH_SIZE);
+		}
+		assertEquals(13, total);
+	}
+
+	@Test
+	public void testTickWithFailedEntries() {
+		// h0 has an invalid receipt handle and h1 fails on the service side.
+		when(mockAmazonSQSClient.changeMessageVisibilityBatch(any(ChangeMessageVisibilityBatchRequest.class))).thenAnswer(invocation -> {
+			ChangeMessageVisibilityBatchRequest request = invocation.getArgument(0);
+			List<BatchResultErrorEntry> failed = new ArrayList<>();
+			for (ChangeMessageVisibilityBatchRequestEntry entry : request.getEntries()) {
+				boolean senderFault = "h0".equals(entry.getReceiptHandle());
+				failed.add(new BatchResultErrorEntry().withId(entry.getId()).withSenderFault(senderFault)
+						.withCode(senderFault ? "ReceiptHandleIsInvalid" : "InternalError"));
+			}
+			return new ChangeMessageVisibilityBatchResult().withFailed(failed);
+		});
+		heartbeat.track(queueUrl, createMessage(0), visibilityTimeoutSec);
+		heartbeat.track(queueUrl, createMessage(1), visibilityTimeoutSec);
+		heartbeat.progressMade(queueUrl, createMessage(0));
+		heartbeat.progressMade(queueUrl, createMessage(1));
+		clock.addAndGet(31_000);
+
+		// call under test
+		heartbeat.tick();
+
+		// the message with an invalid receipt handle is no longer tracked.
+		assertEquals(1, heartbeat.getTrackedCount());
+
+		// call under test
+		heartbeat.tick();
+
+		// the other message is retried.
+		verify(mockAmazonSQSClient, times(2)).changeMessageVisibilityBatch(batchCaptor.capture());
+		assertEquals(Arrays.asList(new ChangeMessageVisibilityBatchRequestEntry("0", "h1").withVisibilityTimeout(60)),
+				batchCaptor.getAllValues().get(1).getEntries());
+	}
+
+	@Test
+	public void testTickWithException() {
+		when(mockAmazonSQSClient.changeMessageVisibilityBatch(any(ChangeMessageVisibilityBatchRequest.class)))
+				.thenThrow(new IllegalStateException("Something went wrong"));
+		heartbeat.track(queueUrl, createMessage(0), visibilityTimeoutSec);
+		heartbeat.progressMade(queueUrl, createMessage(0));
+		clock.addAndGet(31_000);
+
+		// call under test
+		heartbeat.tick();
+		heartbeat.tick();
+
+		// the failure is not thrown and the message is retried.
+		verify(mockAmazonSQSClient, times(2)).changeMessageVisibilityBatch(any(ChangeMessageVisibilityBatchRequest.class));
+		assertEquals(1, heartbeat.getTrackedCount());
+	}
+
+	@Test
+	public void testUntrack() {
+		heartbeat.track(queueUrl, createMessage(0), visibilityTimeoutSec);
+		heartbeat.progressMade(queueUrl, createMessage(0));
+		clock.addAndGet(31_000);
+
+		// call under test
+		heartbeat.untrack(queueUrl, createMessage(0));
+		heartbeat.tick();
+
+		assertEquals(0, heartbeat.getTrackedCount());
+		verify(mockAmazonSQSClient, never()).changeMessageVisibilityBatch(any(ChangeMessageVisibilityBatchRequest.class));
+	}
+
+	@Test
+	public void testUntrackNotTracked() {
+		// call under test
+		heartbeat.untrack(queueUrl, createMessage(0));
+		heartbeat.progressMade(queueUrl, createMessage(0));
+
+		assertEquals(0, heartbeat.getTrackedCount());
+	}
+
+	private static Message createMessage(int index) {
+		return new Message().withMessageId("id" + index).withReceiptHandle("h" + index);
+	}
+}
@@ -1,28 +1,57 @@
 package org.sagebionetworks.workers.util.aws.message;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.sagebionetworks.common.util.progress.ProgressCallback;
 import org.sagebionetworks.common.util.progress.ProgressListener;
+import org.sagebionetworks.workers.util.BackoffStrategy;
 import org.sagebionetworks.workers.util.Gate;
 
+import com.amazonaws.ClientConfiguration;
+import com.amazonaws.handlers.AsyncHandler;
+import com.amazonaws.services.sqs.AmazonSQSAsync;
 import com.amazonaws.services.sqs.AmazonSQSClient;
 import com.amazonaws.services.sqs.model.ChangeMessageVisibilityRequest;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequest;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequestEntry;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchResult;
 import com.amazonaws.services.sqs.model.DeleteMessageRequest;
 import com.amazonaws.services.sqs.model.Message;
 import com.amazonaws.services.sqs.model.MessageSystemAttributeName;
@@ -35,6 +64,10 @@ public class PollingMessageReceiverImplTest {
 	@Mock
 	private AmazonSQSClient mockAmazonSQSClient;
 	@Mock
+	private AmazonSQSClient mockReceiveClient;
+	@Mock
+	private AmazonSQSAsync mockAsyncClient;
+	@Mock
 	private MessageDrivenRunner mockRunner;
 	@Mock
 	private ProgressCallback mockProgressCallback;
@@ -376,5 +409,997 @@ public class PollingMessageReceiverImplTest {
 		verify(mockProgressCallback).addProgressListener(any(ProgressListener.class));
 		verify(mockProgressCallback).removeProgressListener(any(ProgressListener.class));
 	}
+
+	@Test
+	public void testMaxNumberOfMessagesTooSmall() {
+		config.setMaxNumberOfMessages(0);
+		when(mockHasQueueUrl.getQueueUrl()).thenReturn(queueUrl);
+		String message = assertThrows(IllegalArgumentException.class, ()->{
+			new PollingMessageReceiverImpl(mockAmazonSQSClient, config);
+		}).getMessage();
+		assertEquals("PollingMessageReceiverConfiguration.maxNumberOfMessages must be between 1 and 10", message);
+	}
+	
+	@Test
+	public void testMaxNumberOfMessagesTooLarge() {
+		config.setMaxNumberOfMessages(11);
+		when(mockHasQueueUrl.getQueueUrl()).thenReturn(queueUrl);
+		String message = assertThrows(IllegalArgumentException.class, ()->{
+			new PollingMessageReceiverImpl(mockAmazonSQSClient, config);
+		}).getMessage();
+		assertEquals("PollingMessageReceiverConfiguration.maxNumberOfMessages must be between 1 and 10", message);
+	}
+	
+	@Test
+	public void testBatchOfMessages() throws Exception {
+		config.setMaxNumberOfMessages(10);
+		Message one = new Message().withMessageId("1").withReceiptHandle("h1");
+		Message two = new Message().withMessageId("2").withReceiptHandle("h2");
+		Message three = new Message().withMessageId("3").withReceiptHandle("h3");
+		when(mockHasQueueUrl.getQueueUrl()).thenReturn(queueUrl);
+		when(mockAmazonSQSClient.receiveMessage(any(ReceiveMessageRequest.class)))
+				.thenReturn(new ReceiveMessageResult().withMessages(one, two, three));
+		when(mockGate.canRun()).thenReturn(true, true, true, false);
+
+		PollingMessageReceiverImpl receiver = new PollingMessageReceiverImpl(mockAmazonSQSClient, config);
+
+		// call under test
+		receiver.run(mockProgressCallback);
+
+		ReceiveMessageRequest expectedRequest = new ReceiveMessageRequest()
+				.withAttributeNames(Arrays.asList(MessageSystemAttributeName.ApproximateReceiveCount.toString()))
+				.withMaxNumberOfMessages(10)
+				.withVisibilityTimeout(messageVisibilityTimeoutSec)
+				.withWaitTimeSeconds(0)
+				.withQueueUrl(queueUrl);
+		// a single receive for the entire batch.
+		verify(mockAmazonSQSClient).receiveMessage(expectedRequest);
+		InOrder inOrder = inOrder(mockRunner);
+		inOrder.verify(mockRunner).run(mockProgressCallback, one);
+		inOrder.verify(mockRunner).run(mockProgressCallback, two);
+		inOrder.verify(mockRunner).run(mockProgressCallback, three);
+		verify(mockAmazonSQSClient).deleteMessage(new DeleteMessageRequest(queueUrl, "h1"));
+		verify(mockAmazonSQSClient).deleteMessage(new DeleteMessageRequest(queueUrl, "h2"));
+		verify(mockAmazonSQSClient).deleteMessage(new DeleteMessageRequest(queueUrl, "h3"));
+		verify(mockProgressCallback, times(3)).addProgressListener(any(ProgressListener.class));
+		verify(mockProgressCallback, times(3)).removeProgressListener(any(ProgressListener.class));
+		verify(mockAmazonSQSClient, never()).changeMessageVisibility(any());
+	}
+	
+	@Test
+	public void testBatchOfMessagesWithProgress() throws Exception {
+		config.setMaxNumberOfMessages(10);
+		Message one = new Message().withMessageId("1").withReceiptHandle("h1");
+		Message two = new Message().withMessageId("2").withReceiptHandle("h2");
+		when(mockHasQueueUrl.getQueueUrl()).thenReturn(queueUrl);
+		when(mockAmazonSQSClient.receiveMessage(any(ReceiveMessageRequest.class)))
+				.thenReturn(new ReceiveMessageResult().withMessages(one, two));
+		when(mockGate.canRun()).thenReturn(true, true, false);
+		AtomicReference<ProgressListener> listenerRef = new AtomicReference<>();
+		doAnswer(invocation -> {
+			listenerRef.set(invocation.getArgument(0));
+			return null;
+		}).when(mockProgressCallback).addProgressListener(any(ProgressListener.class));
+		doAnswer(invocation -> {
+			// simulate progress while the first message is processed.
+			if (invocation.getArgument(1) == one) {
+				listenerRef.get().progressMade();
+			}
+			return null;
+		}).when(mockRunner).run(any(ProgressCallback.class), any(Message.class));
+
+		PollingMessageReceiverImpl receiver = new PollingMessageReceiverImpl(mockAmazonSQSClient, config);
+
+		// call under test
+		receiver.run(mockProgressCallback);
+
+		// progress on the first message must keep both the message and the waiting message invisible.
+		verify(mockAmazonSQSClient).changeMessageVisibility(
+				new ChangeMessageVisibilityRequest(queueUrl, "h1", messageVisibilityTimeoutSec));
+		verify(mockAmazonSQSClient).changeMessageVisibility(
+				new ChangeMessageVisibilityRequest(queueUrl, "h2", messageVisibilityTimeoutSec));
+		verify(mockAmazonSQSClient, times(2)).deleteMessage(any(DeleteMessageRequest.class));
+	}
+	
+	@Test
+	public void testBatchOfMessagesWithGateClosed() throws Exception {
+		config.setMaxNumberOfMessages(10);
+		Message one = new Message().withMessageId("1").withReceiptHandle("h1");
+		Message two = new Message().withMessageId("2").withReceiptHandle("h2");
+		Message three = new Message().withMessageId("3").withReceiptHandle("h3");
+		when(mockHasQueueUrl.getQueueUrl()).thenReturn(queueUrl);
+		when(mockAmazonSQSClient.receiveMessage(any(ReceiveMessageRequest.class)))
+				.thenReturn(new ReceiveMessageResult().withMessages(one, two, three));
+		// gate closes after the first message
+		when(mockGate.canRun()).thenReturn(true, false);
+
+		PollingMessageReceiverImpl receiver = new PollingMessageReceiverImpl(mockAmazonSQSClient, config);
+
+		// call under test
+		receiver.run(mockProgressCallback);
+
+		verify(mockRunner).run(mockProgressCallback, one);
+		verify(mockRunner, never()).run(mockProgressCallback, two);
+		verify(mockRunner, never()).run(mockProgressCallback, three);
+		verify(mockAmazonSQSClient).deleteMessage(new DeleteMessageRequest(queueUrl, "h1"));
+		// the unprocessed messages are returned to the queue.
+		verify(mockAmazonSQSClient).changeMessageVisibility(new ChangeMessageVisibilityRequest(queueUrl, "h2", 0));
+		verify(mockAmazonSQSClient).changeMessageVisibility(new ChangeMessageVisibilityRequest(queueUrl, "h3", 0));
+		verify(mockAmazonSQSClient, times(1)).deleteMessage(any(DeleteMessageRequest.class));
+	}
+	
+	@Test
+	public void testBatchOfMessagesWithRunnerFailure() throws Exception {
+		config.setMaxNumberOfMessages(10);
+		Message one = new Message().withMessageId("1").withReceiptHandle("h1");
+		Message two = new Message().withMessageId("2").withReceiptHandle("h2");
+		when(mockHasQueueUrl.getQueueUrl()).thenReturn(queueUrl);
+		when(mockAmazonSQSClient.receiveMessage(any(ReceiveMessageRequest.class)))
+				.thenReturn(new ReceiveMessageResult().withMessages(one, two));
+		when(mockGate.canRun()).thenReturn(true);
+		doThrow(new IllegalArgumentException("Something was null")).when(mockRunner).run(mockProgressCallback, one);
+
+		PollingMessageReceiverImpl receiver = new PollingMessageReceiverImpl(mockAmazonSQSClient, config);
+
+		assertThrows(IllegalArgumentException.class, ()->{
+			// call under test
+			receiver.run(mockProgressCallback);
+		});
+
+		verify(mockRunner, never()).run(mockProgressCallback, two);
+		// The failed message is deleted and the waiting message is returned to the queue.
+		verify(mockAmazonSQSClient).deleteMessage(new DeleteMessageRequest(queueUrl, "h1"));
+		verify(mockAmazonSQSClient).changeMessageVisibility(new ChangeMessageVisibilityRequest(queueUrl, "h2", 0));
+	}
+	
+	
+	@Test
+	public void testBatchDelete() throws Exception {
+		config.setMaxNumberOfMessages(10);
+		config.setBatchDeleteEnabled(true);
+		Message one = new Message().withMessageId("1").withReceiptHandle("h1");
+		Message two = new Message().withMessageId("2").withReceiptHandle("h2");
+		Message three = new Message().withMessageId("3").withReceiptHandle("h3");
+		when(mockHasQueueUrl.getQueueUrl()).thenReturn(queueUrl);
+		when(mockAmazonSQSClient.receiveMessage(any(ReceiveMessageRequest.class)))
+				.thenReturn(new ReceiveMessageResult().withMessages(one, two, three));
+		when(mockGate.canRun()).thenReturn(true, true, true, false);
+
+		PollingMessageReceiverImpl receiver = new PollingMessageReceiverImpl(mockAmazonSQSClient, config);
+
+		// call under test
+		receiver.run(mockProgressCallback);
+
+		verify(mockRunner, times(3)).run(any(ProgressCallback.class), any(Message.class));
+		// all three messages are deleted with a single batch when the gate closes.
+		verify(mockAmazonSQSClient).deleteMessageBatch(new DeleteMessageBatchRequest(queueUrl,
+				Arrays.asList(new DeleteMessageBatchRequestEntry("0", "h1"), new DeleteMessageBatchRequestEntry("1", "h2"),
+						new DeleteMessageBatchRequestEntry("2", "h3"))));
+		verify(mockAmazonSQSClient, never()).deleteMessage(any(DeleteMessageRequest.class));
+	}
+	
+	@Test
+	public void testBatchDeleteWithRecoverableMessageException() throws Exception {
+		config.setMaxNumberOfMessages(10);
+		config.setBatchDeleteEnabled(true);
+		Message one = new Message().withMessageId("1").withReceiptHandle("h1");
+		Message two = new Message().withMessageId("2").withReceiptHandle("h2");
+		when(mockHasQueueUrl.getQueueUrl()).thenReturn(queueUrl);
+		when(mockAmazonSQSClient.receiveMessage(any(ReceiveMessageRequest.class)))
+				.thenReturn(new ReceiveMessageResult().withMessages(one, two));
+		when(mockGate.canRun()).thenReturn(true, true, false);
+		doAnswer(invocation -> {
+			if (invocation.getArgument(1) == one) {
+				throw new RecoverableMessageException("Try again later.");
+			}
+			return null;
+		}).when(mockRunner).run(any(ProgressCallback.class), any(Message.class));
+
+		PollingMessageReceiverImpl receiver = new PollingMessageReceiverImpl(mockAmazonSQSClient, config);
+
+		// call under test
+		receiver.run(mockProgressCallback);
+
+		// only the processed message is deleted.
+		verify(mockAmazonSQSClient).deleteMessageBatch(new DeleteMessageBatchRequest(queueUrl,
+				Arrays.asList(new DeleteMessageBatchRequestEntry("0", "h2"))));
+		verify(mockAmazonSQSClient).changeMessageVisibility(new ChangeMessageVisibilityRequest(queueUrl, "h1",
+				PollingMessageReceiverImpl.RETRY_MAX_MESSAGE_VISIBILITY_TIMEOUT_SEC));
+	}
+	
+	@Test
+	public void testBatchDeleteWithRunnerBlockedPastVisibilityTimeout() throws Exception {
+		config.setMessageVisibilityTimeoutSec(1);
+		config.setMaxNumberOfMessages(10);
+		config.setBatchDeleteEnabled(true);
+		config.setBatchDeleteMaxDelayMS(100);
+		Message one = new Message().withMessageId("1").withReceiptHandle("h1");
+		Message two = new Message().withMessageId("2").withReceiptHandle("h2");
+		when(mockHasQueueUrl.getQueueUrl()).thenReturn(queueUrl);
+		when(mockAmazonSQSClient.receiveMessage(any(ReceiveMessageRequest.class)))
+				.thenReturn(new ReceiveMessageResult().withMessages(one, two));
+		CountDownLatch batchDeleted = new CountDownLatch(1);
+		when(mockAmazonSQSClient.deleteMessageBatch(any(DeleteMessageBatchRequest.class))).thenAnswer(invocation -> {
+			batchDeleted.countDown();
+			return new DeleteMessageBatchResult();
+		});
+		when(mockGate.canRun()).thenReturn(true, true, false);
+		AtomicBoolean deletedWhileBlocked = new AtomicBoolean(false);
+		doAnswer(invocation -> {
+			if (invocation.getArgument(1) == two) {
+				// block past the visibility timeout of the first message.
+				Thread.sleep(1100);
+				deletedWhileBlocked.set(batchDeleted.getCount() == 0);
+			}
+			return null;
+		}).when(mockRunner).run(any(ProgressCallback.class), any(Message.class));
+
+		PollingMessageReceiverImpl receiver = new PollingMessageReceiverImpl(mockAmazonSQSClient, config);
+
+		// call under test
+		receiver.run(mockProgressCallback);
+
+		// the first message is deleted at the max delay rather than after the second completes.
+		assertTrue(deletedWhileBlocked.get());
+		verify(mockAmazonSQSClient).deleteMessageBatch(new DeleteMessageBatchRequest(queueUrl,
+				Arrays.asList(new DeleteMessageBatchRequestEntry("0", "h1"))));
+		verify(mockAmazonSQSClient).deleteMessageBatch(new DeleteMessageBatchRequest(queueUrl,
+				Arrays.asList(new DeleteMessageBatchRequestEntry("0", "h2"))));
+	}
+	
+	@Test
+	public void testBatchDeleteMaxDelayNotLessThanVisibilityTimeout() {
+		config.setBatchDeleteEnabled(true);
+		config.setBatchDeleteMaxDelayMS(messageVisibilityTimeoutSec * 1000L);
+		when(mockHasQueueUrl.getQueueUrl()).thenReturn(queueUrl);
+		String message = assertThrows(IllegalArgumentException.class, ()->{
+			new PollingMessageReceiverImpl(mockAmazonSQSClient, config);
+		}).getMessage();
+		assertEquals("PollingMessageReceiverConfiguration.batchDeleteMaxDelayMS must be less than the messageVisibilityTimeoutSec", message);
+	}
 	
+	@Test
+	public void testBatchDeleteOnShutdown() throws Exception {
+		config.setBatchDeleteEnabled(true);
+		when(mockHasQueueUrl.getQueueUrl()).thenReturn(queueUrl);
+		when(mockAmazonSQSClient.receiveMessage(any(ReceiveMessageRequest.class))).thenReturn(results);
+		when(mockGate.canRun()).thenReturn(true, false);
+
+		PollingMessageReceiverImpl receiver = new PollingMessageReceiverImpl(mockAmazonSQSClient, config);
+		// Simulate a JVM shutdown.
+		receiver.forceShutdown();
+
+		// call under test
+		receiver.run(mockProgressCallback);
+
+		verify(mockRunner).run(any(ProgressCallback.class), any(Message.class));
+		verify(mockAmazonSQSClient, never()).deleteMessageBatch(any(DeleteMessageBatchRequest.class));
+		verify(mockAmazonSQSClient, never()).deleteMessage(any(DeleteMessageRequest.class));
+	}
+	
+	@Test
+	public void testRunOnceWithFullBatch() throws Exception {
+		config.setMaxNumberOfMessages(2);
+		Message one = new Message().withMessageId("1").withReceiptHandle("h1");
+		Message two = new Message().withMessageId("2").withReceiptHandle("h2");
+		when(mockHasQueueUrl.getQueueUrl()).thenReturn(queueUrl);
+		when(mockAmazonSQSClient.receiveMessage(any(ReceiveMessageRequest.class)))
+				.thenReturn(new ReceiveMessageResult().withMessages(one, two));
+		when(mockGate.canRun()).thenReturn(true);
+
+		PollingMessageReceiverImpl receiver = new PollingMessageReceiverImpl(mockAmazonSQSClient, config);
+
+		// call under test
+		assertTrue(receiver.runOnce(mockProgressCallback));
+
+		verify(mockAmazonSQSClient, times(1)).receiveMessage(any(ReceiveMessageRequest.class));
+		verify(mockRunner).run(mockProgressCallback, one);
+		verify(mockRunner).run(mockProgressCallback, two);
+	}
+	
+	@Test
+	public void testRunOnceWithPartialBatch() throws Exception {
+		config.setMaxNumberOfMessages(2);
+		when(mockHasQueueUrl.getQueueUrl()).thenReturn(queueUrl);
+		when(mockAmazonSQSClient.receiveMessage(any(ReceiveMessageRequest.class))).thenReturn(results);
+		when(mockGate.canRun()).thenReturn(true);
+
+		PollingMessageReceiverImpl receiver = new PollingMessageReceiverImpl(mockAmazonSQSClient, config);
+
+		// call under test
+		assertFalse(receiver.runOnce(mockProgressCallback));
+
+		verify(mockRunner).run(mockProgressCallback, message);
+		verify(mockAmazonSQSClient).deleteMessage(new DeleteMessageRequest(queueUrl, message.getReceiptHandle()));
+	}
+	
+	@Test
+	public void testRunOnceWithAsyncClient() throws Exception {
+		config.setAsyncClient(mockAsyncClient);
+		when(mockHasQueueUrl.getQueueUrl()).thenReturn(queueUrl);
+		when(mockAsyncClient.receiveMessageAsync(any(ReceiveMessageRequest.class)))
+				.thenReturn(CompletableFuture.completedFuture(results));
+		when(mockGate.canRun()).thenReturn(true);
+
+		PollingMessageReceiverImpl receiver = new PollingMessageReceiverImpl(mockAmazonSQSClient, config);
+
+		// call under test
+		assertTrue(receiver.runOnce(mockProgressCallback));
+
+		// only the current batch is received.
+		verify(mockAsyncClient, times(1)).receiveMessageAsync(any(ReceiveMessageRequest.class));
+		verify(mockRunner).run(mockProgressCallback, message);
+		verify(mockAmazonSQSClient, never()).receiveMessage(any(ReceiveMessageRequest.class));
+	}
+	
+	@Test
+	public void testRunOnceWithGateClosed() throws Exception {
+		when(mockHasQueueUrl.getQueueUrl()).thenReturn(queueUrl);
+		when(mockGate.canRun()).thenReturn(false);
+
+		PollingMessageReceiverImpl receiver = new PollingMessageReceiverImpl(mockAmazonSQSClient, config);
+
+		// call under test
+		assertFalse(receiver.runOnce(mockProgressCallback));
+
+		verify(mockAmazonSQSClient, never()).receiveMessage(any(ReceiveMessageRequest.class));
+		verify(mockRunner, never()).run(any(ProgressCallback.class), any(Message.class));
+	}
+	
+	@Test
+	public void testEmptyQueueBackoff() throws Exception {
+		BackoffStrategy mockBackoff = mock(BackoffStrategy.class);
+		when(mockBackoff.getDelayMS(anyInt())).thenReturn(0L);
+		config.setEmptyQueueBackoff(mockBackoff);
+		when(mockHasQueueUrl.getQueueUrl()).thenReturn(queueUrl);
+		// two empty polls, a message, then another empty poll.
+		when(mockAmazonSQSClient.receiveMessage(any(ReceiveMessageRequest.class)))
+				.thenReturn(emptyResults, emptyResults, results, emptyResults);
+		when(mockGate.canRun()).thenReturn(true, true, true, true, false);
+
+		PollingMessageReceiverImpl receiver = new PollingMessageReceiverImpl(mockAmazonSQSClient, config);
+
+		// call under test
+		receiver.run(mockProgressCallback);
+
+		verify(mockRunner).run(mockProgressCallback, message);
+		InOrder inOrder = inOrder(mockBackoff);
+		inOrder.verify(mockBackoff).getDelayMS(1);
+		inOrder.verify(mockBackoff).getDelayMS(2);
+		// the count is reset by the message
+		inOrder.verify(mockBackoff).getDelayMS(1);
+		verify(mockBackoff, times(3)).getDelayMS(anyInt());
+	}
+	
+	@Test
+	public void testNullEmptyQueueBackoff() {
+		config.setEmptyQueueBackoff(null);
+		when(mockHasQueueUrl.getQueueUrl()).thenReturn(queueUrl);
+		String message = assertThrows(IllegalArgumentException.class, ()->{
+			new PollingMessageReceiverImpl(mockAmazonSQSClient, config);
+		}).getMessage();
+		assertEquals("PollingMessageReceiverConfiguration.emptyQueueBackoff cannot be null", message);
+	}
+	
+	@Test
+	public void testLongPolling() throws Exception {
+		BackoffStrategy mockBackoff = mock(BackoffStrategy.class);
+		config.setEmptyQueueBackoff(mockBackoff);
+		config.setReceiveClient(mockReceiveClient);
+		config.setReceiveWaitTimeSec(20);
+		when(mockHasQueueUrl.getQueueUrl()).thenReturn(queueUrl);
+		when(mockReceiveClient.receiveMessage(any(ReceiveMessageRequest.class))).thenReturn(emptyResults, results);
+		when(mockGate.canRun()).thenReturn(true, true, false);
+
+		PollingMessageReceiverImpl receiver = new PollingMessageReceiverImpl(mockAmazonSQSClient, config);
+
+		// call under test
+		receiver.run(mockProgressCallback);
+
+		ReceiveMessageRequest expectedRequest = new ReceiveMessageRequest()
+				.withAttributeNames(Arrays.asList(MessageSystemAttributeName.ApproximateReceiveCount.toString()))
+				.withMaxNumberOfMessages(1)
+				.withVisibilityTimeout(messageVisibilityTimeoutSec)
+				.withWaitTimeSeconds(20)
+				.withQueueUrl(queueUrl);
+		verify(mockReceiveClient, times(2)).receiveMessage(expectedRequest);
+		verify(mockAmazonSQSClient, never()).receiveMessage(any(ReceiveMessageRequest.class));
+		// the long poll already waited so there is no backoff.
+		verify(mockBackoff, never()).getDelayMS(anyInt());
+		verify(mockRunner).run(mockProgressCallback, message);
+		// deletes use the shared client.
+		verify(mockAmazonSQSClient).deleteMessage(new DeleteMessageRequest(queueUrl, message.getReceiptHandle()));
+		verify(mockReceiveClient, never()).deleteMessage(any(DeleteMessageRequest.class));
+	}
+	
+	@Test
+	public void testLongPollingWithoutReceiveClient() {
+		config.setReceiveWaitTimeSec(20);
+		when(mockHasQueueUrl.getQueueUrl()).thenReturn(queueUrl);
+		String message = assertThrows(IllegalArgumentException.class, ()->{
+			new PollingMessageReceiverImpl(mockAmazonSQSClient, config);
+		}).getMessage();
+		assertEquals("PollingMessageReceiverConfiguration.receiveClient must be a dedicated client when long polling is enabled", message);
+	}
+	
+	@Test
+	public void testLongPollingWithSharedClient() {
+		config.setReceiveWaitTimeSec(20);
+		config.setReceiveClient(mockAmazonSQSClient);
+		when(mockHasQueueUrl.getQueueUrl()).thenReturn(queueUrl);
+		String message = assertThrows(IllegalArgumentException.class, ()->{
+			new PollingMessageReceiverImpl(mockAmazonSQSClient, config);
+		}).getMessage();
+		assertEquals("PollingMessageReceiverConfiguration.receiveClient must be a dedicated client when long polling is enabled", message);
+	}
+	
+	@Test
+	public void testLongPollingWithSemaphoreLockTooSmall() {
+		config.setReceiveWaitTimeSec(20);
+		config.setReceiveClient(mockReceiveClient);
+		config.setMessageVisibilityTimeoutSec(30);
+		config.setSemaphoreLockTimeoutSec(39);
+		when(mockHasQueueUrl.getQueueUrl()).thenReturn(queueUrl);
+		String message = assertThrows(IllegalArgumentException.class, ()->{
+			new PollingMessageReceiverImpl(mockAmazonSQSClient, config);
+		}).getMessage();
+		assertEquals("PollingMessageReceiverConfiguration.semaphoreLockTimeoutSec must be at least double the receiveWaitTimeSec", message);
+	}
+	
+	@Test
+	public void testReceiveWaitTimeTooLarge() {
+		config.setReceiveWaitTimeSec(21);
+		config.setReceiveClient(mockReceiveClient);
+		when(mockHasQueueUrl.getQueueUrl()).thenReturn(queueUrl);
+		String message = assertThrows(IllegalArgumentException.class, ()->{
+			new PollingMessageReceiverImpl(mockAmazonSQSClient, config);
+		}).getMessage();
+		assertEquals("PollingMessageReceiverConfiguration.receiveWaitTimeSec must be between 0 and 20", message);
+	}
+	
+	@Test
+	public void testCreateReceiveClientConfiguration() {
+		// call under test
+		ClientConfiguration clientConfig = PollingMessageReceiverImpl.createReceiveClientConfiguration(25);
+		assertEquals(25, clientConfig.getMaxConnections());
+		assertTrue(clientConfig.getSocketTimeout() >= (PollingMessageReceiverImpl.MAX_RECEIVE_WAIT_TIME_SEC + 10) * 1000);
+	}
+	
+	@Test
+	public void testCreateReceiveClientConfigurationWithNoReceivers() {
+		String message = assertThrows(IllegalArgumentException.class, ()->{
+			// call under test
+			PollingMessageReceiverImpl.createReceiveClientConfiguration(0);
+		}).getMessage();
+		assertEquals("NumberOfReceivers must be at least one", message);
+	}
+	
+	@Test
+	public void testConcurrentProcessing() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(3);
+		config.setMaxNumberOfMessages(10);
+		config.setMessageProcessingExecutor(executor);
+		Message one = new Message().withMessageId("1").withReceiptHandle("h1");
+		Message two = new Message().withMessageId("2").withReceiptHandle("h2");
+		Message three = new Message().withMessageId("3").withReceiptHandle("h3");
+		when(mockHasQueueUrl.getQueueUrl()).thenReturn(queueUrl);
+		when(mockAmazonSQSClient.receiveMessage(any(ReceiveMessageRequest.class)))
+				.thenReturn(new ReceiveMessageResult().withMessages(one, two, three));
+		// the gate is checked before each message after the first is submitted.
+		when(mockGate.canRun()).thenReturn(true, true, true, false);
+		// each message can only complete if all three are processed at the same time.
+		CyclicBarrier barrier = new CyclicBarrier(3);
+		doAnswer(invocation -> {
+			barrier.await(10, TimeUnit.SECONDS);
+			return null;
+		}).when(mockRunner).run(any(ProgressCallback.class), any(Message.class));
+
+		PollingMessageReceiverImpl receiver = new PollingMessageReceiverImpl(mockAmazonSQSClient, config);
+		try {
+			// call under test
+			receiver.run(mockProgressCallback);
+		} finally {
+			executor.shutdownNow();
+		}
+
+		verify(mockRunner, times(3)).run(any(ProgressCallback.class), any(Message.class));
+		// each message has its own callback.
+		verify(mockRunner, never()).run(eq(mockProgressCallback), any(Message.class));
+		verify(mockAmazonSQSClient).deleteMessage(new DeleteMessageRequest(queueUrl, "h1"));
+		verify(mockAmazonSQSClient).deleteMessage(new DeleteMessageRequest(queueUrl, "h2"));
+		verify(mockAmazonSQSClient).deleteMessage(new DeleteMessageRequest(queueUrl, "h3"));
+		verify(mockProgressCallback, times(3)).addProgressListener(any(ProgressListener.class));
+		verify(mockProgressCallback, times(3)).removeProgressListener(any(ProgressListener.class));
+	}
+	
+	@Test
+	public void testConcurrentProcessingWithProgress() throws Exception {
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		config.setMaxNumberOfMessages(10);
+		config.setMessageProcessingExecutor(executor);
+		Message one = new Message().withMessageId("1").withReceiptHandle("h1");
+		Message two = new Message().withMessageId("2").withReceiptHandle("h2");
+		when(mockHasQueueUrl.getQueueUrl()).thenReturn(queueUrl);
+		when(mockAmazonSQSClient.receiveMessage(any(ReceiveMessageRequest.class)))
+				.thenReturn(new ReceiveMessageResult().withMessages(one, two));
+		when(mockGate.canRun()).thenReturn(true, true, false);
+		List<ProgressListener> containerListeners = new CopyOnWriteArrayList<>();
+		doAnswer(invocation -> {
+			containerListeners.add(invocation.getArgument(0));
+			return null;
+		}).when(mockProgressCallback).addProgressListener(any(ProgressListener.class));
+		doAnswer(invocation -> {
+			// simulate a progress event of the container.
+			for (ProgressListener listener : containerListeners) {
+				listener.progressMade();
+			}
+			return null;
+		}).when(mockRunner).run(any(ProgressCallback.class), any(Message.class));
+
+		PollingMessageReceiverImpl receiver = new PollingMessageReceiverImpl(mockAmazonSQSClient, config);
+		try {
+			// call under test
+			receiver.run(mockProgressCallback);
+		} finally {
+			executor.shutdownNow();
+		}
+
+		// the event is forwarded only to the message that is being processed.
+		verify(mockAmazonSQSClient).changeMessageVisibility(new ChangeMessageVisibilityRequest(queueUrl, "h1", messageVisibilityTimeoutSec));
+		verify(mockAmazonSQSClient).changeMessageVisibility(new ChangeMessageVisibilityRequest(queueUrl, "h2", messageVisibilityTimeoutSec));
+		verify(mockProgressCallback, times(2)).removeProgressListener(any(ProgressListener.class));
+	}
+	
+	@Test
+	public void testConcurrentProcessingWithGateClosed() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		config.setMaxNumberOfMessages(10);
+		config.setMessageProcessingExecutor(executor);
+		Message one = new Message().withMessageId("1").withReceiptHandle("h1");
+		Message two = new Message().withMessageId("2").withReceiptHandle("h2");
+		when(mockHasQueueUrl.getQueueUrl()).thenReturn(queueUrl);
+		when(mockAmazonSQSClient.receiveMessage(any(ReceiveMessageRequest.class)))
+				.thenReturn(new ReceiveMessageResult().withMessages(one, two));
+		// the gate closes after the first message is submitted.
+		when(mockGate.canRun()).thenReturn(true, false);
+
+		PollingMessageReceiverImpl receiver = new PollingMessageReceiverImpl(mockAmazonSQSClient, config);
+		try {
+			// call under test
+			receiver.run(mockProgressCallback);
+		} finally {
+			executor.shutdownNow();
+		}
+
+		verify(mockRunner).run(any(ProgressCallback.class), eq(one));
+		verify(mockRunner, never()).run(any(ProgressCallback.class), eq(two));
+		verify(mockAmazonSQSClient).deleteMessage(new DeleteMessageRequest(queueUrl, "h1"));
+		// the message that was never submitted is returned to the queue.
+		verify(mockAmazonSQSClient).changeMessageVisibility(new ChangeMessageVisibilityRequest(queueUrl, "h2", 0));
+		verify(mockProgressCallback, times(1)).addProgressListener(any(ProgressListener.class));
+	}
+	
+	@Test
+	public void testConcurrentProcessingWithFailure() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		config.setMaxNumberOfMessages(10);
+		config.setMessageProcessingExecutor(executor);
+		Message one = new Message().withMessageId("1").withReceiptHandle("h1");
+		Message two = new Message().withMessageId("2").withReceiptHandle("h2");
+		when(mockHasQueueUrl.getQueueUrl()).thenReturn(queueUrl);
+		when(mockAmazonSQSClient.receiveMessage(any(ReceiveMessageRequest.class)))
+				.thenReturn(new ReceiveMessageResult().withMessages(one, two));
+		when(mockGate.canRun()).thenReturn(true);
+		doAnswer(invocation -> {
+			if (invocation.getArgument(1) == one) {
+				throw new IllegalArgumentException("Something was null");
+			}
+			return null;
+		}).when(mockRunner).run(any(ProgressCallback.class), any(Message.class));
+
+		PollingMessageReceiverImpl receiver = new PollingMessageReceiverImpl(mockAmazonSQSClient, config);
+		try {
+			assertThrows(IllegalArgumentException.class, () -> {
+				// call under test
+				receiver.run(mockProgressCallback);
+			});
+		} finally {
+			executor.shutdownNow();
+		}
+
+		// both messages complete and are deleted before the failure is thrown.
+		verify(mockRunner, times(2)).run(any(ProgressCallback.class), any(Message.class));
+		verify(mockAmazonSQSClient).deleteMessage(new DeleteMessageRequest(queueUrl, "h1"));
+		verify(mockAmazonSQSClient).deleteMessage(new DeleteMessageRequest(queueUrl, "h2"));
+	}
+	
+	@Test
+	public void testConcurrentProcessingWithRejectedExecution() throws Exception {
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		executor.shutdown();
+		config.setMaxNumberOfMessages(10);
+		config.setMessageProcessingExecutor(executor);
+		Message one = new Message().withMessageId("1").withReceiptHandle("h1");
+		Message two = new Message().withMessageId("2").withReceiptHandle("h2");
+		when(mockHasQueueUrl.getQueueUrl()).thenReturn(queueUrl);
+		when(mockAmazonSQSClient.receiveMessage(any(ReceiveMessageRequest.class)))
+				.thenReturn(new ReceiveMessageResult().withMessages(one, two));
+		when(mockGate.canRun()).thenReturn(true);
+
+		PollingMessageReceiverImpl receiver = new PollingMessageReceiverImpl(mockAmazonSQSClient, config);
+		assertThrows(RejectedExecutionException.class, () -> {
+			// call under test
+			receiver.run(mockProgressCallback);
+		});
+
+		verify(mockRunner, never()).run(any(ProgressCallback.class), any(Message.class));
+		// both messages are returned to the queue.
+		verify(mockAmazonSQSClient).changeMessageVisibility(new ChangeMessageVisibilityRequest(queueUrl, "h1", 0));
+		verify(mockAmazonSQSClient).changeMessageVisibility(new ChangeMessageVisibilityRequest(queueUrl, "h2", 0));
+	}
+	
+	@Test
+	public void testConcurrentProcessingWithInterrupt() throws Exception {
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		config.setMaxNumberOfMessages(10);
+		config.setMessageProcessingExecutor(executor);
+		Message one = new Message().withMessageId("1").withReceiptHandle("h1");
+		Message two = new Message().withMessageId("2").withReceiptHandle("h2");
+		when(mockHasQueueUrl.getQueueUrl()).thenReturn(queueUrl);
+		when(mockAmazonSQSClient.receiveMessage(any(ReceiveMessageRequest.class)))
+				.thenReturn(new ReceiveMessageResult().withMessages(one, two));
+		when(mockGate.canRun()).thenReturn(true);
+		CountDownLatch oneStarted = new CountDownLatch(1);
+		doAnswer(invocation -> {
+			oneStarted.countDown();
+			// block until the task is cancelled.
+			new CountDownLatch(1).await();
+			return null;
+		}).when(mockRunner).run(any(ProgressCallback.class), any(Message.class));
+
+		PollingMessageReceiverImpl receiver = new PollingMessageReceiverImpl(mockAmazonSQSClient, config);
+		AtomicReference<Exception> failure = new AtomicReference<>();
+		Thread receiverThread = new Thread(() -> {
+			try {
+				receiver.run(mockProgressCallback);
+			} catch (Exception e) {
+				failure.set(e);
+			}
+		});
+		try {
+			receiverThread.start();
+			assertTrue(oneStarted.await(10, TimeUnit.SECONDS));
+			// call under test
+			receiverThread.interrupt();
+			receiverThread.join(10_000);
+		} finally {
+			executor.shutdownNow();
+		}
+
+		assertTrue(failure.get() instanceof InterruptedException);
+		// the second message was waiting on the single thread so it is never processed.
+		verify(mockRunner, times(1)).run(any(ProgressCallback.class), any(Message.class));
+		verify(mockAmazonSQSClient).changeMessageVisibility(new ChangeMessageVisibilityRequest(queueUrl, "h2", 0));
+	}
+	
+	@Test
+	public void testPrefetch() throws Exception {
+		config.setPrefetchBufferSize(2);
+		when(mockHasQueueUrl.getQueueUrl()).thenReturn(queueUrl);
+		when(mockAmazonSQSClient.receiveMessage(any(ReceiveMessageRequest.class))).thenReturn(results, emptyResults);
+		when(mockGate.canRun()).thenReturn(true, false);
+
+		PollingMessageReceiverImpl receiver = new PollingMessageReceiverImpl(mockAmazonSQSClient, config);
+
+		// call under test
+		receiver.run(mockProgressCallback);
+
+		verify(mockRunner).run(mockProgressCallback, message);
+		verify(mockAmazonSQSClient).deleteMessage(new DeleteMessageRequest(queueUrl, message.getReceiptHandle()));
+	}
+	
+	@Test
+	public void testPrefetchReleasesBufferedMessages() throws Exception {
+		config.setPrefetchBufferSize(3);
+		Message one = new Message().withMessageId("1").withReceiptHandle("h1");
+		Message two = new Message().withMessageId("2").withReceiptHandle("h2");
+		Message three = new Message().withMessageId("3").withReceiptHandle("h3");
+		when(mockHasQueueUrl.getQueueUrl()).thenReturn(queueUrl);
+		// a fourth receive can only start after the first three messages are buffered.
+		CountDownLatch receives = new CountDownLatch(4);
+		doAnswer(invocation -> {
+			receives.countDown();
+			switch ((int) receives.getCount()) {
+			case 3:
+				return new ReceiveMessageResult().withMessages(one);
+			case 2:
+				return new ReceiveMessageResult().withMessages(two);
+			case 1:
+				return new ReceiveMessageResult().withMessages(three);
+			default:
+				return emptyResults;
+			}
+		}).when(mockAmazonSQSClient).receiveMessage(any(ReceiveMessageRequest.class));
+		when(mockGate.canRun()).thenReturn(true, false);
+		doAnswer(invocation -> {
+			assertTrue(receives.await(10, TimeUnit.SECONDS));
+			return null;
+		}).when(mockRunner).run(any(ProgressCallback.class), any(Message.class));
+
+		PollingMessageReceiverImpl receiver = new PollingMessageReceiverImpl(mockAmazonSQSClient, config);
+
+		// call under test
+		receiver.run(mockProgressCallback);
+
+		verify(mockRunner).run(mockProgressCallback, one);
+		verify(mockAmazonSQSClient).deleteMessage(new DeleteMessageRequest(queueUrl, "h1"));
+		// the buffered messages are returned to the queue when the receiver stops.
+		verify(mockAmazonSQSClient).changeMessageVisibility(new ChangeMessageVisibilityRequest(queueUrl, "h2", 0));
+		verify(mockAmazonSQSClient).changeMessageVisibility(new ChangeMessageVisibilityRequest(queueUrl, "h3", 0));
+	}
+	
+	@Test
+	public void testPrefetchBufferSizeNegative() {
+		config.setPrefetchBufferSize(-1);
+		when(mockHasQueueUrl.getQueueUrl()).thenReturn(queueUrl);
+		String message = assertThrows(IllegalArgumentException.class, ()->{
+			new PollingMessageReceiverImpl(mockAmazonSQSClient, config);
+		}).getMessage();
+		assertEquals("PollingMessageReceiverConfiguration.prefetchBufferSize cannot be negative", message);
+	}
+	
+	@Test
+	public void testPrefetchMinRemainingVisibilityTooLarge() {
+		config.setPrefetchBufferSize(2);
+		config.setPrefetchMinRemainingVisibilitySec(messageVisibilityTimeoutSec);
+		when(mockHasQueueUrl.getQueueUrl()).thenReturn(queueUrl);
+		String message = assertThrows(IllegalArgumentException.class, ()->{
+			new PollingMessageReceiverImpl(mockAmazonSQSClient, config);
+		}).getMessage();
+		assertEquals("PollingMessageReceiverConfiguration.prefetchMinRemainingVisibilitySec must be between 0 and messageVisibilityTimeoutSec", message);
+	}
+	
+	@Test
+	public void testVisibilityHeartbeat() throws Exception {
+		MessageVisibilityHeartbeat mockHeartbeat = mock(MessageVisibilityHeartbeat.class);
+		when(mockHeartbeat.getTickIntervalMS()).thenReturn(1000L);
+		config.setVisibilityHeartbeat(mockHeartbeat);
+		when(mockHasQueueUrl.getQueueUrl()).thenReturn(queueUrl);
+		when(mockAmazonSQSClient.receiveMessage(any(ReceiveMessageRequest.class))).thenReturn(results);
+		when(mockGate.canRun()).thenReturn(true, false);
+		AtomicReference<ProgressListener> listenerRef = new AtomicReference<>();
+		doAnswer(invocation -> {
+			listenerRef.set(invocation.getArgument(0));
+			return null;
+		}).when(mockProgressCallback).addProgressListener(any(ProgressListener.class));
+		doAnswer(invocation -> {
+			// simulate progress while the message is processed.
+			listenerRef.get().progressMade();
+			return null;
+		}).when(mockRunner).run(any(ProgressCallback.class), any(Message.class));
+
+		PollingMessageReceiverImpl receiver = new PollingMessageReceiverImpl(mockAmazonSQSClient, config);
+
+		// call under test
+		receiver.run(mockProgressCallback);
+
+		InOrder inOrder = inOrder(mockHeartbeat, mockAmazonSQSClient);
+		inOrder.verify(mockHeartbeat).track(queueUrl, message, messageVisibilityTimeoutSec, messageVisibilityTimeoutSec);
+		inOrder.verify(mockHeartbeat).progressMade(queueUrl, message);
+		inOrder.verify(mockHeartbeat).untrack(queueUrl, message);
+		inOrder.verify(mockAmazonSQSClient).deleteMessage(new DeleteMessageRequest(queueUrl, message.getReceiptHandle()));
+		// the worker thread does not change the visibility.
+		verify(mockAmazonSQSClient, never()).changeMessageVisibility(any(ChangeMessageVisibilityRequest.class));
+	}
+	
+	@Test
+	public void testVisibilityHeartbeatWithRecoverableMessageException() throws Exception {
+		MessageVisibilityHeartbeat mockHeartbeat = mock(MessageVisibilityHeartbeat.class);
+		when(mockHeartbeat.getTickIntervalMS()).thenReturn(1000L);
+		config.setVisibilityHeartbeat(mockHeartbeat);
+		when(mockHasQueueUrl.getQueueUrl()).thenReturn(queueUrl);
+		when(mockAmazonSQSClient.receiveMessage(any(ReceiveMessageRequest.class))).thenReturn(results);
+		when(mockGate.canRun()).thenReturn(true, false);
+		doThrow(new RecoverableMessageException("Try again later.")).when(mockRunner).run(any(ProgressCallback.class), any(Message.class));
+
+		PollingMessageReceiverImpl receiver = new PollingMessageReceiverImpl(mockAmazonSQSClient, config);
+
+		// call under test
+		receiver.run(mockProgressCallback);
+
+		// the message must be untracked before it is returned to the queue.
+		InOrder inOrder = inOrder(mockHeartbeat, mockAmazonSQSClient);
+		inOrder.verify(mockHeartbeat).untrack(queueUrl, message);
+		inOrder.verify(mockAmazonSQSClient).changeMessageVisibility(any(ChangeMessageVisibilityRequest.class));
+		verify(mockAmazonSQSClient, never()).deleteMessage(any(DeleteMessageRequest.class));
+	}
+	
+	@Test
+	public void testVisibilityHeartbeatTickTooLong() {
+		MessageVisibilityHeartbeat mockHeartbeat = mock(MessageVisibilityHeartbeat.class);
+		when(mockHeartbeat.getTickIntervalMS()).thenReturn(messageVisibilityTimeoutSec * 500L);
+		config.setVisibilityHeartbeat(mockHeartbeat);
+		when(mockHasQueueUrl.getQueueUrl()).thenReturn(queueUrl);
+		String message = assertThrows(IllegalArgumentException.class, ()->{
+			new PollingMessageReceiverImpl(mockAmazonSQSClient, config);
+		}).getMessage();
+		assertEquals("PollingMessageReceiverConfiguration.messageVisibilityTimeoutSec must be more than double the visibilityHeartbeat tick interval", message);
+	}
+	
+	@Test
+	public void testAsyncClient() throws Exception {
+		config.setAsyncClient(mockAsyncClient);
+		when(mockHasQueueUrl.getQueueUrl()).thenReturn(queueUrl);
+		when(mockAsyncClient.receiveMessageAsync(any(ReceiveMessageRequest.class)))
+				.thenReturn(CompletableFuture.completedFuture(results));
+		when(mockGate.canRun()).thenReturn(true, false);
+
+		PollingMessageReceiverImpl receiver = new PollingMessageReceiverImpl(mockAmazonSQSClient, config);
+
+		// call under test
+		receiver.run(mockProgressCallback);
+
+		// without pipelining the next batch is not requested until the gate is checked again.
+		verify(mockAsyncClient, times(1)).receiveMessageAsync(any(ReceiveMessageRequest.class));
+		InOrder inOrder = inOrder(mockAsyncClient, mockRunner);
+		inOrder.verify(mockRunner).run(mockProgressCallback, message);
+		inOrder.verify(mockAsyncClient).deleteMessageAsync(eq(new DeleteMessageRequest(queueUrl, message.getReceiptHandle())), any(AsyncHandler.class));
+		verify(mockAmazonSQSClient, never()).receiveMessage(any(ReceiveMessageRequest.class));
+		verify(mockAmazonSQSClient, never()).deleteMessage(any(DeleteMessageRequest.class));
+	}
+	
+	@Test
+	public void testAsyncClientWithProgress() throws Exception {
+		config.setAsyncClient(mockAsyncClient);
+		when(mockHasQueueUrl.getQueueUrl()).thenReturn(queueUrl);
+		when(mockAsyncClient.receiveMessageAsync(any(ReceiveMessageRequest.class)))
+				.thenReturn(CompletableFuture.completedFuture(results));
+		when(mockGate.canRun()).thenReturn(true, false);
+		AtomicReference<ProgressListener> listenerRef = new AtomicReference<>();
+		doAnswer(invocation -> {
+			listenerRef.set(invocation.getArgument(0));
+			return null;
+		}).when(mockProgressCallback).addProgressListener(any(ProgressListener.class));
+		doAnswer(invocation -> {
+			listenerRef.get().progressMade();
+			return null;
+		}).when(mockRunner).run(any(ProgressCallback.class), any(Message.class));
+
+		PollingMessageReceiverImpl receiver = new PollingMessageReceiverImpl(mockAmazonSQSClient, config);
+
+		// call under test
+		receiver.run(mockProgressCallback);
+
+		verify(mockAsyncClient).changeMessageVisibilityAsync(eq(new ChangeMessageVisibilityRequest(queueUrl,
+				message.getReceiptHandle(), messageVisibilityTimeoutSec)), any(AsyncHandler.class));
+		verify(mockAmazonSQSClient, never()).changeMessageVisibility(any(ChangeMessageVisibilityRequest.class));
+	}
+	
+	/**
+	 * Each pipelined receive returns the next of the given results, calling its
+	 * handler before the future completes as the async client does.
+	 * 
+	 * @param receiveResults
+	 */
+	private void setupPipelinedReceives(ReceiveMessageResult... receiveResults) {
+		Iterator<ReceiveMessageResult> iterator = Arrays.asList(receiveResults).iterator();
+		doAnswer(invocation -> {
+			ReceiveMessageResult result = iterator.next();
+			AsyncHandler<ReceiveMessageRequest, ReceiveMessageResult> handler = invocation.getArgument(1);
+			handler.onSuccess(invocation.getArgument(0), result);
+			return CompletableFuture.completedFuture(result);
+		}).when(mockAsyncClient).receiveMessageAsync(any(ReceiveMessageRequest.class), any(AsyncHandler.class));
+	}
+	
+	@Test
+	public void testPipelinedReceive() throws Exception {
+		MessageVisibilityHeartbeat mockHeartbeat = mock(MessageVisibilityHeartbeat.class);
+		when(mockHeartbeat.getTickIntervalMS()).thenReturn(1000L);
+		config.setVisibilityHeartbeat(mockHeartbeat);
+		config.setAsyncClient(mockAsyncClient);
+		config.setPipelinedReceiveEnabled(true);
+		Message two = new Message().withMessageId("2").withReceiptHandle("h2");
+		when(mockHasQueueUrl.getQueueUrl()).thenReturn(queueUrl);
+		setupPipelinedReceives(results, new ReceiveMessageResult().withMessages(two));
+		when(mockGate.canRun()).thenReturn(true, false);
+		List<ProgressListener> listeners = new ArrayList<>();
+		doAnswer(invocation -> {
+			listeners.add(invocation.getArgument(0));
+			return null;
+		}).when(mockProgressCallback).addProgressListener(any(ProgressListener.class));
+		doAnswer(invocation -> {
+			// simulate progress while the message is processed.
+			for (ProgressListener listener : listeners) {
+				listener.progressMade();
+			}
+			return null;
+		}).when(mockRunner).run(any(ProgressCallback.class), any(Message.class));
+
+		PollingMessageReceiverImpl receiver = new PollingMessageReceiverImpl(mockAmazonSQSClient, config);
+
+		// call under test
+		receiver.run(mockProgressCallback);
+
+		// the next batch is requested, and tracked, before the current batch is processed.
+		InOrder inOrder = inOrder(mockAsyncClient, mockHeartbeat, mockRunner);
+		inOrder.verify(mockAsyncClient, times(2)).receiveMessageAsync(any(ReceiveMessageRequest.class), any(AsyncHandler.class));
+		inOrder.verify(mockRunner).run(mockProgressCallback, message);
+		verify(mockHeartbeat).track(queueUrl, two, messageVisibilityTimeoutSec, messageVisibilityTimeoutSec);
+		// the next batch is kept invisible while the current batch makes progress.
+		verify(mockHeartbeat).progressMade(queueUrl, message);
+		verify(mockHeartbeat).progressMade(queueUrl, two);
+		verify(mockProgressCallback, times(2)).removeProgressListener(any(ProgressListener.class));
+		verify(mockAsyncClient, never()).receiveMessageAsync(any(ReceiveMessageRequest.class));
+	}
+	
+	@Test
+	public void testPipelinedReceiveReleasesPendingBatch() throws Exception {
+		MessageVisibilityHeartbeat mockHeartbeat = mock(MessageVisibilityHeartbeat.class);
+		when(mockHeartbeat.getTickIntervalMS()).thenReturn(1000L);
+		config.setVisibilityHeartbeat(mockHeartbeat);
+		config.setAsyncClient(mockAsyncClient);
+		config.setPipelinedReceiveEnabled(true);
+		Message two = new Message().withMessageId("2").withReceiptHandle("h2");
+		when(mockHasQueueUrl.getQueueUrl()).thenReturn(queueUrl);
+		setupPipelinedReceives(results, new ReceiveMessageResult().withMessages(two));
+		when(mockGate.canRun()).thenReturn(true, false);
+
+		PollingMessageReceiverImpl receiver = new PollingMessageReceiverImpl(mockAmazonSQSClient, config);
+
+		// call under test
+		receiver.run(mockProgressCallback);
+
+		verify(mockRunner).run(mockProgressCallback, message);
+		verify(mockRunner, never()).run(mockProgressCallback, two);
+		// the pending batch is untracked and returned to the queue.
+		InOrder inOrder = inOrder(mockHeartbeat, mockAsyncClient);
+		inOrder.verify(mockHeartbeat).track(queueUrl, two, messageVisibilityTimeoutSec, messageVisibilityTimeoutSec);
+		inOrder.verify(mockHeartbeat).untrack(queueUrl, two);
+		inOrder.verify(mockAsyncClient).changeMessageVisibilityAsync(eq(new ChangeMessageVisibilityRequest(queueUrl, "h2", 0)), any(AsyncHandler.class));
+	}
+	
+	@Test
+	public void testPipelinedReceiveWithoutAsyncClient() {
+		config.setVisibilityHeartbeat(mock(MessageVisibilityHeartbeat.class));
+		config.setPipelinedReceiveEnabled(true);
+		when(mockHasQueueUrl.getQueueUrl()).thenReturn(queueUrl);
+		String message = assertThrows(IllegalArgumentException.class, ()->{
+			new PollingMessageReceiverImpl(mockAmazonSQSClient, config);
+		}).getMessage();
+		assertEquals("PollingMessageReceiverConfiguration.asyncClient is required when pipelinedReceiveEnabled is true", message);
+	}
+	
+	@Test
+	public void testPipelinedReceiveWithoutVisibilityHeartbeat() {
+		config.setAsyncClient(mockAsyncClient);
+		config.setPipelinedReceiveEnabled(true);
+		when(mockHasQueueUrl.getQueueUrl()).thenReturn(queueUrl);
+		String message = assertThrows(IllegalArgumentException.class, ()->{
+			new PollingMessageReceiverImpl(mockAmazonSQSClient, config);
+		}).getMessage();
+		assertEquals("PollingMessageReceiverConfiguration.visibilityHeartbeat is required when pipelinedReceiveEnabled is true", message);
+	}
+	
+	@Test
+	public void testPipelinedReceiveWithPrefetch() {
+		config.setVisibilityHeartbeat(mock(MessageVisibilityHeartbeat.class));
+		config.setAsyncClient(mockAsyncClient);
+		config.setPipelinedReceiveEnabled(true);
+		config.setPrefetchBufferSize(10);
+		when(mockHasQueueUrl.getQueueUrl()).thenReturn(queueUrl);
+		String message = assertThrows(IllegalArgumentException.class, ()->{
+			new PollingMessageReceiverImpl(mockAmazonSQSClient, config);
+		}).getMessage();
+		assertEquals("PollingMessageReceiverConfiguration.pipelinedReceiveEnabled cannot be combined with a prefetchBufferSize", message);
+	}
+	
+	@Test
+	public void testLongPollingWithAsyncClient() {
+		config.setReceiveWaitTimeSec(20);
+		config.setAsyncClient(mockAsyncClient);
+		when(mockHasQueueUrl.getQueueUrl()).thenReturn(queueUrl);
+
+		// call under test
+		new PollingMessageReceiverImpl(mockAmazonSQSClient, config);
+	}
 }
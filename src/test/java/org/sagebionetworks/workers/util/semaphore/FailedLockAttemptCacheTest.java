@@ -0,0 +1,124 @@
+package org.sagebionetworks.workers.util.semaphore;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class FailedLockAttemptCacheTest {
+
+	private AtomicLong clock;
+	private FailedLockAttemptCache cache;
+
+	@BeforeEach
+	public void before() {
+		clock = new AtomicLong(1_000_000L);
+		cache = new FailedLockAttemptCache(1000, 0.0, clock::get);
+	}
+
+	@Test
+	public void testConstructorWithNegativeTimeToLive() {
+		String message = assertThrows(IllegalArgumentException.class, () -> {
+			// call under test
+			new FailedLockAttemptCache(-1);
+		}).getMessage();
+		assertEquals("TimeToLiveMS cannot be negative", message);
+	}
+
+	@Test
+	public void testConstructorWithJitterTooHigh() {
+		String message = assertThrows(IllegalArgumentException.class, () -> {
+			// call under test
+			new FailedLockAttemptCache(1000, 1.1);
+		}).getMessage();
+		assertEquals("JitterFactor must be between 0.0 and 1.0", message);
+	}
+
+	@Test
+	public void testRecordFailureWithNullKey() {
+		String message = assertThrows(IllegalArgumentException.class, () -> {
+			// call under test
+			cache.recordFailure(null);
+		}).getMessage();
+		assertEquals("Key cannot be null", message);
+	}
+
+	@Test
+	public void testRecentFailure() {
+		// call under test
+		cache.recordFailure("key", "holder");
+		assertTrue(cache.isRecentFailure("key"));
+		assertEquals(Optional.of("holder"), cache.getRecentFailureContext("key"));
+		assertFalse(cache.isRecentFailure("otherKey"));
+		assertEquals(Optional.empty(), cache.getRecentFailureContext("otherKey"));
+
+		clock.addAndGet(999);
+		assertTrue(cache.isRecentFailure("key"));
+		clock.addAndGet(1);
+		// the expired failure is removed.
+		assertFalse(cache.isRecentFailure("key"));
+		assertEquals(0, cache.size());
+	}
+
+	@Test
+	public void testRecentFailureWithoutContext() {
+		// call under test
+		cache.recordFailure("key");
+		assertTrue(cache.isRecentFailure("key"));
+		assertEquals(Optional.empty(), cache.getRecentFailureContext("key"));
+	}
+
+	@Test
+	public void testClear() {
+		cache.recordFailure("key");
+		// call under test
+		cache.clear("key");
+		assertFalse(cache.isRecentFailure("key"));
+	}
+
+	@Test
+	public void testDisabled() {
+		cache = new FailedLockAttemptCache(0, 0.0, clock::get);
+		// call under test
+		cache.recordFailure("key");
+		assertFalse(cache.isRecentFailure("key"));
+		assertEquals(0, cache.size());
+	}
+
+	@Test
+	public void testJitter() {
+		cache = new FailedLockAttemptCache(1000, 0.5, clock::get);
+		for (int i = 0; i < 100; i++) {
+			cache.recordFailure("key" + i);
+		}
+		// call under test
+		clock.addAndGet(499);
+		for (int i = 0; i < 100; i++) {
+			// the time to live is never shortened by more than half.
+			assertTrue(cache.isRecentFailure("key" + i));
+		}
+		clock.addAndGet(501);
+		for (int i = 0; i < 100; i++) {
+			assertFalse(cache.isRecentFailure("key" + i));
+		}
+	}
+
+	@Test
+	public void testSweep() {
+		for (int i = 0; i < FailedLockAttemptCache.SWEEP_THRESHOLD; i++) {
+			cache.recordFailure("key" + i);
+		}
+		assertEquals(FailedLockAttemptCache.SWEEP_THRESHOLD, cache.size());
+		clock.addAndGet(1000);
+		// call under test
+		cache.recordFailure("new");
+		// the expired failures are swept.
+		assertEquals(1, cache.size());
+	}
+}
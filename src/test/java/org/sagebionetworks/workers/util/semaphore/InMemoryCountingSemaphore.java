@@ -0,0 +1,423 @@
+package org.sagebionetworks.workers.util.semaphore;
+
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import org.sagebionetworks.database.semaphore.CountingSemaphore;
+import org.sagebionetworks.database.semaphore.LockReleaseFailedException;
+
+/**
+ * An in-memory stand-in for the database backed {@link CountingSemaphore}
+ * that can be used to test and benchmark the lock layer without MySQL.
+ * <p>
+ * As with the database implementation, each key can be held by at most
+ * maxLockCount unexpired locks, each lock carries the context of the caller
+ * that acquired it, and an expired lock no longer counts against the key.
+ * Refreshing or releasing a lock that has expired, or was never issued,
+ * throws a {@link LockReleaseFailedException}.
+ * <p>
+ * Locks on many keys can be acquired atomically with a single call to
+ * {@link #attemptToAcquireLocks(List, List, long, int, String)}, and
+ * refreshed with a single call to {@link #refreshLockTimeouts(Map, long)}.
+ * <p>
+ * An artificial latency can be added to each call to approximate the round
+ * trip to the database, and the calls of each method are counted.
+ * <p>
+ * This class is thread-safe.
+ */
+public class InMemoryCountingSemaphore implements BulkCountingSemaphore {
+
+	private static class Lease {
+		private final String context;
+		private long expiresAtMS;
+
+		Lease(String context, long expiresAtMS) {
+			this.context = context;
+			this.expiresAtMS = expiresAtMS;
+		}
+	}
+
+	private final Clock clock;
+	// key -> token -> lease, in the order the leases were issued. Each map is guarded by its own monitor.
+	private final Map<String, Map<String, Lease>> locks = new ConcurrentHashMap<>();
+	private final AtomicLong attemptToAcquireLockCount = new AtomicLong(0);
+	private final AtomicLong attemptToAcquireLocksCount = new AtomicLong(0);
+	private final AtomicLong refreshLockTimeoutCount = new AtomicLong(0);
+	private final AtomicLong refreshLockTimeoutsCount = new AtomicLong(0);
+	private final AtomicLong releaseLockCount = new AtomicLong(0);
+	private final AtomicLong getFirstUnexpiredLockContextCount = new AtomicLong(0);
+	private volatile long minLatencyMS = 0;
+	private volatile long maxLatencyMS = 0;
+
+	/**
+	 * Create an in-memory semaphore that uses the system clock.
+	 */
+	public InMemoryCountingSemaphore() {
+		this(Clock.systemUTC());
+	}
+
+	/**
+	 *
+	 * @param clock The clock used to expire locks.
+	 */
+	public InMemoryCountingSemaphore(Clock clock) {
+		if (clock == null) {
+			throw new IllegalArgumentException("Clock cannot be null");
+		}
+		this.clock = clock;
+	}
+
+	/**
+	 * Add an artificial latency to each call. The latency of each call is picked
+	 * uniformly between the provided minimum and maximum.
+	 *
+	 * @param minLatencyMS
+	 * @param maxLatencyMS
+	 */
+	public void setLatencyMS(long minLatencyMS, long maxLatencyMS) {
+		if (minLatencyMS < 0) {
+			throw new IllegalArgumentException("MinLatencyMS cannot be negative");
+		}
+		if (maxLatencyMS < minLatencyMS) {
+			throw new IllegalArgumentException("MaxLatencyMS cannot be less than minLatencyMS");
+		}
+		this.minLatencyMS = minLatencyMS;
+		this.maxLatencyMS = maxLatencyMS;
+	}
+
+	@Override
+	public Optional<String> attemptToAcquireLock(String key, long timeoutSec, int maxLockCount, String context) {
+		attemptToAcquireLockCount.incrementAndGet();
+		simulateLatency();
+		validateKey(key);
+		validateTimeout(timeoutSec);
+		if (maxLockCount < 1) {
+			throw new IllegalArgumentException("MaxLockCount cannot be less than one");
+		}
+		Map<String, Lease> leases = locks.computeIfAbsent(key, k -> new LinkedHashMap<>());
+		synchronized (leases) {
+			long now = clock.millis();
+			removeExpired(leases, now);
+			if (leases.size() >= maxLockCount) {
+				return Optional.empty();
+			}
+			String token = UUID.randomUUID().toString();
+			leases.put(token, new Lease(context, now + timeoutSec * 1000L));
+			return Optional.of(token);
+		}
+	}
+
+	@Override
+	public BulkLockResult attemptToAcquireLocks(List<String> blockingKeys, List<String> keys, long timeoutSec,
+			int maxLockCount, String context) {
+		attemptToAcquireLocksCount.incrementAndGet();
+		simulateLatency();
+		if (blockingKeys == null) {
+			throw new IllegalArgumentException("BlockingKeys cannot be null");
+		}
+		if (keys == null) {
+			throw new IllegalArgumentException("Keys cannot be null");
+		}
+		blockingKeys.forEach(InMemoryCountingSemaphore::validateKey);
+		keys.forEach(InMemoryCountingSemaphore::validateKey);
+		validateTimeout(timeoutSec);
+		if (maxLockCount < 1) {
+			throw new IllegalArgumentException("MaxLockCount cannot be less than one");
+		}
+		// The monitor of each key is taken in sorted order so concurrent bulk calls cannot deadlock.
+		Set<String> sortedKeys = new TreeSet<>(blockingKeys);
+		sortedKeys.addAll(keys);
+		List<Map<String, Lease>> monitors = new ArrayList<>(sortedKeys.size());
+		for (String key : sortedKeys) {
+			monitors.add(locks.computeIfAbsent(key, k -> new LinkedHashMap<>()));
+		}
+		return withMonitors(monitors, 0, () -> {
+			long now = clock.millis();
+			for (String key : blockingKeys) {
+				Map<String, Lease> leases = locks.get(key);
+				removeExpired(leases, now);
+				if (!leases.isEmpty()) {
+					return BulkLockResult.unavailable(key, leases.values().iterator().next().context);
+				}
+			}
+			Set<String> distinctKeys = new LinkedHashSet<>(keys);
+			for (String key : distinctKeys) {
+				Map<String, Lease> leases = locks.get(key);
+				removeExpired(leases, now);
+				if (leases.size() >= maxLockCount) {
+					return BulkLockResult.unavailable(key, leases.values().iterator().next().context);
+				}
+			}
+			Map<String, String> keyToToken = new LinkedHashMap<>(distinctKeys.size());
+			for (String key : distinctKeys) {
+				String token = UUID.randomUUID().toString();
+				locks.get(key).put(token, new Lease(context, now + timeoutSec * 1000L));
+				keyToToken.put(key, token);
+			}
+			return BulkLockResult.acquired(keyToToken);
+		});
+	}
+
+	/**
+	 * Run the given action while holding the monitor of each of the given
+	 * objects, starting with the given index.
+	 */
+	private static <T> T withMonitors(List<?> monitors, int index, Supplier<T> action) {
+		if (index == monitors.size()) {
+			return action.get();
+		}
+		synchronized (monitors.get(index)) {
+			return withMonitors(monitors, index + 1, action);
+		}
+	}
+
+	@Override
+	public void refreshLockTimeout(String key, String token, long timeoutSec) {
+		refreshLockTimeoutCount.incrementAndGet();
+		simulateLatency();
+		validateKey(key);
+		validateToken(token);
+		validateTimeout(timeoutSec);
+		if (refresh(key, token, timeoutSec)) {
+			return;
+		}
+		throw new LockReleaseFailedException("Failed to refresh the lock for key: " + key + " token: " + token
+				+ ". The lock has expired or was never issued.");
+	}
+
+	@Override
+	public void refreshLockTimeouts(Map<String, String> keyToToken, long timeoutSec) {
+		refreshLockTimeoutsCount.incrementAndGet();
+		simulateLatency();
+		if (keyToToken == null) {
+			throw new IllegalArgumentException("KeyToToken cannot be null");
+		}
+		validateTimeout(timeoutSec);
+		List<String> failedKeys = new ArrayList<>();
+		for (Map.Entry<String, String> entry : keyToToken.entrySet()) {
+			validateKey(entry.getKey());
+			validateToken(entry.getValue());
+			if (!refresh(entry.getKey(), entry.getValue(), timeoutSec)) {
+				failedKeys.add(entry.getKey());
+			}
+		}
+		if (!failedKeys.isEmpty()) {
+			throw new LockReleaseFailedException("Failed to refresh the locks for keys: " + failedKeys
+					+ ". The locks have expired or were never issued.");
+		}
+	}
+
+	@Override
+	public void releaseLock(String key, String token) {
+		releaseLockCount.incrementAndGet();
+		simulateLatency();
+		validateKey(key);
+		validateToken(token);
+		Map<String, Lease> leases = locks.get(key);
+		if (leases != null) {
+			synchronized (leases) {
+				Lease lease = leases.remove(token);
+				if (lease != null && lease.expiresAtMS > clock.millis()) {
+					return;
+				}
+			}
+		}
+		throw new LockReleaseFailedException("Failed to release the lock for key: " + key + " token: " + token
+				+ ". The lock has expired or was never issued.");
+	}
+
+	@Override
+	public void releaseAllLocks() {
+		simulateLatency();
+		for (Map<String, Lease> leases : locks.values()) {
+			synchronized (leases) {
+				leases.clear();
+			}
+		}
+	}
+
+	@Override
+	public Optional<String> getFirstUnexpiredLockContext(String key) {
+		getFirstUnexpiredLockContextCount.incrementAndGet();
+		simulateLatency();
+		validateKey(key);
+		Map<String, Lease> leases = locks.get(key);
+		if (leases == null) {
+			return Optional.empty();
+		}
+		synchronized (leases) {
+			long now = clock.millis();
+			for (Lease lease : leases.values()) {
+				if (lease.expiresAtMS > now) {
+					return Optional.ofNullable(lease.context);
+				}
+			}
+			return Optional.empty();
+		}
+	}
+
+	/**
+	 * The number of unexpired locks currently held for the given key.
+	 *
+	 * @param key
+	 * @return
+	 */
+	public int getLockCount(String key) {
+		Map<String, Lease> leases = locks.get(key);
+		if (leases == null) {
+			return 0;
+		}
+		synchronized (leases) {
+			removeExpired(leases, clock.millis());
+			return leases.size();
+		}
+	}
+
+	/**
+	 * The number of calls to
+	 * {@link #attemptToAcquireLock(String, long, int, String)}.
+	 *
+	 * @return
+	 */
+	public long getAttemptToAcquireLockCount() {
+		return attemptToAcquireLockCount.get();
+	}
+
+	/**
+	 * The number of calls to
+	 * {@link #attemptToAcquireLocks(List, List, long, int, String)}.
+	 *
+	 * @return
+	 */
+	public long getAttemptToAcquireLocksCount() {
+		return attemptToAcquireLocksCount.get();
+	}
+
+	/**
+	 * The number of calls to {@link #refreshLockTimeout(String, String, long)}.
+	 *
+	 * @return
+	 */
+	public long getRefreshLockTimeoutCount() {
+		return refreshLockTimeoutCount.get();
+	}
+
+	/**
+	 * The number of calls to {@link #refreshLockTimeouts(Map, long)}.
+	 *
+	 * @return
+	 */
+	public long getRefreshLockTimeoutsCount() {
+		return refreshLockTimeoutsCount.get();
+	}
+
+	/**
+	 * The number of calls to {@link #releaseLock(String, String)}.
+	 *
+	 * @return
+	 */
+	public long getReleaseLockCount() {
+		return releaseLockCount.get();
+	}
+
+	/**
+	 * The number of calls to {@link #getFirstUnexpiredLockContext(String)}.
+	 *
+	 * @return
+	 */
+	public long getFirstUnexpiredLockContextCount() {
+		return getFirstUnexpiredLockContextCount.get();
+	}
+
+	/**
+	 * Reset all of the call counters to zero.
+	 */
+	public void resetCallCounts() {
+		attemptToAcquireLockCount.set(0);
+		attemptToAcquireLocksCount.set(0);
+		refreshLockTimeoutCount.set(0);
+		refreshLockTimeoutsCount.set(0);
+		releaseLockCount.set(0);
+		getFirstUnexpiredLockContextCount.set(0);
+	}
+
+	/**
+	 * Refresh a single lock.
+	 *
+	 * @return False if the lock has expired or was never issued.
+	 */
+	private boolean refresh(String key, String token, long timeoutSec) {
+		Map<String, Lease> leases = locks.get(key);
+		if (leases == null) {
+			return false;
+		}
+		synchronized (leases) {
+			long now = clock.millis();
+			Lease lease = leases.get(token);
+			if (lease == null || lease.expiresAtMS <= now) {
+				return false;
+			}
+			lease.expiresAtMS = now + timeoutSec * 1000L;
+			return true;
+		}
+	}
+
+	private static void removeExpired(Map<String, Lease> leases, long now) {
+		Iterator<Lease> iterator = leases.values().iterator();
+		while (iterator.hasNext()) {
+			if (iterator.next().expiresAtMS <= now) {
+				iterator.remove();
+			}
+		}
+	}
+
+	private static void validateKey(String key) {
+		if (key == null) {
+			throw new IllegalArgumentException("Key cannot be null");
+		}
+	}
+
+	private static void validateToken(String token) {
+		if (token == null) {
+			throw new IllegalArgumentException("Token cannot be null");
+		}
+	}
+
+	private static void validateTimeout(long timeoutSec) {
+		if (timeoutSec < 1) {
+			throw new IllegalArgumentException("TimeoutSec cannot be less than one");
+		}
+	}
+
+	/**
+	 * Wait for the artificial latency.
+	 */
+	private void simulateLatency() {
+		long min = minLatencyMS;
+		long max = maxLatencyMS;
+		if (max <= 0) {
+			return;
+		}
+		long latencyMS = min == max ? min : ThreadLocalRandom.current().nextLong(min, max + 1);
+		try {
+			Thread.sleep(latencyMS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting on the semaphore", e);
+		}
+	}
+
+}
@@ -0,0 +1,434 @@
+package org.sagebionetworks.workers.util.semaphore;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.AdditionalAnswers.delegatesTo;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.sagebionetworks.common.util.progress.ProgressCallback;
+import org.sagebionetworks.common.util.progress.ProgressListener;
+import org.sagebionetworks.database.semaphore.CountingSemaphore;
+import org.sagebionetworks.database.semaphore.LockReleaseFailedException;
+
+@ExtendWith(MockitoExtension.class)
+public class InMemoryCountingSemaphoreTest {
+
+	@Mock
+	private ProgressCallback mockCallback;
+
+	private MutableClock clock;
+	private InMemoryCountingSemaphore semaphore;
+	private String key;
+	private long timeoutSec;
+	private String context;
+
+	@BeforeEach
+	public void before() {
+		clock = new MutableClock(1_000_000L);
+		semaphore = new InMemoryCountingSemaphore(clock);
+		key = "someKey";
+		timeoutSec = 10;
+		context = "some context";
+	}
+
+	@Test
+	public void testConstructorWithNullClock() {
+		String message = assertThrows(IllegalArgumentException.class, () -> {
+			// call under test
+			new InMemoryCountingSemaphore(null);
+		}).getMessage();
+		assertEquals("Clock cannot be null", message);
+	}
+
+	@Test
+	public void testAttemptToAcquireLockWithMaxLockCount() {
+		// call under test
+		Optional<String> first = semaphore.attemptToAcquireLock(key, timeoutSec, 2, context);
+		Optional<String> second = semaphore.attemptToAcquireLock(key, timeoutSec, 2, context);
+		Optional<String> third = semaphore.attemptToAcquireLock(key, timeoutSec, 2, context);
+
+		assertTrue(first.isPresent());
+		assertTrue(second.isPresent());
+		assertEquals(Optional.empty(), third);
+		assertEquals(2, semaphore.getLockCount(key));
+		// other keys are not affected.
+		assertTrue(semaphore.attemptToAcquireLock("otherKey", timeoutSec, 1, context).isPresent());
+	}
+
+	@Test
+	public void testAttemptToAcquireLockAfterExpired() {
+		assertTrue(semaphore.attemptToAcquireLock(key, timeoutSec, 1, context).isPresent());
+		assertEquals(Optional.empty(), semaphore.attemptToAcquireLock(key, timeoutSec, 1, context));
+		clock.add(timeoutSec * 1000);
+
+		// call under test
+		Optional<String> token = semaphore.attemptToAcquireLock(key, timeoutSec, 1, context);
+
+		assertTrue(token.isPresent());
+	}
+
+	@Test
+	public void testAttemptToAcquireLockWithNullKey() {
+		String message = assertThrows(IllegalArgumentException.class, () -> {
+			// call under test
+			semaphore.attemptToAcquireLock(null, timeoutSec, 1, context);
+		}).getMessage();
+		assertEquals("Key cannot be null", message);
+	}
+
+	@Test
+	public void testAttemptToAcquireLockWithMaxLockCountLessThanOne() {
+		String message = assertThrows(IllegalArgumentException.class, () -> {
+			// call under test
+			semaphore.attemptToAcquireLock(key, timeoutSec, 0, context);
+		}).getMessage();
+		assertEquals("MaxLockCount cannot be less than one", message);
+	}
+
+	@Test
+	public void testAttemptToAcquireLocks() {
+		// call under test
+		BulkLockResult result = semaphore.attemptToAcquireLocks(Arrays.asList("w1", "w2"), Arrays.asList("r1", "r2"),
+				timeoutSec, 2, context);
+
+		assertTrue(result.isAcquired());
+		assertEquals(Arrays.asList("r1", "r2"), new ArrayList<>(result.getKeyToToken().keySet()));
+		assertEquals(1, semaphore.getLockCount("r1"));
+		assertEquals(1, semaphore.getLockCount("r2"));
+		assertEquals(0, semaphore.getLockCount("w1"));
+		semaphore.releaseLock("r1", result.getKeyToToken().get("r1"));
+		assertEquals(1, semaphore.getAttemptToAcquireLocksCount());
+	}
+
+	@Test
+	public void testAttemptToAcquireLocksWithBlockingKey() {
+		semaphore.attemptToAcquireLock("w2", timeoutSec, 1, "writer");
+
+		// call under test
+		BulkLockResult result = semaphore.attemptToAcquireLocks(Arrays.asList("w1", "w2"), Arrays.asList("r1", "r2"),
+				timeoutSec, 2, context);
+
+		assertEquals(BulkLockResult.unavailable("w2", "writer"), result);
+		assertEquals(0, semaphore.getLockCount("r1"));
+		assertEquals(0, semaphore.getLockCount("r2"));
+	}
+
+	@Test
+	public void testAttemptToAcquireLocksWithFullKey() {
+		semaphore.attemptToAcquireLock("r2", timeoutSec, 1, "reader");
+
+		// call under test
+		BulkLockResult result = semaphore.attemptToAcquireLocks(Arrays.asList("w1"), Arrays.asList("r1", "r2"),
+				timeoutSec, 1, context);
+
+		assertEquals(BulkLockResult.unavailable("r2", "reader"), result);
+		// all or nothing.
+		assertEquals(0, semaphore.getLockCount("r1"));
+	}
+
+	@Test
+	public void testAttemptToAcquireLocksWithExpiredBlockingKey() {
+		semaphore.attemptToAcquireLock("w1", timeoutSec, 1, "writer");
+		clock.add(timeoutSec * 1000);
+
+		// call under test
+		BulkLockResult result = semaphore.attemptToAcquireLocks(Arrays.asList("w1"), Arrays.asList("r1"), timeoutSec,
+				1, context);
+
+		assertTrue(result.isAcquired());
+	}
+
+	@Test
+	public void testRefreshLockTimeout() {
+		String token = semaphore.attemptToAcquireLock(key, timeoutSec, 1, context).get();
+		clock.add(9_000);
+
+		// call under test
+		semaphore.refreshLockTimeout(key, token, timeoutSec);
+
+		clock.add(9_000);
+		assertEquals(1, semaphore.getLockCount(key));
+		assertEquals(Optional.empty(), semaphore.attemptToAcquireLock(key, timeoutSec, 1, context));
+	}
+
+	@Test
+	public void testRefreshLockTimeoutAfterExpired() {
+		String token = semaphore.attemptToAcquireLock(key, timeoutSec, 1, context).get();
+		clock.add(timeoutSec * 1000);
+
+		assertThrows(LockReleaseFailedException.class, () -> {
+			// call under test
+			semaphore.refreshLockTimeout(key, token, timeoutSec);
+		});
+	}
+
+	@Test
+	public void testRefreshLockTimeouts() {
+		String one = semaphore.attemptToAcquireLock("one", timeoutSec, 1, context).get();
+		String two = semaphore.attemptToAcquireLock("two", timeoutSec, 1, context).get();
+		clock.add(9_000);
+		Map<String, String> keyToToken = new LinkedHashMap<>();
+		keyToToken.put("one", one);
+		keyToToken.put("two", two);
+
+		// call under test
+		semaphore.refreshLockTimeouts(keyToToken, timeoutSec);
+
+		clock.add(9_000);
+		assertEquals(1, semaphore.getLockCount("one"));
+		assertEquals(1, semaphore.getLockCount("two"));
+		assertEquals(1, semaphore.getRefreshLockTimeoutsCount());
+		assertEquals(0, semaphore.getRefreshLockTimeoutCount());
+	}
+
+	@Test
+	public void testRefreshLockTimeoutsWithExpired() {
+		String one = semaphore.attemptToAcquireLock("one", 1, 1, context).get();
+		String two = semaphore.attemptToAcquireLock("two", timeoutSec, 1, context).get();
+		clock.add(1_000);
+		Map<String, String> keyToToken = new LinkedHashMap<>();
+		keyToToken.put("one", one);
+		keyToToken.put("two", two);
+
+		String message = assertThrows(LockReleaseFailedException.class, () -> {
+			// call under test
+			semaphore.refreshLockTimeouts(keyToToken, timeoutSec);
+		}).getMessage();
+
+		assertEquals("Failed to refresh the locks for keys: [one]. The locks have expired or were never issued.", message);
+		// the other lock is still refreshed.
+		clock.add(9_500);
+		assertEquals(1, semaphore.getLockCount("two"));
+	}
+
+	@Test
+	public void testReadLockRefreshCallCount() throws Exception {
+		when(mockCallback.getLockTimeoutSeconds()).thenReturn(timeoutSec);
+		String[] keys = new String[] { "one", "two", "three", "four", "five" };
+		ArgumentCaptor<ProgressListener> listenerCaptor = ArgumentCaptor.forClass(ProgressListener.class);
+		// a semaphore without the bulk operations.
+		CountingSemaphore singleKeySemaphore = mock(CountingSemaphore.class, delegatesTo(semaphore));
+
+		try (ReadLock lock = new WriteReadSemaphoreImpl(singleKeySemaphore, 2)
+				.getReadLock(new ReadLockRequest(mockCallback, context, keys))) {
+			verify(mockCallback).addProgressListener(listenerCaptor.capture());
+			// call under test
+			listenerCaptor.getValue().progressMade();
+		}
+		// one refresh per key.
+		assertEquals(keys.length, semaphore.getRefreshLockTimeoutCount());
+		assertEquals(0, semaphore.getRefreshLockTimeoutsCount());
+
+		semaphore.resetCallCounts();
+		try (ReadLock lock = new WriteReadSemaphoreImpl(semaphore, 2)
+				.getReadLock(new ReadLockRequest(mockCallback, context, keys))) {
+			verify(mockCallback, times(2)).addProgressListener(listenerCaptor.capture());
+			// call under test
+			listenerCaptor.getValue().progressMade();
+		}
+		// a single refresh for all of the keys.
+		assertEquals(0, semaphore.getRefreshLockTimeoutCount());
+		assertEquals(1, semaphore.getRefreshLockTimeoutsCount());
+	}
+
+	@Test
+	public void testReleaseLock() {
+		String token = semaphore.attemptToAcquireLock(key, timeoutSec, 1, context).get();
+
+		// call under test
+		semaphore.releaseLock(key, token);
+
+		assertEquals(0, semaphore.getLockCount(key));
+		assertTrue(semaphore.attemptToAcquireLock(key, timeoutSec, 1, context).isPresent());
+	}
+
+	@Test
+	public void testReleaseLockTwice() {
+		String token = semaphore.attemptToAcquireLock(key, timeoutSec, 1, context).get();
+		semaphore.releaseLock(key, token);
+
+		assertThrows(LockReleaseFailedException.class, () -> {
+			// call under test
+			semaphore.releaseLock(key, token);
+		});
+	}
+
+	@Test
+	public void testReleaseLockAfterExpired() {
+		String token = semaphore.attemptToAcquireLock(key, timeoutSec, 1, context).get();
+		clock.add(timeoutSec * 1000);
+
+		assertThrows(LockReleaseFailedException.class, () -> {
+			// call under test
+			semaphore.releaseLock(key, token);
+		});
+	}
+
+	@Test
+	public void testReleaseAllLocks() {
+		semaphore.attemptToAcquireLock(key, timeoutSec, 2, context);
+		semaphore.attemptToAcquireLock("otherKey", timeoutSec, 2, context);
+
+		// call under test
+		semaphore.releaseAllLocks();
+
+		assertEquals(0, semaphore.getLockCount(key));
+		assertEquals(0, semaphore.getLockCount("otherKey"));
+	}
+
+	@Test
+	public void testGetFirstUnexpiredLockContext() {
+		assertEquals(Optional.empty(), semaphore.getFirstUnexpiredLockContext(key));
+		semaphore.attemptToAcquireLock(key, timeoutSec, 2, "first");
+		clock.add(1_000);
+		semaphore.attemptToAcquireLock(key, timeoutSec, 2, "second");
+
+		// call under test
+		assertEquals(Optional.of("first"), semaphore.getFirstUnexpiredLockContext(key));
+
+		clock.add(9_000);
+		assertEquals(Optional.of("second"), semaphore.getFirstUnexpiredLockContext(key));
+		clock.add(1_000);
+		assertEquals(Optional.empty(), semaphore.getFirstUnexpiredLockContext(key));
+	}
+
+	@Test
+	public void testCallCounts() {
+		String token = semaphore.attemptToAcquireLock(key, timeoutSec, 1, context).get();
+		semaphore.refreshLockTimeout(key, token, timeoutSec);
+		semaphore.refreshLockTimeout(key, token, timeoutSec);
+		semaphore.getFirstUnexpiredLockContext(key);
+		semaphore.releaseLock(key, token);
+
+		assertEquals(1, semaphore.getAttemptToAcquireLockCount());
+		assertEquals(2, semaphore.getRefreshLockTimeoutCount());
+		assertEquals(1, semaphore.getFirstUnexpiredLockContextCount());
+		assertEquals(1, semaphore.getReleaseLockCount());
+
+		// call under test
+		semaphore.resetCallCounts();
+
+		assertEquals(0, semaphore.getAttemptToAcquireLockCount());
+		assertEquals(0, semaphore.getRefreshLockTimeoutCount());
+		assertEquals(0, semaphore.getFirstUnexpiredLockContextCount());
+		assertEquals(0, semaphore.getReleaseLockCount());
+	}
+
+	@Test
+	public void testLatency() {
+		semaphore.setLatencyMS(50, 50);
+		long start = System.currentTimeMillis();
+
+		// call under test
+		semaphore.getFirstUnexpiredLockContext(key);
+
+		assertTrue(System.currentTimeMillis() - start >= 50);
+	}
+
+	@Test
+	public void testLatencyWithNegativeMin() {
+		String message = assertThrows(IllegalArgumentException.class, () -> {
+			// call under test
+			semaphore.setLatencyMS(-1, 10);
+		}).getMessage();
+		assertEquals("MinLatencyMS cannot be negative", message);
+	}
+
+	@Test
+	public void testConcurrentAcquire() throws Exception {
+		int maxLockCount = 3;
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			List<Callable<Boolean>> tasks = new ArrayList<>();
+			for (int i = 0; i < 100; i++) {
+				tasks.add(() -> semaphore.attemptToAcquireLock(key, timeoutSec, maxLockCount, context).isPresent());
+			}
+			int acquired = 0;
+			// call under test
+			for (Future<Boolean> future : executor.invokeAll(tasks)) {
+				if (future.get()) {
+					acquired++;
+				}
+			}
+			assertEquals(maxLockCount, acquired);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testWithWriteReadSemaphore() throws Exception {
+		when(mockCallback.getLockTimeoutSeconds()).thenReturn(timeoutSec);
+		WriteReadSemaphore writeReadSemaphore = new WriteReadSemaphoreImpl(semaphore, 2);
+		try (ReadLock readLock = writeReadSemaphore.getReadLock(new ReadLockRequest(mockCallback, "reader", key))) {
+			try (WriteLock writeLock = writeReadSemaphore.getWriteLock(new WriteLockRequest(mockCallback, "writer", key))) {
+				assertEquals(Optional.of("reader"), writeLock.getExistingReadLockContext());
+				// call under test
+				LockUnavilableException exception = assertThrows(LockUnavilableException.class, () -> {
+					writeReadSemaphore.getReadLock(new ReadLockRequest(mockCallback, "anotherReader", key));
+				});
+				assertEquals(LockType.Write, exception.getLockType());
+			}
+		}
+		assertEquals(0, semaphore.getLockCount(Constants.createReaderLockKey(key)));
+		assertEquals(0, semaphore.getLockCount(Constants.createWriterLockKey(key)));
+		// each read lock was acquired in bulk.
+		assertEquals(2, semaphore.getAttemptToAcquireLocksCount());
+	}
+
+	/**
+	 * A clock that only moves when told to.
+	 */
+	private static class MutableClock extends Clock {
+
+		private volatile long nowMS;
+
+		MutableClock(long nowMS) {
+			this.nowMS = nowMS;
+		}
+
+		void add(long ms) {
+			nowMS += ms;
+		}
+
+		@Override
+		public ZoneId getZone() {
+			return ZoneOffset.UTC;
+		}
+
+		@Override
+		public Clock withZone(ZoneId zone) {
+			return this;
+		}
+
+		@Override
+		public Instant instant() {
+			return Instant.ofEpochMilli(nowMS);
+		}
+	}
+}
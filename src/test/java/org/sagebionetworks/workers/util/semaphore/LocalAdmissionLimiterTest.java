@@ -0,0 +1,108 @@
+package org.sagebionetworks.workers.util.semaphore;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class LocalAdmissionLimiterTest {
+
+	private AtomicLong clock;
+	private LocalAdmissionLimiter limiter;
+
+	@BeforeEach
+	public void before() {
+		clock = new AtomicLong(1_000_000L);
+		limiter = new LocalAdmissionLimiter(500, clock::get);
+	}
+
+	@Test
+	public void testConstructorWithNegativeBackoff() {
+		String message = assertThrows(IllegalArgumentException.class, () -> {
+			// call under test
+			new LocalAdmissionLimiter(-1);
+		}).getMessage();
+		assertEquals("FailureBackoffMS cannot be negative", message);
+	}
+
+	@Test
+	public void testTryAdmitWithNullKey() {
+		String message = assertThrows(IllegalArgumentException.class, () -> {
+			// call under test
+			limiter.tryAdmit(null, 1);
+		}).getMessage();
+		assertEquals("Key cannot be null", message);
+	}
+
+	@Test
+	public void testTryAdmitWithMaxLockCountLessThanOne() {
+		String message = assertThrows(IllegalArgumentException.class, () -> {
+			// call under test
+			limiter.tryAdmit("key", 0);
+		}).getMessage();
+		assertEquals("MaxLockCount cannot be less than one", message);
+	}
+
+	@Test
+	public void testTryAdmitUpToMaxLockCount() {
+		// call under test
+		assertTrue(limiter.tryAdmit("key", 2));
+		assertTrue(limiter.tryAdmit("key", 2));
+		assertFalse(limiter.tryAdmit("key", 2));
+		assertEquals(2, limiter.getAdmittedCount("key"));
+		// other keys have their own permits.
+		assertTrue(limiter.tryAdmit("otherKey", 2));
+
+		limiter.release("key");
+		assertEquals(1, limiter.getAdmittedCount("key"));
+		assertTrue(limiter.tryAdmit("key", 2));
+	}
+
+	@Test
+	public void testReleaseWithoutAdmit() {
+		String message = assertThrows(IllegalStateException.class, () -> {
+			// call under test
+			limiter.release("key");
+		}).getMessage();
+		assertEquals("No runner was admitted for key: key", message);
+	}
+
+	@Test
+	public void testTryAdmitAfterFailure() {
+		assertTrue(limiter.tryAdmit("key", 2));
+		limiter.recordFailure("key");
+		limiter.release("key");
+		// call under test
+		assertFalse(limiter.tryAdmit("key", 2));
+		// other keys are not affected.
+		assertTrue(limiter.tryAdmit("otherKey", 2));
+
+		clock.addAndGet(500);
+		assertTrue(limiter.tryAdmit("key", 2));
+	}
+
+	@Test
+	public void testTryAdmitAfterSuccess() {
+		assertTrue(limiter.tryAdmit("key", 2));
+		limiter.recordFailure("key");
+		// a lock that was acquired in the meantime clears the failure.
+		limiter.recordSuccess("key");
+		// call under test
+		assertTrue(limiter.tryAdmit("key", 2));
+	}
+
+	@Test
+	public void testTryAdmitWithBackoffDisabled() {
+		limiter = new LocalAdmissionLimiter(0, clock::get);
+		assertTrue(limiter.tryAdmit("key", 1));
+		limiter.recordFailure("key");
+		limiter.release("key");
+		// call under test
+		assertTrue(limiter.tryAdmit("key", 1));
+	}
+}
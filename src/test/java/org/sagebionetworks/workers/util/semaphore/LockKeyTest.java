@@ -0,0 +1,95 @@
+package org.sagebionetworks.workers.util.semaphore;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.when;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.sagebionetworks.common.util.progress.ProgressCallback;
+
+@ExtendWith(MockitoExtension.class)
+public class LockKeyTest {
+
+	@Mock
+	private ProgressCallback mockCallback;
+
+	@Test
+	public void testOf() {
+		// call under test
+		LockKey lockKey = LockKey.of("one");
+
+		assertEquals("one", lockKey.getKey());
+		assertEquals(Constants.createReaderLockKey("one"), lockKey.getReaderLockKey());
+		assertEquals(Constants.createWriterLockKey("one"), lockKey.getWriterLockKey());
+		assertEquals(Constants.createWriterIntentLockKey("one"), lockKey.getWriterIntentLockKey());
+		assertEquals("one", lockKey.toString());
+	}
+
+	@Test
+	public void testOfIsInterned() {
+		// call under test
+		LockKey lockKey = LockKey.of("interned");
+
+		assertSame(lockKey, LockKey.of(new String("interned")));
+		assertSame(lockKey.getWriterLockKey(), LockKey.of("interned").getWriterLockKey());
+	}
+
+	@Test
+	public void testOfClearsWhenFull() {
+		LockKey evicted = LockKey.of("evicted");
+
+		// call under test
+		for (int i = 0; i < LockKey.MAX_INTERNED_KEYS; i++) {
+			LockKey.of("unique-" + i);
+		}
+
+		assertTrue(LockKey.getInternedCount() <= LockKey.MAX_INTERNED_KEYS);
+		LockKey reinterned = LockKey.of("evicted");
+		assertNotSame(evicted, reinterned);
+		assertEquals(evicted, reinterned);
+		// the key is interned again.
+		assertSame(reinterned, LockKey.of("evicted"));
+	}
+
+	@Test
+	public void testGetWriterIntentLockKeyIsBuiltOnce() {
+		LockKey lockKey = LockKey.of("intent");
+
+		// call under test
+		String intentKey = lockKey.getWriterIntentLockKey();
+
+		assertEquals(Constants.createWriterIntentLockKey("intent"), intentKey);
+		assertSame(intentKey, lockKey.getWriterIntentLockKey());
+	}
+
+	@Test
+	public void testOfWithNull() {
+		String message = assertThrows(IllegalArgumentException.class, () -> {
+			// call under test
+			LockKey.of(null);
+		}).getMessage();
+		assertEquals("Lock key cannot be null", message);
+	}
+
+	@Test
+	public void testRequestsWithLockKeys() {
+		when(mockCallback.getLockTimeoutSeconds()).thenReturn(31L);
+
+		// call under test
+		ReadLockRequest readRequest = ReadLockRequest.forKeys(mockCallback, "reader", LockKey.of("two"),
+				LockKey.of("one"), LockKey.of("two"));
+		WriteLockRequest writeRequest = WriteLockRequest.forKey(mockCallback, "writer", LockKey.of("one"));
+
+		assertArrayEquals(new String[] { "one", "two" }, readRequest.getLockKeys());
+		assertEquals(new ReadLockRequest(mockCallback, "reader", "one", "two"), readRequest);
+		assertEquals("one", writeRequest.getLockKey());
+		assertEquals(new WriteLockRequest(mockCallback, "writer", "one"), writeRequest);
+	}
+}
@@ -0,0 +1,229 @@
+package org.sagebionetworks.workers.util.semaphore;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.sagebionetworks.database.semaphore.CountingSemaphore;
+import org.sagebionetworks.database.semaphore.LockReleaseFailedException;
+
+@ExtendWith(MockitoExtension.class)
+public class LockLeaseRenewerTest {
+
+	@Mock
+	private CountingSemaphore mockSemaphore;
+	@Mock
+	private BulkCountingSemaphore mockBulkSemaphore;
+
+	private long timeoutSec;
+	private AtomicLong clock;
+	private LockLeaseRenewer renewer;
+
+	@BeforeEach
+	public void before() {
+		timeoutSec = 60;
+		clock = new AtomicLong(1_000_000L);
+		renewer = new LockLeaseRenewer(mockSemaphore, 1000, clock::get);
+	}
+
+	@AfterEach
+	public void after() {
+		renewer.close();
+	}
+
+	@Test
+	public void testConstructorWithNullSemaphore() {
+		String message = assertThrows(IllegalArgumentException.class, () -> {
+			// call under test
+			new LockLeaseRenewer(null, 1000);
+		}).getMessage();
+		assertEquals("CountingSemaphore cannot be null", message);
+	}
+
+	@Test
+	public void testConstructorWithTickIntervalLessThanOne() {
+		String message = assertThrows(IllegalArgumentException.class, () -> {
+			// call under test
+			new LockLeaseRenewer(mockSemaphore, 0);
+		}).getMessage();
+		assertEquals("TickIntervalMS must be at least one", message);
+	}
+
+	@Test
+	public void testTrackWithNullKey() {
+		String message = assertThrows(IllegalArgumentException.class, () -> {
+			// call under test
+			renewer.track(null, "token", timeoutSec);
+		}).getMessage();
+		assertEquals("Key cannot be null", message);
+	}
+
+	@Test
+	public void testTrackWithNullToken() {
+		String message = assertThrows(IllegalArgumentException.class, () -> {
+			// call under test
+			renewer.track("key", null, timeoutSec);
+		}).getMessage();
+		assertEquals("Token cannot be null", message);
+	}
+
+	@Test
+	public void testTrackWithTimeoutTooShort() {
+		String message = assertThrows(IllegalArgumentException.class, () -> {
+			// call under test
+			renewer.track("key", "token", 2);
+		}).getMessage();
+		assertEquals("TimeoutSec must be more than double the tick interval", message);
+	}
+
+	@Test
+	public void testTickWithProgressNotDue() {
+		renewer.track("key", "token", timeoutSec);
+		renewer.progressMade("key", "token");
+		// more than half of the timeout remains.
+		clock.addAndGet(29_000);
+		// call under test
+		renewer.tick();
+		verifyNoMoreInteractions(mockSemaphore);
+	}
+
+	@Test
+	public void testTickWithDueWithoutProgress() {
+		renewer.track("key", "token", timeoutSec);
+		clock.addAndGet(31_000);
+		// call under test
+		renewer.tick();
+		// a holder that stopped making progress must lose its lock.
+		verifyNoMoreInteractions(mockSemaphore);
+	}
+
+	@Test
+	public void testTickWithDueAndProgress() {
+		renewer.track("key", "token", timeoutSec);
+		renewer.track("otherKey", "otherToken", timeoutSec);
+		renewer.progressMade("key", "token");
+		renewer.progressMade("otherKey", "otherToken");
+		clock.addAndGet(31_000);
+		// call under test
+		renewer.tick();
+		verify(mockSemaphore).refreshLockTimeout("key", "token", timeoutSec);
+		verify(mockSemaphore).refreshLockTimeout("otherKey", "otherToken", timeoutSec);
+		// the progress flag is cleared by the refresh.
+		clock.addAndGet(31_000);
+		renewer.tick();
+		verifyNoMoreInteractions(mockSemaphore);
+	}
+
+	@Test
+	public void testTickWithUntracked() {
+		renewer.track("key", "token", timeoutSec);
+		renewer.progressMade("key", "token");
+		renewer.untrack("key", "token");
+		clock.addAndGet(31_000);
+		// call under test
+		renewer.tick();
+		verifyNoMoreInteractions(mockSemaphore);
+		assertEquals(0, renewer.getTrackedCount());
+	}
+
+	@Test
+	public void testTickWithLockLost() {
+		doThrow(new LockReleaseFailedException("expired")).when(mockSemaphore).refreshLockTimeout("key", "token",
+				timeoutSec);
+		renewer.track("key", "token", timeoutSec);
+		renewer.progressMade("key", "token");
+		clock.addAndGet(31_000);
+		// call under test
+		renewer.tick();
+		// a lost lock is no longer tracked.
+		assertEquals(0, renewer.getTrackedCount());
+	}
+
+	@Test
+	public void testTickWithRefreshFailure() {
+		doThrow(new IllegalStateException("database unavailable")).when(mockSemaphore).refreshLockTimeout("key",
+				"token", timeoutSec);
+		renewer.track("key", "token", timeoutSec);
+		renewer.progressMade("key", "token");
+		clock.addAndGet(31_000);
+		// call under test
+		renewer.tick();
+		// the lock is still due so it is retried on the next tick.
+		assertEquals(1, renewer.getTrackedCount());
+		renewer.tick();
+		verify(mockSemaphore, times(2)).refreshLockTimeout("key", "token", timeoutSec);
+	}
+
+	@Test
+	public void testTickWithBulkSemaphore() {
+		renewer = new LockLeaseRenewer(mockBulkSemaphore, 1000, clock::get);
+		renewer.track("one", "tokenOne", timeoutSec);
+		renewer.track("two", "tokenTwo", timeoutSec);
+		// a second token on the same key must go in its own batch.
+		renewer.track("two", "tokenTwoB", timeoutSec);
+		renewer.progressMade("one", "tokenOne");
+		renewer.progressMade("two", "tokenTwo");
+		renewer.progressMade("two", "tokenTwoB");
+		clock.addAndGet(31_000);
+		// call under test
+		renewer.tick();
+		verify(mockBulkSemaphore, times(2)).refreshLockTimeouts(any(), anyLong());
+		verify(mockBulkSemaphore, never()).refreshLockTimeout(any(), any(), anyLong());
+	}
+
+	@Test
+	public void testTickWithBulkSemaphoreAndLockLost() {
+		renewer = new LockLeaseRenewer(mockBulkSemaphore, 1000, clock::get);
+		Map<String, String> keyToToken = new LinkedHashMap<>();
+		keyToToken.put("one", "tokenOne");
+		keyToToken.put("two", "tokenTwo");
+		doThrow(new LockReleaseFailedException("expired")).when(mockBulkSemaphore).refreshLockTimeouts(any(),
+				anyLong());
+		doThrow(new LockReleaseFailedException("expired")).when(mockBulkSemaphore).refreshLockTimeout("two",
+				"tokenTwo", timeoutSec);
+		renewer.track("one", "tokenOne", timeoutSec);
+		renewer.track("two", "tokenTwo", timeoutSec);
+		renewer.progressMade("one", "tokenOne");
+		renewer.progressMade("two", "tokenTwo");
+		clock.addAndGet(31_000);
+		// call under test
+		renewer.tick();
+		verify(mockBulkSemaphore).refreshLockTimeouts(keyToToken, timeoutSec);
+		// each lock is refreshed on its own to find the lost one.
+		verify(mockBulkSemaphore).refreshLockTimeout("one", "tokenOne", timeoutSec);
+		verify(mockBulkSemaphore).refreshLockTimeout("two", "tokenTwo", timeoutSec);
+		assertEquals(1, renewer.getTrackedCount());
+	}
+
+	@Test
+	public void testTickWithInMemorySemaphore() {
+		InMemoryCountingSemaphore semaphore = new InMemoryCountingSemaphore();
+		renewer = new LockLeaseRenewer(semaphore, 1000, clock::get);
+		String token = semaphore.attemptToAcquireLock("key", timeoutSec, 1, "context").get();
+		renewer.track("key", token, timeoutSec);
+		renewer.progressMade("key", token);
+		clock.addAndGet(31_000);
+		// call under test
+		renewer.tick();
+		assertEquals(1, semaphore.getRefreshLockTimeoutsCount());
+		assertEquals(0, semaphore.getRefreshLockTimeoutCount());
+		renewer.untrack("key", token);
+		semaphore.releaseLock("key", token);
+	}
+}
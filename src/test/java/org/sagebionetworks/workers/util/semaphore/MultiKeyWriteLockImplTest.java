@@ -0,0 +1,295 @@
+package org.sagebionetworks.workers.util.semaphore;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.sagebionetworks.common.util.progress.ProgressCallback;
+import org.sagebionetworks.common.util.progress.ProgressListener;
+import org.sagebionetworks.database.semaphore.CountingSemaphore;
+import org.sagebionetworks.database.semaphore.LockReleaseFailedException;
+
+@ExtendWith(MockitoExtension.class)
+public class MultiKeyWriteLockImplTest {
+
+	@Mock
+	private ProgressCallback mockCallback;
+	@Mock
+	private CountingSemaphore mockCountingSemaphore;
+	@Mock
+	private BulkCountingSemaphore mockBulkSemaphore;
+	@Mock
+	private LockLeaseRenewer mockLeaseRenewer;
+	@Captor
+	private ArgumentCaptor<ProgressListener> listenerCaptor;
+	private WriteReadSemaphore semaphore;
+
+	private String[] keys;
+	private long maxTimeout;
+	private String context;
+
+	@BeforeEach
+	public void before() {
+		keys = new String[] { "key1", "key2", "key3" };
+		maxTimeout = 31L;
+		context = "some context";
+		semaphore = new WriteReadSemaphoreImpl(mockCountingSemaphore, 4);
+	}
+
+	@Test
+	public void testConstructorWithNullLockKeys() {
+		when(mockCallback.getLockTimeoutSeconds()).thenReturn(maxTimeout);
+		keys = null;
+		String message = assertThrows(IllegalArgumentException.class, () -> {
+			// call under test
+			new MultiKeyWriteLockRequest(mockCallback, context, keys);
+		}).getMessage();
+		assertEquals("LockKey cannot be null", message);
+	}
+
+	@Test
+	public void testConstructorWithEmptyLockKeys() {
+		when(mockCallback.getLockTimeoutSeconds()).thenReturn(maxTimeout);
+		keys = new String[0];
+		String message = assertThrows(IllegalArgumentException.class, () -> {
+			// call under test
+			new MultiKeyWriteLockRequest(mockCallback, context, keys);
+		}).getMessage();
+		assertEquals("Must include at least one lock key", message);
+	}
+
+	@Test
+	public void testConstructorWithNullInLockKeys() {
+		when(mockCallback.getLockTimeoutSeconds()).thenReturn(maxTimeout);
+		keys = new String[] { "key1", null };
+		String message = assertThrows(IllegalArgumentException.class, () -> {
+			// call under test
+			new MultiKeyWriteLockRequest(mockCallback, context, keys);
+		}).getMessage();
+		assertEquals("Lock key cannot be null", message);
+	}
+
+	@Test
+	public void testConstructorWithUnorderedAndDuplicateLockKeys() {
+		when(mockCallback.getLockTimeoutSeconds()).thenReturn(maxTimeout);
+
+		// call under test
+		MultiKeyWriteLockRequest request = new MultiKeyWriteLockRequest(mockCallback, context, "key3", "key1",
+				"key3", "key2");
+
+		assertArrayEquals(new String[] { "key1", "key2", "key3" }, request.getLockKeys());
+	}
+
+	@Test
+	public void testConstructorWithNullRequest() {
+		String message = assertThrows(IllegalArgumentException.class, () -> {
+			// call under test
+			new MultiKeyWriteLockImpl(mockCountingSemaphore, null);
+		}).getMessage();
+		assertEquals("MultiKeyWriteLockRequest cannot be null", message);
+	}
+
+	@Test
+	public void testAcquireLockAndClose() throws Exception {
+		when(mockCountingSemaphore.attemptToAcquireLock(any(), anyLong(), anyInt(), any()))
+				.thenReturn(Optional.of("tokenOne"), Optional.of("tokenTwo"), Optional.of("tokenThree"));
+		when(mockCallback.getLockTimeoutSeconds()).thenReturn(maxTimeout);
+
+		// call under test
+		try (WriteLock lock = semaphore.getMultiKeyWriteLock(new MultiKeyWriteLockRequest(mockCallback, context, keys))) {
+
+		}
+
+		verify(mockCountingSemaphore).attemptToAcquireLock("key1_WRITER_LOCK", maxTimeout,
+				Constants.WRITER_MAX_LOCKS, context);
+		verify(mockCountingSemaphore).attemptToAcquireLock("key2_WRITER_LOCK", maxTimeout,
+				Constants.WRITER_MAX_LOCKS, context);
+		verify(mockCountingSemaphore).attemptToAcquireLock("key3_WRITER_LOCK", maxTimeout,
+				Constants.WRITER_MAX_LOCKS, context);
+		verify(mockCountingSemaphore, times(3)).attemptToAcquireLock(any(), anyLong(), anyInt(), any());
+
+		// a single listener for all of the keys.
+		verify(mockCallback).addProgressListener(listenerCaptor.capture());
+		ProgressListener listener = listenerCaptor.getValue();
+		// trigger progress made
+		listener.progressMade();
+		verify(mockCountingSemaphore).refreshLockTimeout("key1_WRITER_LOCK", "tokenOne", maxTimeout);
+		verify(mockCountingSemaphore).refreshLockTimeout("key2_WRITER_LOCK", "tokenTwo", maxTimeout);
+		verify(mockCountingSemaphore).refreshLockTimeout("key3_WRITER_LOCK", "tokenThree", maxTimeout);
+
+		// close checks
+		verify(mockCallback).removeProgressListener(listener);
+		verify(mockCountingSemaphore).releaseLock("key1_WRITER_LOCK", "tokenOne");
+		verify(mockCountingSemaphore).releaseLock("key2_WRITER_LOCK", "tokenTwo");
+		verify(mockCountingSemaphore).releaseLock("key3_WRITER_LOCK", "tokenThree");
+		verify(mockCountingSemaphore, times(3)).releaseLock(any(), any());
+	}
+
+	@Test
+	public void testAcquireLockWithFailure() throws Exception {
+		when(mockCountingSemaphore.attemptToAcquireLock(any(), anyLong(), anyInt(), any()))
+				.thenReturn(Optional.of("tokenOne"), Optional.empty());
+		when(mockCountingSemaphore.getFirstUnexpiredLockContext(any())).thenReturn(Optional.of("other writer"));
+		when(mockCallback.getLockTimeoutSeconds()).thenReturn(maxTimeout);
+
+		String message = assertThrows(LockUnavilableException.class, () -> {
+			// call under test
+			semaphore.getMultiKeyWriteLock(new MultiKeyWriteLockRequest(mockCallback, context, keys));
+		}).getMessage();
+
+		assertEquals("Write lock unavailable for key: 'key2'. Current lock holder's context: 'other writer'",
+				message);
+		verify(mockCountingSemaphore).getFirstUnexpiredLockContext("key2_WRITER_LOCK");
+		// no attempt is made on the keys after the unavailable key.
+		verify(mockCountingSemaphore, never()).attemptToAcquireLock("key3_WRITER_LOCK", maxTimeout,
+				Constants.WRITER_MAX_LOCKS, context);
+		verify(mockCallback, never()).addProgressListener(any());
+		// the acquired key is rolled back.
+		verify(mockCountingSemaphore).releaseLock("key1_WRITER_LOCK", "tokenOne");
+		verify(mockCountingSemaphore, times(1)).releaseLock(any(), any());
+	}
+
+	@Test
+	public void testAcquireLockWithBulkSemaphore() throws Exception {
+		Map<String, String> keyToToken = new LinkedHashMap<>();
+		keyToToken.put("key1_WRITER_LOCK", "tokenOne");
+		keyToToken.put("key2_WRITER_LOCK", "tokenTwo");
+		when(mockBulkSemaphore.attemptToAcquireLocks(any(), any(), anyLong(), anyInt(), any()))
+				.thenReturn(BulkLockResult.acquired(keyToToken));
+		when(mockCallback.getLockTimeoutSeconds()).thenReturn(maxTimeout);
+		keys = new String[] { "key2", "key1" };
+		WriteReadSemaphore bulkSemaphore = new WriteReadSemaphoreImpl(mockBulkSemaphore, 4);
+
+		// call under test
+		try (WriteLock lock = bulkSemaphore.getMultiKeyWriteLock(new MultiKeyWriteLockRequest(mockCallback, context, keys))) {
+			verify(mockCallback).addProgressListener(listenerCaptor.capture());
+			listenerCaptor.getValue().progressMade();
+		}
+
+		verify(mockBulkSemaphore).attemptToAcquireLocks(Collections.emptyList(),
+				Arrays.asList("key1_WRITER_LOCK", "key2_WRITER_LOCK"), maxTimeout, Constants.WRITER_MAX_LOCKS,
+				context);
+		// one refresh call for all of the keys.
+		verify(mockBulkSemaphore).refreshLockTimeouts(keyToToken, maxTimeout);
+		verify(mockBulkSemaphore, never()).refreshLockTimeout(any(), any(), anyLong());
+		verify(mockBulkSemaphore).releaseLock("key1_WRITER_LOCK", "tokenOne");
+		verify(mockBulkSemaphore).releaseLock("key2_WRITER_LOCK", "tokenTwo");
+	}
+
+	@Test
+	public void testAcquireLockWithBulkSemaphoreAndUnavailable() throws Exception {
+		when(mockBulkSemaphore.attemptToAcquireLocks(any(), any(), anyLong(), anyInt(), any()))
+				.thenReturn(BulkLockResult.unavailable("key2_WRITER_LOCK", "other writer"));
+		when(mockCallback.getLockTimeoutSeconds()).thenReturn(maxTimeout);
+		WriteReadSemaphore bulkSemaphore = new WriteReadSemaphoreImpl(mockBulkSemaphore, 4);
+
+		LockUnavilableException exception = assertThrows(LockUnavilableException.class, () -> {
+			// call under test
+			bulkSemaphore.getMultiKeyWriteLock(new MultiKeyWriteLockRequest(mockCallback, context, keys));
+		});
+
+		assertEquals(LockType.Write, exception.getLockType());
+		assertEquals("key2", exception.getLockKey());
+		verify(mockBulkSemaphore, never()).releaseLock(any(), any());
+	}
+
+	@Test
+	public void testAcquireLockWithLeaseRenewer() throws Exception {
+		when(mockCountingSemaphore.attemptToAcquireLock(any(), anyLong(), anyInt(), any()))
+				.thenReturn(Optional.of("tokenOne"), Optional.of("tokenTwo"));
+		when(mockCallback.getLockTimeoutSeconds()).thenReturn(maxTimeout);
+		keys = new String[] { "key1", "key2" };
+		WriteReadSemaphore renewedSemaphore = new WriteReadSemaphoreImpl(mockCountingSemaphore, 4, mockLeaseRenewer);
+
+		// call under test
+		try (WriteLock lock = renewedSemaphore
+				.getMultiKeyWriteLock(new MultiKeyWriteLockRequest(mockCallback, context, keys))) {
+			verify(mockCallback).addProgressListener(listenerCaptor.capture());
+			listenerCaptor.getValue().progressMade();
+		}
+
+		verify(mockLeaseRenewer).track("key1_WRITER_LOCK", "tokenOne", maxTimeout);
+		verify(mockLeaseRenewer).track("key2_WRITER_LOCK", "tokenTwo", maxTimeout);
+		verify(mockLeaseRenewer).progressMade("key1_WRITER_LOCK", "tokenOne");
+		verify(mockLeaseRenewer).progressMade("key2_WRITER_LOCK", "tokenTwo");
+		verify(mockCountingSemaphore, never()).refreshLockTimeout(any(), any(), anyLong());
+		verify(mockLeaseRenewer).untrack("key1_WRITER_LOCK", "tokenOne");
+		verify(mockLeaseRenewer).untrack("key2_WRITER_LOCK", "tokenTwo");
+	}
+
+	@Test
+	public void testGetExistingReadLockContext() throws Exception {
+		when(mockCountingSemaphore.attemptToAcquireLock(any(), anyLong(), anyInt(), any()))
+				.thenReturn(Optional.of("tokenOne"), Optional.of("tokenTwo"), Optional.of("tokenThree"));
+		when(mockCountingSemaphore.getFirstUnexpiredLockContext(any())).thenReturn(Optional.empty(),
+				Optional.of("reader of two"));
+		when(mockCallback.getLockTimeoutSeconds()).thenReturn(maxTimeout);
+
+		try (WriteLock lock = semaphore.getMultiKeyWriteLock(new MultiKeyWriteLockRequest(mockCallback, context, keys))) {
+			// call under test
+			assertEquals(Optional.of("reader of two"), lock.getExistingReadLockContext());
+		}
+
+		verify(mockCountingSemaphore).getFirstUnexpiredLockContext("key1_READER_LOCK");
+		verify(mockCountingSemaphore).getFirstUnexpiredLockContext("key2_READER_LOCK");
+		verify(mockCountingSemaphore, never()).getFirstUnexpiredLockContext("key3_READER_LOCK");
+	}
+
+	@Test
+	public void testGetExistingReadLockContextWithNoReaders() throws Exception {
+		when(mockCountingSemaphore.attemptToAcquireLock(any(), anyLong(), anyInt(), any()))
+				.thenReturn(Optional.of("tokenOne"), Optional.of("tokenTwo"), Optional.of("tokenThree"));
+		when(mockCountingSemaphore.getFirstUnexpiredLockContext(any())).thenReturn(Optional.empty());
+		when(mockCallback.getLockTimeoutSeconds()).thenReturn(maxTimeout);
+
+		try (WriteLock lock = semaphore.getMultiKeyWriteLock(new MultiKeyWriteLockRequest(mockCallback, context, keys))) {
+			// call under test
+			assertEquals(Optional.empty(), lock.getExistingReadLockContext());
+		}
+
+		verify(mockCountingSemaphore, times(3)).getFirstUnexpiredLockContext(any());
+	}
+
+	@Test
+	public void testCloseWithReleaseException() throws Exception {
+		when(mockCountingSemaphore.attemptToAcquireLock(any(), anyLong(), anyInt(), any()))
+				.thenReturn(Optional.of("tokenOne"), Optional.of("tokenTwo"), Optional.of("tokenThree"));
+		when(mockCallback.getLockTimeoutSeconds()).thenReturn(maxTimeout);
+		LockReleaseFailedException releaseException = new LockReleaseFailedException("failed to release");
+		doThrow(releaseException).when(mockCountingSemaphore).releaseLock("key1_WRITER_LOCK", "tokenOne");
+
+		IOException exception = assertThrows(IOException.class, () -> {
+			// call under test
+			try (WriteLock lock = semaphore.getMultiKeyWriteLock(new MultiKeyWriteLockRequest(mockCallback, context, keys))) {
+
+			}
+		});
+
+		assertEquals(releaseException, exception.getCause());
+		// a failed release does not stop the other releases.
+		verify(mockCountingSemaphore).releaseLock("key2_WRITER_LOCK", "tokenTwo");
+		verify(mockCountingSemaphore).releaseLock("key3_WRITER_LOCK", "tokenThree");
+	}
+}
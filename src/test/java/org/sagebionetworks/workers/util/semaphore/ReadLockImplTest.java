@@ -1,5 +1,6 @@
 package org.sagebionetworks.workers.util.semaphore;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
@@ -13,8 +14,14 @@ import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.*;
 
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -34,6 +41,10 @@ public class ReadLockImplTest {
 	private ProgressCallback mockCallback;
 	@Mock
 	private CountingSemaphore mockCountingSemaphore;
+	@Mock
+	private BulkCountingSemaphore mockBulkSemaphore;
+	@Mock
+	private LockLeaseRenewer mockLeaseRenewer;
 	@Captor
 	private ArgumentCaptor<ProgressListener> listenerCaptor;
 	private WriteReadSemaphore semaphore;
@@ -42,6 +53,7 @@ public class ReadLockImplTest {
 	private String[] keys;
 	private long maxTimeout;
 	private String context;
+	private ExecutorService keyExecutor;
 
 	@BeforeEach
 	public void before() {
@@ -52,6 +64,13 @@ public class ReadLockImplTest {
 		semaphore = new WriteReadSemaphoreImpl(mockCountingSemaphore, maxNumberOfReaders);
 	}
 
+	@AfterEach
+	public void after() {
+		if (keyExecutor != null) {
+			keyExecutor.shutdownNow();
+		}
+	}
+
 	@Test
 	public void testConstructorWithNullCallback() {
 		mockCallback = null;
@@ -116,13 +135,27 @@ public class ReadLockImplTest {
 		assertEquals("Lock key cannot be null", message);
 	}
 
+	@Test
+	public void testConstructorWithUnorderedAndDuplicateLockKeys() {
+		when(mockCallback.getLockTimeoutSeconds()).thenReturn(maxTimeout);
+		keys = new String[] { "two", "one", "two", "three" };
+
+		// call under test
+		ReadLockRequest request = new ReadLockRequest(mockCallback, context, keys);
+
+		assertArrayEquals(new String[] { "one", "three", "two" }, request.getLockKeys());
+		// the same keys in any order make the same request.
+		assertEquals(new ReadLockRequest(mockCallback, context, "three", "one", "two"), request);
+	}
+
 	@Test
 	public void testConstructorWithNullSemaphore() {
 		when(mockCallback.getLockTimeoutSeconds()).thenReturn(maxTimeout);
 		mockCountingSemaphore = null;
 		String message = assertThrows(IllegalArgumentException.class, () -> {
 			// call under test
-			new ReadLockImpl(mockCountingSemaphore, maxNumberOfReaders, new ReadLockRequest(mockCallback, context, keys));
+			new ReadLockImpl(mockCountingSemaphore, maxNumberOfReaders, new ReadLockRequest(mockCallback, context, keys),
+					null, FairnessPolicy.ReaderPreference, null, null, false);
 		}).getMessage();
 		assertEquals("CountingSemaphore cannot be null", message);
 	}
@@ -131,7 +164,8 @@ public class ReadLockImplTest {
 	public void testConstructorWithNullRequest() {
 		String message = assertThrows(IllegalArgumentException.class, () -> {
 			// call under test
-			new ReadLockImpl(mockCountingSemaphore, maxNumberOfReaders, null);
+			new ReadLockImpl(mockCountingSemaphore, maxNumberOfReaders, null, null, FairnessPolicy.ReaderPreference,
+					null, null, false);
 		}).getMessage();
 		assertEquals("ReadLockRequest cannot be null", message);
 	}
@@ -139,8 +173,8 @@ public class ReadLockImplTest {
 	@Test
 	public void testAcqurieLockAndClose() throws LockUnavilableException, Exception {
 		when(mockCountingSemaphore.attemptToAcquireLock(any(), anyLong(), anyInt(), any())).thenReturn(
-				Optional.of("tokenOne"), Optional.of("tokenTwo"),
-				Optional.of("tokenThree"));
+				Optional.of("tokenOne"), Optional.of("tokenThree"),
+				Optional.of("tokenTwo"));
 		when(mockCountingSemaphore.getFirstUnexpiredLockContext(any())).thenReturn(Optional.empty());
 		when(mockCallback.getLockTimeoutSeconds()).thenReturn(maxTimeout);
 
@@ -190,11 +224,11 @@ public class ReadLockImplTest {
 			}
 		}).getMessage();
 
-		assertEquals("Write lock unavailable for key: 'two'. Current lock holder's context: 'some write context'", message);
+		assertEquals("Write lock unavailable for key: 'three'. Current lock holder's context: 'some write context'", message);
 
 		verify(mockCountingSemaphore).getFirstUnexpiredLockContext("one_WRITER_LOCK");
-		verify(mockCountingSemaphore).getFirstUnexpiredLockContext("two_WRITER_LOCK");
-		verify(mockCountingSemaphore, never()).getFirstUnexpiredLockContext("three_WRITER_LOCK");
+		verify(mockCountingSemaphore).getFirstUnexpiredLockContext("three_WRITER_LOCK");
+		verify(mockCountingSemaphore, never()).getFirstUnexpiredLockContext("two_WRITER_LOCK");
 		verify(mockCountingSemaphore, times(2)).getFirstUnexpiredLockContext(any());
 
 		verifyNoMoreInteractions(mockCountingSemaphore);
@@ -206,7 +240,7 @@ public class ReadLockImplTest {
 	public void testAcqurieLockAndCloseWithFailedReadLock() throws IOException {
 		// null signals a failed lock attempt.
 		when(mockCountingSemaphore.attemptToAcquireLock(any(), anyLong(), anyInt(), any())).thenReturn(
-				Optional.of("tokenOne"), Optional.of("tokenTwo"),
+				Optional.of("tokenOne"), Optional.of("tokenThree"),
 				Optional.empty());
 		when(mockCountingSemaphore.getFirstUnexpiredLockContext(any())).thenReturn(
 				Optional.empty(), Optional.empty(), Optional.empty(), Optional.of("locked by someone else"));
@@ -220,12 +254,12 @@ public class ReadLockImplTest {
 			}
 		}).getMessage();
 		
-		assertEquals("Read lock unavailable for key: 'three'. Current lock holder's context: 'locked by someone else'", message);
+		assertEquals("Read lock unavailable for key: 'two'. Current lock holder's context: 'locked by someone else'", message);
 
 		verify(mockCountingSemaphore).getFirstUnexpiredLockContext("one_WRITER_LOCK");
 		verify(mockCountingSemaphore).getFirstUnexpiredLockContext("two_WRITER_LOCK");
 		verify(mockCountingSemaphore).getFirstUnexpiredLockContext("three_WRITER_LOCK");
-		verify(mockCountingSemaphore).getFirstUnexpiredLockContext("three_READER_LOCK");
+		verify(mockCountingSemaphore).getFirstUnexpiredLockContext("two_READER_LOCK");
 		verify(mockCountingSemaphore, times(4)).getFirstUnexpiredLockContext(any());
 
 		verify(mockCountingSemaphore).attemptToAcquireLock("one_READER_LOCK", maxTimeout, maxNumberOfReaders, context);
@@ -239,15 +273,15 @@ public class ReadLockImplTest {
 		verify(mockCallback, never()).removeProgressListener(any());
 		// the first two locks must be released even though the third lock attempt failed.
 		verify(mockCountingSemaphore).releaseLock("one_READER_LOCK", "tokenOne");
-		verify(mockCountingSemaphore).releaseLock("two_READER_LOCK", "tokenTwo");
+		verify(mockCountingSemaphore).releaseLock("three_READER_LOCK", "tokenThree");
 		verify(mockCountingSemaphore, times(2)).releaseLock(any(), any());
 	}
 	
 	@Test
 	public void testAcqurieLockAndCloseWithReleaseFailed() throws IOException {
 		when(mockCountingSemaphore.attemptToAcquireLock(any(), anyLong(), anyInt(), any())).thenReturn(
-				Optional.of("tokenOne"), Optional.of("tokenTwo"),
-				Optional.of("tokenThree"));
+				Optional.of("tokenOne"), Optional.of("tokenThree"),
+				Optional.of("tokenTwo"));
 		when(mockCountingSemaphore.getFirstUnexpiredLockContext(any())).thenReturn(Optional.empty());
 		when(mockCallback.getLockTimeoutSeconds()).thenReturn(maxTimeout);
 		// release failure on the first lock should still release the other locks.
@@ -320,4 +354,329 @@ public class ReadLockImplTest {
 		verifyNoMoreInteractions(mockCallback);
 	}
 
+	@Test
+	public void testAcquireLockWithBulkSemaphore() throws Exception {
+		Map<String, String> keyToToken = new LinkedHashMap<>();
+		keyToToken.put("one_READER_LOCK", "tokenOne");
+		keyToToken.put("two_READER_LOCK", "tokenTwo");
+		keyToToken.put("three_READER_LOCK", "tokenThree");
+		when(mockBulkSemaphore.attemptToAcquireLocks(any(), any(), anyLong(), anyInt(), any()))
+				.thenReturn(BulkLockResult.acquired(keyToToken));
+		when(mockCallback.getLockTimeoutSeconds()).thenReturn(maxTimeout);
+		semaphore = new WriteReadSemaphoreImpl(mockBulkSemaphore, maxNumberOfReaders);
+
+		// call under test
+		try (ReadLock lock = semaphore.getReadLock(new ReadLockRequest(mockCallback, context, keys))) {
+
+		}
+
+		// a single call checks for writers and acquires every read lock.
+		verify(mockBulkSemaphore).attemptToAcquireLocks(
+				Arrays.asList("one_WRITER_LOCK", "three_WRITER_LOCK", "two_WRITER_LOCK"),
+				Arrays.asList("one_READER_LOCK", "three_READER_LOCK", "two_READER_LOCK"), maxTimeout,
+				maxNumberOfReaders, context);
+		verify(mockBulkSemaphore, never()).getFirstUnexpiredLockContext(any());
+		verify(mockBulkSemaphore, never()).attemptToAcquireLock(any(), anyLong(), anyInt(), any());
+
+		verify(mockCallback).addProgressListener(listenerCaptor.capture());
+		ProgressListener listener = listenerCaptor.getValue();
+		// trigger progress made
+		listener.progressMade();
+		// a single call refreshes every read lock.
+		verify(mockBulkSemaphore).refreshLockTimeouts(keyToToken, maxTimeout);
+		verify(mockBulkSemaphore, never()).refreshLockTimeout(any(), any(), anyLong());
+
+		// close checks
+		verify(mockCallback).removeProgressListener(listener);
+		verify(mockBulkSemaphore).releaseLock("one_READER_LOCK", "tokenOne");
+		verify(mockBulkSemaphore).releaseLock("two_READER_LOCK", "tokenTwo");
+		verify(mockBulkSemaphore).releaseLock("three_READER_LOCK", "tokenThree");
+		verify(mockBulkSemaphore, times(3)).releaseLock(any(), any());
+	}
+
+	@Test
+	public void testAcquireLockWithBulkSemaphoreAndWriteLock() {
+		when(mockBulkSemaphore.attemptToAcquireLocks(any(), any(), anyLong(), anyInt(), any()))
+				.thenReturn(BulkLockResult.unavailable("two_WRITER_LOCK", "some write context"));
+		when(mockCallback.getLockTimeoutSeconds()).thenReturn(maxTimeout);
+		semaphore = new WriteReadSemaphoreImpl(mockBulkSemaphore, maxNumberOfReaders);
+
+		LockUnavilableException exception = assertThrows(LockUnavilableException.class, () -> {
+			// call under test
+			try (ReadLock lock = semaphore.getReadLock(new ReadLockRequest(mockCallback, context, keys))) {
+
+			}
+		});
+
+		assertEquals("Write lock unavailable for key: 'two'. Current lock holder's context: 'some write context'",
+				exception.getMessage());
+		verify(mockBulkSemaphore).attemptToAcquireLocks(any(), any(), anyLong(), anyInt(), any());
+		// nothing was acquired so nothing is released.
+		verifyNoMoreInteractions(mockBulkSemaphore);
+		verify(mockCallback, never()).addProgressListener(any());
+	}
+
+	@Test
+	public void testAcquireLockWithBulkSemaphoreAndReadLockUnavailable() {
+		when(mockBulkSemaphore.attemptToAcquireLocks(any(), any(), anyLong(), anyInt(), any()))
+				.thenReturn(BulkLockResult.unavailable("three_READER_LOCK", "locked by someone else"));
+		when(mockCallback.getLockTimeoutSeconds()).thenReturn(maxTimeout);
+		semaphore = new WriteReadSemaphoreImpl(mockBulkSemaphore, maxNumberOfReaders);
+
+		LockUnavilableException exception = assertThrows(LockUnavilableException.class, () -> {
+			// call under test
+			try (ReadLock lock = semaphore.getReadLock(new ReadLockRequest(mockCallback, context, keys))) {
+
+			}
+		});
+
+		assertEquals(LockType.Read, exception.getLockType());
+		assertEquals("three", exception.getLockKey());
+		assertEquals(Optional.of("locked by someone else"), exception.getLockHoldersContext());
+		verify(mockBulkSemaphore).attemptToAcquireLocks(any(), any(), anyLong(), anyInt(), any());
+		verifyNoMoreInteractions(mockBulkSemaphore);
+	}
+
+	@Test
+	public void testAcquireLockWithLeaseRenewer() throws Exception {
+		Map<String, String> keyToToken = new LinkedHashMap<>();
+		keyToToken.put("one_READER_LOCK", "tokenOne");
+		keyToToken.put("two_READER_LOCK", "tokenTwo");
+		keyToToken.put("three_READER_LOCK", "tokenThree");
+		when(mockBulkSemaphore.attemptToAcquireLocks(any(), any(), anyLong(), anyInt(), any()))
+				.thenReturn(BulkLockResult.acquired(keyToToken));
+		when(mockCallback.getLockTimeoutSeconds()).thenReturn(maxTimeout);
+		semaphore = new WriteReadSemaphoreImpl(mockBulkSemaphore, maxNumberOfReaders, mockLeaseRenewer);
+
+		// call under test
+		try (ReadLock lock = semaphore.getReadLock(new ReadLockRequest(mockCallback, context, keys))) {
+			verify(mockLeaseRenewer).track("one_READER_LOCK", "tokenOne", maxTimeout);
+			verify(mockLeaseRenewer).track("two_READER_LOCK", "tokenTwo", maxTimeout);
+			verify(mockLeaseRenewer).track("three_READER_LOCK", "tokenThree", maxTimeout);
+			verify(mockLeaseRenewer, never()).untrack(any(), any());
+		}
+
+		verify(mockCallback).addProgressListener(listenerCaptor.capture());
+		ProgressListener listener = listenerCaptor.getValue();
+		// trigger progress made
+		listener.progressMade();
+		// progress only marks the locks, the renewer refreshes them.
+		verify(mockLeaseRenewer).progressMade("one_READER_LOCK", "tokenOne");
+		verify(mockLeaseRenewer).progressMade("two_READER_LOCK", "tokenTwo");
+		verify(mockLeaseRenewer).progressMade("three_READER_LOCK", "tokenThree");
+		verify(mockBulkSemaphore, never()).refreshLockTimeouts(any(), anyLong());
+		verify(mockBulkSemaphore, never()).refreshLockTimeout(any(), any(), anyLong());
+
+		// close checks
+		verify(mockCallback).removeProgressListener(listener);
+		verify(mockLeaseRenewer).untrack("one_READER_LOCK", "tokenOne");
+		verify(mockLeaseRenewer).untrack("two_READER_LOCK", "tokenTwo");
+		verify(mockLeaseRenewer).untrack("three_READER_LOCK", "tokenThree");
+		verify(mockBulkSemaphore, times(3)).releaseLock(any(), any());
+	}
+
+	@Test
+	public void testAcquireLockWithWriterPreferenceAndWaitingWriter() {
+		when(mockCallback.getLockTimeoutSeconds()).thenReturn(maxTimeout);
+		when(mockCountingSemaphore.getFirstUnexpiredLockContext(any())).thenReturn(Optional.empty());
+		when(mockCountingSemaphore.getFirstUnexpiredLockContext("two_WRITER_INTENT")).thenReturn(Optional.of("waiting writer"));
+		((WriteReadSemaphoreImpl) semaphore).setFairnessPolicy(FairnessPolicy.WriterPreference);
+
+		LockUnavilableException exception = assertThrows(LockUnavilableException.class, () -> {
+			// call under test
+			try (ReadLock lock = semaphore.getReadLock(new ReadLockRequest(mockCallback, context, keys))) {
+
+			}
+		});
+
+		assertEquals(LockType.Write, exception.getLockType());
+		assertEquals("two", exception.getLockKey());
+		assertEquals(Optional.of("waiting writer"), exception.getLockHoldersContext());
+		// no read lock is acquired while a writer is waiting.
+		verify(mockCountingSemaphore, never()).attemptToAcquireLock(any(), anyLong(), anyInt(), any());
+	}
+
+	@Test
+	public void testAcquireLockWithWriterPreferenceAndLateWriter() throws Exception {
+		when(mockCallback.getLockTimeoutSeconds()).thenReturn(maxTimeout);
+		when(mockCountingSemaphore.attemptToAcquireLock(any(), anyLong(), anyInt(), any())).thenReturn(
+				Optional.of("tokenOne"), Optional.of("tokenThree"), Optional.of("tokenTwo"));
+		when(mockCountingSemaphore.getFirstUnexpiredLockContext(any())).thenReturn(Optional.empty());
+		// a writer acquires its lock while the read locks are acquired.
+		when(mockCountingSemaphore.getFirstUnexpiredLockContext("three_WRITER_LOCK")).thenReturn(Optional.empty(),
+				Optional.of("late writer"));
+		((WriteReadSemaphoreImpl) semaphore).setFairnessPolicy(FairnessPolicy.WriterPreference);
+
+		LockUnavilableException exception = assertThrows(LockUnavilableException.class, () -> {
+			// call under test
+			try (ReadLock lock = semaphore.getReadLock(new ReadLockRequest(mockCallback, context, keys))) {
+
+			}
+		});
+
+		assertEquals("Write lock unavailable for key: 'three'. Current lock holder's context: 'late writer'",
+				exception.getMessage());
+		verify(mockCountingSemaphore, times(2)).getFirstUnexpiredLockContext("three_WRITER_LOCK");
+		// the reader backs off so the writer does not wait for it.
+		verify(mockCountingSemaphore).releaseLock("one_READER_LOCK", "tokenOne");
+		verify(mockCountingSemaphore).releaseLock("two_READER_LOCK", "tokenTwo");
+		verify(mockCountingSemaphore).releaseLock("three_READER_LOCK", "tokenThree");
+		verify(mockCallback, never()).addProgressListener(any());
+	}
+
+	@Test
+	public void testAcquireLockWithWriterPreferenceAndLateWaitingWriter() throws Exception {
+		when(mockCallback.getLockTimeoutSeconds()).thenReturn(maxTimeout);
+		when(mockCountingSemaphore.attemptToAcquireLock(any(), anyLong(), anyInt(), any())).thenReturn(
+				Optional.of("tokenOne"), Optional.of("tokenThree"), Optional.of("tokenTwo"));
+		when(mockCountingSemaphore.getFirstUnexpiredLockContext(any())).thenReturn(Optional.empty());
+		// a writer starts waiting while the read locks are acquired.
+		when(mockCountingSemaphore.getFirstUnexpiredLockContext("two_WRITER_INTENT")).thenReturn(Optional.empty(),
+				Optional.of("waiting writer"));
+		((WriteReadSemaphoreImpl) semaphore).setFairnessPolicy(FairnessPolicy.WriterPreference);
+
+		LockUnavilableException exception = assertThrows(LockUnavilableException.class, () -> {
+			// call under test
+			try (ReadLock lock = semaphore.getReadLock(new ReadLockRequest(mockCallback, context, keys))) {
+
+			}
+		});
+
+		assertEquals(LockType.Write, exception.getLockType());
+		assertEquals("two", exception.getLockKey());
+		assertEquals(Optional.of("waiting writer"), exception.getLockHoldersContext());
+		verify(mockCountingSemaphore, times(2)).getFirstUnexpiredLockContext("two_WRITER_INTENT");
+		// the reader backs off so the waiting writer does not wait for it.
+		verify(mockCountingSemaphore).releaseLock("one_READER_LOCK", "tokenOne");
+		verify(mockCountingSemaphore).releaseLock("two_READER_LOCK", "tokenTwo");
+		verify(mockCountingSemaphore).releaseLock("three_READER_LOCK", "tokenThree");
+		verify(mockCallback, never()).addProgressListener(any());
+	}
+
+	@Test
+	public void testAcquireLockWithBulkSemaphoreAndWriterPreference() throws Exception {
+		when(mockBulkSemaphore.attemptToAcquireLocks(any(), any(), anyLong(), anyInt(), any()))
+				.thenReturn(BulkLockResult.unavailable("one_WRITER_INTENT", "waiting writer"));
+		when(mockCallback.getLockTimeoutSeconds()).thenReturn(maxTimeout);
+		keys = new String[] { "one" };
+		WriteReadSemaphoreImpl bulkSemaphore = new WriteReadSemaphoreImpl(mockBulkSemaphore, maxNumberOfReaders);
+		bulkSemaphore.setFairnessPolicy(FairnessPolicy.WriterPreference);
+
+		LockUnavilableException exception = assertThrows(LockUnavilableException.class, () -> {
+			// call under test
+			try (ReadLock lock = bulkSemaphore.getReadLock(new ReadLockRequest(mockCallback, context, keys))) {
+
+			}
+		});
+
+		assertEquals(LockType.Write, exception.getLockType());
+		assertEquals("one", exception.getLockKey());
+		// waiting writers are checked with the held write locks.
+		verify(mockBulkSemaphore).attemptToAcquireLocks(Arrays.asList("one_WRITER_LOCK", "one_WRITER_INTENT"),
+				Arrays.asList("one_READER_LOCK"), maxTimeout, maxNumberOfReaders, context);
+	}
+
+	@Test
+	public void testAcquireLockAndCloseWithKeyExecutor() throws Exception {
+		keyExecutor = Executors.newFixedThreadPool(3);
+		WriteReadSemaphoreImpl parallelSemaphore = new WriteReadSemaphoreImpl(mockCountingSemaphore, maxNumberOfReaders);
+		parallelSemaphore.setKeyExecutor(keyExecutor);
+		when(mockCountingSemaphore.attemptToAcquireLock("one_READER_LOCK", maxTimeout, maxNumberOfReaders, context))
+				.thenReturn(Optional.of("tokenOne"));
+		when(mockCountingSemaphore.attemptToAcquireLock("two_READER_LOCK", maxTimeout, maxNumberOfReaders, context))
+				.thenReturn(Optional.of("tokenTwo"));
+		when(mockCountingSemaphore.attemptToAcquireLock("three_READER_LOCK", maxTimeout, maxNumberOfReaders, context))
+				.thenReturn(Optional.of("tokenThree"));
+		when(mockCountingSemaphore.getFirstUnexpiredLockContext(any())).thenReturn(Optional.empty());
+		when(mockCallback.getLockTimeoutSeconds()).thenReturn(maxTimeout);
+
+		// call under test
+		try (ReadLock lock = parallelSemaphore.getReadLock(new ReadLockRequest(mockCallback, context, keys))) {
+
+		}
+
+		verify(mockCountingSemaphore).getFirstUnexpiredLockContext("one_WRITER_LOCK");
+		verify(mockCountingSemaphore).getFirstUnexpiredLockContext("two_WRITER_LOCK");
+		verify(mockCountingSemaphore).getFirstUnexpiredLockContext("three_WRITER_LOCK");
+		verify(mockCountingSemaphore, times(3)).getFirstUnexpiredLockContext(any());
+		verify(mockCountingSemaphore, times(3)).attemptToAcquireLock(any(), anyLong(), anyInt(), any());
+
+		verify(mockCallback).addProgressListener(listenerCaptor.capture());
+		ProgressListener listener = listenerCaptor.getValue();
+		// trigger progress made
+		listener.progressMade();
+		verify(mockCountingSemaphore).refreshLockTimeout("one_READER_LOCK", "tokenOne", maxTimeout);
+		verify(mockCountingSemaphore).refreshLockTimeout("two_READER_LOCK", "tokenTwo", maxTimeout);
+		verify(mockCountingSemaphore).refreshLockTimeout("three_READER_LOCK", "tokenThree", maxTimeout);
+		verify(mockCountingSemaphore, times(3)).refreshLockTimeout(any(), any(), anyLong());
+
+		// close checks
+		verify(mockCallback).removeProgressListener(listener);
+		verify(mockCountingSemaphore).releaseLock("one_READER_LOCK", "tokenOne");
+		verify(mockCountingSemaphore).releaseLock("two_READER_LOCK", "tokenTwo");
+		verify(mockCountingSemaphore).releaseLock("three_READER_LOCK", "tokenThree");
+		verify(mockCountingSemaphore, times(3)).releaseLock(any(), any());
+	}
+
+	@Test
+	public void testAcquireLockWithKeyExecutorAndFailedReadLock() {
+		keyExecutor = Executors.newFixedThreadPool(3);
+		WriteReadSemaphoreImpl parallelSemaphore = new WriteReadSemaphoreImpl(mockCountingSemaphore, maxNumberOfReaders);
+		parallelSemaphore.setKeyExecutor(keyExecutor);
+		when(mockCountingSemaphore.attemptToAcquireLock("one_READER_LOCK", maxTimeout, maxNumberOfReaders, context))
+				.thenReturn(Optional.of("tokenOne"));
+		when(mockCountingSemaphore.attemptToAcquireLock("two_READER_LOCK", maxTimeout, maxNumberOfReaders, context))
+				.thenReturn(Optional.empty());
+		when(mockCountingSemaphore.attemptToAcquireLock("three_READER_LOCK", maxTimeout, maxNumberOfReaders, context))
+				.thenReturn(Optional.of("tokenThree"));
+		when(mockCountingSemaphore.getFirstUnexpiredLockContext(any())).thenReturn(Optional.empty());
+		when(mockCountingSemaphore.getFirstUnexpiredLockContext("two_READER_LOCK"))
+				.thenReturn(Optional.of("locked by someone else"));
+		when(mockCallback.getLockTimeoutSeconds()).thenReturn(maxTimeout);
+
+		String message = assertThrows(LockUnavilableException.class, () -> {
+			// call under test
+			try (ReadLock lock = parallelSemaphore.getReadLock(new ReadLockRequest(mockCallback, context, keys))) {
+
+			}
+		}).getMessage();
+
+		assertEquals("Read lock unavailable for key: 'two'. Current lock holder's context: 'locked by someone else'",
+				message);
+		verify(mockCallback, never()).addProgressListener(any());
+		// every lock that was acquired must be released.
+		verify(mockCountingSemaphore).releaseLock("one_READER_LOCK", "tokenOne");
+		verify(mockCountingSemaphore).releaseLock("three_READER_LOCK", "tokenThree");
+		verify(mockCountingSemaphore, times(2)).releaseLock(any(), any());
+	}
+
+	@Test
+	public void testCloseWithKeyExecutorAndReleaseFailed() throws Exception {
+		keyExecutor = Executors.newFixedThreadPool(3);
+		WriteReadSemaphoreImpl parallelSemaphore = new WriteReadSemaphoreImpl(mockCountingSemaphore, maxNumberOfReaders);
+		parallelSemaphore.setKeyExecutor(keyExecutor);
+		when(mockCountingSemaphore.attemptToAcquireLock("one_READER_LOCK", maxTimeout, maxNumberOfReaders, context))
+				.thenReturn(Optional.of("tokenOne"));
+		when(mockCountingSemaphore.attemptToAcquireLock("two_READER_LOCK", maxTimeout, maxNumberOfReaders, context))
+				.thenReturn(Optional.of("tokenTwo"));
+		when(mockCountingSemaphore.attemptToAcquireLock("three_READER_LOCK", maxTimeout, maxNumberOfReaders, context))
+				.thenReturn(Optional.of("tokenThree"));
+		when(mockCountingSemaphore.getFirstUnexpiredLockContext(any())).thenReturn(Optional.empty());
+		when(mockCallback.getLockTimeoutSeconds()).thenReturn(maxTimeout);
+		LockReleaseFailedException releaseException = new LockReleaseFailedException("failed to release");
+		doThrow(releaseException).when(mockCountingSemaphore).releaseLock("one_READER_LOCK", "tokenOne");
+
+		IOException exception = assertThrows(IOException.class, () -> {
+			// call under test
+			try (ReadLock lock = parallelSemaphore.getReadLock(new ReadLockRequest(mockCallback, context, keys))) {
+
+			}
+		});
+
+		assertEquals(releaseException, exception.getCause());
+		// a failed release does not stop the other releases.
+		verify(mockCountingSemaphore).releaseLock("two_READER_LOCK", "tokenTwo");
+		verify(mockCountingSemaphore).releaseLock("three_READER_LOCK", "tokenThree");
+		verify(mockCountingSemaphore, times(3)).releaseLock(any(), any());
+	}
 }
@@ -1,5 +1,6 @@
 package org.sagebionetworks.workers.util.semaphore;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
@@ -10,7 +11,9 @@ import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.Mockito.atLeast;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
@@ -20,6 +23,7 @@ import java.util.Optional;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.mockito.junit.jupiter.MockitoExtension;
@@ -27,6 +31,7 @@ import org.sagebionetworks.common.util.progress.ProgressCallback;
 import org.sagebionetworks.common.util.progress.ProgressingRunner;
 import org.sagebionetworks.database.semaphore.CountingSemaphore;
 import org.sagebionetworks.database.semaphore.LockReleaseFailedException;
+import org.sagebionetworks.workers.util.FixedBackoffStrategy;
 import org.sagebionetworks.workers.util.Gate;
 
 @ExtendWith(MockitoExtension.class)
@@ -41,6 +46,12 @@ public class SemaphoreGatedRunnerImplTest {
 
 	@Mock
 	private Gate mockGate;
+	@Mock
+	private LockLeaseRenewer mockLeaseRenewer;
+	@Mock
+	private WorkAwareRunner mockWorkAwareRunner;
+	@Mock
+	private LocalAdmissionLimiter mockAdmissionLimiter;
 	private String lockKey;
 	private long lockTimeoutSec;
 	private long lockTimeoutMS;
@@ -73,6 +84,17 @@ public class SemaphoreGatedRunnerImplTest {
 
 	}
 	
+	@Test
+	public void testConfigureWithLeaseRenewerTickTooLong(){
+		when(mockLeaseRenewer.getTickIntervalMS()).thenReturn(lockTimeoutMS/2);
+		config.setLeaseRenewer(mockLeaseRenewer);
+		String message = assertThrows(IllegalArgumentException.class, ()->{
+			// call under test
+			new SemaphoreGatedRunnerImpl(mockSemaphore, config, mockGate);
+		}).getMessage();
+		assertEquals("LockTimeoutSec must be more than double the leaseRenewer tick interval.", message);
+	}
+	
 	@Test
 	public void testHappy() throws Exception{
 		when(mockSemaphore.attemptToAcquireLock(any(), anyLong(), anyInt(), any())).thenReturn(Optional.of(atoken));
@@ -87,6 +109,117 @@ public class SemaphoreGatedRunnerImplTest {
 		verify(mockSemaphore).refreshLockTimeout(anyString(), anyString(), anyLong());
 	}
 	
+	@Test
+	public void testRunWithLeaseRenewer() throws Exception{
+		when(mockLeaseRenewer.getTickIntervalMS()).thenReturn(1000L);
+		config.setLeaseRenewer(mockLeaseRenewer);
+		semaphoreGatedRunner = new SemaphoreGatedRunnerImpl(mockSemaphore, config, mockGate);
+		when(mockSemaphore.attemptToAcquireLock(any(), anyLong(), anyInt(), any())).thenReturn(Optional.of(atoken));
+		when(mockGate.canRun()).thenReturn(true);
+		// call under test
+		semaphoreGatedRunner.run();
+		verify(mockRunner).run(any(ProgressCallback.class));
+		// progress only marks the lock, the renewer refreshes it.
+		verify(mockLeaseRenewer).progressMade(lockKey, atoken);
+		verify(mockSemaphore, never()).refreshLockTimeout(anyString(), anyString(), anyLong());
+		// the lock must be untracked before it is released.
+		InOrder inOrder = inOrder(mockLeaseRenewer, mockSemaphore);
+		inOrder.verify(mockLeaseRenewer).track(lockKey, atoken, lockTimeoutSec);
+		inOrder.verify(mockLeaseRenewer).untrack(lockKey, atoken);
+		inOrder.verify(mockSemaphore).releaseLock(lockKey, atoken);
+	}
+	
+	@Test
+	public void testRunWithAdmissionLimiter() throws Exception{
+		config.setAdmissionLimiter(mockAdmissionLimiter);
+		semaphoreGatedRunner = new SemaphoreGatedRunnerImpl(mockSemaphore, config, mockGate);
+		when(mockAdmissionLimiter.tryAdmit(any(), anyInt())).thenReturn(true);
+		when(mockSemaphore.attemptToAcquireLock(any(), anyLong(), anyInt(), any())).thenReturn(Optional.of(atoken));
+		when(mockGate.canRun()).thenReturn(true);
+		// call under test
+		semaphoreGatedRunner.run();
+		verify(mockRunner).run(any(ProgressCallback.class));
+		// the permit is held until the lock is released.
+		InOrder inOrder = inOrder(mockAdmissionLimiter, mockSemaphore);
+		inOrder.verify(mockAdmissionLimiter).tryAdmit(lockKey, maxLockCount);
+		inOrder.verify(mockSemaphore).attemptToAcquireLock(any(), anyLong(), anyInt(), any());
+		inOrder.verify(mockAdmissionLimiter).recordSuccess(lockKey);
+		inOrder.verify(mockSemaphore).releaseLock(lockKey, atoken);
+		inOrder.verify(mockAdmissionLimiter).release(lockKey);
+	}
+	
+	@Test
+	public void testRunWithAdmissionLimiterNotAdmitted() throws Exception{
+		config.setAdmissionLimiter(mockAdmissionLimiter);
+		semaphoreGatedRunner = new SemaphoreGatedRunnerImpl(mockSemaphore, config, mockGate);
+		when(mockAdmissionLimiter.tryAdmit(any(), anyInt())).thenReturn(false);
+		when(mockGate.canRun()).thenReturn(true);
+		// call under test
+		semaphoreGatedRunner.run();
+		// the database is not touched.
+		verifyZeroInteractions(mockSemaphore);
+		verify(mockRunner, never()).run(any(ProgressCallback.class));
+		verify(mockAdmissionLimiter, never()).release(any());
+	}
+	
+	@Test
+	public void testRunWithAdmissionLimiterAndLockNotAcquired() throws Exception{
+		config.setAdmissionLimiter(mockAdmissionLimiter);
+		semaphoreGatedRunner = new SemaphoreGatedRunnerImpl(mockSemaphore, config, mockGate);
+		when(mockAdmissionLimiter.tryAdmit(any(), anyInt())).thenReturn(true);
+		when(mockSemaphore.attemptToAcquireLock(any(), anyLong(), anyInt(), any())).thenReturn(Optional.empty());
+		when(mockGate.canRun()).thenReturn(true);
+		// call under test
+		semaphoreGatedRunner.run();
+		verify(mockRunner, never()).run(any(ProgressCallback.class));
+		verify(mockAdmissionLimiter).recordFailure(lockKey);
+		verify(mockAdmissionLimiter).release(lockKey);
+	}
+	
+	@Test
+	public void testRunWithAdmissionLimiterAndRunnerException() throws Exception{
+		config.setAdmissionLimiter(mockAdmissionLimiter);
+		semaphoreGatedRunner = new SemaphoreGatedRunnerImpl(mockSemaphore, config, mockGate);
+		when(mockAdmissionLimiter.tryAdmit(any(), anyInt())).thenReturn(true);
+		when(mockSemaphore.attemptToAcquireLock(any(), anyLong(), anyInt(), any())).thenReturn(Optional.of(atoken));
+		when(mockGate.canRun()).thenReturn(true);
+		doThrow(new RuntimeException("Something went wrong!")).when(mockRunner).run(any(ProgressCallback.class));
+		// call under test
+		semaphoreGatedRunner.run();
+		verify(mockSemaphore).releaseLock(lockKey, atoken);
+		verify(mockAdmissionLimiter).release(lockKey);
+	}
+	
+	@Test
+	public void testRunWithFailedAttemptCache() throws Exception{
+		FailedLockAttemptCache cache = new FailedLockAttemptCache(60_000);
+		config.setFailedAttemptCache(cache);
+		semaphoreGatedRunner = new SemaphoreGatedRunnerImpl(mockSemaphore, config, mockGate);
+		when(mockSemaphore.attemptToAcquireLock(any(), anyLong(), anyInt(), any())).thenReturn(Optional.empty());
+		when(mockGate.canRun()).thenReturn(true);
+		// call under test
+		semaphoreGatedRunner.run();
+		semaphoreGatedRunner.run();
+		// the second run skips the database.
+		verify(mockSemaphore, times(1)).attemptToAcquireLock(any(), anyLong(), anyInt(), any());
+		assertTrue(cache.isRecentFailure(lockKey));
+		verify(mockRunner, never()).run(any(ProgressCallback.class));
+	}
+	
+	@Test
+	public void testRunWithFailedAttemptCacheAndLockAcquired() throws Exception{
+		FailedLockAttemptCache cache = new FailedLockAttemptCache(60_000);
+		config.setFailedAttemptCache(cache);
+		semaphoreGatedRunner = new SemaphoreGatedRunnerImpl(mockSemaphore, config, mockGate);
+		when(mockSemaphore.attemptToAcquireLock(any(), anyLong(), anyInt(), any())).thenReturn(Optional.of(atoken));
+		when(mockGate.canRun()).thenReturn(true);
+		// call under test
+		semaphoreGatedRunner.run();
+		semaphoreGatedRunner.run();
+		verify(mockSemaphore, times(2)).attemptToAcquireLock(any(), anyLong(), anyInt(), any());
+		assertFalse(cache.isRecentFailure(lockKey));
+	}
+	
 	@Test
 	public void testLockReleaseOnException() throws Exception{
 		when(mockSemaphore.attemptToAcquireLock(any(), anyLong(), anyInt(), any())).thenReturn(Optional.of(atoken));
@@ -232,6 +365,103 @@ public class SemaphoreGatedRunnerImplTest {
 	}
 
 
+	@Test
+	public void testConfigureStickyLeaseWithoutWorkAwareRunner(){
+		config.setStickyLeaseIdleTimeoutMS(1000);
+		config.setStickyLeaseMaxHoldMS(10_000);
+		String message = assertThrows(IllegalArgumentException.class, ()->{
+			// call under test
+			new SemaphoreGatedRunnerImpl(mockSemaphore, config, mockGate);
+		}).getMessage();
+		assertEquals("Runner must be a WorkAwareRunner to use a sticky lease", message);
+	}
+
+	@Test
+	public void testConfigureStickyLeaseWithoutMaxHold(){
+		config.setRunner(mockWorkAwareRunner);
+		config.setStickyLeaseIdleTimeoutMS(1000);
+		String message = assertThrows(IllegalArgumentException.class, ()->{
+			// call under test
+			new SemaphoreGatedRunnerImpl(mockSemaphore, config, mockGate);
+		}).getMessage();
+		assertEquals("StickyLeaseMaxHoldMS must be at least one when a sticky lease is used.", message);
+	}
+
+	@Test
+	public void testRunWithStickyLeaseUntilIdle() throws Exception{
+		setupStickyLease(200, 60_000);
+		when(mockSemaphore.attemptToAcquireLock(any(), anyLong(), anyInt(), any())).thenReturn(Optional.of(atoken));
+		when(mockGate.canRun()).thenReturn(true);
+		// work is found three times then the runner goes idle.
+		when(mockWorkAwareRunner.runOnce(any(ProgressCallback.class))).thenReturn(true, true, true, false);
+
+		// call under test
+		semaphoreGatedRunner.run();
+
+		// the runner keeps going while it finds work and retries while idle.
+		verify(mockWorkAwareRunner, atLeast(5)).runOnce(any(ProgressCallback.class));
+		// a single lock is used for all of the runs.
+		verify(mockSemaphore, times(1)).attemptToAcquireLock(any(), anyLong(), anyInt(), any());
+		verify(mockSemaphore, times(1)).releaseLock(lockKey, atoken);
+	}
+
+	@Test
+	public void testRunWithStickyLeaseAndNoWork() throws Exception{
+		setupStickyLease(60_000, 60_000);
+		when(mockSemaphore.attemptToAcquireLock(any(), anyLong(), anyInt(), any())).thenReturn(Optional.of(atoken));
+		when(mockGate.canRun()).thenReturn(true);
+		when(mockWorkAwareRunner.runOnce(any(ProgressCallback.class))).thenReturn(false);
+
+		// call under test
+		semaphoreGatedRunner.run();
+
+		// the lock is released right away when there is nothing to do.
+		verify(mockWorkAwareRunner, times(1)).runOnce(any(ProgressCallback.class));
+		verify(mockSemaphore).releaseLock(lockKey, atoken);
+	}
+
+	@Test
+	public void testRunWithStickyLeaseMaxHold() throws Exception{
+		setupStickyLease(60_000, 200);
+		when(mockSemaphore.attemptToAcquireLock(any(), anyLong(), anyInt(), any())).thenReturn(Optional.of(atoken));
+		when(mockGate.canRun()).thenReturn(true);
+		// there is always more work.
+		when(mockWorkAwareRunner.runOnce(any(ProgressCallback.class))).thenAnswer(invocation -> {
+			Thread.sleep(10);
+			return true;
+		});
+
+		// call under test
+		semaphoreGatedRunner.run();
+
+		// the lock must be given up once the max hold time is reached.
+		verify(mockWorkAwareRunner, atLeast(2)).runOnce(any(ProgressCallback.class));
+		verify(mockSemaphore).releaseLock(lockKey, atoken);
+	}
+
+	@Test
+	public void testRunWithStickyLeaseAndGateClosed() throws Exception{
+		setupStickyLease(60_000, 60_000);
+		when(mockSemaphore.attemptToAcquireLock(any(), anyLong(), anyInt(), any())).thenReturn(Optional.of(atoken));
+		// the gate closes after the first run.
+		when(mockGate.canRun()).thenReturn(true, false);
+		when(mockWorkAwareRunner.runOnce(any(ProgressCallback.class))).thenReturn(true);
+
+		// call under test
+		semaphoreGatedRunner.run();
+
+		verify(mockWorkAwareRunner, times(1)).runOnce(any(ProgressCallback.class));
+		verify(mockSemaphore).releaseLock(lockKey, atoken);
+	}
+
+	private void setupStickyLease(long idleTimeoutMS, long maxHoldMS) {
+		config.setRunner(mockWorkAwareRunner);
+		config.setStickyLeaseIdleTimeoutMS(idleTimeoutMS);
+		config.setStickyLeaseMaxHoldMS(maxHoldMS);
+		config.setStickyLeaseIdleBackoff(new FixedBackoffStrategy(10));
+		semaphoreGatedRunner = new SemaphoreGatedRunnerImpl(mockSemaphore, config, mockGate);
+	}
+
 	private void setupRunnerSleep() throws Exception {
 		// Setup the worker to sleep without making progress.
 		doAnswer(invocation -> {
@@ -7,6 +7,8 @@ import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
@@ -20,6 +22,7 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Captor;
+import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.sagebionetworks.common.util.progress.ProgressCallback;
@@ -33,6 +36,8 @@ public class WriteLockImplTest {
 	private ProgressCallback mockCallback;
 	@Mock
 	private CountingSemaphore mockCountingSemaphore;
+	@Mock
+	private LockLeaseRenewer mockLeaseRenewer;
 	@Captor
 	private ArgumentCaptor<ProgressListener> listenerCaptor;
 	private WriteReadSemaphore semaphore;
@@ -287,4 +292,30 @@ public class WriteLockImplTest {
 		verify(mockCountingSemaphore, times(1)).releaseLock(any(), any());
 	}
 	
+	@Test
+	public void testAcquireLockWithLeaseRenewer() throws Exception {
+		when(mockCountingSemaphore.attemptToAcquireLock(any(), anyLong(), anyInt(), any())).thenReturn(Optional.of(lockToken));
+		when(mockCallback.getLockTimeoutSeconds()).thenReturn(maxTimeout);
+		semaphore = new WriteReadSemaphoreImpl(mockCountingSemaphore, 1, mockLeaseRenewer);
+
+		// call under test
+		try(WriteLock lock = semaphore.getWriteLock(new WriteLockRequest(mockCallback, context, lockKey))){
+			verify(mockLeaseRenewer).track("one_WRITER_LOCK", lockToken, maxTimeout);
+		}
+
+		verify(mockCallback).addProgressListener(listenerCaptor.capture());
+		ProgressListener listener = listenerCaptor.getValue();
+		// trigger progress made
+		listener.progressMade();
+		listener.progressMade();
+		// progress only marks the lock, the renewer refreshes it.
+		verify(mockLeaseRenewer, times(2)).progressMade("one_WRITER_LOCK", lockToken);
+		verify(mockCountingSemaphore, never()).refreshLockTimeout(any(), any(), anyLong());
+
+		// the lock must be untracked before it is released.
+		InOrder inOrder = inOrder(mockLeaseRenewer, mockCountingSemaphore);
+		inOrder.verify(mockLeaseRenewer).untrack("one_WRITER_LOCK", lockToken);
+		inOrder.verify(mockCountingSemaphore).releaseLock("one_WRITER_LOCK", lockToken);
+	}
+	
 }
@@ -3,13 +3,22 @@ package org.sagebionetworks.workers.util.semaphore;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.atLeast;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -20,6 +29,7 @@ import org.mockito.junit.jupiter.MockitoExtension;
 import org.sagebionetworks.common.util.progress.ProgressCallback;
 import org.sagebionetworks.database.semaphore.CountingSemaphore;
 import org.sagebionetworks.database.semaphore.LockReleaseFailedException;
+import org.sagebionetworks.workers.util.FixedBackoffStrategy;
 
 @ExtendWith(MockitoExtension.class)
 public class WriteReadSemaphoreImplTest {
@@ -32,6 +42,8 @@ public class WriteReadSemaphoreImplTest {
 	private WriteLockImpl mockWriteLock;
 	@Mock
 	private ReadLockImpl mockReadLock;
+	@Mock
+	private LockLeaseRenewer mockLeaseRenewer;
 
 	private WriteReadSemaphoreImpl semaphore;
 
@@ -61,6 +73,16 @@ public class WriteReadSemaphoreImplTest {
 		assertEquals("CountingSemaphore cannot be null", message);
 	}
 
+	@Test
+	public void testSemaphoreWithLeaseRenewerTickTooLong() {
+		when(mockLeaseRenewer.getTickIntervalMS()).thenReturn(Constants.MINIMUM_LOCK_TIMEOUT_SEC * 1000L / 2);
+		String message = assertThrows(IllegalArgumentException.class, () -> {
+			// call under test
+			new WriteReadSemaphoreImpl(mockCountingSemaphore, maxNumberOfReaders, mockLeaseRenewer);
+		}).getMessage();
+		assertEquals("The leaseRenewer tick interval must be less than half of the minimum lock timeout.", message);
+	}
+
 	@Test
 	public void testGetReadLockProviderWithNullRequest() {
 		String message = assertThrows(IllegalArgumentException.class, () -> {
@@ -79,6 +101,64 @@ public class WriteReadSemaphoreImplTest {
 		assertEquals("Request cannot be null", message);
 	}
 
+	@Test
+	public void testGetMultiKeyWriteLockWithNullRequest() {
+		String message = assertThrows(IllegalArgumentException.class, () -> {
+			// call under test
+			semaphore.getMultiKeyWriteLock(null);
+		}).getMessage();
+		assertEquals("Request cannot be null", message);
+	}
+
+	@Test
+	public void testGetMultiKeyWriteLockNotSupported() {
+		WriteReadSemaphore otherSemaphore = new WriteReadSemaphore() {
+
+			@Override
+			public WriteLock getWriteLock(WriteLockRequest request) {
+				return null;
+			}
+
+			@Override
+			public ReadLock getReadLock(ReadLockRequest request) {
+				return null;
+			}
+		};
+		when(mockCallback.getLockTimeoutSeconds()).thenReturn(maxTimeout);
+		MultiKeyWriteLockRequest request = new MultiKeyWriteLockRequest(mockCallback, context, "one", "two");
+		assertThrows(UnsupportedOperationException.class, () -> {
+			// call under test
+			otherSemaphore.getMultiKeyWriteLock(request);
+		});
+	}
+
+	@Test
+	public void testTryAcquireNotSupported() {
+		WriteReadSemaphore otherSemaphore = new WriteReadSemaphore() {
+
+			@Override
+			public WriteLock getWriteLock(WriteLockRequest request) {
+				return null;
+			}
+
+			@Override
+			public ReadLock getReadLock(ReadLockRequest request) {
+				return null;
+			}
+		};
+		when(mockCallback.getLockTimeoutSeconds()).thenReturn(maxTimeout);
+		WriteLockRequest writeRequest = new WriteLockRequest(mockCallback, context, "one");
+		ReadLockRequest readRequest = new ReadLockRequest(mockCallback, context, "one");
+		assertThrows(UnsupportedOperationException.class, () -> {
+			// call under test
+			otherSemaphore.tryAcquireWriteLock(writeRequest, 1000);
+		});
+		assertThrows(UnsupportedOperationException.class, () -> {
+			// call under test
+			otherSemaphore.tryAcquireReadLock(readRequest, 1000);
+		});
+	}
+
 	@Test
 	public void testGetReadLock() throws IOException{
 		
@@ -243,4 +323,492 @@ public class WriteReadSemaphoreImplTest {
 		verify(mockWriteLock).close();
 	}
 
+	@Test
+	public void testGetWriteLockWithRecentFailure() throws Exception {
+		FailedLockAttemptCache cache = new FailedLockAttemptCache(60_000);
+		semaphore = Mockito.spy(new WriteReadSemaphoreImpl(mockCountingSemaphore, maxNumberOfReaders, null, cache));
+		doReturn(mockWriteLock).when(semaphore).createWriteLock(any());
+		LockUnavilableException exception = new LockUnavilableException(LockType.Write, keys[0], "other writer");
+		doThrow(exception).when(mockWriteLock).attemptToAcquireLock();
+
+		when(mockCallback.getLockTimeoutSeconds()).thenReturn(maxTimeout);
+		writeLockRequest = new WriteLockRequest(mockCallback, context, keys[0]);
+
+		assertThrows(LockUnavilableException.class, () -> {
+			semaphore.getWriteLock(writeLockRequest);
+		});
+		assertEquals(Optional.of("other writer"), cache.getRecentFailureContext("one_WRITER_LOCK"));
+
+		LockUnavilableException cached = assertThrows(LockUnavilableException.class, () -> {
+			// call under test
+			semaphore.getWriteLock(writeLockRequest);
+		});
+		assertEquals(LockType.Write, cached.getLockType());
+		assertEquals(keys[0], cached.getLockKey());
+		assertEquals(Optional.of("other writer"), cached.getLockHoldersContext());
+		// the second attempt does not reach the semaphore.
+		verify(semaphore, times(1)).createWriteLock(writeLockRequest);
+		verify(mockWriteLock, times(1)).attemptToAcquireLock();
+	}
+
+	@Test
+	public void testGetReadLockWithRecentWriterFailure() throws Exception {
+		FailedLockAttemptCache cache = new FailedLockAttemptCache(60_000);
+		cache.recordFailure("one_WRITER_LOCK", "a writer");
+		semaphore = Mockito.spy(new WriteReadSemaphoreImpl(mockCountingSemaphore, maxNumberOfReaders, null, cache));
+
+		when(mockCallback.getLockTimeoutSeconds()).thenReturn(maxTimeout);
+		readRequest = new ReadLockRequest(mockCallback, context, keys);
+
+		LockUnavilableException cached = assertThrows(LockUnavilableException.class, () -> {
+			// call under test
+			semaphore.getReadLock(readRequest);
+		});
+		assertEquals(LockType.Write, cached.getLockType());
+		assertEquals(Optional.of("a writer"), cached.getLockHoldersContext());
+		verify(semaphore, never()).createReadLock(any());
+	}
+
+	@Test
+	public void testGetReadLockRecordsFailure() throws Exception {
+		FailedLockAttemptCache cache = new FailedLockAttemptCache(60_000);
+		semaphore = Mockito.spy(new WriteReadSemaphoreImpl(mockCountingSemaphore, maxNumberOfReaders, null, cache));
+		doReturn(mockReadLock).when(semaphore).createReadLock(any());
+		LockUnavilableException exception = new LockUnavilableException(LockType.Read, keys[0], "readers");
+		doThrow(exception).when(mockReadLock).attemptToAcquireLock();
+
+		when(mockCallback.getLockTimeoutSeconds()).thenReturn(maxTimeout);
+		readRequest = new ReadLockRequest(mockCallback, context, keys);
+
+		assertThrows(LockUnavilableException.class, () -> {
+			// call under test
+			semaphore.getReadLock(readRequest);
+		});
+		assertEquals(Optional.of("readers"), cache.getRecentFailureContext("one_READER_LOCK"));
+		assertEquals(false, cache.isRecentFailure("one_WRITER_LOCK"));
+	}
+
+	@Test
+	public void testGetWriteLockClearsFailure() throws Exception {
+		FailedLockAttemptCache cache = new FailedLockAttemptCache(60_000);
+		semaphore = Mockito.spy(new WriteReadSemaphoreImpl(mockCountingSemaphore, maxNumberOfReaders, null, cache));
+		doReturn(mockWriteLock).when(semaphore).createWriteLock(any());
+		// a failure for readers of the key does not stop a writer.
+		cache.recordFailure("one_READER_LOCK");
+
+		when(mockCallback.getLockTimeoutSeconds()).thenReturn(maxTimeout);
+		writeLockRequest = new WriteLockRequest(mockCallback, context, keys[0]);
+
+		// call under test
+		assertEquals(mockWriteLock, semaphore.getWriteLock(writeLockRequest));
+		verify(mockWriteLock).attemptToAcquireLock();
+	}
+
+	@Test
+	public void testTryAcquireWriteLockWithNegativeTimeout() {
+		when(mockCallback.getLockTimeoutSeconds()).thenReturn(maxTimeout);
+		writeLockRequest = new WriteLockRequest(mockCallback, context, keys[0]);
+		String message = assertThrows(IllegalArgumentException.class, () -> {
+			// call under test
+			semaphore.tryAcquireWriteLock(writeLockRequest, -1);
+		}).getMessage();
+		assertEquals("TimeoutMS cannot be negative", message);
+	}
+
+	@Test
+	public void testTryAcquireWriteLockWithNoReaders() throws Exception {
+		doReturn(mockWriteLock).when(semaphore).createWriteLock(any());
+		when(mockWriteLock.getExistingReadLockContext()).thenReturn(Optional.empty());
+		when(mockCallback.getLockTimeoutSeconds()).thenReturn(maxTimeout);
+		writeLockRequest = new WriteLockRequest(mockCallback, context, keys[0]);
+
+		// call under test
+		WriteLock writeLock = semaphore.tryAcquireWriteLock(writeLockRequest, 1000);
+
+		assertEquals(mockWriteLock, writeLock);
+		verify(mockWriteLock, times(1)).attemptToAcquireLock();
+		verify(mockWriteLock, never()).close();
+	}
+
+	@Test
+	public void testTryAcquireWriteLockAfterWriterReleased() throws Exception {
+		semaphore.setWaitBackoff(new FixedBackoffStrategy(1));
+		doReturn(mockWriteLock).when(semaphore).createWriteLock(any());
+		// another writer holds the lock for the first two attempts.
+		doThrow(new LockUnavilableException(LockType.Write, keys[0], "other writer"))
+				.doThrow(new LockUnavilableException(LockType.Write, keys[0], "other writer")).doNothing()
+				.when(mockWriteLock).attemptToAcquireLock();
+		when(mockWriteLock.getExistingReadLockContext()).thenReturn(Optional.empty());
+		when(mockCallback.getLockTimeoutSeconds()).thenReturn(maxTimeout);
+		writeLockRequest = new WriteLockRequest(mockCallback, context, keys[0]);
+
+		// call under test
+		WriteLock writeLock = semaphore.tryAcquireWriteLock(writeLockRequest, 10_000);
+
+		assertEquals(mockWriteLock, writeLock);
+		verify(mockWriteLock, times(3)).attemptToAcquireLock();
+		// each failed attempt is closed.
+		verify(mockWriteLock, times(2)).close();
+	}
+
+	@Test
+	public void testTryAcquireWriteLockWithWriterTimeout() throws Exception {
+		semaphore.setWaitBackoff(new FixedBackoffStrategy(1));
+		doReturn(mockWriteLock).when(semaphore).createWriteLock(any());
+		LockUnavilableException exception = new LockUnavilableException(LockType.Write, keys[0], "other writer");
+		doThrow(exception).when(mockWriteLock).attemptToAcquireLock();
+		when(mockCallback.getLockTimeoutSeconds()).thenReturn(maxTimeout);
+		writeLockRequest = new WriteLockRequest(mockCallback, context, keys[0]);
+
+		Exception thrown = assertThrows(LockUnavilableException.class, () -> {
+			// call under test
+			semaphore.tryAcquireWriteLock(writeLockRequest, 20);
+		});
+		assertEquals(exception, thrown);
+		verify(mockWriteLock, atLeast(2)).attemptToAcquireLock();
+	}
+
+	@Test
+	public void testTryAcquireWriteLockAfterReadersDrain() throws Exception {
+		semaphore.setWaitBackoff(new FixedBackoffStrategy(1));
+		doReturn(mockWriteLock).when(semaphore).createWriteLock(any());
+		when(mockWriteLock.getExistingReadLockContext()).thenReturn(Optional.of("reader"), Optional.of("reader"),
+				Optional.empty());
+		when(mockCallback.getLockTimeoutSeconds()).thenReturn(maxTimeout);
+		writeLockRequest = new WriteLockRequest(mockCallback, context, keys[0]);
+
+		// call under test
+		WriteLock writeLock = semaphore.tryAcquireWriteLock(writeLockRequest, 10_000);
+
+		assertEquals(mockWriteLock, writeLock);
+		verify(mockWriteLock, times(3)).getExistingReadLockContext();
+		verify(mockWriteLock, never()).close();
+	}
+
+	@Test
+	public void testTryAcquireWriteLockWithReadersTimeout() throws Exception {
+		semaphore.setWaitBackoff(new FixedBackoffStrategy(1));
+		doReturn(mockWriteLock).when(semaphore).createWriteLock(any());
+		when(mockWriteLock.getExistingReadLockContext()).thenReturn(Optional.of("reader"));
+		when(mockCallback.getLockTimeoutSeconds()).thenReturn(maxTimeout);
+		writeLockRequest = new WriteLockRequest(mockCallback, context, keys[0]);
+
+		LockUnavilableException thrown = assertThrows(LockUnavilableException.class, () -> {
+			// call under test
+			semaphore.tryAcquireWriteLock(writeLockRequest, 20);
+		});
+		assertEquals(LockType.Read, thrown.getLockType());
+		assertEquals(keys[0], thrown.getLockKey());
+		assertEquals(Optional.of("reader"), thrown.getLockHoldersContext());
+		// the write lock must not be kept.
+		verify(mockWriteLock).close();
+	}
+
+	@Test
+	public void testTryAcquireWriteLockRefreshesWhileReadersDrain() throws Exception {
+		semaphore.setWaitBackoff(new FixedBackoffStrategy(50));
+		doReturn(mockWriteLock).when(semaphore).createWriteLock(any());
+		long readersReleasedMS = System.currentTimeMillis() + 1000;
+		when(mockWriteLock.getExistingReadLockContext()).thenAnswer(invocation -> {
+			return System.currentTimeMillis() < readersReleasedMS ? Optional.of("reader") : Optional.empty();
+		});
+		// refresh every 666 ms.
+		when(mockCallback.getLockTimeoutSeconds()).thenReturn(2L);
+		writeLockRequest = new WriteLockRequest(mockCallback, context, keys[0]);
+
+		// call under test
+		semaphore.tryAcquireWriteLock(writeLockRequest, 10_000);
+
+		verify(mockWriteLock, atLeast(1)).refreshLock();
+	}
+
+	@Test
+	public void testTryAcquireReadLockAfterWriterReleased() throws Exception {
+		semaphore.setWaitBackoff(new FixedBackoffStrategy(1));
+		doReturn(mockReadLock).when(semaphore).createReadLock(any());
+		doThrow(new LockUnavilableException(LockType.Write, keys[0], "writer")).doNothing().when(mockReadLock)
+				.attemptToAcquireLock();
+		when(mockCallback.getLockTimeoutSeconds()).thenReturn(maxTimeout);
+		readRequest = new ReadLockRequest(mockCallback, context, keys);
+
+		// call under test
+		ReadLock readLock = semaphore.tryAcquireReadLock(readRequest, 10_000);
+
+		assertEquals(mockReadLock, readLock);
+		verify(mockReadLock, times(2)).attemptToAcquireLock();
+		verify(mockReadLock, times(1)).close();
+	}
+
+	@Test
+	public void testTryAcquireReadLockWithTimeout() throws Exception {
+		semaphore.setWaitBackoff(new FixedBackoffStrategy(1));
+		doReturn(mockReadLock).when(semaphore).createReadLock(any());
+		LockUnavilableException exception = new LockUnavilableException(LockType.Write, keys[0], "writer");
+		doThrow(exception).when(mockReadLock).attemptToAcquireLock();
+		when(mockCallback.getLockTimeoutSeconds()).thenReturn(maxTimeout);
+		readRequest = new ReadLockRequest(mockCallback, context, keys);
+
+		Exception thrown = assertThrows(LockUnavilableException.class, () -> {
+			// call under test
+			semaphore.tryAcquireReadLock(readRequest, 20);
+		});
+		assertEquals(exception, thrown);
+	}
+
+	@Test
+	public void testSetFairnessPolicyWithNull() {
+		String message = assertThrows(IllegalArgumentException.class, () -> {
+			// call under test
+			semaphore.setFairnessPolicy(null);
+		}).getMessage();
+		assertEquals("FairnessPolicy cannot be null", message);
+	}
+
+	@Test
+	public void testSetKeyExecutorWithNull() {
+		String message = assertThrows(IllegalArgumentException.class, () -> {
+			// call under test
+			semaphore.setKeyExecutor(null);
+		}).getMessage();
+		assertEquals("KeyExecutor cannot be null", message);
+	}
+
+	@Test
+	public void testTryAcquireWriteLockWithWriterPreference() throws Exception {
+		semaphore.setWaitBackoff(new FixedBackoffStrategy(1));
+		semaphore.setFairnessPolicy(FairnessPolicy.WriterPreference);
+		doReturn(mockWriteLock).when(semaphore).createWriteLock(any());
+		when(mockCountingSemaphore.attemptToAcquireLock(any(), anyLong(), anyInt(), any()))
+				.thenReturn(Optional.of("intentToken"));
+		doThrow(new LockUnavilableException(LockType.Write, keys[0], "other writer")).doNothing().when(mockWriteLock)
+				.attemptToAcquireLock();
+		when(mockWriteLock.getExistingReadLockContext()).thenReturn(Optional.empty());
+		when(mockCallback.getLockTimeoutSeconds()).thenReturn(maxTimeout);
+		writeLockRequest = new WriteLockRequest(mockCallback, context, keys[0]);
+
+		// call under test
+		WriteLock writeLock = semaphore.tryAcquireWriteLock(writeLockRequest, 10_000);
+
+		assertEquals(mockWriteLock, writeLock);
+		// the intent is announced while waiting and withdrawn once the write lock is held.
+		verify(mockCountingSemaphore).attemptToAcquireLock("one_WRITER_INTENT", maxTimeout,
+				Constants.WRITER_INTENT_MAX_LOCKS, context);
+		verify(mockCountingSemaphore).releaseLock("one_WRITER_INTENT", "intentToken");
+		verify(mockWriteLock, times(2)).attemptToAcquireLock();
+	}
+
+	@Test
+	public void testTryAcquireWriteLockWithWriterPreferenceAndTimeout() throws Exception {
+		semaphore.setWaitBackoff(new FixedBackoffStrategy(1));
+		semaphore.setFairnessPolicy(FairnessPolicy.WriterPreference);
+		doReturn(mockWriteLock).when(semaphore).createWriteLock(any());
+		when(mockCountingSemaphore.attemptToAcquireLock(any(), anyLong(), anyInt(), any()))
+				.thenReturn(Optional.of("intentToken"));
+		doThrow(new LockUnavilableException(LockType.Write, keys[0], "other writer")).when(mockWriteLock)
+				.attemptToAcquireLock();
+		when(mockCallback.getLockTimeoutSeconds()).thenReturn(maxTimeout);
+		writeLockRequest = new WriteLockRequest(mockCallback, context, keys[0]);
+
+		assertThrows(LockUnavilableException.class, () -> {
+			// call under test
+			semaphore.tryAcquireWriteLock(writeLockRequest, 20);
+		});
+
+		// the intent must not outlive the attempt.
+		verify(mockCountingSemaphore).releaseLock("one_WRITER_INTENT", "intentToken");
+	}
+
+	@Test
+	public void testFailedAttemptCacheWithWriterPreference() throws Exception {
+		when(mockCallback.getLockTimeoutSeconds()).thenReturn(maxTimeout);
+		InMemoryCountingSemaphore inMemorySemaphore = new InMemoryCountingSemaphore();
+		FailedLockAttemptCache cache = new FailedLockAttemptCache(60_000);
+		WriteReadSemaphoreImpl fairSemaphore = new WriteReadSemaphoreImpl(inMemorySemaphore, maxNumberOfReaders, null,
+				cache);
+		fairSemaphore.setFairnessPolicy(FairnessPolicy.WriterPreference);
+		// a writer is waiting for the key.
+		inMemorySemaphore.attemptToAcquireLock("one_WRITER_INTENT", maxTimeout, Constants.WRITER_INTENT_MAX_LOCKS,
+				"waiting writer");
+
+		LockUnavilableException exception = assertThrows(LockUnavilableException.class, () -> {
+			fairSemaphore.getReadLock(new ReadLockRequest(mockCallback, "reader", keys));
+		});
+		assertEquals(LockType.Write, exception.getLockType());
+		assertEquals(false, cache.isRecentFailure("one_WRITER_LOCK"));
+		inMemorySemaphore.resetCallCounts();
+
+		// the next reader is turned away by the cache.
+		assertThrows(LockUnavilableException.class, () -> {
+			fairSemaphore.getReadLock(new ReadLockRequest(mockCallback, "reader", keys));
+		});
+		assertEquals(0, inMemorySemaphore.getFirstUnexpiredLockContextCount());
+		assertEquals(0, inMemorySemaphore.getAttemptToAcquireLocksCount());
+
+		// call under test
+		try (WriteLock writeLock = fairSemaphore
+				.getWriteLock(new WriteLockRequest(mockCallback, "waiting writer", keys[0]))) {
+			// the waiting writer is not turned away by the readers it turned away.
+			assertEquals(1, inMemorySemaphore.getLockCount("one_WRITER_LOCK"));
+		}
+	}
+
+	@Test
+	public void testCreateAncestorLockKeys() {
+		assertEquals(Arrays.asList("project", "project/123", "project/123/table"),
+				Constants.createAncestorLockKeys("project/123/table/456"));
+		assertEquals(Collections.emptyList(), Constants.createAncestorLockKeys("project"));
+	}
+
+	@Test
+	public void testHierarchicalKeysWithWriteLockOnAncestor() throws Exception {
+		when(mockCallback.getLockTimeoutSeconds()).thenReturn(maxTimeout);
+		InMemoryCountingSemaphore inMemorySemaphore = new InMemoryCountingSemaphore();
+		WriteReadSemaphoreImpl hierarchicalSemaphore = new WriteReadSemaphoreImpl(inMemorySemaphore, 4);
+		hierarchicalSemaphore.setHierarchicalKeys(true);
+
+		try (WriteLock projectLock = hierarchicalSemaphore
+				.getWriteLock(new WriteLockRequest(mockCallback, "project writer", "project/123"))) {
+			// call under test
+			LockUnavilableException exception = assertThrows(LockUnavilableException.class, () -> {
+				hierarchicalSemaphore
+						.getReadLock(new ReadLockRequest(mockCallback, "table reader", "project/123/table/456"));
+			});
+			assertEquals(LockType.Write, exception.getLockType());
+			assertEquals("project/123", exception.getLockKey());
+
+			// call under test
+			exception = assertThrows(LockUnavilableException.class, () -> {
+				hierarchicalSemaphore
+						.getWriteLock(new WriteLockRequest(mockCallback, "table writer", "project/123/table/456"));
+			});
+			assertEquals("project/123", exception.getLockKey());
+		}
+		// nothing is left behind by the failed attempts.
+		assertEquals(0, inMemorySemaphore.getLockCount(Constants.createDescendantLockKey("project")));
+		assertEquals(0, inMemorySemaphore.getLockCount(Constants.createWriterLockKey("project/123")));
+	}
+
+	@Test
+	public void testHierarchicalKeysWithReadLockOnDescendant() throws Exception {
+		when(mockCallback.getLockTimeoutSeconds()).thenReturn(maxTimeout);
+		InMemoryCountingSemaphore inMemorySemaphore = new InMemoryCountingSemaphore();
+		WriteReadSemaphoreImpl hierarchicalSemaphore = new WriteReadSemaphoreImpl(inMemorySemaphore, 4);
+		hierarchicalSemaphore.setHierarchicalKeys(true);
+
+		try (ReadLock tableLock = hierarchicalSemaphore
+				.getReadLock(new ReadLockRequest(mockCallback, "table reader", "project/123/table/456"))) {
+			// call under test
+			try (WriteLock projectLock = hierarchicalSemaphore
+					.getWriteLock(new WriteLockRequest(mockCallback, "project writer", "project/123"))) {
+				// the writer waits for the readers below it.
+				assertEquals(Optional.of("table reader"), projectLock.getExistingReadLockContext());
+			}
+			// a sibling does not conflict.
+			try (WriteLock otherLock = hierarchicalSemaphore
+					.getWriteLock(new WriteLockRequest(mockCallback, "other writer", "project/123/table/789"))) {
+				assertEquals(Optional.empty(), otherLock.getExistingReadLockContext());
+			}
+		}
+		assertEquals(0, inMemorySemaphore.getLockCount(Constants.createDescendantLockKey("project/123")));
+	}
+
+	@Test
+	public void testHierarchicalKeysWithWriteLockOnDescendant() throws Exception {
+		when(mockCallback.getLockTimeoutSeconds()).thenReturn(maxTimeout);
+		InMemoryCountingSemaphore inMemorySemaphore = new InMemoryCountingSemaphore();
+		WriteReadSemaphoreImpl hierarchicalSemaphore = new WriteReadSemaphoreImpl(inMemorySemaphore, 4);
+		hierarchicalSemaphore.setHierarchicalKeys(true);
+
+		try (WriteLock tableLock = hierarchicalSemaphore
+				.getWriteLock(new WriteLockRequest(mockCallback, "table writer", "project/123/table/456"))) {
+			// call under test
+			try (WriteLock projectLock = hierarchicalSemaphore.getWriteLock(
+					new MultiKeyWriteLockRequest(mockCallback, "project writer", "project/123", "project/456"))) {
+				assertEquals(Optional.of("table writer"), projectLock.getExistingReadLockContext());
+			}
+		}
+		assertEquals(0, inMemorySemaphore.getLockCount(Constants.createDescendantLockKey("project")));
+		assertEquals(0, inMemorySemaphore.getLockCount(Constants.createWriterLockKey("project/123")));
+	}
+
+	@Test
+	public void testHierarchicalKeysWithMoreSiblingsThanReaders() throws Exception {
+		when(mockCallback.getLockTimeoutSeconds()).thenReturn(maxTimeout);
+		InMemoryCountingSemaphore inMemorySemaphore = new InMemoryCountingSemaphore();
+		WriteReadSemaphoreImpl hierarchicalSemaphore = new WriteReadSemaphoreImpl(inMemorySemaphore,
+				maxNumberOfReaders);
+		hierarchicalSemaphore.setHierarchicalKeys(true);
+		int siblingCount = maxNumberOfReaders * 2;
+		List<AutoCloseable> siblingLocks = new ArrayList<>();
+		try {
+			// call under test
+			for (int i = 0; i < siblingCount; i++) {
+				siblingLocks.add(hierarchicalSemaphore
+						.getWriteLock(new WriteLockRequest(mockCallback, "table writer", "project/123/table/" + i)));
+				siblingLocks.add(hierarchicalSemaphore
+						.getReadLock(new ReadLockRequest(mockCallback, "view reader", "project/123/view/" + i)));
+			}
+			assertEquals(siblingCount * 2, inMemorySemaphore.getLockCount(Constants.createDescendantLockKey("project")));
+			// the locks below a key do not use the key's readers.
+			try (ReadLock projectLock = hierarchicalSemaphore
+					.getReadLock(new ReadLockRequest(mockCallback, "project reader", "project/123"))) {
+				assertEquals(1, inMemorySemaphore.getLockCount(Constants.createReaderLockKey("project/123")));
+			}
+			// but a write lock on the prefix still waits for them.
+			try (WriteLock projectLock = hierarchicalSemaphore
+					.getWriteLock(new WriteLockRequest(mockCallback, "project writer", "project"))) {
+				assertEquals(true, projectLock.getExistingReadLockContext().isPresent());
+			}
+		} finally {
+			for (AutoCloseable lock : siblingLocks) {
+				lock.close();
+			}
+		}
+		assertEquals(0, inMemorySemaphore.getLockCount(Constants.createDescendantLockKey("project")));
+	}
+
+	@Test
+	public void testHierarchicalKeysWithMaxNumberOfDescendantLocks() throws Exception {
+		when(mockCallback.getLockTimeoutSeconds()).thenReturn(maxTimeout);
+		InMemoryCountingSemaphore inMemorySemaphore = new InMemoryCountingSemaphore();
+		WriteReadSemaphoreImpl hierarchicalSemaphore = new WriteReadSemaphoreImpl(inMemorySemaphore,
+				maxNumberOfReaders);
+		hierarchicalSemaphore.setHierarchicalKeys(true);
+		hierarchicalSemaphore.setMaxNumberOfDescendantLocks(1);
+
+		try (ReadLock tableLock = hierarchicalSemaphore
+				.getReadLock(new ReadLockRequest(mockCallback, "table reader", "project/1"))) {
+			// call under test
+			LockUnavilableException exception = assertThrows(LockUnavilableException.class, () -> {
+				hierarchicalSemaphore.getReadLock(new ReadLockRequest(mockCallback, "other reader", "project/2"));
+			});
+			assertEquals(LockType.Read, exception.getLockType());
+			assertEquals("project", exception.getLockKey());
+		}
+	}
+
+	@Test
+	public void testSetMaxNumberOfDescendantLocksWithZero() {
+		String message = assertThrows(IllegalArgumentException.class, () -> {
+			// call under test
+			semaphore.setMaxNumberOfDescendantLocks(0);
+		}).getMessage();
+		assertEquals("MaxNumberOfDescendantLocks cannot be less than one", message);
+	}
+
+	@Test
+	public void testFlatKeysByDefault() throws Exception {
+		when(mockCallback.getLockTimeoutSeconds()).thenReturn(maxTimeout);
+		InMemoryCountingSemaphore inMemorySemaphore = new InMemoryCountingSemaphore();
+		WriteReadSemaphoreImpl flatSemaphore = new WriteReadSemaphoreImpl(inMemorySemaphore, 4);
+
+		try (WriteLock projectLock = flatSemaphore
+				.getWriteLock(new WriteLockRequest(mockCallback, "project writer", "project/123"))) {
+			// call under test
+			try (ReadLock tableLock = flatSemaphore
+					.getReadLock(new ReadLockRequest(mockCallback, "table reader", "project/123/table/456"))) {
+				assertEquals(Optional.empty(), projectLock.getExistingReadLockContext());
+			}
+		}
+	}
 }